@@ -0,0 +1,107 @@
+package ontrack.benchmarks;
+
+import ontrack.model.ChatMessage;
+import ontrack.model.Task;
+import ontrack.model.Unit;
+import ontrack.service.OnTrackService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chat message search over one unit: a rare keyword, a common keyword, two keywords, a phrase and a
+ * task-scoped search, each returning the newest 20 matches.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChatSearchBenchmarks {
+
+    private static final int LIMIT = 20;
+
+    /**
+     * One unit whose messages all mention "help". Topic words cycle through the messages, and "flaky"
+     * appears in one message in a thousand.
+     * Override the sizes on the command line, e.g. {@code -p tasks=1000 -p messagesPerTask=1000}.
+     */
+    @State(Scope.Benchmark)
+    public static class ChatData {
+
+        private static final String[] TOPICS = {"junit", "mockito", "coverage", "boundary", "refactoring", "selenium", "mutation"};
+        private static final int BATCH_SIZE = 10_000;
+
+        @Param({"100", "1000"})
+        public int tasks;
+
+        @Param({"100", "1000"})
+        public int messagesPerTask;
+
+        OnTrackService service;
+
+        @Setup(Level.Trial)
+        public void populate() {
+            service = new OnTrackService();
+            Unit unit = new Unit("SIT707", "Software Quality and Testing");
+            service.addUnit(unit);
+            List<Task> taskBatch = new ArrayList<>(tasks);
+            for (int t = 0; t < tasks; t++) {
+                taskBatch.add(new Task("T" + t, "Task " + t, "", unit, "P"));
+            }
+            service.addTasks(taskBatch);
+
+            List<ChatMessage> batch = new ArrayList<>(BATCH_SIZE);
+            for (int m = 0; m < tasks * messagesPerTask; m++) {
+                String content = "I need help with " + TOPICS[m % TOPICS.length] + " for message " + m
+                        + (m % 1000 == 0 ? ", the test is flaky" : "");
+                batch.add(new ChatMessage("M" + m, "T" + (m % tasks), m % 2 == 0 ? "Student" : "Tutor", content,
+                        OnTrackData.START.plusSeconds(m)));
+                if (batch.size() == BATCH_SIZE) {
+                    service.addChatMessages(batch);
+                    batch.clear();
+                }
+            }
+            service.addChatMessages(batch);
+        }
+    }
+
+    @Benchmark
+    public List<ChatMessage> rareKeyword(ChatData data) {
+        return data.service.searchUnitChatMessages("SIT707", "flaky", LIMIT);
+    }
+
+    @Benchmark
+    public List<ChatMessage> commonKeyword(ChatData data) {
+        return data.service.searchUnitChatMessages("SIT707", "help", LIMIT);
+    }
+
+    @Benchmark
+    public List<ChatMessage> twoKeywords(ChatData data) {
+        return data.service.searchUnitChatMessages("SIT707", "junit flaky", LIMIT);
+    }
+
+    @Benchmark
+    public List<ChatMessage> phrase(ChatData data) {
+        return data.service.searchUnitChatMessages("SIT707", "\"help with coverage\"", LIMIT);
+    }
+
+    @Benchmark
+    public List<ChatMessage> taskScope(ChatData data) {
+        return data.service.searchTaskChatMessages("T42", "help", LIMIT);
+    }
+}
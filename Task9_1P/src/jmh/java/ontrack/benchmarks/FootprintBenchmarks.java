@@ -0,0 +1,104 @@
+package ontrack.benchmarks;
+
+import ontrack.model.Task;
+import ontrack.model.Unit;
+import ontrack.service.OnTrackService;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Heap retained per task, measured as the growth in used heap across a full collection.
+ * The result to read is the bytesPerTask counter; the time score only covers building the data.
+ * Runs with the serial collector, whose explicit collections are full and leave an exact heap count,
+ * and measures one iteration, as JMH sums event counters over iterations.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 1)
+@Measurement(iterations = 1)
+@Fork(value = 1, jvmArgsAppend = {"-XX:+UseSerialGC", "-Xmx2g"})
+@State(Scope.Thread)
+public class FootprintBenchmarks {
+
+    @Param({"100000"})
+    public int tasks;
+
+    private Unit[] units;
+    private String[] taskIds;
+
+    /**
+     * Bytes retained per task, reported with the benchmark results.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public double bytesPerTask;
+    }
+
+    @Setup(Level.Trial)
+    public void createIds() {
+        units = new Unit[100];
+        for (int u = 0; u < units.length; u++) {
+            units[u] = new Unit("U" + u, "Unit " + u);
+        }
+        // Built up front, so only what the tasks themselves hold is counted
+        taskIds = new String[tasks];
+        for (int t = 0; t < tasks; t++) {
+            taskIds[t] = "T" + t;
+        }
+    }
+
+    /**
+     * A task object on its own, with a target grade and no listeners.
+     */
+    @Benchmark
+    public Task[] task(Footprint footprint) {
+        long before = usedHeap();
+        Task[] created = new Task[tasks];
+        for (int t = 0; t < tasks; t++) {
+            created[t] = new Task(taskIds[t], "Task", "", units[t % units.length], OnTrackData.GRADES[t % OnTrackData.GRADES.length]);
+        }
+        footprint.bytesPerTask = (usedHeap() - before) / (double) tasks - 4; // Less the array slot
+        return created;
+    }
+
+    /**
+     * A task held by a service: the task object plus its listener and every index entry for it.
+     */
+    @Benchmark
+    public OnTrackService taskInService(Footprint footprint) {
+        OnTrackService service = new OnTrackService();
+        for (Unit unit : units) {
+            service.addUnit(unit);
+        }
+        long before = usedHeap();
+        List<Task> batch = new ArrayList<>(tasks);
+        for (int t = 0; t < tasks; t++) {
+            batch.add(new Task(taskIds[t], "Task", "", units[t % units.length], OnTrackData.GRADES[t % OnTrackData.GRADES.length]));
+        }
+        service.addTasks(batch);
+        batch = null;
+        footprint.bytesPerTask = (usedHeap() - before) / (double) tasks;
+        return service;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
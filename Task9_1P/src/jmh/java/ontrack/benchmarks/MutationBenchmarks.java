@@ -0,0 +1,103 @@
+package ontrack.benchmarks;
+
+import ontrack.model.ChatMessage;
+import ontrack.model.Status;
+import ontrack.model.Task;
+import ontrack.model.Unit;
+import ontrack.service.OnTrackService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write operations of OnTrackService.
+ * The add benchmarks grow the service, so each iteration starts from a fresh copy of the data set.
+ * IDs for new entities are built per call and their cost is part of the measurement.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MutationBenchmarks {
+
+    private static final Status[] STATUSES = Status.values();
+
+    private OnTrackService service;
+    private Unit[] units;
+    private long next;
+
+    @Setup(Level.Iteration)
+    public void reset(OnTrackData data) {
+        service = data.create();
+        units = new Unit[data.unitIds.length];
+        for (int u = 0; u < units.length; u++) {
+            units[u] = service.getUnitById(data.unitIds[u]);
+        }
+    }
+
+    @Benchmark
+    public boolean changeTaskStatus(OnTrackData data) {
+        long i = next++;
+        return service.changeTaskStatus(data.taskIds[(int) (i % data.taskIds.length)], STATUSES[(int) (i % STATUSES.length)]);
+    }
+
+    @Benchmark
+    public void addUnit() {
+        service.addUnit(new Unit("NEW-U" + next++, "New unit"));
+    }
+
+    @Benchmark
+    public void addTask() {
+        long i = next++;
+        service.addTask(new Task("NEW-T" + i, "New task", null, units[(int) (i % units.length)], "P"));
+    }
+
+    @Benchmark
+    public void addChatMessage(OnTrackData data) {
+        long i = next++;
+        service.addChatMessage(new ChatMessage("NEW-M" + i, data.taskIds[(int) (i % data.taskIds.length)], "Student",
+                "New message", OnTrackData.START.plusSeconds(i)));
+    }
+
+    /**
+     * Adds one unit's worth of tasks ({@code tasksPerUnit}) as a batch per call.
+     */
+    @Benchmark
+    public void addTasks(OnTrackData data) {
+        long i = next++;
+        Unit unit = units[(int) (i % units.length)];
+        List<Task> batch = new ArrayList<>(data.tasksPerUnit);
+        for (int t = 0; t < data.tasksPerUnit; t++) {
+            batch.add(new Task("NEW-T" + i + "-" + t, "New task", null, unit, "P"));
+        }
+        service.addTasks(batch);
+    }
+
+    /**
+     * Adds one task's worth of messages ({@code messagesPerTask}) as a batch per call.
+     */
+    @Benchmark
+    public void addChatMessages(OnTrackData data) {
+        long i = next++;
+        String taskId = data.taskIds[(int) (i % data.taskIds.length)];
+        List<ChatMessage> batch = new ArrayList<>(data.messagesPerTask);
+        for (int m = 0; m < data.messagesPerTask; m++) {
+            batch.add(new ChatMessage("NEW-M" + i + "-" + m, taskId, "Student", "New message", OnTrackData.START.plusSeconds(i)));
+        }
+        service.addChatMessages(batch);
+    }
+}
@@ -0,0 +1,76 @@
+package ontrack.benchmarks;
+
+import ontrack.model.ChatMessage;
+import ontrack.model.Task;
+import ontrack.model.Unit;
+import ontrack.service.OnTrackService;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A populated OnTrackService shared by all benchmark threads, sized by the JMH parameters.
+ * Tasks cycle through the target grades, and each task's messages are a minute apart.
+ * Override the sizes on the command line, e.g. {@code -p units=1000 -p tasksPerUnit=50}.
+ */
+@State(Scope.Benchmark)
+public class OnTrackData {
+
+    static final String[] GRADES = {"P", "C", "D", "HD"};
+    static final LocalDateTime START = LocalDateTime.of(2024, 3, 1, 9, 0);
+
+    @Param({"10", "100"})
+    public int units;
+
+    @Param({"10", "100"})
+    public int tasksPerUnit;
+
+    @Param({"10", "100"})
+    public int messagesPerTask;
+
+    OnTrackService service;
+    String[] unitIds;
+    String[] taskIds;
+
+    @Setup(Level.Trial)
+    public void populate() {
+        service = create();
+    }
+
+    /**
+     * Creates a new service holding the data set. Batches keep the set-up fast for large sizes.
+     */
+    OnTrackService create() {
+        OnTrackService created = new OnTrackService();
+        unitIds = new String[units];
+        taskIds = new String[units * tasksPerUnit];
+        List<Unit> unitBatch = new ArrayList<>(units);
+        for (int u = 0; u < units; u++) {
+            unitIds[u] = "U" + u;
+            unitBatch.add(new Unit(unitIds[u], "Unit " + u));
+        }
+        created.addUnits(unitBatch);
+        for (int u = 0; u < units; u++) {
+            List<Task> taskBatch = new ArrayList<>(tasksPerUnit);
+            List<ChatMessage> messageBatch = new ArrayList<>(tasksPerUnit * messagesPerTask);
+            for (int t = 0; t < tasksPerUnit; t++) {
+                String taskId = unitIds[u] + "-T" + t;
+                taskIds[u * tasksPerUnit + t] = taskId;
+                taskBatch.add(new Task(taskId, "Task " + t, "Description for task " + t, unitBatch.get(u), GRADES[t % GRADES.length]));
+                for (int m = 0; m < messagesPerTask; m++) {
+                    messageBatch.add(new ChatMessage(taskId + "-M" + m, taskId, m % 2 == 0 ? "Student" : "Tutor",
+                            "Message " + m, START.plusMinutes(m)));
+                }
+            }
+            created.addTasks(taskBatch);
+            created.addChatMessages(messageBatch);
+        }
+        return created;
+    }
+}
@@ -0,0 +1,54 @@
+package ontrack.benchmarks;
+
+import ontrack.model.ChatMessage;
+import ontrack.model.Task;
+import ontrack.model.Unit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read operations of OnTrackService. Each call moves on to the next unit or task,
+ * so results are not served from a single hot entry.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryBenchmarks {
+
+    private long next;
+
+    @Benchmark
+    public List<Unit> getAllUnits(OnTrackData data) {
+        return data.service.getAllUnits();
+    }
+
+    @Benchmark
+    public List<Task> getTasksByUnitByTargetGrade(OnTrackData data) {
+        long i = next++;
+        return data.service.getTasksByUnitByTargetGrade(data.unitIds[(int) (i % data.unitIds.length)],
+                OnTrackData.GRADES[(int) (i % OnTrackData.GRADES.length)]);
+    }
+
+    @Benchmark
+    public List<ChatMessage> getChatMessagesByTask(OnTrackData data) {
+        return data.service.getChatMessagesByTask(data.taskIds[(int) (next++ % data.taskIds.length)]);
+    }
+
+    @Benchmark
+    public boolean submitUnitPortfolio(OnTrackData data) {
+        return data.service.submitUnitPortfolio(data.unitIds[(int) (next++ % data.unitIds.length)]);
+    }
+}
@@ -1,6 +1,7 @@
 package ontrack;
 
 import ontrack.model.ChatMessage;
+import ontrack.model.Grade;
 import ontrack.model.Status;
 import ontrack.model.Task;
 import ontrack.model.Unit;
@@ -281,6 +282,10 @@ public class OnTrackDemo {
         // Get target grade
         System.out.print("Enter target grade (P, C, D, HD): ");
         String targetGrade = scanner.nextLine().trim();
+        if (Grade.find(targetGrade) == null) {
+            System.out.println("Invalid target grade.");
+            return;
+        }
         
         // Set target grade
         Unit selectedUnit = units.get(unitIndex);
@@ -88,7 +88,7 @@ public class ChatMessage {
 
     @Override
     public int hashCode() {
-        return Objects.hash(id);
+        return id.hashCode();
     }
 
     @Override
@@ -0,0 +1,66 @@
+package ontrack.model;
+
+import java.util.Locale;
+
+/**
+ * Represents the grades a student can target in a unit, from lowest to highest.
+ */
+public enum Grade {
+    PASS("P"),
+    CREDIT("C"),
+    DISTINCTION("D"),
+    HIGH_DISTINCTION("HD");
+
+    private static final Grade[] GRADES = values();
+
+    private final String code;
+
+    Grade(String code) {
+        this.code = code;
+    }
+
+    /**
+     * @return The short code of the grade (e.g. "HD").
+     */
+    public String getCode() {
+        return code;
+    }
+
+    /**
+     * Parses a grade from its code or name, ignoring case and surrounding spaces
+     * (e.g. "hd", "HD", "High Distinction" and "HIGH_DISTINCTION" all parse to HIGH_DISTINCTION).
+     *
+     * @param grade The grade as entered.
+     * @return The grade, or null if grade is null.
+     * @throws IllegalArgumentException if grade is not a known grade.
+     */
+    public static Grade parse(String grade) {
+        if (grade == null) {
+            return null;
+        }
+        Grade result = find(grade);
+        if (result == null) {
+            throw new IllegalArgumentException("Unknown target grade: " + grade);
+        }
+        return result;
+    }
+
+    /**
+     * Looks up a grade from its code or name, like {@link #parse(String)}.
+     *
+     * @param grade The grade as entered.
+     * @return The grade, or null if grade is null or not a known grade.
+     */
+    public static Grade find(String grade) {
+        if (grade == null) {
+            return null;
+        }
+        String key = grade.trim().toUpperCase(Locale.ROOT).replace(' ', '_');
+        for (Grade candidate : GRADES) {
+            if (candidate.code.equals(key) || candidate.name().equals(key)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+}
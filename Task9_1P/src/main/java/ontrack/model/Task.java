@@ -1,19 +1,47 @@
 package ontrack.model;
 
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * Represents a task within a unit in OnTrack.
+ *
+ * The status and target grade are packed together into one byte-sized state value:
+ * the low four bits hold the status ordinal and the high four bits hold the grade ordinal plus one
+ * (zero for no grade). It is held in an int so both parts can be updated atomically.
  */
 public class Task {
+    private static final AtomicIntegerFieldUpdater<Task> STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(Task.class, "state");
+    private static final AtomicReferenceFieldUpdater<Task, TaskListener[]> LISTENERS_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(Task.class, TaskListener[].class, "listeners");
+    private static final TaskListener[] NO_LISTENERS = new TaskListener[0];
+    private static final Status[] STATUSES = Status.values();
+    private static final Grade[] GRADES = Grade.values();
+    private static final int STATUS_MASK = 0x0F;
+    private static final int GRADE_SHIFT = 4;
+
     private final String id;
     private final String name;
     private final String description;
     private final Unit unit; // The unit this task belongs to
-    private Status status;
-    private String targetGrade; // e.g., "P", "C", "D", "HD"
+    private volatile int state; // Packed status and target grade
+    // Copied on write and swapped atomically: a list object and its lock would cost more than the task itself
+    private volatile TaskListener[] listeners = NO_LISTENERS;
 
+    /**
+     * Creates a task, parsing its target grade.
+     *
+     * @param targetGrade The target grade code or name (e.g. "HD" or "High Distinction"). May be null.
+     * @throws IllegalArgumentException if a required field is missing or the target grade is unknown.
+     */
     public Task(String id, String name, String description, Unit unit, String targetGrade) {
+        this(id, name, description, unit, Grade.parse(targetGrade));
+    }
+
+    public Task(String id, String name, String description, Unit unit, Grade targetGrade) {
         if (id == null || id.trim().isEmpty()) {
             throw new IllegalArgumentException("Task ID cannot be null or empty.");
         }
@@ -28,8 +56,7 @@ public class Task {
         this.name = name;
         this.description = description; // Description can be empty
         this.unit = unit;
-        this.status = Status.NOT_STARTED; // Default status
-        this.targetGrade = targetGrade;
+        this.state = pack(Status.NOT_STARTED, targetGrade); // Default status
     }
 
     public String getId() {
@@ -49,23 +76,115 @@ public class Task {
     }
 
     public Status getStatus() {
-        return status;
+        return statusOf(state);
     }
 
     public void setStatus(Status status) {
         if (status == null) {
             throw new IllegalArgumentException("Status cannot be null.");
         }
-        this.status = status;
+        // Swap atomically so concurrent setters each report the status they actually replaced
+        int oldState;
+        do {
+            oldState = state;
+        } while (!STATE_UPDATER.compareAndSet(this, oldState, pack(status, gradeOf(oldState))));
+        Status oldStatus = statusOf(oldState);
+        for (TaskListener listener : listeners) {
+            listener.statusChanged(this, oldStatus, status);
+        }
     }
 
+    /**
+     * Sets the status only if the task currently has the expected status.
+     *
+     * @return true if the status was set, false if the task had a different status.
+     */
+    public boolean compareAndSetStatus(Status expected, Status status) {
+        if (expected == null || status == null) {
+            throw new IllegalArgumentException("Status cannot be null.");
+        }
+        int oldState;
+        do {
+            oldState = state;
+            if (statusOf(oldState) != expected) {
+                return false;
+            }
+        } while (!STATE_UPDATER.compareAndSet(this, oldState, pack(status, gradeOf(oldState))));
+        for (TaskListener listener : listeners) {
+            listener.statusChanged(this, expected, status);
+        }
+        return true;
+    }
+
+    public Grade getGrade() {
+        return gradeOf(state);
+    }
+
+    public void setGrade(Grade targetGrade) {
+        int oldState;
+        do {
+            oldState = state;
+        } while (!STATE_UPDATER.compareAndSet(this, oldState, pack(statusOf(oldState), targetGrade)));
+        Grade oldGrade = gradeOf(oldState);
+        for (TaskListener listener : listeners) {
+            listener.targetGradeChanged(this, oldGrade, targetGrade);
+        }
+    }
+
+    /**
+     * @return The code of the target grade (e.g., "P", "C", "D", "HD"), or null if none is set.
+     */
     public String getTargetGrade() {
-        return targetGrade;
+        Grade grade = getGrade();
+        return grade == null ? null : grade.getCode();
     }
 
-    // Optional: Setter for target grade if it can be changed after creation
+    /**
+     * Sets the target grade from its code or name.
+     *
+     * @throws IllegalArgumentException if the target grade is unknown.
+     */
     public void setTargetGrade(String targetGrade) {
-        this.targetGrade = targetGrade;
+        setGrade(Grade.parse(targetGrade));
+    }
+
+    /**
+     * Adds a listener, unless it is already registered, so each change is reported to it once.
+     */
+    public void addListener(TaskListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null.");
+        }
+        TaskListener[] current;
+        TaskListener[] updated;
+        do {
+            current = listeners;
+            for (TaskListener registered : current) {
+                if (registered == listener) {
+                    return;
+                }
+            }
+            updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = listener;
+        } while (!LISTENERS_UPDATER.compareAndSet(this, current, updated));
+    }
+
+    public void removeListener(TaskListener listener) {
+        TaskListener[] current;
+        TaskListener[] updated;
+        do {
+            current = listeners;
+            int index = 0;
+            while (index < current.length && current[index] != listener) {
+                index++;
+            }
+            if (index == current.length) {
+                return;
+            }
+            updated = current.length == 1 ? NO_LISTENERS : new TaskListener[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+        } while (!LISTENERS_UPDATER.compareAndSet(this, current, updated));
     }
 
     @Override
@@ -78,7 +197,7 @@ public class Task {
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, unit);
+        return 31 * id.hashCode() + unit.hashCode();
     }
 
     @Override
@@ -88,8 +207,21 @@ public class Task {
                ", name='" + name + '\'' +
                ", description='" + description + '\'' +
                ", unit=" + unit.getId() + // Avoid circular reference in toString
-               ", status=" + status +
-               ", targetGrade='" + targetGrade + '\'' +
+               ", status=" + getStatus() +
+               ", targetGrade='" + getTargetGrade() + '\'' +
                '}';
     }
+
+    private static int pack(Status status, Grade grade) {
+        return status.ordinal() | (grade == null ? 0 : grade.ordinal() + 1) << GRADE_SHIFT;
+    }
+
+    private static Status statusOf(int state) {
+        return STATUSES[state & STATUS_MASK];
+    }
+
+    private static Grade gradeOf(int state) {
+        int grade = state >>> GRADE_SHIFT;
+        return grade == 0 ? null : GRADES[grade - 1];
+    }
 }
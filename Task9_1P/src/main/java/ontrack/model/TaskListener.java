@@ -0,0 +1,26 @@
+package ontrack.model;
+
+/**
+ * Receives notifications when a task's mutable state changes.
+ * Used by the service layer to keep its indexes in step with the model.
+ */
+public interface TaskListener {
+
+    /**
+     * Called after a task's target grade has changed.
+     *
+     * @param task     The task that changed.
+     * @param oldGrade The previous target grade (may be null).
+     * @param newGrade The new target grade (may be null).
+     */
+    void targetGradeChanged(Task task, Grade oldGrade, Grade newGrade);
+
+    /**
+     * Called after a task's status has been set.
+     *
+     * @param task      The task that changed.
+     * @param oldStatus The previous status.
+     * @param newStatus The new status (may equal the previous one).
+     */
+    void statusChanged(Task task, Status oldStatus, Status newStatus);
+}
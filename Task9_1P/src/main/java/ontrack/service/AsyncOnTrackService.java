@@ -0,0 +1,402 @@
+package ontrack.service;
+
+import ontrack.model.ChatMessage;
+import ontrack.model.Grade;
+import ontrack.model.Status;
+import ontrack.model.Task;
+import ontrack.model.Unit;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous facade over an {@link OnTrackService}.
+ * Every operation runs on an executor and returns a {@link CompletableFuture}, so callers never block
+ * a thread of their own, even on a durable service waiting for its log. Errors the service would throw
+ * complete the future exceptionally instead.
+ *
+ * By default operations run one per virtual thread when the JVM supports them (Java 21+), and otherwise
+ * on a pool of platform threads.
+ */
+public class AsyncOnTrackService implements AutoCloseable {
+
+    private static final int FALLBACK_THREADS_PER_CPU = 4;
+
+    private final OnTrackService service;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor; // Null when the caller supplied the executor
+
+    /**
+     * Creates a facade that runs operations on virtual threads where available.
+     *
+     * @param service The service to call.
+     * @throws IllegalArgumentException if service is null.
+     */
+    public AsyncOnTrackService(OnTrackService service) {
+        this(service, newDefaultExecutor(), true);
+    }
+
+    /**
+     * Creates a facade that runs operations on an executor of the caller's choosing.
+     *
+     * @param service  The service to call.
+     * @param executor The executor to run operations on. Not shut down by {@link #close()}.
+     * @throws IllegalArgumentException if service or executor is null.
+     */
+    public AsyncOnTrackService(OnTrackService service, Executor executor) {
+        this(service, executor, false);
+    }
+
+    private AsyncOnTrackService(OnTrackService service, Executor executor, boolean ownsExecutor) {
+        if (service == null) {
+            throw new IllegalArgumentException("Service cannot be null.");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor cannot be null.");
+        }
+        this.service = service;
+        this.executor = executor;
+        this.ownedExecutor = ownsExecutor ? (ExecutorService) executor : null;
+    }
+
+    /**
+     * @return The service the facade calls, for callers that also need synchronous access.
+     */
+    public OnTrackService getService() {
+        return service;
+    }
+
+    // --- Data Setup Methods ---
+
+    public CompletableFuture<Void> addUnit(Unit unit) {
+        return run(() -> service.addUnit(unit));
+    }
+
+    public CompletableFuture<Void> addTask(Task task) {
+        return run(() -> service.addTask(task));
+    }
+
+    public CompletableFuture<Void> addChatMessage(ChatMessage message) {
+        return run(() -> service.addChatMessage(message));
+    }
+
+    public CompletableFuture<Boolean> addChatMessageIfAbsent(ChatMessage message) {
+        return supply(() -> service.addChatMessageIfAbsent(message));
+    }
+
+    public CompletableFuture<Void> addUnits(Collection<Unit> batch) {
+        return run(() -> service.addUnits(batch));
+    }
+
+    public CompletableFuture<Void> addTasks(Collection<Task> batch) {
+        return run(() -> service.addTasks(batch));
+    }
+
+    public CompletableFuture<Void> addTasks(Collection<Task> batch, boolean parallelValidation) {
+        return run(() -> service.addTasks(batch, parallelValidation));
+    }
+
+    public CompletableFuture<Void> addChatMessages(Collection<ChatMessage> batch) {
+        return run(() -> service.addChatMessages(batch));
+    }
+
+    public CompletableFuture<Void> addChatMessages(Collection<ChatMessage> batch, boolean parallelValidation) {
+        return run(() -> service.addChatMessages(batch, parallelValidation));
+    }
+
+    public CompletableFuture<List<ChatMessage>> addChatMessagesIfAbsent(Collection<ChatMessage> batch) {
+        return supply(() -> service.addChatMessagesIfAbsent(batch));
+    }
+
+    public CompletableFuture<DeduplicationStats> getDeduplicationStats() {
+        return supply(service::getDeduplicationStats);
+    }
+
+    public CompletableFuture<Void> checkpoint() {
+        return run(service::checkpoint);
+    }
+
+    // --- Queries and Updates ---
+
+    public CompletableFuture<List<Unit>> getAllUnits() {
+        return supply(service::getAllUnits);
+    }
+
+    public CompletableFuture<Task> getTaskById(String taskId) {
+        return supply(() -> service.getTaskById(taskId));
+    }
+
+    public CompletableFuture<Unit> getUnitById(String unitId) {
+        return supply(() -> service.getUnitById(unitId));
+    }
+
+    public CompletableFuture<List<Task>> getTasksByUnit(String unitId) {
+        return supply(() -> service.getTasksByUnit(unitId));
+    }
+
+    public CompletableFuture<List<Task>> getTasksByUnitByTargetGrade(String unitId, String targetGrade) {
+        return supply(() -> service.getTasksByUnitByTargetGrade(unitId, targetGrade));
+    }
+
+    public CompletableFuture<List<Task>> getTasksByUnitByGrade(String unitId, Grade targetGrade) {
+        return supply(() -> service.getTasksByUnitByGrade(unitId, targetGrade));
+    }
+
+    public CompletableFuture<List<Task>> getTasksByUnitByGrade(String unitId, Grade targetGrade, int limit) {
+        return supply(() -> service.getTasksByUnitByGrade(unitId, targetGrade, limit));
+    }
+
+    public CompletableFuture<Integer> countTasksByUnitByGrade(String unitId, Grade targetGrade) {
+        return supply(() -> service.countTasksByUnitByGrade(unitId, targetGrade));
+    }
+
+    public CompletableFuture<Boolean> existsTaskByUnitByGrade(String unitId, Grade targetGrade, Predicate<? super Task> filter) {
+        return supply(() -> service.existsTaskByUnitByGrade(unitId, targetGrade, filter));
+    }
+
+    public CompletableFuture<List<Task>> queryTasks(TaskQuery query) {
+        return supply(() -> service.queryTasks(query));
+    }
+
+    public CompletableFuture<QueryPlan> explainQuery(TaskQuery query) {
+        return supply(() -> service.explainQuery(query));
+    }
+
+    public CompletableFuture<List<ChatMessage>> getChatMessagesByTask(String taskId) {
+        return supply(() -> service.getChatMessagesByTask(taskId));
+    }
+
+    public CompletableFuture<List<ChatMessage>> getLatestChatMessages(String taskId, int limit) {
+        return supply(() -> service.getLatestChatMessages(taskId, limit));
+    }
+
+    public CompletableFuture<List<ChatMessage>> getChatMessagesAfter(String taskId, ChatCursor after, int limit) {
+        return supply(() -> service.getChatMessagesAfter(taskId, after, limit));
+    }
+
+    public CompletableFuture<List<ChatMessage>> getChatMessagesBefore(String taskId, ChatCursor before, int limit) {
+        return supply(() -> service.getChatMessagesBefore(taskId, before, limit));
+    }
+
+    public CompletableFuture<List<ChatMessage>> getChatMessagesBetween(String taskId, LocalDateTime from, LocalDateTime to) {
+        return supply(() -> service.getChatMessagesBetween(taskId, from, to));
+    }
+
+    public CompletableFuture<List<ChatMessage>> getChatMessagesBySender(String sender, LocalDateTime from, LocalDateTime to, int limit) {
+        return supply(() -> service.getChatMessagesBySender(sender, from, to, limit));
+    }
+
+    public CompletableFuture<List<ChatMessage>> getLatestChatMessagesBySender(String sender, int limit) {
+        return supply(() -> service.getLatestChatMessagesBySender(sender, limit));
+    }
+
+    public CompletableFuture<List<ChatMessage>> searchUnitChatMessages(String unitId, String query, int limit) {
+        return supply(() -> service.searchUnitChatMessages(unitId, query, limit));
+    }
+
+    public CompletableFuture<List<ChatMessage>> searchTaskChatMessages(String taskId, String query, int limit) {
+        return supply(() -> service.searchTaskChatMessages(taskId, query, limit));
+    }
+
+    public CompletableFuture<Boolean> chooseUnitTargetGrade(String unitId, String targetGrade) {
+        return supply(() -> service.chooseUnitTargetGrade(unitId, targetGrade));
+    }
+
+    public CompletableFuture<Boolean> chooseUnitGrade(String unitId, Grade targetGrade) {
+        return supply(() -> service.chooseUnitGrade(unitId, targetGrade));
+    }
+
+    public CompletableFuture<String> getUnitTargetGrade(String unitId) {
+        return supply(() -> service.getUnitTargetGrade(unitId));
+    }
+
+    public CompletableFuture<Grade> getUnitGrade(String unitId) {
+        return supply(() -> service.getUnitGrade(unitId));
+    }
+
+    public CompletableFuture<List<Task>> getTasksAtUnitTargetGrade(String unitId) {
+        return supply(() -> service.getTasksAtUnitTargetGrade(unitId));
+    }
+
+    public CompletableFuture<Boolean> changeTaskStatus(String taskId, Status status) {
+        return supply(() -> service.changeTaskStatus(taskId, status));
+    }
+
+    public CompletableFuture<Map<String, StatusChangeOutcome>> changeTaskStatuses(Collection<String> taskIds, Status status) {
+        return supply(() -> service.changeTaskStatuses(taskIds, status));
+    }
+
+    public CompletableFuture<Map<String, StatusChangeOutcome>> changeUnitTaskStatuses(String unitId, Predicate<Task> filter, Status status) {
+        return supply(() -> service.changeUnitTaskStatuses(unitId, filter, status));
+    }
+
+    public CompletableFuture<List<StatusTransition>> getStatusHistory(String taskId, int limit) {
+        return supply(() -> service.getStatusHistory(taskId, limit));
+    }
+
+    public CompletableFuture<List<StatusTransition>> getSpilledStatusHistory(String taskId) {
+        return supply(() -> service.getSpilledStatusHistory(taskId));
+    }
+
+    public CompletableFuture<Map<Status, Duration>> getTimeInStatus(String taskId) {
+        return supply(() -> service.getTimeInStatus(taskId));
+    }
+
+    public CompletableFuture<List<HelpRequest>> getTasksNeedingHelp(String unitId) {
+        return supply(() -> service.getTasksNeedingHelp(unitId));
+    }
+
+    public CompletableFuture<HelpRequest> claimTaskNeedingHelp(String unitId) {
+        return supply(() -> service.claimTaskNeedingHelp(unitId));
+    }
+
+    public CompletableFuture<Boolean> submitUnitPortfolio(String unitId) {
+        return supply(() -> service.submitUnitPortfolio(unitId));
+    }
+
+    public CompletableFuture<StatusHistogram> getStatusHistogram(String unitId) {
+        return supply(() -> service.getStatusHistogram(unitId));
+    }
+
+    public CompletableFuture<Map<Status, Integer>> getStatusHistogram(String unitId, Grade targetGrade) {
+        return supply(() -> service.getStatusHistogram(unitId, targetGrade));
+    }
+
+    public CompletableFuture<Map<String, StatusHistogram>> getStatusHistograms() {
+        return supply(service::getStatusHistograms);
+    }
+
+    // --- Dashboards ---
+
+    /**
+     * Loads every unit with its tasks and their chat messages. Units are loaded in parallel.
+     *
+     * @return The dashboard.
+     */
+    public CompletableFuture<Dashboard> loadDashboard() {
+        return getAllUnits().thenCompose(this::loadUnits);
+    }
+
+    /**
+     * Loads some units with their tasks and their chat messages. Units are loaded in parallel.
+     *
+     * @param unitIds The IDs of the units. IDs of units that don't exist are skipped.
+     * @return The dashboard, with units in the order given.
+     */
+    public CompletableFuture<Dashboard> loadDashboard(Collection<String> unitIds) {
+        if (unitIds == null) {
+            return failed(new IllegalArgumentException("Unit IDs cannot be null."));
+        }
+        List<String> ids = new ArrayList<>(unitIds);
+        return supply(() -> {
+            List<Unit> units = new ArrayList<>(ids.size());
+            for (String unitId : ids) {
+                Unit unit = service.getUnitById(unitId);
+                if (unit != null) {
+                    units.add(unit);
+                }
+            }
+            return units;
+        }).thenCompose(this::loadUnits);
+    }
+
+    /**
+     * Shuts down the default executor once running operations finish. Does not close the service.
+     */
+    @Override
+    public void close() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    /**
+     * The tasks and messages of one unit.
+     */
+    private static final class UnitContents {
+        private final String unitId;
+        private final List<Task> tasks;
+        private final Map<String, List<ChatMessage>> chatMessagesByTask = new HashMap<>();
+
+        private UnitContents(String unitId, List<Task> tasks) {
+            this.unitId = unitId;
+            this.tasks = tasks;
+        }
+    }
+
+    private CompletableFuture<Dashboard> loadUnits(List<Unit> units) {
+        List<CompletableFuture<UnitContents>> loads = new ArrayList<>(units.size());
+        for (Unit unit : units) {
+            loads.add(supply(() -> loadUnit(unit.getId())));
+        }
+        return CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            Map<String, List<Task>> tasksByUnit = new LinkedHashMap<>();
+            Map<String, List<ChatMessage>> chatMessagesByTask = new HashMap<>();
+            for (CompletableFuture<UnitContents> load : loads) {
+                UnitContents contents = load.join();
+                tasksByUnit.put(contents.unitId, Collections.unmodifiableList(contents.tasks));
+                chatMessagesByTask.putAll(contents.chatMessagesByTask);
+            }
+            return new Dashboard(Collections.unmodifiableList(new ArrayList<>(units)), tasksByUnit, chatMessagesByTask);
+        });
+    }
+
+    private UnitContents loadUnit(String unitId) {
+        UnitContents contents = new UnitContents(unitId, service.getTasksByUnit(unitId));
+        for (Task task : contents.tasks) {
+            List<ChatMessage> messages = service.getChatMessagesByTask(task.getId());
+            if (!messages.isEmpty()) {
+                contents.chatMessagesByTask.put(task.getId(), messages);
+            }
+        }
+        return contents;
+    }
+
+    private <T> CompletableFuture<T> supply(Supplier<T> operation) {
+        return CompletableFuture.supplyAsync(operation, executor);
+    }
+
+    private CompletableFuture<Void> run(Runnable operation) {
+        return CompletableFuture.runAsync(operation, executor);
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    /**
+     * Creates a virtual-thread-per-task executor when the JVM has one, looked up reflectively so the
+     * project still builds for Java 11. Falls back to a fixed pool of daemon platform threads, sized for
+     * operations that block on the write-ahead log.
+     */
+    static ExecutorService newDefaultExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            // Virtual threads are missing (before Java 19) or disabled (a Java 19/20 preview)
+            int threads = Runtime.getRuntime().availableProcessors() * FALLBACK_THREADS_PER_CPU;
+            return Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "ontrack-async");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
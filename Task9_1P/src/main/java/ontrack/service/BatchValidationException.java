@@ -0,0 +1,44 @@
+package ontrack.service;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Thrown when a batch is rejected because some of its rows are invalid.
+ * Nothing from a rejected batch is applied. Every bad row is reported, keyed by its position in the batch.
+ */
+public class BatchValidationException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+    private static final int ROWS_IN_MESSAGE = 10;
+
+    private final SortedMap<Integer, String> rowErrors;
+
+    public BatchValidationException(Map<Integer, String> rowErrors) {
+        super(describe(rowErrors));
+        this.rowErrors = Collections.unmodifiableSortedMap(new TreeMap<>(rowErrors));
+    }
+
+    /**
+     * @return The error for each bad row, keyed by the row's zero-based position in the batch.
+     */
+    public SortedMap<Integer, String> getRowErrors() {
+        return rowErrors;
+    }
+
+    private static String describe(Map<Integer, String> rowErrors) {
+        StringBuilder message = new StringBuilder("Batch rejected: ").append(rowErrors.size())
+                .append(rowErrors.size() == 1 ? " bad row." : " bad rows.");
+        int shown = 0;
+        for (Map.Entry<Integer, String> entry : new TreeMap<>(rowErrors).entrySet()) {
+            if (shown++ == ROWS_IN_MESSAGE) {
+                message.append(" ...");
+                break;
+            }
+            message.append(" Row ").append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        return message.toString();
+    }
+}
@@ -0,0 +1,124 @@
+package ontrack.service;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A set of strings that may report false positives but never false negatives.
+ *
+ * Grows as a chain of segments, each four times the capacity of the last and with more bits per string,
+ * so the combined false-positive rate stays near 1% however many strings are added. A lookup probes
+ * every segment, which for a million strings is six.
+ * Thread-safe: bits are set atomically, and a new segment is published once complete.
+ */
+final class BloomFilter {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = 1 << 24;
+    private static final int GROWTH = 4;
+    private static final int INITIAL_BITS_PER_STRING = 10; // About 1% false positives
+    private static final int EXTRA_BITS_PER_SEGMENT = 2; // Each segment has about a third of the previous rate
+    private static final int MAX_BITS_PER_STRING = 32;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private volatile Segment[] segments = {new Segment(INITIAL_CAPACITY, INITIAL_BITS_PER_STRING)};
+
+    private static final class Segment {
+        private final AtomicLongArray words;
+        private final int bitMask;
+        private final int hashCount;
+        private final int capacity;
+        private final AtomicInteger size = new AtomicInteger();
+
+        private Segment(int capacity, int bitsPerString) {
+            // Rounding up to a power of two only lowers the false-positive rate
+            int bits = Integer.highestOneBit(capacity * bitsPerString - 1) << 1;
+            this.words = new AtomicLongArray(bits >>> 6);
+            this.bitMask = bits - 1;
+            this.hashCount = Math.max(1, Math.round(bitsPerString * 0.693f)); // Optimal count is bits per string times ln 2
+            this.capacity = capacity;
+        }
+
+        private void add(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1; // Odd, so the probes cycle through every bit
+            for (int i = 0; i < hashCount; i++) {
+                int bit = (h1 + i * h2) & bitMask;
+                long mask = 1L << bit;
+                int word = bit >>> 6;
+                if ((words.get(word) & mask) == 0) {
+                    words.getAndAccumulate(word, mask, (a, b) -> a | b);
+                }
+            }
+        }
+
+        private boolean mightContain(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1; // Odd, so the probes cycle through every bit
+            for (int i = 0; i < hashCount; i++) {
+                int bit = (h1 + i * h2) & bitMask;
+                if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    void add(String value) {
+        long hash = hash(value);
+        Segment[] current = segments;
+        Segment last = current[current.length - 1];
+        if (last.size.incrementAndGet() > last.capacity) {
+            last = grow(current);
+        }
+        last.add(hash);
+    }
+
+    boolean mightContain(String value) {
+        long hash = hash(value);
+        for (Segment segment : segments) {
+            if (segment.mightContain(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized Segment grow(Segment[] seen) {
+        Segment[] current = segments;
+        if (current == seen) {
+            Segment last = current[current.length - 1];
+            Segment next = new Segment(Math.min(last.capacity * GROWTH, MAX_CAPACITY),
+                    Math.min(INITIAL_BITS_PER_STRING + EXTRA_BITS_PER_SEGMENT * current.length, MAX_BITS_PER_STRING));
+            Segment[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = next;
+            segments = grown;
+            current = grown;
+        }
+        Segment last = current[current.length - 1];
+        last.size.incrementAndGet();
+        return last;
+    }
+
+    /**
+     * Hashes a string's chars to 64 bits with FNV-1a, then mixes them with the finalizer of MurmurHash3,
+     * so both 32-bit halves used for double hashing depend on the whole content. Strings whose
+     * {@link String#hashCode()} collide still get different probes.
+     */
+    private static long hash(String value) {
+        long h = FNV_OFFSET_BASIS;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= FNV_PRIME;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
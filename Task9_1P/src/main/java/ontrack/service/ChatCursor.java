@@ -0,0 +1,67 @@
+package ontrack.service;
+
+import ontrack.model.ChatMessage;
+
+import java.time.LocalDateTime;
+
+/**
+ * A position in a task's chat history, used to page through messages.
+ * Messages are ordered by timestamp, then by message ID.
+ */
+public final class ChatCursor {
+    private final LocalDateTime timestamp;
+    private final String messageId;
+
+    public ChatCursor(LocalDateTime timestamp, String messageId) {
+        if (timestamp == null) {
+            throw new IllegalArgumentException("Timestamp cannot be null.");
+        }
+        if (messageId == null || messageId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Message ID cannot be null or empty.");
+        }
+        this.timestamp = timestamp;
+        this.messageId = messageId;
+    }
+
+    /**
+     * Creates a cursor positioned at a message, e.g. the last message of the previous page.
+     *
+     * @param message The message to position the cursor at.
+     * @return A cursor at the message's timestamp and ID.
+     */
+    public static ChatCursor at(ChatMessage message) {
+        if (message == null) {
+            throw new IllegalArgumentException("ChatMessage cannot be null.");
+        }
+        return new ChatCursor(message.getTimestamp(), message.getId());
+    }
+
+    public LocalDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ChatCursor that = (ChatCursor) o;
+        return timestamp.equals(that.timestamp) && messageId.equals(that.messageId);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * timestamp.hashCode() + messageId.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "ChatCursor{" +
+               "timestamp=" + timestamp +
+               ", messageId='" + messageId + '\'' +
+               '}';
+    }
+}
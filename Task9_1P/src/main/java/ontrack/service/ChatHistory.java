@@ -0,0 +1,58 @@
+package ontrack.service;
+
+import ontrack.model.ChatMessage;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * The chat messages of a single task, ordered by timestamp, then message ID, then arrival.
+ * Implementations are thread-safe.
+ */
+interface ChatHistory {
+
+    void add(ChatMessage message);
+
+    /**
+     * Adds a batch of messages. Equivalent to adding them one at a time, in order.
+     */
+    default void addAll(List<ChatMessage> messages) {
+        for (ChatMessage message : messages) {
+            add(message);
+        }
+    }
+
+    int size();
+
+    /**
+     * Scans for a message by ID, without copying the history.
+     *
+     * @return true if the history holds a message with the ID.
+     */
+    boolean containsId(String messageId);
+
+    /**
+     * @return All messages as an unmodifiable list, which is reused until the next message is added.
+     */
+    List<ChatMessage> getAll();
+
+    /**
+     * @return Up to {@code limit} of the newest messages, oldest first.
+     */
+    List<ChatMessage> getLatest(int limit);
+
+    /**
+     * @return Up to {@code limit} messages positioned after the cursor, oldest first.
+     */
+    List<ChatMessage> getAfter(ChatCursor cursor, int limit);
+
+    /**
+     * @return Up to {@code limit} messages positioned before the cursor, oldest first.
+     */
+    List<ChatMessage> getBefore(ChatCursor cursor, int limit);
+
+    /**
+     * @return The messages with {@code from <= timestamp < to}, oldest first.
+     */
+    List<ChatMessage> getBetween(LocalDateTime from, LocalDateTime to);
+}
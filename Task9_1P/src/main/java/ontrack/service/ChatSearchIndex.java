@@ -0,0 +1,261 @@
+package ontrack.service;
+
+import ontrack.model.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Inverted index over the content of one unit's chat messages.
+ *
+ * Each message gets a document number in the order it was added, and each term maps to the ascending
+ * document numbers of the messages containing it. A query walks the shortest posting list from the newest
+ * document back, checks the other terms by binary search, and keeps the newest matches. Because the largest
+ * timestamp among the documents before each one is recorded, the walk stops as soon as no earlier document
+ * could beat the matches found, so for messages added roughly in time order a query reads about limit postings.
+ *
+ * Phrases are matched by looking for the phrase's terms, then checking the candidate's content.
+ *
+ * Documents hold only a message's task handle, ID and timestamp, not the message, and matches are looked up in
+ * the task's chat history. So a service that keeps messages in a memory-mapped log keeps them off the heap.
+ * Thread-safe: guarded by its own read/write lock.
+ */
+class ChatSearchIndex {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final MessageLookup lookup;
+    private final Map<String, Postings> postings = new HashMap<>(); // Map term to the documents containing it
+    private int[] taskHandles = new int[INITIAL_CAPACITY]; // Indexed by document number
+    private ChatCursor[] cursors = new ChatCursor[INITIAL_CAPACITY]; // Position of each document in its task's history
+    private long[] timestamps = new long[INITIAL_CAPACITY]; // Encoded timestamp of each document
+    private long[] maxTimestamps = new long[INITIAL_CAPACITY]; // Largest timestamp of documents 0..n
+    private int size;
+
+    /**
+     * Finds a message in a task's chat history.
+     */
+    interface MessageLookup {
+        /**
+         * @return The message at the cursor, or null if the task has no such message.
+         */
+        ChatMessage find(int taskHandle, ChatCursor cursor);
+    }
+
+    ChatSearchIndex(MessageLookup lookup) {
+        this.lookup = lookup;
+    }
+
+    /**
+     * The ascending document numbers of the messages containing a term.
+     */
+    private static final class Postings {
+        private int[] documents = new int[4];
+        private int size;
+
+        private void add(int document) {
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, size * 2);
+            }
+            documents[size++] = document;
+        }
+
+        private boolean contains(int document) {
+            return Arrays.binarySearch(documents, 0, size, document) >= 0;
+        }
+    }
+
+    /**
+     * A parsed query: every term a match must contain, and the phrases it must contain in order.
+     */
+    static final class Query {
+        private final List<String> terms;
+        private final List<List<String>> phrases;
+
+        private Query(List<String> terms, List<List<String>> phrases) {
+            this.terms = terms;
+            this.phrases = phrases;
+        }
+
+        /**
+         * Parses a query of keywords and "quoted phrases". An unclosed quote runs to the end of the query.
+         */
+        static Query parse(String query) {
+            Set<String> terms = new LinkedHashSet<>();
+            List<List<String>> phrases = new ArrayList<>();
+            String[] parts = query.split("\"", -1);
+            for (int i = 0; i < parts.length; i++) {
+                List<String> tokens = tokenize(parts[i]);
+                terms.addAll(tokens);
+                // Odd parts lie between quotes
+                if (i % 2 == 1 && tokens.size() > 1) {
+                    phrases.add(tokens);
+                }
+            }
+            return new Query(new ArrayList<>(terms), phrases);
+        }
+
+        boolean isEmpty() {
+            return terms.isEmpty();
+        }
+    }
+
+    void add(int taskHandle, ChatMessage message) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            index(taskHandle, message);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    void addAll(int taskHandle, List<ChatMessage> batch) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            for (ChatMessage message : batch) {
+                index(taskHandle, message);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Finds the newest messages matching a query.
+     *
+     * @param query      The query.
+     * @param taskHandle The handle of the task to search, or {@link IdDictionary#NONE} to search every task of the unit.
+     * @param limit      The maximum number of messages to return.
+     * @return Up to limit matching messages, newest first.
+     */
+    List<ChatMessage> search(Query query, int taskHandle, int limit) {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            Postings[] lists = new Postings[query.terms.size()];
+            for (int i = 0; i < lists.length; i++) {
+                lists[i] = postings.get(query.terms.get(i));
+                if (lists[i] == null) {
+                    return new ArrayList<>();
+                }
+            }
+            // Walk the rarest term, and check the others in order of rarity
+            Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+            Postings rarest = lists[0];
+
+            // Min-heap of the best documents so far, worst first: older timestamp, then lower document number
+            PriorityQueue<Integer> best = new PriorityQueue<>(limit, (a, b) -> {
+                int byTime = Long.compare(timestamps[a], timestamps[b]);
+                return byTime != 0 ? byTime : Integer.compare(a, b);
+            });
+            for (int i = rarest.size - 1; i >= 0; i--) {
+                int document = rarest.documents[i];
+                // Earlier documents all have smaller numbers, so they rank below the worst kept unless strictly newer
+                if (best.size() == limit && maxTimestamps[document] <= timestamps[best.peek()]) {
+                    break;
+                }
+                if (matches(document, lists, query, taskHandle)) {
+                    best.add(document);
+                    if (best.size() > limit) {
+                        best.poll();
+                    }
+                }
+            }
+
+            List<ChatMessage> result = new ArrayList<>(best.size());
+            while (!best.isEmpty()) {
+                ChatMessage message = find(best.poll());
+                if (message != null) {
+                    result.add(message);
+                }
+            }
+            Collections.reverse(result);
+            return result;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private boolean matches(int document, Postings[] lists, Query query, int taskHandle) {
+        if (taskHandle != IdDictionary.NONE && taskHandle != taskHandles[document]) {
+            return false;
+        }
+        for (int i = 1; i < lists.length; i++) {
+            if (!lists[i].contains(document)) {
+                return false;
+            }
+        }
+        if (query.phrases.isEmpty()) {
+            return true;
+        }
+        ChatMessage message = find(document);
+        if (message == null) {
+            return false;
+        }
+        List<String> tokens = tokenize(message.getContent());
+        for (List<String> phrase : query.phrases) {
+            if (Collections.indexOfSubList(tokens, phrase) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ChatMessage find(int document) {
+        return lookup.find(taskHandles[document], cursors[document]);
+    }
+
+    private void index(int taskHandle, ChatMessage message) {
+        if (size == taskHandles.length) {
+            int capacity = size * 2;
+            taskHandles = Arrays.copyOf(taskHandles, capacity);
+            cursors = Arrays.copyOf(cursors, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            maxTimestamps = Arrays.copyOf(maxTimestamps, capacity);
+        }
+        int document = size++;
+        long timestamp = MappedChatLog.encodeTimestamp(message.getTimestamp());
+        taskHandles[document] = taskHandle;
+        cursors[document] = ChatCursor.at(message);
+        timestamps[document] = timestamp;
+        maxTimestamps[document] = document == 0 ? timestamp : Math.max(maxTimestamps[document - 1], timestamp);
+        // Each document is posted once per distinct term, so posting lists stay strictly ascending
+        for (String term : new LinkedHashSet<>(tokenize(message.getContent()))) {
+            postings.computeIfAbsent(term, k -> new Postings()).add(document);
+        }
+    }
+
+    /**
+     * Splits text into lower-case runs of letters and digits.
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            } else if (token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        if (token.length() > 0) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,46 @@
+package ontrack.service;
+
+import ontrack.model.ChatMessage;
+import ontrack.model.Task;
+import ontrack.model.Unit;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The units, tasks and chat messages shown on a dashboard, loaded together by
+ * {@link AsyncOnTrackService#loadDashboard()}.
+ */
+public final class Dashboard {
+
+    private final List<Unit> units;
+    private final Map<String, List<Task>> tasksByUnit; // Map Unit ID to its Tasks
+    private final Map<String, List<ChatMessage>> chatMessagesByTask; // Map Task ID to its Messages
+
+    Dashboard(List<Unit> units, Map<String, List<Task>> tasksByUnit, Map<String, List<ChatMessage>> chatMessagesByTask) {
+        this.units = units;
+        this.tasksByUnit = tasksByUnit;
+        this.chatMessagesByTask = chatMessagesByTask;
+    }
+
+    public List<Unit> getUnits() {
+        return units;
+    }
+
+    /**
+     * @param unitId The ID of the unit.
+     * @return The unit's tasks, or an empty list if the unit is not on the dashboard or has no tasks.
+     */
+    public List<Task> getTasks(String unitId) {
+        return tasksByUnit.getOrDefault(unitId, Collections.emptyList());
+    }
+
+    /**
+     * @param taskId The ID of the task.
+     * @return The task's chat messages, oldest first, or an empty list if the task is not on the dashboard or has no messages.
+     */
+    public List<ChatMessage> getChatMessages(String taskId) {
+        return chatMessagesByTask.getOrDefault(taskId, Collections.emptyList());
+    }
+}
@@ -0,0 +1,64 @@
+package ontrack.service;
+
+/**
+ * Counters of the duplicate check made by {@link OnTrackService#addChatMessageIfAbsent(ChatMessage)}
+ * and {@link OnTrackService#addChatMessagesIfAbsent(java.util.Collection)}. An immutable snapshot.
+ */
+public final class DeduplicationStats {
+
+    private final long checked;
+    private final long possibleDuplicates;
+    private final long duplicates;
+
+    DeduplicationStats(long checked, long possibleDuplicates, long duplicates) {
+        this.checked = checked;
+        this.possibleDuplicates = possibleDuplicates;
+        this.duplicates = duplicates;
+    }
+
+    /**
+     * @return The number of messages checked.
+     */
+    public long getChecked() {
+        return checked;
+    }
+
+    /**
+     * @return The number of messages the Bloom filter could not rule out, each of which needed an exact check.
+     */
+    public long getPossibleDuplicates() {
+        return possibleDuplicates;
+    }
+
+    /**
+     * @return The number of messages rejected as duplicates.
+     */
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return The number of new messages the Bloom filter could not rule out.
+     */
+    public long getFalsePositives() {
+        return possibleDuplicates - duplicates;
+    }
+
+    /**
+     * @return The share of new messages the Bloom filter could not rule out, or 0 if none were checked.
+     */
+    public double getFalsePositiveRate() {
+        long unique = checked - duplicates;
+        return unique == 0 ? 0 : (double) getFalsePositives() / unique;
+    }
+
+    @Override
+    public String toString() {
+        return "DeduplicationStats{" +
+                "checked=" + checked +
+                ", possibleDuplicates=" + possibleDuplicates +
+                ", duplicates=" + duplicates +
+                ", falsePositiveRate=" + getFalsePositiveRate() +
+                '}';
+    }
+}
@@ -0,0 +1,333 @@
+package ontrack.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Durable storage for an OnTrackService: a write-ahead log of every mutation plus periodic snapshots.
+ *
+ * A snapshot is the service state written as a sequence of mutations, tagged with the last log
+ * sequence number it includes. Recovery applies the latest snapshot and then replays only the log
+ * records after it. Once a snapshot is written, log segments it fully covers are deleted.
+ * Chat messages are not copied into snapshots: a snapshot records the position the service's chat log
+ * had reached, forced to disk first, and recovery discards the chat records after it before replaying.
+ *
+ * Mutations run under the shared side of a checkpoint lock. A snapshot captures the state under the
+ * exclusive side, so every mutation is either wholly in the snapshot or wholly after it in the log.
+ */
+class DurableStore implements AutoCloseable {
+
+    static final int DEFAULT_SNAPSHOT_EVERY_MUTATIONS = 1_000_000;
+
+    private static final long LOG_SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final int SNAPSHOT_MAGIC = 0x4F54534E; // "OTSN"
+    private static final int SNAPSHOT_VERSION = 2; // Version 1 had no chat log position
+
+    private final Path directory;
+    private final WriteAheadLog log;
+    private final OnTrackService service;
+    private final int snapshotEveryMutations;
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    private final Object snapshotMonitor = new Object(); // One snapshot at a time
+    private final AtomicLong mutationsSinceSnapshot = new AtomicLong();
+    private final AtomicBoolean snapshotScheduled = new AtomicBoolean();
+    private final ExecutorService snapshotExecutor;
+    private volatile Exception snapshotFailure;
+    private final List<BiConsumer<Long, byte[]>> followers = new CopyOnWriteArrayList<>(); // See follow
+
+    private DurableStore(Path directory, WriteAheadLog log, OnTrackService service, int snapshotEveryMutations) {
+        this.directory = directory;
+        this.log = log;
+        this.service = service;
+        this.snapshotEveryMutations = snapshotEveryMutations;
+        this.snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ontrack-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Recovers a service from a directory and attaches durable storage to it.
+     *
+     * @param directory              The data directory. Created if missing.
+     * @param snapshotEveryMutations The number of logged mutations after which a snapshot is taken in the background.
+     * @param service                An empty service to recover into.
+     * @return The store, already attached to the service.
+     * @throws UncheckedIOException  if the directory cannot be read or written.
+     * @throws IllegalStateException if the snapshot is corrupt.
+     */
+    static DurableStore open(Path directory, int snapshotEveryMutations, OnTrackService service) {
+        try {
+            Files.createDirectories(directory);
+            long snapshotSequence = loadLatestSnapshot(directory, service);
+            WriteAheadLog log = WriteAheadLog.open(directory, LOG_SEGMENT_SIZE, snapshotSequence,
+                    (sequence, mutation) -> Mutation.apply(mutation, service));
+            DurableStore store = new DurableStore(directory, log, service, snapshotEveryMutations);
+            service.attachStore(store);
+            return store;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open OnTrack data in " + directory, e);
+        }
+    }
+
+    void beginMutation() {
+        checkpointLock.readLock().lock();
+    }
+
+    void endMutation() {
+        checkpointLock.readLock().unlock();
+    }
+
+    /**
+     * Logs a mutation. Callers hold the mutation lock and have not yet made the change visible.
+     *
+     * @return The mutation's sequence number, to pass to {@link #awaitDurable(long)} after releasing locks.
+     */
+    long log(byte[] mutation) {
+        long sequence = log.append(mutation);
+        if (mutationsSinceSnapshot.incrementAndGet() >= snapshotEveryMutations
+                && snapshotScheduled.compareAndSet(false, true)) {
+            snapshotExecutor.execute(() -> {
+                try {
+                    checkpoint();
+                } catch (Exception e) {
+                    snapshotFailure = e;
+                } finally {
+                    snapshotScheduled.set(false);
+                }
+            });
+        }
+        return sequence;
+    }
+
+    void awaitDurable(long sequence) {
+        if (sequence > 0) {
+            log.awaitDurable(sequence);
+        }
+    }
+
+    /**
+     * The service state at a log sequence number, captured for a new follower of the log.
+     */
+    static final class Capture {
+        final long sequence;
+        final StateCapture state;
+
+        private Capture(long sequence, StateCapture state) {
+            this.sequence = sequence;
+            this.state = state;
+        }
+    }
+
+    /**
+     * Captures the service state and passes every mutation logged after it to a follower, so the follower
+     * misses and repeats none. The follower is called in sequence order under the log's append lock, and
+     * must not block.
+     *
+     * @return The captured state and the last sequence number it covers.
+     */
+    Capture follow(BiConsumer<Long, byte[]> follower) {
+        checkpointLock.writeLock().lock();
+        try {
+            Capture capture = new Capture(log.getLastSequence(), service.captureState(true));
+            synchronized (followers) {
+                followers.add(follower);
+                log.setAppendListener(this::notifyFollowers);
+            }
+            return capture;
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    void unfollow(BiConsumer<Long, byte[]> follower) {
+        synchronized (followers) {
+            followers.remove(follower);
+            if (followers.isEmpty()) {
+                log.setAppendListener(null);
+            }
+        }
+    }
+
+    long getLastSequence() {
+        return log.getLastSequence();
+    }
+
+    private void notifyFollowers(long sequence, byte[] mutation) {
+        for (BiConsumer<Long, byte[]> follower : followers) {
+            follower.accept(sequence, mutation);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the service and deletes the log segments it covers.
+     *
+     * @throws UncheckedIOException if the snapshot cannot be written.
+     */
+    void checkpoint() {
+        synchronized (snapshotMonitor) {
+            long sequence;
+            StateCapture state;
+            checkpointLock.writeLock().lock();
+            try {
+                sequence = log.getLastSequence();
+                state = service.captureState(false);
+                mutationsSinceSnapshot.set(0);
+            } finally {
+                checkpointLock.writeLock().unlock();
+            }
+            try {
+                // The snapshot leaves the messages before this position to the chat log
+                if (state.getChatLogPosition() != StateCapture.NO_CHAT_LOG_POSITION) {
+                    service.forceChatLog(state.getChatLogPosition());
+                }
+                writeSnapshot(sequence, state);
+                log.truncateBefore(sequence);
+                deleteSnapshotsBefore(sequence);
+                service.flushStatusHistory();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot write OnTrack snapshot in " + directory, e);
+            }
+        }
+    }
+
+    /**
+     * Flushes and closes the log. Mutations already returned are on disk; a restart replays them.
+     *
+     * @throws UncheckedIOException  if the log cannot be flushed.
+     * @throws IllegalStateException if a background snapshot failed.
+     */
+    @Override
+    public void close() {
+        snapshotExecutor.shutdown();
+        try {
+            snapshotExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot close OnTrack write-ahead log in " + directory, e);
+        }
+        if (snapshotFailure != null) {
+            throw new IllegalStateException("A background snapshot failed.", snapshotFailure);
+        }
+    }
+
+    private void writeSnapshot(long sequence, StateCapture state) throws IOException {
+        Path target = directory.resolve(snapshotName(sequence));
+        Path temporary = directory.resolve(snapshotName(sequence) + ".tmp");
+        CRC32 crc = new CRC32();
+        try (OutputStream file = Files.newOutputStream(temporary);
+             DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(file, 256 * 1024), crc))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(sequence);
+            out.writeLong(state.getChatLogPosition());
+            out.writeLong(state.size());
+            for (byte[] mutation : state) {
+                out.writeInt(mutation.length);
+                out.write(mutation);
+            }
+            // The checksum covers everything before it
+            out.writeInt((int) crc.getValue());
+        }
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Applies the newest snapshot in a directory to a service. Chat log records after the snapshot's
+     * position, or all of them if it holds the messages itself, are discarded first: the snapshot or
+     * the log replayed after it adds them again.
+     *
+     * @return The last log sequence number included in the snapshot, or 0 if there is none.
+     */
+    private static long loadLatestSnapshot(Path directory, OnTrackService service) throws IOException {
+        List<Path> snapshots = listSnapshots(directory);
+        if (snapshots.isEmpty()) {
+            service.truncateChatLog(0);
+            return 0;
+        }
+        Path snapshot = snapshots.get(snapshots.size() - 1);
+        CRC32 crc = new CRC32();
+        try (InputStream file = Files.newInputStream(snapshot);
+             DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(file, 256 * 1024), crc))) {
+            int version = in.readInt() == SNAPSHOT_MAGIC ? in.readInt() : 0;
+            if (version != 1 && version != SNAPSHOT_VERSION) {
+                throw new IllegalStateException("Not an OnTrack snapshot: " + snapshot);
+            }
+            long sequence = in.readLong();
+            long chatLogPosition = version == 1 ? StateCapture.NO_CHAT_LOG_POSITION : in.readLong();
+            service.truncateChatLog(chatLogPosition == StateCapture.NO_CHAT_LOG_POSITION ? 0 : chatLogPosition);
+            long count = in.readLong();
+            for (long i = 0; i < count; i++) {
+                byte[] mutation = new byte[in.readInt()];
+                in.readFully(mutation);
+                Mutation.apply(mutation, service);
+            }
+            int expected = (int) crc.getValue();
+            if (in.readInt() != expected) {
+                throw new IllegalStateException("Corrupt OnTrack snapshot: " + snapshot);
+            }
+            return sequence;
+        }
+    }
+
+    private void deleteSnapshotsBefore(long sequence) throws IOException {
+        String current = snapshotName(sequence);
+        for (Path snapshot : listSnapshots(directory)) {
+            if (snapshot.getFileName().toString().compareTo(current) < 0) {
+                Files.deleteIfExists(snapshot);
+            }
+        }
+    }
+
+    private static List<Path> listSnapshots(Path directory) throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            for (Path file : files) {
+                snapshots.add(file);
+            }
+        }
+        // Zero-padded names sort in sequence order
+        Collections.sort(snapshots);
+        return snapshots;
+    }
+
+    private static String snapshotName(long sequence) {
+        return String.format("%s%020d%s", SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX);
+    }
+}
@@ -0,0 +1,193 @@
+package ontrack.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+
+/**
+ * Publishes {@link TaskEvent}s to subscribers, either all events or those of one unit or one task.
+ *
+ * Each subscriber gets its own {@link SubmissionPublisher}: a bounded buffer drained on a background
+ * thread as the subscriber requests items. Publishing never blocks. An event that does not fit in a
+ * subscriber's buffer is dropped for that subscriber and counted, so a slow subscriber cannot stall writers.
+ * Publishers whose subscriber has cancelled are pruned as events are published.
+ */
+class EventFeed implements AutoCloseable {
+
+    private final int bufferCapacity;
+    private final ExecutorService executor;
+    private final List<SubmissionPublisher<TaskEvent>> allEvents = new CopyOnWriteArrayList<>();
+    private final Map<String, List<SubmissionPublisher<TaskEvent>>> unitEvents = new ConcurrentHashMap<>(); // Map Unit ID to its subscribers
+    private final Map<String, List<SubmissionPublisher<TaskEvent>>> taskEvents = new ConcurrentHashMap<>(); // Map Task ID to its subscribers
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final BiPredicate<Flow.Subscriber<? super TaskEvent>, TaskEvent> onDrop = (subscriber, event) -> {
+        droppedEvents.incrementAndGet();
+        return false; // Do not retry
+    };
+    private volatile boolean closed;
+
+    EventFeed(int bufferCapacity) {
+        this.bufferCapacity = bufferCapacity;
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "ontrack-events");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    Flow.Publisher<TaskEvent> allEvents() {
+        return subscriber -> subscribe(subscriber, publisher -> allEvents.add(publisher));
+    }
+
+    Flow.Publisher<TaskEvent> unitEvents(String unitId) {
+        return subscriber -> subscribe(subscriber, publisher -> register(unitEvents, unitId, publisher));
+    }
+
+    Flow.Publisher<TaskEvent> taskEvents(String taskId) {
+        return subscriber -> subscribe(subscriber, publisher -> register(taskEvents, taskId, publisher));
+    }
+
+    /**
+     * @return true if anyone might be subscribed, so callers can skip building events when no one is.
+     */
+    boolean isActive() {
+        return !allEvents.isEmpty() || !unitEvents.isEmpty() || !taskEvents.isEmpty();
+    }
+
+    void publish(TaskEvent event) {
+        offer(allEvents, event);
+        offer(unitEvents, event.getUnitId(), event);
+        offer(taskEvents, event.getTaskId(), event);
+    }
+
+    long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * Completes every subscription. Events already buffered are still delivered.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        closeAll(allEvents);
+        for (List<SubmissionPublisher<TaskEvent>> publishers : unitEvents.values()) {
+            closeAll(publishers);
+        }
+        for (List<SubmissionPublisher<TaskEvent>> publishers : taskEvents.values()) {
+            closeAll(publishers);
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Passes events on to a subscriber until it cancels. A SubmissionPublisher may still deliver buffered
+     * events until its drain task sees a cancellation, so this stops delivery as soon as cancel returns.
+     */
+    private static final class Delivery implements Flow.Subscriber<TaskEvent>, Flow.Subscription {
+        private final Flow.Subscriber<? super TaskEvent> subscriber;
+        private volatile Flow.Subscription subscription;
+        private volatile boolean cancelled;
+
+        private Delivery(Flow.Subscriber<? super TaskEvent> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscriber.onSubscribe(this);
+        }
+
+        @Override
+        public void onNext(TaskEvent event) {
+            if (!cancelled) {
+                subscriber.onNext(event);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (!cancelled) {
+                subscriber.onError(throwable);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            if (!cancelled) {
+                subscriber.onComplete();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            subscription.request(n);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscription.cancel();
+        }
+    }
+
+    private void subscribe(Flow.Subscriber<? super TaskEvent> subscriber,
+                           Consumer<SubmissionPublisher<TaskEvent>> registration) {
+        SubmissionPublisher<TaskEvent> publisher = new SubmissionPublisher<>(executor, bufferCapacity);
+        // Subscribe before registering, so the publisher is never pruned for having no subscriber yet
+        publisher.subscribe(new Delivery(subscriber));
+        registration.accept(publisher);
+        if (closed) {
+            publisher.close();
+        }
+    }
+
+    private static void register(Map<String, List<SubmissionPublisher<TaskEvent>>> publishersByKey, String key,
+                                 SubmissionPublisher<TaskEvent> publisher) {
+        // Adding and pruning both run inside compute, so a new subscriber never lands in a discarded list
+        publishersByKey.compute(key, (k, publishers) -> {
+            List<SubmissionPublisher<TaskEvent>> result = publishers == null ? new CopyOnWriteArrayList<>() : publishers;
+            result.add(publisher);
+            return result;
+        });
+    }
+
+    private void offer(Map<String, List<SubmissionPublisher<TaskEvent>>> publishersByKey, String key, TaskEvent event) {
+        List<SubmissionPublisher<TaskEvent>> publishers = publishersByKey.get(key);
+        if (publishers != null && offer(publishers, event)) {
+            publishersByKey.computeIfPresent(key, (k, current) -> current.isEmpty() ? null : current);
+        }
+    }
+
+    /**
+     * @return true if any publisher was pruned.
+     */
+    private boolean offer(List<SubmissionPublisher<TaskEvent>> publishers, TaskEvent event) {
+        boolean pruned = false;
+        for (SubmissionPublisher<TaskEvent> publisher : publishers) {
+            if (!publisher.hasSubscribers()) {
+                publisher.close();
+                publishers.remove(publisher);
+                pruned = true;
+            } else {
+                publisher.offer(event, onDrop);
+            }
+        }
+        return pruned;
+    }
+
+    private static void closeAll(List<SubmissionPublisher<TaskEvent>> publishers) {
+        for (SubmissionPublisher<TaskEvent> publisher : publishers) {
+            publisher.close();
+        }
+    }
+}
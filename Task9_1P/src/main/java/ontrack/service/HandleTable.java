@@ -0,0 +1,62 @@
+package ontrack.service;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * A growable array of values indexed by {@link IdDictionary} handles.
+ * Stored in fixed-size chunks, so growing never copies values, only the small chunk directory.
+ * Reads take no lock; writes are synchronized.
+ */
+final class HandleTable<V> {
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private volatile AtomicReferenceArray<V>[] chunks = new AtomicReferenceArray[0];
+
+    /**
+     * @return The value at the handle, or null if none has been set.
+     */
+    V get(int handle) {
+        AtomicReferenceArray<V>[] current = chunks;
+        int chunk = handle >>> CHUNK_BITS;
+        return chunk < current.length ? current[chunk].get(handle & CHUNK_MASK) : null;
+    }
+
+    /**
+     * @return The value at the handle, setting it to a new value first if none has been set.
+     */
+    V computeIfAbsent(int handle, Supplier<? extends V> factory) {
+        V value = get(handle);
+        if (value != null) {
+            return value;
+        }
+        synchronized (this) {
+            value = get(handle);
+            if (value == null) {
+                value = factory.get();
+                chunkFor(handle).set(handle & CHUNK_MASK, value);
+            }
+            return value;
+        }
+    }
+
+    private AtomicReferenceArray<V> chunkFor(int handle) {
+        int chunk = handle >>> CHUNK_BITS;
+        AtomicReferenceArray<V>[] current = chunks;
+        if (chunk >= current.length) {
+            // Chunks are added to a copy of the directory, which is then published whole
+            AtomicReferenceArray<V>[] grown = Arrays.copyOf(current, chunk + 1);
+            for (int i = current.length; i < grown.length; i++) {
+                grown[i] = new AtomicReferenceArray<>(CHUNK_SIZE);
+            }
+            chunks = grown;
+            current = grown;
+        }
+        return current[chunk];
+    }
+}
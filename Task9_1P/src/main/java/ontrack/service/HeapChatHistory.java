@@ -0,0 +1,195 @@
+package ontrack.service;
+
+import ontrack.model.ChatMessage;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Chat history held on the heap.
+ * Backed by a sorted array, so a page or time range is found by binary search in O(log n)
+ * and only the requested messages are copied out.
+ *
+ * Appends in timestamp order extend the array in place. Any other insert copies it, so a published
+ * {@link Entries} never changes within its size and readers need no locking.
+ */
+class HeapChatHistory implements ChatHistory {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private volatile Entries entries = new Entries(new ChatMessage[INITIAL_CAPACITY], 0);
+
+    /**
+     * An immutable view of the first {@code size} slots of the message array.
+     */
+    private static final class Entries {
+        private final ChatMessage[] messages;
+        private final int size;
+        private List<ChatMessage> all; // Created on first use; a racing duplicate is harmless
+
+        private Entries(ChatMessage[] messages, int size) {
+            this.messages = messages;
+            this.size = size;
+        }
+    }
+
+    @Override
+    public synchronized void add(ChatMessage message) {
+        Entries current = entries;
+        // Equal keys keep arrival order, so insert after them
+        int position = upperBound(current, message.getTimestamp(), message.getId());
+        int size = current.size;
+        ChatMessage[] messages = current.messages;
+        if (position < size || size == messages.length) {
+            ChatMessage[] newMessages = new ChatMessage[size == messages.length ? size * 2 : messages.length];
+            System.arraycopy(messages, 0, newMessages, 0, position);
+            System.arraycopy(messages, position, newMessages, position + 1, size - position);
+            messages = newMessages;
+        }
+        messages[position] = message;
+        entries = new Entries(messages, size + 1);
+    }
+
+    /**
+     * Adds a batch of messages, growing the array at most once.
+     * A batch that sorts after every existing message fills the array in place; any other batch
+     * is merged with the existing messages into a new array in a single pass.
+     */
+    @Override
+    public synchronized void addAll(List<ChatMessage> batch) {
+        int count = batch.size();
+        if (count == 0) {
+            return;
+        }
+        ChatMessage[] sorted = batch.toArray(new ChatMessage[0]);
+        // The sort is stable, so messages with equal keys keep their order in the batch
+        Arrays.sort(sorted, (a, b) -> compare(a, b.getTimestamp(), b.getId()));
+
+        Entries current = entries;
+        int size = current.size;
+        ChatMessage[] messages = current.messages;
+        int capacity = size + count <= messages.length ? messages.length : Math.max(size * 2, size + count);
+        if (size == 0 || compare(messages[size - 1], sorted[0].getTimestamp(), sorted[0].getId()) <= 0) {
+            if (capacity > messages.length) {
+                messages = Arrays.copyOf(messages, capacity);
+            }
+            System.arraycopy(sorted, 0, messages, size, count);
+        } else {
+            messages = new ChatMessage[capacity];
+            int i = 0;
+            int j = 0;
+            for (int k = 0; k < size + count; k++) {
+                // Existing messages go first on equal keys, as they arrived earlier
+                if (j == count || (i < size
+                        && compare(current.messages[i], sorted[j].getTimestamp(), sorted[j].getId()) <= 0)) {
+                    messages[k] = current.messages[i++];
+                } else {
+                    messages[k] = sorted[j++];
+                }
+            }
+        }
+        entries = new Entries(messages, size + count);
+    }
+
+    @Override
+    public int size() {
+        return entries.size;
+    }
+
+    @Override
+    public boolean containsId(String messageId) {
+        Entries current = entries;
+        for (int i = 0; i < current.size; i++) {
+            if (current.messages[i].getId().equals(messageId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public List<ChatMessage> getAll() {
+        Entries current = entries;
+        List<ChatMessage> all = current.all;
+        if (all == null) {
+            all = Collections.unmodifiableList(Arrays.asList(current.messages).subList(0, current.size));
+            current.all = all;
+        }
+        return all;
+    }
+
+    @Override
+    public List<ChatMessage> getLatest(int limit) {
+        Entries current = entries;
+        return copy(current, Math.max(0, current.size - limit), current.size);
+    }
+
+    @Override
+    public List<ChatMessage> getAfter(ChatCursor cursor, int limit) {
+        Entries current = entries;
+        int from = upperBound(current, cursor.getTimestamp(), cursor.getMessageId());
+        return copy(current, from, from + Math.min(limit, current.size - from));
+    }
+
+    @Override
+    public List<ChatMessage> getBefore(ChatCursor cursor, int limit) {
+        Entries current = entries;
+        int to = lowerBound(current, cursor.getTimestamp(), cursor.getMessageId());
+        return copy(current, Math.max(0, to - limit), to);
+    }
+
+    @Override
+    public List<ChatMessage> getBetween(LocalDateTime from, LocalDateTime to) {
+        Entries current = entries;
+        // The empty ID sorts before every real ID, so these bounds sit just before each instant
+        int fromIndex = lowerBound(current, from, "");
+        int toIndex = lowerBound(current, to, "");
+        return copy(current, fromIndex, Math.max(fromIndex, toIndex));
+    }
+
+    private static List<ChatMessage> copy(Entries current, int from, int to) {
+        return new ArrayList<>(Arrays.asList(current.messages).subList(from, to));
+    }
+
+    /**
+     * @return The index of the first message positioned at or after (timestamp, messageId).
+     */
+    private static int lowerBound(Entries current, LocalDateTime timestamp, String messageId) {
+        int low = 0;
+        int high = current.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(current.messages[mid], timestamp, messageId) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return The index of the first message positioned after (timestamp, messageId).
+     */
+    private static int upperBound(Entries current, LocalDateTime timestamp, String messageId) {
+        int low = 0;
+        int high = current.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(current.messages[mid], timestamp, messageId) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int compare(ChatMessage message, LocalDateTime timestamp, String messageId) {
+        int result = message.getTimestamp().compareTo(timestamp);
+        return result != 0 ? result : message.getId().compareTo(messageId);
+    }
+}
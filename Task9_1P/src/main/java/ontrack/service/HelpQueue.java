@@ -0,0 +1,139 @@
+package ontrack.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The tasks of one unit that need help, longest waiting first.
+ *
+ * A binary min-heap ordered by when each task joined. Every node knows its position in the heap,
+ * so a task that stops needing help is removed in O(log n) without a search.
+ * Not thread-safe: callers hold the unit's lock.
+ */
+final class HelpQueue {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * A queued task. Joining order breaks ties between tasks that joined in the same instant.
+     */
+    static final class Node {
+        private final HelpRequest request;
+        private final long order;
+        private int position;
+
+        private Node(HelpRequest request, long order) {
+            this.request = request;
+            this.order = order;
+        }
+
+        HelpRequest getRequest() {
+            return request;
+        }
+    }
+
+    private Node[] heap = new Node[INITIAL_CAPACITY];
+    private int size;
+    private long nextOrder;
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The node of the queued request, needed to remove it.
+     */
+    Node add(HelpRequest request) {
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        Node node = new Node(request, nextOrder++);
+        heap[size] = node;
+        node.position = size;
+        size++;
+        siftUp(node.position);
+        return node;
+    }
+
+    /**
+     * Swaps the request of a queued node, keeping its place in the queue.
+     *
+     * @return The node now holding the request, needed to remove it.
+     */
+    Node replace(Node node, HelpRequest request) {
+        Node replacement = new Node(request, node.order);
+        place(replacement, node.position);
+        return replacement;
+    }
+
+    void remove(Node node) {
+        int position = node.position;
+        size--;
+        Node last = heap[size];
+        heap[size] = null;
+        if (position < size) {
+            // Fill the hole with the last node, which may belong above or below it
+            heap[position] = last;
+            last.position = position;
+            siftDown(position);
+            siftUp(last.position);
+        }
+    }
+
+    /**
+     * @return The request that has waited longest, or null if the queue is empty.
+     */
+    HelpRequest peek() {
+        return size == 0 ? null : heap[0].request;
+    }
+
+    /**
+     * @return Every queued request, longest waiting first.
+     */
+    List<HelpRequest> toList() {
+        Node[] nodes = Arrays.copyOf(heap, size);
+        Arrays.sort(nodes, Comparator.comparingLong(node -> node.order));
+        List<HelpRequest> result = new ArrayList<>(size);
+        for (Node node : nodes) {
+            result.add(node.request);
+        }
+        return result;
+    }
+
+    private void siftUp(int position) {
+        Node node = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (heap[parent].order <= node.order) {
+                break;
+            }
+            place(heap[parent], position);
+            position = parent;
+        }
+        place(node, position);
+    }
+
+    private void siftDown(int position) {
+        Node node = heap[position];
+        int half = size >>> 1;
+        while (position < half) {
+            int child = 2 * position + 1;
+            if (child + 1 < size && heap[child + 1].order < heap[child].order) {
+                child++;
+            }
+            if (node.order <= heap[child].order) {
+                break;
+            }
+            place(heap[child], position);
+            position = child;
+        }
+        place(node, position);
+    }
+
+    private void place(Node node, int position) {
+        heap[position] = node;
+        node.position = position;
+    }
+}
@@ -0,0 +1,42 @@
+package ontrack.service;
+
+import ontrack.model.Task;
+
+import java.time.LocalDateTime;
+
+/**
+ * A task waiting in its unit's help queue, see {@link OnTrackService#getTasksNeedingHelp(String)}.
+ */
+public final class HelpRequest {
+
+    private final Task task;
+    private final LocalDateTime since;
+
+    HelpRequest(Task task, LocalDateTime since) {
+        this.task = task;
+        this.since = since;
+    }
+
+    public Task getTask() {
+        return task;
+    }
+
+    public String getTaskId() {
+        return task.getId();
+    }
+
+    /**
+     * @return When the task entered NEED_HELP. For a recovered service, when its change was replayed.
+     */
+    public LocalDateTime getSince() {
+        return since;
+    }
+
+    @Override
+    public String toString() {
+        return "HelpRequest{" +
+                "taskId='" + task.getId() + '\'' +
+                ", since=" + since +
+                '}';
+    }
+}
@@ -0,0 +1,104 @@
+package ontrack.service;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Assigns each distinct String ID a dense int handle: 0, 1, 2, ... in the order IDs are first added.
+ * Handles never change and are never reused, so they can index plain arrays.
+ *
+ * An open-addressing table with linear probing. Lookups take no lock: each slot's handle is written
+ * before its ID is published, and a resized table is published only once complete. Adds are synchronized.
+ */
+final class IdDictionary {
+
+    static final int NONE = -1;
+
+    private static final int INITIAL_BITS = 6;
+
+    private volatile Table table = new Table(INITIAL_BITS);
+    private int size; // Guarded by this
+
+    private static final class Table {
+        private final AtomicReferenceArray<String> ids;
+        private final int[] handles;
+        private final int shift;
+        private final int mask;
+
+        private Table(int bits) {
+            ids = new AtomicReferenceArray<>(1 << bits);
+            handles = new int[1 << bits];
+            shift = 32 - bits;
+            mask = (1 << bits) - 1;
+        }
+
+        private int indexOf(String id) {
+            // Fibonacci hashing spreads the sequential hash codes of IDs like "T1", "T2" across the table
+            return (id.hashCode() * 0x9E3779B9) >>> shift;
+        }
+
+        private int get(String id) {
+            for (int i = indexOf(id); ; i = (i + 1) & mask) {
+                String candidate = ids.get(i);
+                if (candidate == null) {
+                    return NONE;
+                }
+                if (candidate.equals(id)) {
+                    return handles[i];
+                }
+            }
+        }
+
+        private void put(String id, int handle) {
+            int i = indexOf(id);
+            while (ids.get(i) != null) {
+                i = (i + 1) & mask;
+            }
+            handles[i] = handle;
+            ids.set(i, id); // Publishes the handle written above
+        }
+    }
+
+    /**
+     * @return The handle of the ID, or {@link #NONE} if the ID has not been added.
+     */
+    int get(String id) {
+        return table.get(id);
+    }
+
+    /**
+     * @return The handle of the ID, assigning the next handle if the ID is new.
+     */
+    synchronized int add(String id) {
+        Table current = table;
+        int handle = current.get(id);
+        if (handle != NONE) {
+            return handle;
+        }
+        // Keep the table at most half full, so probe sequences stay short
+        if ((size + 1) * 2 > current.handles.length) {
+            current = resize(current);
+        }
+        handle = size++;
+        current.put(id, handle);
+        return handle;
+    }
+
+    /**
+     * @return The number of IDs added, which is also the next handle.
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    private Table resize(Table current) {
+        Table resized = new Table(32 - current.shift + 1);
+        for (int i = 0; i <= current.mask; i++) {
+            String id = current.ids.get(i);
+            if (id != null) {
+                resized.put(id, current.handles[i]);
+            }
+        }
+        table = resized;
+        return resized;
+    }
+}
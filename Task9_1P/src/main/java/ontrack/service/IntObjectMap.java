@@ -0,0 +1,175 @@
+package ontrack.service;
+
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * A map from int keys to values that iterates in insertion order, like a LinkedHashMap without
+ * boxed keys or per-entry nodes.
+ *
+ * Entries are appended to parallel key and value arrays, and an open-addressing table maps each key
+ * to its entry's position. A removed entry leaves a gap that is squeezed out when the arrays next fill.
+ * Replacing the value of an existing key keeps its position. Values cannot be null.
+ * Not thread-safe.
+ */
+final class IntObjectMap<V> {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private int[] keys = new int[INITIAL_CAPACITY]; // In insertion order
+    private Object[] values = new Object[INITIAL_CAPACITY]; // Null where an entry was removed
+    private int[] slots = new int[INITIAL_CAPACITY * 2]; // Position + 1 of the entry for each slot, 0 if empty
+    private int end; // Positions in use, including gaps
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        int slot = find(key);
+        return slot < 0 ? null : (V) values[slots[slot] - 1];
+    }
+
+    /**
+     * @return The previous value of the key, or null if it had none.
+     */
+    @SuppressWarnings("unchecked")
+    V put(int key, V value) {
+        int slot = find(key);
+        if (slot >= 0) {
+            int position = slots[slot] - 1;
+            V previous = (V) values[position];
+            values[position] = value;
+            return previous;
+        }
+        if (end == keys.length) {
+            // Squeeze out gaps if that frees enough room, otherwise grow
+            rebuild(size * 2 <= keys.length ? keys.length : keys.length * 2);
+        }
+        keys[end] = key;
+        values[end] = value;
+        end++;
+        size++;
+        slots[emptySlot(key)] = end;
+        return null;
+    }
+
+    /**
+     * @return The removed value, or null if the key had none.
+     */
+    @SuppressWarnings("unchecked")
+    V remove(int key) {
+        int slot = find(key);
+        if (slot < 0) {
+            return null;
+        }
+        int position = slots[slot] - 1;
+        V previous = (V) values[position];
+        values[position] = null;
+        size--;
+        deleteSlot(slot);
+        return previous;
+    }
+
+    /**
+     * Passes each value to an action, in insertion order.
+     */
+    @SuppressWarnings("unchecked")
+    void forEach(Consumer<? super V> action) {
+        for (int position = 0; position < end; position++) {
+            Object value = values[position];
+            if (value != null) {
+                action.accept((V) value);
+            }
+        }
+    }
+
+    /**
+     * Passes each value to an action, in insertion order, until the action returns false.
+     *
+     * @return false if the action stopped the iteration.
+     */
+    @SuppressWarnings("unchecked")
+    boolean forEachWhile(Predicate<? super V> action) {
+        for (int position = 0; position < end; position++) {
+            Object value = values[position];
+            if (value != null && !action.test((V) value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(int key) {
+        return (key * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(slots.length));
+    }
+
+    /**
+     * @return The slot holding the key, or -1 if the key is absent.
+     */
+    private int find(int key) {
+        int mask = slots.length - 1;
+        for (int slot = indexOf(key); ; slot = (slot + 1) & mask) {
+            int entry = slots[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            if (keys[entry - 1] == key) {
+                return slot;
+            }
+        }
+    }
+
+    private int emptySlot(int key) {
+        int mask = slots.length - 1;
+        int slot = indexOf(key);
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Empties a slot, shifting back later entries of its probe run so lookups never stop early.
+     */
+    private void deleteSlot(int slot) {
+        int mask = slots.length - 1;
+        int gap = slot;
+        for (int next = (gap + 1) & mask; slots[next] != 0; next = (next + 1) & mask) {
+            int home = indexOf(keys[slots[next] - 1]);
+            // Move the entry into the gap unless its home lies cyclically after the gap and at or before next
+            boolean reachable = gap <= next ? (home > gap && home <= next) : (home > gap || home <= next);
+            if (!reachable) {
+                slots[gap] = slots[next];
+                gap = next;
+            }
+        }
+        slots[gap] = 0;
+    }
+
+    private void rebuild(int capacity) {
+        int[] newKeys = new int[capacity];
+        Object[] newValues = new Object[capacity];
+        int count = 0;
+        for (int position = 0; position < end; position++) {
+            if (values[position] != null) {
+                newKeys[count] = keys[position];
+                newValues[count] = values[position];
+                count++;
+            }
+        }
+        keys = newKeys;
+        values = newValues;
+        end = count;
+        slots = new int[capacity * 2];
+        for (int position = 0; position < count; position++) {
+            slots[emptySlot(keys[position])] = position + 1;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package ontrack.service;
+
+import ontrack.model.ChatMessage;
+
+import java.time.LocalDateTime;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Chat history stored in a {@link MappedChatLog}.
+ * The heap holds only a sorted index of encoded timestamps and log offsets (16 bytes per message);
+ * returned lists decode each message from the log when it is read.
+ *
+ * Appends in timestamp order extend the index arrays in place. Any other insert copies them, so a
+ * published {@link Entries} never changes within its size and readers need no locking.
+ */
+class MappedChatHistory implements ChatHistory {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final MappedChatLog log;
+    private volatile Entries entries = new Entries(new long[INITIAL_CAPACITY], new long[INITIAL_CAPACITY], 0);
+
+    /**
+     * An immutable view of the first {@code size} slots of the index arrays.
+     */
+    private static final class Entries {
+        private final long[] timestamps;
+        private final long[] offsets;
+        private final int size;
+        private List<ChatMessage> all; // Created on first use; a racing duplicate is harmless
+
+        private Entries(long[] timestamps, long[] offsets, int size) {
+            this.timestamps = timestamps;
+            this.offsets = offsets;
+            this.size = size;
+        }
+    }
+
+    MappedChatHistory(MappedChatLog log) {
+        this.log = log;
+    }
+
+    @Override
+    public synchronized void add(ChatMessage message) {
+        long offset = log.append(message);
+        long timestamp = MappedChatLog.encodeTimestamp(message.getTimestamp());
+        Entries current = entries;
+        // Equal keys keep arrival order, so insert after them
+        int position = upperBound(current, timestamp, message.getId());
+        int size = current.size;
+        long[] timestamps = current.timestamps;
+        long[] offsets = current.offsets;
+        if (position < size || size == timestamps.length) {
+            int capacity = size == timestamps.length ? size * 2 : timestamps.length;
+            long[] newTimestamps = new long[capacity];
+            long[] newOffsets = new long[capacity];
+            System.arraycopy(timestamps, 0, newTimestamps, 0, position);
+            System.arraycopy(offsets, 0, newOffsets, 0, position);
+            System.arraycopy(timestamps, position, newTimestamps, position + 1, size - position);
+            System.arraycopy(offsets, position, newOffsets, position + 1, size - position);
+            timestamps = newTimestamps;
+            offsets = newOffsets;
+        }
+        timestamps[position] = timestamp;
+        offsets[position] = offset;
+        entries = new Entries(timestamps, offsets, size + 1);
+    }
+
+    /**
+     * Adds a batch of messages, growing the index arrays at most once.
+     * A batch that sorts after every existing message fills the arrays in place; any other batch
+     * is merged with the existing entries into new arrays in a single pass.
+     */
+    @Override
+    public synchronized void addAll(List<ChatMessage> messages) {
+        long[] offsets = new long[messages.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = log.append(messages.get(i));
+        }
+        insert(messages, offsets);
+    }
+
+    /**
+     * Adds messages that are already in the log, such as those found when it was opened.
+     *
+     * @param messages The messages, in the order they were appended.
+     * @param offsets  The offset of each message in the log.
+     */
+    synchronized void addLogged(List<ChatMessage> messages, long[] offsets) {
+        insert(messages, offsets);
+    }
+
+    private void insert(List<ChatMessage> messages, long[] batchOffsets) {
+        int count = messages.size();
+        if (count == 0) {
+            return;
+        }
+        long[] batchTimestamps = new long[count];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            batchTimestamps[i] = MappedChatLog.encodeTimestamp(messages.get(i).getTimestamp());
+            order[i] = i;
+        }
+        // The sort is stable, so messages with equal keys keep their order in the batch
+        Arrays.sort(order, (a, b) -> {
+            int result = Long.compare(batchTimestamps[a], batchTimestamps[b]);
+            return result != 0 ? result : messages.get(a).getId().compareTo(messages.get(b).getId());
+        });
+
+        Entries current = entries;
+        int size = current.size;
+        long[] timestamps = current.timestamps;
+        long[] offsets = current.offsets;
+        int first = order[0];
+        boolean appendOnly = size == 0
+                || compare(current, size - 1, batchTimestamps[first], messages.get(first).getId()) <= 0;
+        int capacity = size + count <= timestamps.length ? timestamps.length : Math.max(size * 2, size + count);
+        if (appendOnly) {
+            if (capacity > timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+            }
+            for (int j = 0; j < count; j++) {
+                timestamps[size + j] = batchTimestamps[order[j]];
+                offsets[size + j] = batchOffsets[order[j]];
+            }
+        } else {
+            timestamps = new long[capacity];
+            offsets = new long[capacity];
+            int i = 0;
+            int j = 0;
+            for (int k = 0; k < size + count; k++) {
+                // Existing entries go first on equal keys, as they arrived earlier
+                if (j == count || (i < size
+                        && compare(current, i, batchTimestamps[order[j]], messages.get(order[j]).getId()) <= 0)) {
+                    timestamps[k] = current.timestamps[i];
+                    offsets[k] = current.offsets[i];
+                    i++;
+                } else {
+                    timestamps[k] = batchTimestamps[order[j]];
+                    offsets[k] = batchOffsets[order[j]];
+                    j++;
+                }
+            }
+        }
+        entries = new Entries(timestamps, offsets, size + count);
+    }
+
+    @Override
+    public int size() {
+        return entries.size;
+    }
+
+    @Override
+    public boolean containsId(String messageId) {
+        Entries current = entries;
+        // Reads only each message's ID from the log
+        for (int i = 0; i < current.size; i++) {
+            if (log.readId(current.offsets[i]).equals(messageId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public List<ChatMessage> getAll() {
+        Entries current = entries;
+        List<ChatMessage> all = current.all;
+        if (all == null) {
+            all = new MessageList(current.offsets, 0, current.size);
+            current.all = all;
+        }
+        return all;
+    }
+
+    @Override
+    public List<ChatMessage> getLatest(int limit) {
+        Entries current = entries;
+        return new MessageList(current.offsets, Math.max(0, current.size - limit), current.size);
+    }
+
+    @Override
+    public List<ChatMessage> getAfter(ChatCursor cursor, int limit) {
+        Entries current = entries;
+        int from = upperBound(current, MappedChatLog.encodeTimestamp(cursor.getTimestamp()), cursor.getMessageId());
+        return new MessageList(current.offsets, from, from + Math.min(limit, current.size - from));
+    }
+
+    @Override
+    public List<ChatMessage> getBefore(ChatCursor cursor, int limit) {
+        Entries current = entries;
+        int to = lowerBound(current, MappedChatLog.encodeTimestamp(cursor.getTimestamp()), cursor.getMessageId());
+        return new MessageList(current.offsets, Math.max(0, to - limit), to);
+    }
+
+    @Override
+    public List<ChatMessage> getBetween(LocalDateTime from, LocalDateTime to) {
+        Entries current = entries;
+        // The empty ID sorts before every real ID, so these bounds sit just before each instant
+        int fromIndex = lowerBound(current, MappedChatLog.encodeTimestamp(from), "");
+        int toIndex = lowerBound(current, MappedChatLog.encodeTimestamp(to), "");
+        return new MessageList(current.offsets, fromIndex, Math.max(fromIndex, toIndex));
+    }
+
+    /**
+     * @return The index of the first entry positioned at or after (timestamp, messageId).
+     */
+    private int lowerBound(Entries current, long timestamp, String messageId) {
+        int low = 0;
+        int high = current.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(current, mid, timestamp, messageId) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return The index of the first entry positioned after (timestamp, messageId).
+     */
+    private int upperBound(Entries current, long timestamp, String messageId) {
+        int low = 0;
+        int high = current.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(current, mid, timestamp, messageId) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int compare(Entries current, int index, long timestamp, String messageId) {
+        int result = Long.compare(current.timestamps[index], timestamp);
+        if (result == 0) {
+            // Only ties on timestamp need the ID from the log
+            result = log.readId(current.offsets[index]).compareTo(messageId);
+        }
+        return result;
+    }
+
+    /**
+     * A read-only list over a range of log offsets that decodes each message on access.
+     */
+    private final class MessageList extends AbstractList<ChatMessage> implements RandomAccess {
+        private final long[] offsets;
+        private final int from;
+        private final int to;
+
+        private MessageList(long[] offsets, int from, int to) {
+            this.offsets = offsets;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public ChatMessage get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+            return log.read(offsets[from + index]);
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+}
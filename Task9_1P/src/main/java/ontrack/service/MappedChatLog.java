@@ -0,0 +1,413 @@
+package ontrack.service;
+
+import ontrack.model.ChatMessage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * Append-only log of chat messages stored in memory-mapped segment files.
+ * Messages are written once and decoded on demand, so the heap only holds each task's offset index.
+ *
+ * Each record is laid out as: record length, message ID, task ID, sender, content
+ * (each a UTF-8 byte count followed by the bytes), epoch second and nano of the timestamp.
+ * A zero length marks the end of the written part of a segment. The length is written after the rest
+ * of the record, so a process that dies mid-append leaves the end marker in place.
+ *
+ * An offset packs the segment number in its high 32 bits and the position in the segment in its low 32 bits.
+ *
+ * Opening a directory that already holds segments scans them and keeps, for each task ID, the offsets
+ * of its messages; a service attaches them to the task when the task is added. Pages are written back
+ * by the operating system, so on its own the log survives a process crash but not a machine crash.
+ * {@link OnTrackService#open(Path)} stores chat messages in a log like this and also writes them to its
+ * write-ahead log, replaying into the chat log whatever a crash lost.
+ */
+public class MappedChatLog implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "chat-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final Pattern SEGMENT_NAME = Pattern.compile(SEGMENT_PREFIX + "\\d{8}" + Pattern.quote(SEGMENT_SUFFIX));
+
+    private final Path directory;
+    private final int segmentSize;
+    private final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>(); // Indexed by segment number
+    private MappedByteBuffer current;
+    private int currentNumber = -1;
+    private boolean closed;
+    private Map<String, Offsets> recovered = new HashMap<>(); // Each task's messages found by open
+
+    /**
+     * A growable list of record offsets.
+     */
+    private static final class Offsets {
+        private long[] values = new long[4];
+        private int size;
+
+        private void add(long offset) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = offset;
+        }
+    }
+
+    private MappedChatLog(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Opens a chat log in a directory, using the default segment size.
+     * Messages already in the directory are kept, and new ones are appended after them.
+     *
+     * @param directory The directory to hold the segment files. Created if missing.
+     * @return The opened log.
+     * @throws UncheckedIOException if the directory cannot be created or read, or a segment is corrupt.
+     */
+    public static MappedChatLog open(Path directory) {
+        return open(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens a chat log in a directory. Messages already in the directory are kept, and new ones
+     * are appended after them. A record cut short at the end of the last segment is discarded.
+     *
+     * @param directory   The directory to hold the segment files. Created if missing.
+     * @param segmentSize The size in bytes of each new segment file. Existing segments keep their size.
+     * @return The opened log.
+     * @throws IllegalArgumentException if directory is null or segmentSize is not positive.
+     * @throws UncheckedIOException     if the directory cannot be created or read, a segment is missing,
+     *                                  or a segment other than the last is corrupt.
+     */
+    public static MappedChatLog open(Path directory, int segmentSize) {
+        if (directory == null) {
+            throw new IllegalArgumentException("Directory cannot be null.");
+        }
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must be positive.");
+        }
+        try {
+            Files.createDirectories(directory);
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+                for (Path file : stream) {
+                    if (SEGMENT_NAME.matcher(file.getFileName().toString()).matches()) {
+                        files.add(file);
+                    }
+                }
+            }
+            // Zero-padded names sort in segment order
+            Collections.sort(files);
+            MappedChatLog log = new MappedChatLog(directory, segmentSize);
+            for (int number = 0; number < files.size(); number++) {
+                Path file = files.get(number);
+                if (!file.equals(segmentFile(directory, number))) {
+                    throw new IOException("Missing chat log segment " + segmentFile(directory, number));
+                }
+                log.recoverSegment(file, number, number == files.size() - 1);
+            }
+            return log;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open chat log in " + directory, e);
+        }
+    }
+
+    /**
+     * Takes the offsets of the messages a task had in the log when it was opened. Each task's offsets
+     * can be taken once.
+     *
+     * @return The offsets in the order the messages were appended, or null if the task had none.
+     */
+    synchronized long[] takeRecovered(String taskId) {
+        Offsets offsets = recovered.isEmpty() ? null : recovered.remove(taskId);
+        return offsets == null ? null : Arrays.copyOf(offsets.values, offsets.size);
+    }
+
+    /**
+     * @return The offset the next record will be written at, or 0 if nothing was ever written.
+     */
+    synchronized long position() {
+        return current == null ? 0 : (long) currentNumber << 32 | current.position();
+    }
+
+    /**
+     * Writes the segment holding a position to disk, so every record before the position is durable.
+     * Earlier segments were written when the log rolled over from them.
+     */
+    void force(long position) {
+        int number = (int) (position >>> 32);
+        if (number < segments.size()) {
+            segments.get(number).force();
+        }
+    }
+
+    /**
+     * Discards the records at and after a position, which later appends overwrite. Called before any
+     * append, by a durable service whose write-ahead log holds the discarded messages.
+     *
+     * @param position A position from {@link #position()} when those records were written.
+     * @throws IllegalStateException if the log ends before the position.
+     */
+    synchronized void truncate(long position) {
+        int number = (int) (position >>> 32);
+        int offset = (int) position;
+        if (segments.isEmpty() && position == 0) {
+            return;
+        }
+        if (number >= segments.size() || number > currentNumber
+                || (number == currentNumber && offset > current.position())) {
+            throw new IllegalStateException("Chat log in " + directory + " ends before position " + number + ":" + offset);
+        }
+        MappedByteBuffer segment = segments.get(number);
+        if (offset + Integer.BYTES <= segment.capacity()) {
+            segment.putInt(offset, 0);
+        }
+        // Later segments are kept and reused, emptied so a scan stops at their start
+        for (int later = number + 1; later < segments.size(); later++) {
+            segments.get(later).putInt(0, 0);
+        }
+        current = segment;
+        current.position(offset);
+        currentNumber = number;
+        // Each task's offsets are in append order, so the discarded ones are at the end
+        recovered.values().forEach(offsets -> {
+            while (offsets.size > 0 && offsets.values[offsets.size - 1] >= position) {
+                offsets.size--;
+            }
+        });
+        recovered.values().removeIf(offsets -> offsets.size == 0);
+    }
+
+    /**
+     * Appends a message to the log.
+     *
+     * @param message The message to append.
+     * @return The offset of the message's record.
+     * @throws IllegalArgumentException if the encoded message is larger than a segment.
+     * @throws IllegalStateException    if the log is closed.
+     * @throws UncheckedIOException     if a new segment cannot be created.
+     */
+    synchronized long append(ChatMessage message) {
+        if (closed) {
+            throw new IllegalStateException("Chat log is closed.");
+        }
+        byte[] id = message.getId().getBytes(StandardCharsets.UTF_8);
+        byte[] taskId = message.getTaskId().getBytes(StandardCharsets.UTF_8);
+        byte[] sender = message.getSender().getBytes(StandardCharsets.UTF_8);
+        byte[] content = message.getContent().getBytes(StandardCharsets.UTF_8);
+        int bodyLength = bodyLength(id.length, taskId.length, sender.length, content.length);
+        // Leave room for this record's length and the end marker after it
+        int required = Integer.BYTES + bodyLength + Integer.BYTES;
+        if (required > segmentSize) {
+            throw new IllegalArgumentException("ChatMessage is too large for the chat log: " + message.getId());
+        }
+        // A segment reused after truncate may be smaller than the current segment size
+        while (current == null || current.remaining() < required) {
+            rollSegment();
+        }
+
+        int position = current.position();
+        current.position(position + Integer.BYTES);
+        putBytes(current, id);
+        putBytes(current, taskId);
+        putBytes(current, sender);
+        putBytes(current, content);
+        LocalDateTime timestamp = message.getTimestamp();
+        current.putLong(timestamp.toEpochSecond(ZoneOffset.UTC));
+        current.putInt(timestamp.getNano());
+        // The end marker goes down before the length, so a scan never reads past a record being written
+        current.putInt(current.position(), 0);
+        current.putInt(position, bodyLength);
+        return (long) currentNumber << 32 | position;
+    }
+
+    /**
+     * @return true if the message is small enough to be appended to this log.
+     */
+    boolean fits(ChatMessage message) {
+        long required = Integer.BYTES + Integer.BYTES + (long) bodyLength(
+                utf8Length(message.getId()), utf8Length(message.getTaskId()),
+                utf8Length(message.getSender()), utf8Length(message.getContent()));
+        return required <= segmentSize;
+    }
+
+    /**
+     * Decodes the message stored at an offset.
+     */
+    ChatMessage read(long offset) {
+        ByteBuffer record = recordAt(offset);
+        String id = getString(record);
+        String taskId = getString(record);
+        String sender = getString(record);
+        String content = getString(record);
+        LocalDateTime timestamp = LocalDateTime.ofEpochSecond(record.getLong(), record.getInt(), ZoneOffset.UTC);
+        return new ChatMessage(id, taskId, sender, content, timestamp);
+    }
+
+    /**
+     * Decodes only the message ID stored at an offset.
+     */
+    String readId(long offset) {
+        return getString(recordAt(offset));
+    }
+
+    /**
+     * Encodes a timestamp as a single sortable long (nanoseconds since the epoch, read as UTC).
+     */
+    static long encodeTimestamp(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + timestamp.getNano();
+    }
+
+    /**
+     * Stops accepting appends. Mapped segments are released once they are no longer referenced.
+     */
+    @Override
+    public synchronized void close() {
+        if (current != null) {
+            current.force();
+        }
+        closed = true;
+    }
+
+    private void rollSegment() {
+        if (current != null) {
+            current.force();
+        }
+        int number = currentNumber + 1;
+        if (number < segments.size()) {
+            // Emptied by truncate
+            current = segments.get(number);
+            current.position(0);
+            currentNumber = number;
+            return;
+        }
+        Path file = segmentFile(directory, number);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            segments.add(segment);
+            current = segment;
+            currentNumber = number;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create chat log segment " + file, e);
+        }
+    }
+
+    /**
+     * Maps an existing segment and records the offset of each complete message in it.
+     *
+     * @param last true for the newest segment, whose end is where appends continue.
+     * @throws IOException if the segment cannot be mapped, or is corrupt and not the last.
+     */
+    private void recoverSegment(Path file, int number, boolean last) throws IOException {
+        MappedByteBuffer segment;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        int position = 0;
+        while (position + Integer.BYTES <= segment.capacity()) {
+            int length = segment.getInt(position);
+            if (length == 0) {
+                break;
+            }
+            String taskId = recordTaskId(segment, position, length);
+            if (taskId == null) {
+                if (!last) {
+                    throw new IOException("Corrupt chat log segment " + file + " at position " + position);
+                }
+                // Cut short by a crash: later appends overwrite it
+                segment.putInt(position, 0);
+                break;
+            }
+            recovered.computeIfAbsent(taskId, id -> new Offsets()).add((long) number << 32 | position);
+            position += Integer.BYTES + length;
+        }
+        segments.add(segment);
+        if (last) {
+            current = segment;
+            current.position(Math.min(position, segment.capacity()));
+            currentNumber = number;
+        }
+    }
+
+    /**
+     * @return The task ID of a record, or null if the record does not fit in the segment or its fields
+     *         don't add up to its length.
+     */
+    private static String recordTaskId(ByteBuffer segment, int position, int length) {
+        if (length < bodyLength(0, 0, 0, 0) || length > segment.capacity() - position - 2 * Integer.BYTES) {
+            return null;
+        }
+        ByteBuffer record = segment.duplicate();
+        record.position(position + Integer.BYTES);
+        record.limit(position + Integer.BYTES + length);
+        String taskId = null;
+        for (int field = 0; field < 4; field++) {
+            int fieldLength = record.getInt();
+            if (fieldLength < 0 || fieldLength > record.remaining() - Long.BYTES - Integer.BYTES) {
+                return null;
+            }
+            if (field == 1) {
+                byte[] bytes = new byte[fieldLength];
+                record.get(bytes);
+                taskId = new String(bytes, StandardCharsets.UTF_8);
+            } else {
+                record.position(record.position() + fieldLength);
+            }
+        }
+        return record.remaining() == Long.BYTES + Integer.BYTES ? taskId : null;
+    }
+
+    private static Path segmentFile(Path directory, int number) {
+        return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private ByteBuffer recordAt(long offset) {
+        MappedByteBuffer segment = segments.get((int) (offset >>> 32));
+        // A duplicate has its own position, so concurrent readers don't interfere
+        ByteBuffer record = segment.duplicate();
+        record.position((int) offset + Integer.BYTES);
+        return record;
+    }
+
+    private static int bodyLength(int idLength, int taskIdLength, int senderLength, int contentLength) {
+        return 4 * Integer.BYTES + idLength + taskIdLength + senderLength + contentLength + Long.BYTES + Integer.BYTES;
+    }
+
+    private static int utf8Length(String value) {
+        return value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
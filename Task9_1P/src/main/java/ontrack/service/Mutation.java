@@ -0,0 +1,276 @@
+package ontrack.service;
+
+import ontrack.model.ChatMessage;
+import ontrack.model.Grade;
+import ontrack.model.Status;
+import ontrack.model.Task;
+import ontrack.model.Unit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+/**
+ * Binary encoding of the changes made to an OnTrackService.
+ * A mutation is a type byte followed by its fields. The same encoding is used for
+ * write-ahead log records and for the contents of snapshots.
+ *
+ * Task records carry the task's full status and target grade rather than a delta,
+ * so applying a record more than once leaves the same state.
+ */
+final class Mutation {
+
+    static final byte ADD_UNIT = 1;
+    static final byte ADD_TASK = 2;
+    static final byte ADD_CHAT_MESSAGE = 3;
+    static final byte TASK_STATE = 4; // Status and target grade of an existing task
+    static final byte UNIT_TARGET_GRADE = 5;
+    static final byte BATCH = 6; // Mutations that are applied and recovered together
+
+    private static final Status[] STATUSES = Status.values();
+    private static final Grade[] GRADES = Grade.values();
+
+    private Mutation() {
+    }
+
+    static byte[] addUnit(Unit unit) {
+        Encoder out = new Encoder(ADD_UNIT);
+        out.writeString(unit.getId());
+        out.writeString(unit.getName());
+        return out.toByteArray();
+    }
+
+    static byte[] addTask(Task task) {
+        Encoder out = new Encoder(ADD_TASK);
+        out.writeString(task.getId());
+        out.writeString(task.getName());
+        out.writeNullableString(task.getDescription());
+        out.writeString(task.getUnit().getId());
+        out.writeNullableGrade(task.getGrade());
+        out.writeByte(task.getStatus().ordinal());
+        return out.toByteArray();
+    }
+
+    static byte[] addChatMessage(ChatMessage message) {
+        Encoder out = new Encoder(ADD_CHAT_MESSAGE);
+        out.writeString(message.getId());
+        out.writeString(message.getTaskId());
+        out.writeString(message.getSender());
+        out.writeString(message.getContent());
+        out.writeLong(message.getTimestamp().toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(message.getTimestamp().getNano());
+        return out.toByteArray();
+    }
+
+    static byte[] taskState(Task task) {
+        Encoder out = new Encoder(TASK_STATE);
+        out.writeString(task.getId());
+        out.writeByte(task.getStatus().ordinal());
+        out.writeNullableGrade(task.getGrade());
+        return out.toByteArray();
+    }
+
+    static byte[] unitTargetGrade(String unitId, Grade targetGrade) {
+        Encoder out = new Encoder(UNIT_TARGET_GRADE);
+        out.writeString(unitId);
+        out.writeByte(targetGrade.ordinal());
+        return out.toByteArray();
+    }
+
+    static byte[] batch(List<byte[]> mutations) {
+        Encoder out = new Encoder(BATCH);
+        out.writeInt(mutations.size());
+        for (byte[] mutation : mutations) {
+            out.writeInt(mutation.length);
+            out.writeBytes(mutation);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Applies an encoded mutation to a service.
+     *
+     * @param mutation The encoded mutation.
+     * @param service  The service to change.
+     * @throws IllegalStateException if the mutation is malformed or refers to missing entities.
+     */
+    static void apply(byte[] mutation, OnTrackService service) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(mutation));
+            byte type = in.readByte();
+            switch (type) {
+                case ADD_UNIT:
+                    service.addUnit(new Unit(readString(in), readString(in)));
+                    break;
+                case ADD_TASK: {
+                    String id = readString(in);
+                    String name = readString(in);
+                    String description = readNullableString(in);
+                    Unit unit = requireUnit(service, readString(in));
+                    Task task = new Task(id, name, description, unit, readNullableGrade(in));
+                    task.setStatus(STATUSES[in.readByte()]);
+                    service.addTask(task);
+                    break;
+                }
+                case ADD_CHAT_MESSAGE: {
+                    String id = readString(in);
+                    String taskId = readString(in);
+                    String sender = readString(in);
+                    String content = readString(in);
+                    LocalDateTime timestamp = LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+                    service.addChatMessage(new ChatMessage(id, taskId, sender, content, timestamp));
+                    break;
+                }
+                case TASK_STATE: {
+                    String taskId = readString(in);
+                    Task task = service.getTaskById(taskId);
+                    if (task == null) {
+                        throw new IllegalStateException("Mutation refers to a non-existent task: " + taskId);
+                    }
+                    task.setStatus(STATUSES[in.readByte()]);
+                    task.setGrade(readNullableGrade(in));
+                    break;
+                }
+                case UNIT_TARGET_GRADE: {
+                    String unitId = readString(in);
+                    if (!service.chooseUnitGrade(unitId, readGrade(in))) {
+                        throw new IllegalStateException("Mutation refers to a non-existent unit: " + unitId);
+                    }
+                    break;
+                }
+                case BATCH: {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        byte[] nested = new byte[in.readInt()];
+                        in.readFully(nested);
+                        apply(nested, service);
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown mutation type: " + type);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Malformed mutation.", e);
+        }
+    }
+
+    private static Unit requireUnit(OnTrackService service, String unitId) {
+        Unit unit = service.getUnitById(unitId);
+        if (unit == null) {
+            throw new IllegalStateException("Mutation refers to a non-existent unit: " + unitId);
+        }
+        return unit;
+    }
+
+    private static Grade readGrade(DataInputStream in) throws IOException {
+        Grade grade = readNullableGrade(in);
+        if (grade == null) {
+            throw new IOException("Unexpected null grade.");
+        }
+        return grade;
+    }
+
+    private static Grade readNullableGrade(DataInputStream in) throws IOException {
+        int ordinal = in.readByte();
+        if (ordinal < 0) {
+            return null;
+        }
+        if (ordinal >= GRADES.length) {
+            throw new IOException("Unknown grade: " + ordinal);
+        }
+        return GRADES[ordinal];
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        String value = readNullableString(in);
+        if (value == null) {
+            throw new IOException("Unexpected null string.");
+        }
+        return value;
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the fields of one mutation. Strings are a byte count (-1 for null) followed by UTF-8 bytes,
+     * and grades are their ordinal (-1 for null).
+     */
+    private static final class Encoder {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        private Encoder(byte type) {
+            writeByte(type);
+        }
+
+        private void writeByte(int value) {
+            try {
+                out.writeByte(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writeInt(int value) {
+            try {
+                out.writeInt(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writeLong(long value) {
+            try {
+                out.writeLong(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writeNullableGrade(Grade grade) {
+            writeByte(grade == null ? -1 : grade.ordinal());
+        }
+
+        private void writeString(String value) {
+            writeNullableString(value);
+        }
+
+        private void writeNullableString(String value) {
+            if (value == null) {
+                writeInt(-1);
+                return;
+            }
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(encoded.length);
+            writeBytes(encoded);
+        }
+
+        private void writeBytes(byte[] value) {
+            try {
+                out.write(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
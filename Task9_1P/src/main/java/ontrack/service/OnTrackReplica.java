@@ -0,0 +1,233 @@
+package ontrack.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A read replica of a durable OnTrackService, kept up to date from a {@link ReplicationPrimary}.
+ *
+ * The replica holds its own in-memory service, loaded from the primary's snapshot when it connects and then
+ * changed by each mutation the primary logs, in the primary's order. Reads can be served from
+ * {@link #getService()} to take load off the primary; they see the primary's state as of
+ * {@link #getAppliedSequence()}. Writes must go to the primary: changes made to the replica's service are
+ * not sent back, and can make later mutations from the primary fail to apply.
+ *
+ * A batch is applied one entry at a time, so replica readers can briefly see part of it. A replica does not
+ * reconnect: once disconnected its service keeps the last state applied, and a new replica starts over from
+ * a new snapshot.
+ * Thread-safe.
+ */
+public final class OnTrackReplica implements AutoCloseable {
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final OnTrackService service = new OnTrackService();
+    private final Object progress = new Object(); // Notified as mutations are applied and on disconnect
+    private volatile long appliedSequence;
+    private volatile long appliedLoggedAt; // When the primary logged the latest applied mutation
+    private volatile long primarySequence;
+    private volatile boolean connected = true;
+
+    private OnTrackReplica(Socket socket, DataInputStream in, DataOutputStream out) {
+        this.socket = socket;
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * Connects to a primary and loads its snapshot. Returns once the snapshot is applied;
+     * the mutations after it are applied in the background.
+     *
+     * @param primary The primary's address, see {@link ReplicationPrimary#getAddress()}.
+     * @return The connected replica.
+     * @throws IllegalArgumentException if primary is null.
+     * @throws UncheckedIOException if the primary cannot be reached or sends a malformed snapshot.
+     */
+    public static OnTrackReplica connect(InetSocketAddress primary) {
+        if (primary == null) {
+            throw new IllegalArgumentException("Primary address cannot be null.");
+        }
+        Socket socket = new Socket();
+        try {
+            socket.connect(primary);
+            socket.setTcpNoDelay(true);
+            OnTrackReplica replica = new OnTrackReplica(socket,
+                    new DataInputStream(new BufferedInputStream(socket.getInputStream())),
+                    new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+            replica.loadSnapshot();
+            Thread thread = new Thread(replica::applyMutations, "ontrack-replica");
+            thread.setDaemon(true);
+            thread.start();
+            return replica;
+        } catch (IOException e) {
+            closeQuietly(socket);
+            throw new UncheckedIOException("Cannot replicate from " + primary, e);
+        } catch (RuntimeException e) {
+            closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    /**
+     * @return The replica's service, for reads only.
+     */
+    public OnTrackService getService() {
+        return service;
+    }
+
+    /**
+     * @return The sequence number of the latest primary mutation applied here.
+     */
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    /**
+     * @return The primary's latest sequence number, as last heard from it.
+     */
+    public long getPrimarySequence() {
+        return primarySequence;
+    }
+
+    /**
+     * @return The number of mutations the primary has logged that are not yet applied here, as last heard.
+     */
+    public long getLagSequences() {
+        return Math.max(0, primarySequence - appliedSequence);
+    }
+
+    /**
+     * Gets how far behind the primary this replica is in time: 0 when every mutation heard of is applied,
+     * otherwise the time since the primary logged the latest applied one, an upper bound on the delay.
+     * Assumes the primary and replica share a clock, as they do on one host.
+     *
+     * @return The replication lag in milliseconds.
+     */
+    public long getLagMillis() {
+        return getLagSequences() == 0 ? 0 : Math.max(0, System.currentTimeMillis() - appliedLoggedAt);
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Waits until a primary mutation is applied here, e.g. to read a write just made on the primary.
+     *
+     * @param sequence The sequence number, such as {@link ReplicationPrimary#getLastSequence()} after the write.
+     * @param timeout  The longest time to wait.
+     * @param unit     The unit of timeout.
+     * @return true if the mutation is applied, false if the wait timed out or the replica disconnected first.
+     * @throws IllegalArgumentException if unit is null.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public boolean awaitSequence(long sequence, long timeout, TimeUnit unit) throws InterruptedException {
+        if (unit == null) {
+            throw new IllegalArgumentException("Time unit cannot be null.");
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (progress) {
+            while (appliedSequence < sequence) {
+                long remaining = deadline - System.nanoTime();
+                if (!connected || remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(progress, remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Disconnects from the primary and closes the replica's service.
+     */
+    @Override
+    public void close() {
+        disconnect();
+        service.close();
+    }
+
+    private void loadSnapshot() throws IOException {
+        if (in.readInt() != ReplicationPrimary.MAGIC || in.readInt() != ReplicationPrimary.VERSION) {
+            throw new IOException("Not an OnTrack replication stream");
+        }
+        long sequence = in.readLong();
+        long count = in.readLong();
+        for (long i = 0; i < count; i++) {
+            Mutation.apply(readMutation(in.readInt()), service);
+        }
+        appliedLoggedAt = System.currentTimeMillis();
+        primarySequence = sequence;
+        applied(sequence);
+        acknowledge();
+    }
+
+    private void applyMutations() {
+        try {
+            while (true) {
+                long sequence = in.readLong();
+                primarySequence = in.readLong();
+                long loggedAt = in.readLong();
+                int length = in.readInt();
+                if (length != ReplicationPrimary.HEARTBEAT) {
+                    Mutation.apply(readMutation(length), service);
+                    appliedLoggedAt = loggedAt;
+                    applied(sequence);
+                }
+                // Acknowledges once per burst rather than once per mutation
+                if (in.available() == 0) {
+                    acknowledge();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Disconnected, or a mutation that no longer applies to this service
+        } finally {
+            disconnect();
+        }
+    }
+
+    private byte[] readMutation(int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Malformed replication frame");
+        }
+        byte[] mutation = new byte[length];
+        in.readFully(mutation);
+        return mutation;
+    }
+
+    private void applied(long sequence) {
+        synchronized (progress) {
+            appliedSequence = sequence;
+            progress.notifyAll();
+        }
+    }
+
+    private void acknowledge() throws IOException {
+        out.writeLong(appliedSequence);
+        out.flush();
+    }
+
+    private void disconnect() {
+        synchronized (progress) {
+            connected = false;
+            progress.notifyAll();
+        }
+        closeQuietly(socket);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+    }
+}
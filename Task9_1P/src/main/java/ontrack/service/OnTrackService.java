@@ -1,26 +1,355 @@
 package ontrack.service;
 
 import ontrack.model.ChatMessage;
+import ontrack.model.Grade;
 import ontrack.model.Status;
 import ontrack.model.Task;
+import ontrack.model.TaskListener;
 import ontrack.model.Unit;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * Service class to manage OnTrack data and operations.
- * Simulates data storage using in-memory collections.
+ * Holds its data in memory, except that chat messages can be kept in a memory-mapped log.
+ * A service opened from a directory always keeps them there, and also writes every change to a
+ * write-ahead log with periodic snapshots.
+ *
+ * Thread-safe: entities are held in tables indexed by dense ID handles, which are read without locking,
+ * and each unit's task index is guarded by a striped read/write lock, so operations on different units
+ * rarely contend.
  */
-public class OnTrackService {
+public class OnTrackService implements AutoCloseable {
 
-    private final Map<String, Unit> units = new HashMap<>();
-    private final Map<String, Task> tasks = new HashMap<>(); // Map Task ID to Task
-    private final Map<String, List<ChatMessage>> chatMessages = new HashMap<>(); // Map Task ID to List of Messages
-    private final Map<String, String> unitTargetGrades = new HashMap<>(); // Map Unit ID to Target Grade
+    static final String CHAT_DIRECTORY = "chat"; // Holds the chat log of a durable service
+
+    private static final int UNIT_LOCK_STRIPES = 64;
+
+    private final IdDictionary unitHandles = new IdDictionary(); // Map Unit ID to a dense handle
+    private final IdDictionary taskHandles = new IdDictionary(); // Map Task ID to a dense handle
+    private final HandleTable<UnitEntry> unitEntries = new HandleTable<>(); // Indexed by unit handle
+    private final HandleTable<TaskEntry> taskEntries = new HandleTable<>(); // Indexed by task handle
+    private final PrefixIndex sortedTaskIds = new PrefixIndex(); // Task IDs in order, for ID prefix queries
+    private final QueryIndexes queryIndexes = new QueryIndexes();
+    private final VersionedView<Unit> unitsView = new VersionedView<>(this::listUnits); // Shared result of getAllUnits
+    private final SenderIndex messagesBySender = new SenderIndex(this::findChatMessage);
+    private final BloomFilter messageIds = new BloomFilter(); // Every message ID added, to rule out duplicates quickly
+    private final StripedLocks ingestLocks = new StripedLocks(UNIT_LOCK_STRIPES); // Serialize duplicate checks per task ID
+    private final LongAdder messagesChecked = new LongAdder();
+    private final LongAdder possibleDuplicates = new LongAdder();
+    private final LongAdder duplicatesRejected = new LongAdder();
+    private final StripedLocks unitLocks = new StripedLocks(UNIT_LOCK_STRIPES); // Guard each UnitTaskIndex
+    private final MappedChatLog chatLog; // Null when messages are kept on the heap
+    private volatile DurableStore store; // Null for an in-memory service; attached once recovery is complete
+    private final EventFeed events = new EventFeed(Flow.defaultBufferSize());
+    private final AtomicLong eventSequence = new AtomicLong(); // Numbers each event, see TaskEvent#getSequence()
+    private volatile boolean recordingStatusHistory = true; // False while a durable service replays its log
+    private volatile StatusHistorySpill statusHistorySpill; // Null for an in-memory service
+    // Set while this thread's batch changes statuses, which it then indexes, logs and publishes together
+    private final ThreadLocal<Boolean> statusBatch = new ThreadLocal<>();
+
+    /**
+     * Everything held for one unit ID: the unit, its chosen target grade, and the indexes of its tasks and messages.
+     * Created when the unit is first added and never removed.
+     */
+    private final class UnitEntry {
+        private final UnitTaskIndex tasks = new UnitTaskIndex(); // Guarded by the unit's lock
+        private final ChatSearchIndex chatSearch = new ChatSearchIndex(OnTrackService.this::findChatMessage);
+        private volatile Unit unit;
+        private volatile Grade targetGrade;
+    }
+
+    /**
+     * Everything held for one task ID: the task, its chat history and its status history.
+     * Created when the task is first added and never removed; a task re-added under the same ID replaces the task.
+     */
+    private final class TaskEntry {
+        private final int handle;
+        private volatile Task task;
+        private volatile ChatHistory chatHistory; // Null until the task's first message
+        private long firstStatus = StatusHistory.NONE; // Packed status the history starts from; guarded by this
+        private StatusHistory statusHistory; // Null until the task's first status change; guarded by this
+
+        private TaskEntry(int handle) {
+            this.handle = handle;
+        }
+
+        /**
+         * @return The task this replaces, or null.
+         */
+        private synchronized Task replaceTask(Task newTask) {
+            Task previous = task;
+            task = newTask;
+            if (recordingStatusHistory) {
+                startStatusHistory(System.currentTimeMillis(), newTask.getStatus(), statusHistorySpill);
+            }
+            return previous;
+        }
+
+        /**
+         * Starts the status history from the task's status, or for a task re-added under this ID,
+         * records its status if that differs from the last one.
+         *
+         * @param spill The spill file, or null if the status is already in it (the task was recovered).
+         */
+        private synchronized void startStatusHistory(long now, Status status, StatusHistorySpill spill) {
+            if (firstStatus == StatusHistory.NONE) {
+                firstStatus = StatusHistory.pack(now, status);
+                if (spill != null) {
+                    spill.append(task.getId(), firstStatus);
+                }
+            } else {
+                recordStatus(now, status, spill);
+            }
+        }
+
+        /**
+         * Records the current status of a task as a transition, unless this entry now holds another task.
+         * The status is read under the entry's lock rather than taken from the listener, so racing
+         * changes are recorded in the order they took effect.
+         */
+        private synchronized void recordStatusOf(Task changed, StatusHistorySpill spill) {
+            if (task == changed) {
+                recordStatus(System.currentTimeMillis(), changed.getStatus(), spill);
+            }
+        }
+
+        /**
+         * Records a status transition, unless it is the status last recorded, and appends it to the spill file
+         * if there is one.
+         */
+        private synchronized void recordStatus(long now, Status status, StatusHistorySpill spill) {
+            if (firstStatus == StatusHistory.NONE) {
+                return; // The history hasn't started: the task is being recovered
+            }
+            if (StatusHistory.statusOf(statusHistory == null ? firstStatus : statusHistory.last()) == status) {
+                return;
+            }
+            if (statusHistory == null) {
+                statusHistory = new StatusHistory(firstStatus);
+            }
+            statusHistory.record(now, status);
+            if (spill != null) {
+                spill.append(task.getId(), statusHistory.last());
+            }
+        }
+
+        /**
+         * @return The status history, or null if it hasn't started. A task that never changed status
+         *         gets a one-entry history that isn't kept.
+         */
+        private synchronized StatusHistory readStatusHistory() {
+            if (statusHistory != null || firstStatus == StatusHistory.NONE) {
+                return statusHistory;
+            }
+            return new StatusHistory(firstStatus);
+        }
+
+        private ChatHistory getOrCreateChatHistory() {
+            ChatHistory history = chatHistory;
+            if (history == null) {
+                synchronized (this) {
+                    history = chatHistory;
+                    if (history == null) {
+                        history = newChatHistory();
+                        chatHistory = history;
+                    }
+                }
+            }
+            return history;
+        }
+    }
+
+    /**
+     * The indexes a {@link TaskQuery} can be answered from, counted and read for {@link QueryPlanner}.
+     * Unit indexes are read under the unit's read lock.
+     */
+    private final class QueryIndexes implements QueryPlanner.Statistics, QueryPlanner.Scanner {
+        @Override
+        public int countByUnitAndGrade(String unitId, Grade grade) {
+            return queryUnit(unitId, tasks -> tasks.getTaskCountByGrade(grade), 0);
+        }
+
+        @Override
+        public int countNeedingHelp(String unitId) {
+            return queryUnit(unitId, UnitTaskIndex::getHelpRequestCount, 0);
+        }
+
+        @Override
+        public int countByIdPrefix(String prefix) {
+            return sortedTaskIds.count(prefix);
+        }
+
+        @Override
+        public int countByUnit(String unitId) {
+            return queryUnit(unitId, UnitTaskIndex::getTaskCount, 0);
+        }
+
+        @Override
+        public int countByGrade(Grade grade) {
+            int count = 0;
+            for (Unit unit : listUnits()) {
+                count += countByUnitAndGrade(unit.getId(), grade);
+            }
+            return count;
+        }
+
+        @Override
+        public int countAll() {
+            return taskHandles.size();
+        }
+
+        @Override
+        public void scan(QueryPlan plan, Predicate<Task> visitor) {
+            TaskQuery query = plan.getQuery();
+            switch (plan.getIndex()) {
+                case UNIT_GRADE:
+                    queryUnit(query.getUnitId(), tasks -> tasks.forEachByGradeWhile(query.getGrade(), visitor), true);
+                    break;
+                case UNIT_HELP_QUEUE:
+                    queryUnit(query.getUnitId(), tasks -> {
+                        for (HelpRequest request : tasks.getHelpRequests()) {
+                            if (!visitor.test(request.getTask())) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }, true);
+                    break;
+                case ID_PREFIX:
+                    sortedTaskIds.forEachWhile(query.getIdPrefix(), handle -> visitTask(handle, visitor));
+                    break;
+                case UNIT:
+                    queryUnit(query.getUnitId(), tasks -> tasks.forEachWhile(visitor), true);
+                    break;
+                case GRADE:
+                    for (Unit unit : listUnits()) {
+                        if (!queryUnit(unit.getId(), tasks -> tasks.forEachByGradeWhile(query.getGrade(), visitor), true)) {
+                            return;
+                        }
+                    }
+                    break;
+                default:
+                    int count = taskHandles.size();
+                    // Tasks in the order their IDs were first added
+                    for (int handle = 0; handle < count; handle++) {
+                        if (!visitTask(handle, visitor)) {
+                            return;
+                        }
+                    }
+                    break;
+            }
+        }
+
+        /**
+         * @return false if the visitor stopped the scan.
+         */
+        private boolean visitTask(int handle, Predicate<Task> visitor) {
+            TaskEntry entry = taskEntries.get(handle);
+            Task task = entry == null ? null : entry.task;
+            return task == null || visitor.test(task);
+        }
+    }
+
+    // Keeps the unit index current when a task is modified directly on the model
+    private final TaskListener taskListener = new TaskListener() {
+        @Override
+        public void targetGradeChanged(Task task, Grade oldGrade, Grade newGrade) {
+            syncTask(task);
+        }
+
+        @Override
+        public void statusChanged(Task task, Status oldStatus, Status newStatus) {
+            if (oldStatus != newStatus && recordingStatusHistory) {
+                recordStatusChange(task);
+            }
+            if (statusBatch.get() == null) {
+                syncTask(task);
+            }
+        }
+    };
+
+    /**
+     * Creates a service that keeps all chat messages on the heap.
+     */
+    public OnTrackService() {
+        this(null);
+    }
+
+    /**
+     * Creates a service that stores chat messages in a memory-mapped log.
+     * Each task keeps only a compact offset index on the heap, and messages are decoded when read,
+     * so chat history can grow far beyond the heap size. Returned message lists are read-only.
+     * Messages already in the log from an earlier session are attached to each task when it is added.
+     *
+     * @param chatLog The log to store messages in, or null to keep them on the heap.
+     */
+    public OnTrackService(MappedChatLog chatLog) {
+        this.chatLog = chatLog;
+    }
+
+    /**
+     * Opens a durable service stored in a directory, recovering any state saved there.
+     * Every mutation is written to a write-ahead log before it returns, and snapshots are taken
+     * in the background, so a restart loads the latest snapshot and replays only the log after it.
+     * Chat messages are stored in a memory-mapped log in the directory's {@value #CHAT_DIRECTORY}
+     * subdirectory (see {@link #OnTrackService(MappedChatLog)}), which snapshots refer to rather than copy.
+     *
+     * @param directory The data directory. Created if missing.
+     * @return The recovered service. Close it to flush the log.
+     * @throws IllegalArgumentException if directory is null.
+     * @throws java.io.UncheckedIOException if the directory cannot be read or written.
+     */
+    public static OnTrackService open(Path directory) {
+        return open(directory, DurableStore.DEFAULT_SNAPSHOT_EVERY_MUTATIONS);
+    }
+
+    /**
+     * Opens a durable service stored in a directory, recovering any state saved there.
+     *
+     * @param directory              The data directory. Created if missing.
+     * @param snapshotEveryMutations The number of mutations after which a snapshot is taken in the background.
+     * @return The recovered service. Close it to flush the log.
+     * @throws IllegalArgumentException if directory is null or snapshotEveryMutations is not positive.
+     * @throws java.io.UncheckedIOException if the directory cannot be read or written.
+     */
+    public static OnTrackService open(Path directory, int snapshotEveryMutations) {
+        if (directory == null) {
+            throw new IllegalArgumentException("Directory cannot be null.");
+        }
+        if (snapshotEveryMutations <= 0) {
+            throw new IllegalArgumentException("Snapshot interval must be positive.");
+        }
+        OnTrackService service = new OnTrackService(MappedChatLog.open(directory.resolve(CHAT_DIRECTORY)));
+        // Replayed changes are not new transitions, so histories start over from the recovered state
+        service.recordingStatusHistory = false;
+        DurableStore.open(directory, snapshotEveryMutations, service);
+        service.startStatusHistories(new StatusHistorySpill(directory.resolve(StatusHistorySpill.FILE_NAME)));
+        return service;
+    }
 
     // --- Data Setup Methods (for simulation) ---
 
@@ -28,192 +357,1850 @@ public class OnTrackService {
         if (unit == null) {
             throw new IllegalArgumentException("Unit cannot be null.");
         }
-        units.put(unit.getId(), unit);
+        long sequence = 0;
+        beginMutation();
+        Lock lock = unitLocks.get(unit.getId()).writeLock();
+        lock.lock();
+        try {
+            if (store != null) {
+                sequence = store.log(Mutation.addUnit(unit));
+            }
+            addUnitEntry(unit.getId()).unit = unit;
+            unitsView.changed();
+        } finally {
+            lock.unlock();
+            endMutation();
+        }
+        awaitDurable(sequence);
     }
 
     public void addTask(Task task) {
         if (task == null) {
             throw new IllegalArgumentException("Task cannot be null.");
         }
-        if (!units.containsKey(task.getUnit().getId())) {
+        UnitEntry unitEntry = findUnit(task.getUnit().getId());
+        if (unitEntry == null) {
             throw new IllegalArgumentException("Task belongs to a non-existent unit: " + task.getUnit().getId());
         }
-        tasks.put(task.getId(), task);
+        TaskEntry entry = addTaskEntry(task.getId());
+        // Listen before indexing, so a change made while indexing is reconciled afterwards
+        task.addListener(taskListener);
+        String unitId = task.getUnit().getId();
+        long sequence = 0;
+        TaskEvent added = null;
+        beginMutation();
+        try {
+            Task previous;
+            Lock lock = unitLocks.get(unitId).writeLock();
+            lock.lock();
+            try {
+                // Logged under the unit lock, so the record holds the task's state as indexed
+                if (store != null) {
+                    sequence = store.log(Mutation.addTask(task));
+                }
+                previous = entry.replaceTask(task);
+                unitEntry.tasks.add(entry.handle, task);
+                attachLoggedMessages(entry);
+                if (events.isActive()) {
+                    added = TaskEvent.taskAdded(task, unitEntry.tasks.getStatus(entry.handle), eventSequence.incrementAndGet());
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (previous != null && previous != task) {
+                // A task re-added under the same ID may have moved to another unit
+                previous.removeListener(taskListener);
+                String previousUnitId = previous.getUnit().getId();
+                if (!previousUnitId.equals(unitId)) {
+                    removeFromUnitIndex(previous);
+                }
+            }
+        } finally {
+            endMutation();
+        }
+        awaitDurable(sequence);
+        if (added != null) {
+            events.publish(added);
+        }
     }
 
      public void addChatMessage(ChatMessage message) {
+        ingestChatMessage(message, false);
+    }
+
+    /**
+     * Adds a chat message unless its task already has a message with the same ID, so a client can safely
+     * retry a send. A Bloom filter of every message ID rules out almost all new messages at once;
+     * only a possible duplicate is checked against the task's history. See {@link #getDeduplicationStats()}.
+     *
+     * @param message The message to add.
+     * @return true if the message was added, false if it is a duplicate.
+     * @throws IllegalArgumentException if message is null or refers to a non-existent task.
+     */
+    public boolean addChatMessageIfAbsent(ChatMessage message) {
+        return ingestChatMessage(message, true);
+    }
+
+    private boolean ingestChatMessage(ChatMessage message, boolean ifAbsent) {
         if (message == null) {
             throw new IllegalArgumentException("ChatMessage cannot be null.");
         }
-        if (!tasks.containsKey(message.getTaskId())) {
-             throw new IllegalArgumentException("ChatMessage refers to a non-existent task: " + message.getTaskId());
+        TaskEntry entry;
+        long sequence = 0;
+        TaskEvent added = null;
+        beginMutation();
+        Lock ingestLock = ifAbsent ? ingestLocks.get(message.getTaskId()).writeLock() : null;
+        if (ingestLock != null) {
+            ingestLock.lock();
+        }
+        try {
+            entry = findTask(message.getTaskId());
+            if (entry == null) {
+                 throw new IllegalArgumentException("ChatMessage refers to a non-existent task: " + message.getTaskId());
+            }
+            if (ifAbsent && isDuplicate(entry, message, null)) {
+                return false;
+            }
+            if (store != null) {
+                sequence = store.log(Mutation.addChatMessage(message));
+            }
+            entry.getOrCreateChatHistory().add(message);
+            if (events.isActive()) {
+                added = TaskEvent.messageAdded(entry.task, message, eventSequence.incrementAndGet());
+            }
+            getChatSearchIndex(entry).add(entry.handle, message);
+            messagesBySender.add(entry.handle, message);
+            messageIds.add(message.getId());
+        } finally {
+            if (ingestLock != null) {
+                ingestLock.unlock();
+            }
+            endMutation();
+        }
+        awaitDurable(sequence);
+        if (added != null) {
+            events.publish(added);
         }
-        chatMessages.computeIfAbsent(message.getTaskId(), k -> new ArrayList<>()).add(message);
+        return true;
     }
 
-    // --- Core Function Implementations ---
+    // --- Bulk Ingestion ---
 
     /**
-     * Gets all available units.
+     * Adds a batch of units.
      *
-     * @return A list of all units.
+     * @param batch The units to add.
+     * @throws IllegalArgumentException if batch is null.
+     * @throws BatchValidationException if any row is null. Nothing is added.
      */
-    public List<Unit> getAllUnits() {
-        return new ArrayList<>(units.values());
+    public void addUnits(Collection<Unit> batch) {
+        if (batch == null) {
+            throw new IllegalArgumentException("Units cannot be null.");
+        }
+        List<Unit> rows = new ArrayList<>(batch);
+        checkRows(rows.size(), row -> rows.get(row) == null ? "Unit cannot be null." : null, false);
+
+        List<String> unitIds = new ArrayList<>(rows.size());
+        List<byte[]> mutations = store == null ? null : new ArrayList<>(rows.size());
+        for (Unit unit : rows) {
+            unitIds.add(unit.getId());
+            if (mutations != null) {
+                mutations.add(Mutation.addUnit(unit));
+            }
+        }
+        long sequence = 0;
+        beginMutation();
+        List<Lock> locks = lockUnits(unitIds);
+        try {
+            if (store != null) {
+                sequence = store.log(Mutation.batch(mutations));
+            }
+            for (Unit unit : rows) {
+                addUnitEntry(unit.getId()).unit = unit;
+            }
+            unitsView.changed();
+        } finally {
+            unlockAll(locks);
+            endMutation();
+        }
+        awaitDurable(sequence);
     }
 
-    // --- Helper Methods ---
-    public Task getTaskById(String taskId) {
-        return tasks.get(taskId); // Returns null if not found
+    /**
+     * Adds a batch of tasks. Equivalent to calling {@link #addTask(Task)} for each, except that the whole
+     * batch is checked before any of it is applied, and a durable service logs it as one record.
+     *
+     * @param batch The tasks to add.
+     * @throws IllegalArgumentException if batch is null.
+     * @throws BatchValidationException if any row is null, belongs to a non-existent unit, or repeats
+     *                                  a task ID used earlier in the batch. Nothing is added.
+     */
+    public void addTasks(Collection<Task> batch) {
+        addTasks(batch, false);
     }
 
-     public Unit getUnitById(String unitId) {
-        return units.get(unitId); // Returns null if not found
+    /**
+     * Adds a batch of tasks, as {@link #addTasks(Collection)}.
+     *
+     * @param batch              The tasks to add.
+     * @param parallelValidation true to check the rows in parallel, which helps for very large batches.
+     */
+    public void addTasks(Collection<Task> batch, boolean parallelValidation) {
+        if (batch == null) {
+            throw new IllegalArgumentException("Tasks cannot be null.");
+        }
+        List<Task> rows = new ArrayList<>(batch);
+        // Each unit is looked up once per batch, however many tasks refer to it
+        Map<String, Boolean> knownUnits = new HashMap<>();
+        Set<String> seenTaskIds = new HashSet<>();
+        Map<Integer, String> duplicates = new HashMap<>();
+        for (int row = 0; row < rows.size(); row++) {
+            Task task = rows.get(row);
+            if (task != null) {
+                knownUnits.computeIfAbsent(task.getUnit().getId(), unitId -> findUnit(unitId) != null);
+                if (!seenTaskIds.add(task.getId())) {
+                    duplicates.put(row, "Duplicate task ID in batch: " + task.getId());
+                }
+            }
+        }
+        checkRows(rows.size(), row -> {
+            Task task = rows.get(row);
+            if (task == null) {
+                return "Task cannot be null.";
+            }
+            if (!knownUnits.get(task.getUnit().getId())) {
+                return "Task belongs to a non-existent unit: " + task.getUnit().getId();
+            }
+            return duplicates.get(row);
+        }, parallelValidation);
+
+        Map<String, UnitEntry> unitEntriesById = new LinkedHashMap<>();
+        UnitEntry[] unitEntryRows = new UnitEntry[rows.size()];
+        TaskEntry[] entryRows = new TaskEntry[rows.size()];
+        for (int row = 0; row < rows.size(); row++) {
+            Task task = rows.get(row);
+            unitEntryRows[row] = unitEntriesById.computeIfAbsent(task.getUnit().getId(), this::findUnit);
+            entryRows[row] = addTaskEntry(task.getId());
+        }
+        List<byte[]> mutations = store == null ? null : new ArrayList<>(rows.size());
+        List<Task> movedAway = new ArrayList<>();
+        List<TaskEvent> added = events.isActive() ? new ArrayList<>(rows.size()) : null;
+        long sequence = 0;
+        // Listen before indexing, so a change made while indexing is reconciled afterwards
+        for (Task task : rows) {
+            task.addListener(taskListener);
+        }
+        beginMutation();
+        try {
+            List<Lock> locks = lockUnits(unitEntriesById.keySet());
+            try {
+                // Logged under the unit locks, so the record holds each task's state as indexed
+                if (mutations != null) {
+                    for (Task task : rows) {
+                        mutations.add(Mutation.addTask(task));
+                    }
+                    sequence = store.log(Mutation.batch(mutations));
+                }
+                for (int row = 0; row < rows.size(); row++) {
+                    Task task = rows.get(row);
+                    Task previous = entryRows[row].replaceTask(task);
+                    if (previous != null && previous != task) {
+                        previous.removeListener(taskListener);
+                        if (!previous.getUnit().getId().equals(task.getUnit().getId())) {
+                            movedAway.add(previous);
+                        }
+                    }
+                    unitEntryRows[row].tasks.add(entryRows[row].handle, task);
+                    attachLoggedMessages(entryRows[row]);
+                    if (added != null) {
+                        added.add(TaskEvent.taskAdded(task, unitEntryRows[row].tasks.getStatus(entryRows[row].handle),
+                                eventSequence.incrementAndGet()));
+                    }
+                }
+            } finally {
+                unlockAll(locks);
+            }
+            // Tasks re-added under another unit leave their old unit one lock at a time
+            for (Task previous : movedAway) {
+                removeFromUnitIndex(previous);
+            }
+        } finally {
+            endMutation();
+        }
+        awaitDurable(sequence);
+        publishAll(added);
     }
 
     /**
-     * Gets tasks for a specific unit filtered by the task's target grade.
+     * Adds a batch of chat messages. Equivalent to calling {@link #addChatMessage(ChatMessage)} for each,
+     * except that the whole batch is checked before any of it is applied, each task's history grows once
+     * per batch, and a durable service logs the batch as one record.
      *
-     * @param unitId      The ID of the unit.
-     * @param targetGrade The target grade to filter tasks by (e.g., "P", "C", "D", "HD"). Case-insensitive comparison.
-     * @return A list of tasks matching the criteria. Returns an empty list if the unit doesn't exist or no tasks match.
-     * @throws IllegalArgumentException if unitId or targetGrade is null or empty.
+     * @param batch The messages to add.
+     * @throws IllegalArgumentException if batch is null.
+     * @throws BatchValidationException if any row is null, refers to a non-existent task, or is too large
+     *                                  for the chat log. Nothing is added.
      */
-    public List<Task> getTasksByUnitByTargetGrade(String unitId, String targetGrade) {
-        if (unitId == null || unitId.trim().isEmpty()) {
-            throw new IllegalArgumentException("Unit ID cannot be null or empty.");
+    public void addChatMessages(Collection<ChatMessage> batch) {
+        addChatMessages(batch, false);
+    }
+
+    /**
+     * Adds a batch of chat messages, as {@link #addChatMessages(Collection)}.
+     *
+     * @param batch              The messages to add.
+     * @param parallelValidation true to check the rows in parallel, which helps for very large batches.
+     */
+    public void addChatMessages(Collection<ChatMessage> batch, boolean parallelValidation) {
+        ingestChatMessages(batch, parallelValidation, false);
+    }
+
+    /**
+     * Adds a batch of chat messages, skipping each message whose task already has a message with the same ID,
+     * including an earlier message of the batch. See {@link #addChatMessageIfAbsent(ChatMessage)}.
+     *
+     * @param batch The messages to add.
+     * @return The messages added, in batch order.
+     * @throws IllegalArgumentException if batch is null.
+     * @throws BatchValidationException if any row is null, refers to a non-existent task, or is too large
+     *                                  for the chat log. Nothing is added.
+     */
+    public List<ChatMessage> addChatMessagesIfAbsent(Collection<ChatMessage> batch) {
+        return ingestChatMessages(batch, false, true);
+    }
+
+    /**
+     * @return Counters of the duplicate checks made so far.
+     */
+    public DeduplicationStats getDeduplicationStats() {
+        return new DeduplicationStats(messagesChecked.sum(), possibleDuplicates.sum(), duplicatesRejected.sum());
+    }
+
+    private List<ChatMessage> ingestChatMessages(Collection<ChatMessage> batch, boolean parallelValidation, boolean ifAbsent) {
+        if (batch == null) {
+            throw new IllegalArgumentException("ChatMessages cannot be null.");
         }
-        if (targetGrade == null || targetGrade.trim().isEmpty()) {
-            throw new IllegalArgumentException("Target grade cannot be null or empty.");
+        List<ChatMessage> rows = new ArrayList<>(batch);
+        // Each task is looked up once per batch, however many messages refer to it
+        Map<String, TaskEntry> knownTasks = new HashMap<>(); // No entry for a non-existent task
+        for (ChatMessage message : rows) {
+            if (message != null) {
+                knownTasks.computeIfAbsent(message.getTaskId(), this::findTask);
+            }
         }
-        if (!units.containsKey(unitId)) {
-            // Or return empty list, depending on desired behavior for non-existent unit
-             return new ArrayList<>();
-           // throw new IllegalArgumentException("Unit not found: " + unitId);
+        checkRows(rows.size(), row -> {
+            ChatMessage message = rows.get(row);
+            if (message == null) {
+                return "ChatMessage cannot be null.";
+            }
+            if (knownTasks.get(message.getTaskId()) == null) {
+                return "ChatMessage refers to a non-existent task: " + message.getTaskId();
+            }
+            if (chatLog != null && !chatLog.fits(message)) {
+                return "ChatMessage is too large for the chat log: " + message.getId();
+            }
+            return null;
+        }, parallelValidation);
+
+        List<ChatMessage> added = rows;
+        List<TaskEvent> addedEvents = null;
+        long sequence = 0;
+        beginMutation();
+        List<Lock> locks = ifAbsent ? lockIngest(knownTasks.keySet()) : Collections.emptyList();
+        try {
+            if (ifAbsent) {
+                added = new ArrayList<>(rows.size());
+                Map<TaskEntry, Set<String>> addedIds = new HashMap<>(); // IDs added to each task by this batch
+                for (ChatMessage message : rows) {
+                    TaskEntry entry = knownTasks.get(message.getTaskId());
+                    Set<String> ids = addedIds.computeIfAbsent(entry, k -> new HashSet<>());
+                    if (!isDuplicate(entry, message, ids)) {
+                        added.add(message);
+                        ids.add(message.getId());
+                        messageIds.add(message.getId());
+                    }
+                }
+            }
+            Map<TaskEntry, List<ChatMessage>> messagesByTask = new LinkedHashMap<>();
+            for (ChatMessage message : added) {
+                messagesByTask.computeIfAbsent(knownTasks.get(message.getTaskId()), k -> new ArrayList<>()).add(message);
+            }
+            if (store != null && !added.isEmpty()) {
+                List<byte[]> mutations = new ArrayList<>(added.size());
+                for (ChatMessage message : added) {
+                    mutations.add(Mutation.addChatMessage(message));
+                }
+                sequence = store.log(Mutation.batch(mutations));
+            }
+            for (Map.Entry<TaskEntry, List<ChatMessage>> entry : messagesByTask.entrySet()) {
+                TaskEntry taskEntry = entry.getKey();
+                taskEntry.getOrCreateChatHistory().addAll(entry.getValue());
+                if (events.isActive()) {
+                    if (addedEvents == null) {
+                        addedEvents = new ArrayList<>(added.size());
+                    }
+                    for (ChatMessage message : entry.getValue()) {
+                        addedEvents.add(TaskEvent.messageAdded(taskEntry.task, message, eventSequence.incrementAndGet()));
+                    }
+                }
+                getChatSearchIndex(taskEntry).addAll(taskEntry.handle, entry.getValue());
+                messagesBySender.addAll(taskEntry.handle, entry.getValue());
+            }
+            if (!ifAbsent) {
+                for (ChatMessage message : added) {
+                    messageIds.add(message.getId());
+                }
+            }
+        } finally {
+            unlockAll(locks);
+            endMutation();
         }
+        awaitDurable(sequence);
+        publishAll(addedEvents);
+        return added;
+    }
 
-        return tasks.values().stream()
-                .filter(task -> task.getUnit().getId().equals(unitId))
-                .filter(task -> targetGrade.equalsIgnoreCase(task.getTargetGrade()))
-                .collect(Collectors.toList());
+    /**
+     * Writes a snapshot of a durable service now, so a restart has less log to replay.
+     *
+     * @throws IllegalStateException if the service was not opened from a directory.
+     * @throws java.io.UncheckedIOException if the snapshot cannot be written.
+     */
+    public void checkpoint() {
+        if (store == null) {
+            throw new IllegalStateException("Service is not durable.");
+        }
+        store.checkpoint();
     }
 
     /**
-     * Gets all chat messages for a specific task.
+     * Completes every event subscription, then flushes and closes the write-ahead log of a durable service.
      *
-     * @param taskId The ID of the task.
-     * @return A list of chat messages for the task. Returns an empty list if the task doesn't exist or has no messages.
-     * @throws IllegalArgumentException if taskId is null or empty.
+     * @throws java.io.UncheckedIOException if the log cannot be flushed.
+     * @throws IllegalStateException if a background snapshot failed.
      */
-    public List<ChatMessage> getChatMessagesByTask(String taskId) {
-        if (taskId == null || taskId.trim().isEmpty()) {
-            throw new IllegalArgumentException("Task ID cannot be null or empty.");
+    @Override
+    public void close() {
+        events.close();
+        if (store != null) {
+            store.close();
         }
-        if (!tasks.containsKey(taskId)) {
-            // Return empty list if task doesn't exist
-            return new ArrayList<>();
+        if (statusHistorySpill != null) {
+            statusHistorySpill.close();
+        }
+        if (store != null) {
+            chatLog.close(); // Opened by open(Path)
         }
-        return chatMessages.getOrDefault(taskId, new ArrayList<>());
     }
 
+    // --- Event Subscriptions ---
+
     /**
-     * Sets the target grade for a specific unit.
+     * Gets a publisher of every task event: new tasks, status changes and new chat messages.
+     * Events are published after the change is applied (and, for a durable service, logged), so changes
+     * made concurrently may be delivered out of order. Each event is numbered as the change is applied,
+     * under the lock of the task's unit for new tasks and status changes; sorting a task's events by
+     * {@link TaskEvent#getSequence()} gives the order they took effect in.
      *
-     * @param unitId      The ID of the unit.
-     * @param targetGrade The target grade to set (e.g., "P", "C", "D", "HD").
-     * @return true if the target grade was set successfully, false if the unit doesn't exist.
-     * @throws IllegalArgumentException if unitId or targetGrade is null or empty.
+     * Each subscriber has its own buffer of {@link Flow#defaultBufferSize()} events, drained as it requests them.
+     * Publishing never waits for a subscriber; events that do not fit a full buffer are dropped for that
+     * subscriber and counted by {@link #getDroppedEventCount()}.
+     *
+     * @return A publisher that can be subscribed to any number of times.
      */
-    public boolean chooseUnitTargetGrade(String unitId, String targetGrade) {
+    public Flow.Publisher<TaskEvent> getEvents() {
+        return events.allEvents();
+    }
+
+    /**
+     * Gets a publisher of the events of the tasks in one unit, as {@link #getEvents()}.
+     *
+     * @param unitId The ID of the unit. Need not exist yet.
+     * @return A publisher that can be subscribed to any number of times.
+     * @throws IllegalArgumentException if unitId is null or empty.
+     */
+    public Flow.Publisher<TaskEvent> getUnitEvents(String unitId) {
         if (unitId == null || unitId.trim().isEmpty()) {
             throw new IllegalArgumentException("Unit ID cannot be null or empty.");
         }
-        if (targetGrade == null || targetGrade.trim().isEmpty()) {
-            throw new IllegalArgumentException("Target grade cannot be null or empty.");
-        }
-        
-        // Validate that the unit exists
-        if (!units.containsKey(unitId)) {
-            return false;
+        return events.unitEvents(unitId);
+    }
+
+    /**
+     * Gets a publisher of the events of one task, as {@link #getEvents()}.
+     *
+     * @param taskId The ID of the task. Need not exist yet.
+     * @return A publisher that can be subscribed to any number of times.
+     * @throws IllegalArgumentException if taskId is null or empty.
+     */
+    public Flow.Publisher<TaskEvent> getTaskEvents(String taskId) {
+        if (taskId == null || taskId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Task ID cannot be null or empty.");
         }
-        
-        // Set the target grade for the unit
-        unitTargetGrades.put(unitId, targetGrade);
-        return true;
+        return events.taskEvents(taskId);
     }
-    
+
     /**
-     * Gets the target grade for a specific unit.
+     * @return The number of events dropped because a subscriber's buffer was full, over all subscribers.
+     */
+    public long getDroppedEventCount() {
+        return events.getDroppedEvents();
+    }
+
+    // --- Core Function Implementations ---
+
+    /**
+     * Gets all units.
+     *
+     * @return An unmodifiable snapshot of the units. The same snapshot is shared by every caller
+     *         until a unit is added, so polling this is free of copying.
+     */
+    public List<Unit> getAllUnits() {
+        return unitsView.get();
+    }
+
+    // --- Helper Methods ---
+    public Task getTaskById(String taskId) {
+        TaskEntry entry = findTask(taskId);
+        return entry == null ? null : entry.task; // Returns null if not found
+    }
+
+     public Unit getUnitById(String unitId) {
+        UnitEntry entry = findUnit(unitId);
+        return entry == null ? null : entry.unit; // Returns null if not found
+    }
+
+    /**
+     * Gets all tasks for a specific unit, in the order they were added.
      *
      * @param unitId The ID of the unit.
-     * @return The target grade for the unit, or null if not set or the unit doesn't exist.
+     * @return A list of the unit's tasks. Returns an empty list if the unit doesn't exist or has no tasks.
+     * @throws IllegalArgumentException if unitId is null or empty.
      */
-    public String getUnitTargetGrade(String unitId) {
+    public List<Task> getTasksByUnit(String unitId) {
         if (unitId == null || unitId.trim().isEmpty()) {
             throw new IllegalArgumentException("Unit ID cannot be null or empty.");
         }
-        return unitTargetGrades.get(unitId);
+        UnitEntry entry = findUnit(unitId);
+        if (entry == null) {
+            return new ArrayList<>();
+        }
+        Lock lock = unitLocks.get(unitId).readLock();
+        lock.lock();
+        try {
+            return entry.tasks.getTasks();
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
-     * Changes the status of a task.
+     * Gets tasks for a specific unit filtered by the task's target grade.
      *
-     * @param taskId The ID of the task.
-     * @param status The new status to set.
-     * @return true if the status was changed successfully, false if the task doesn't exist.
-     * @throws IllegalArgumentException if taskId is null or empty, or status is null.
+     * @param unitId      The ID of the unit.
+     * @param targetGrade The target grade to filter tasks by (e.g., "P", "C", "D", "HD"). Case-insensitive comparison.
+     * @return A list of tasks matching the criteria. Returns an empty list if the unit doesn't exist,
+     *         the grade is unknown, or no tasks match.
+     * @throws IllegalArgumentException if unitId or targetGrade is null or empty.
      */
-    public boolean changeTaskStatus(String taskId, Status status) {
-        if (taskId == null || taskId.trim().isEmpty()) {
-            throw new IllegalArgumentException("Task ID cannot be null or empty.");
+    public List<Task> getTasksByUnitByTargetGrade(String unitId, String targetGrade) {
+        if (unitId == null || unitId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Unit ID cannot be null or empty.");
         }
-        if (status == null) {
-            throw new IllegalArgumentException("Status cannot be null.");
+        if (targetGrade == null || targetGrade.trim().isEmpty()) {
+            throw new IllegalArgumentException("Target grade cannot be null or empty.");
         }
-        
-        Task task = tasks.get(taskId);
-        if (task == null) {
-            return false;
+        Grade grade = Grade.find(targetGrade);
+        if (grade == null) {
+            // No task can hold a grade that does not exist
+            return new ArrayList<>();
         }
-        
-        task.setStatus(status);
-        return true;
+        return getTasksByUnitByGrade(unitId, grade);
     }
-    
+
     /**
-     * Submits a portfolio for a unit. A portfolio can only be submitted if all tasks for the unit
-     * have a status of READY_FOR_FEEDBACK.
+     * Gets tasks for a specific unit filtered by the task's target grade.
+     * Served from the unit's grade buckets, so only matching tasks are visited.
      *
-     * @param unitId The ID of the unit.
-     * @return true if the portfolio was submitted successfully, false if the unit doesn't exist
-     *         or not all tasks are ready for feedback.
-     * @throws IllegalArgumentException if unitId is null or empty.
+     * @param unitId      The ID of the unit.
+     * @param targetGrade The target grade to filter tasks by.
+     * @return A list of tasks matching the criteria. Returns an empty list if the unit doesn't exist or no tasks match.
+     * @throws IllegalArgumentException if unitId is null or empty, or targetGrade is null.
      */
-    public boolean submitUnitPortfolio(String unitId) {
+    public List<Task> getTasksByUnitByGrade(String unitId, Grade targetGrade) {
         if (unitId == null || unitId.trim().isEmpty()) {
             throw new IllegalArgumentException("Unit ID cannot be null or empty.");
         }
-        
-        // Check if the unit exists
-        if (!units.containsKey(unitId)) {
-            return false;
+        if (targetGrade == null) {
+            throw new IllegalArgumentException("Target grade cannot be null.");
         }
-        
-        // Get all tasks for the unit
-        List<Task> unitTasks = tasks.values().stream()
-                .filter(task -> task.getUnit().getId().equals(unitId))
-                .collect(Collectors.toList());
-        
-        // If there are no tasks, consider it a failure (can't submit an empty portfolio)
-        if (unitTasks.isEmpty()) {
-            return false;
+        UnitEntry entry = findUnit(unitId);
+        if (entry == null) {
+            // Or return empty list, depending on desired behavior for non-existent unit
+             return new ArrayList<>();
+           // throw new IllegalArgumentException("Unit not found: " + unitId);
+        }
+
+        Lock lock = unitLocks.get(unitId).readLock();
+        lock.lock();
+        try {
+            return entry.tasks.getTasksByGrade(targetGrade);
+        } finally {
+            lock.unlock();
         }
-        
-        // Check if all tasks are ready for feedback
-        boolean allTasksReady = unitTasks.stream()
-                .allMatch(task -> task.getStatus() == Status.READY_FOR_FEEDBACK);
-        
-        return allTasksReady;
     }
 
+    /**
+     * Gets the first tasks of a unit with a target grade, without copying the rest.
+     *
+     * @param unitId      The ID of the unit.
+     * @param targetGrade The target grade to filter tasks by.
+     * @param limit       The maximum number of tasks to return.
+     * @return Up to limit matching tasks, in the order {@link #getTasksByUnitByGrade(String, Grade)} returns them.
+     *         Returns an empty list if the unit doesn't exist or no tasks match.
+     * @throws IllegalArgumentException if unitId is null or empty, targetGrade is null, or limit is not positive.
+     */
+    public List<Task> getTasksByUnitByGrade(String unitId, Grade targetGrade, int limit) {
+        validateGradeQuery(unitId, targetGrade);
+        validateLimit(limit);
+        return queryUnit(unitId, tasks -> tasks.getTasksByGrade(targetGrade, limit), Collections.emptyList());
+    }
+
+    /**
+     * Counts the tasks of a unit with a target grade from the size of its grade bucket, so no tasks are visited.
+     *
+     * @param unitId      The ID of the unit.
+     * @param targetGrade The target grade to count tasks of.
+     * @return The number of matching tasks. Zero if the unit doesn't exist.
+     * @throws IllegalArgumentException if unitId is null or empty, or targetGrade is null.
+     */
+    public int countTasksByUnitByGrade(String unitId, Grade targetGrade) {
+        validateGradeQuery(unitId, targetGrade);
+        return queryUnit(unitId, tasks -> tasks.getTaskCountByGrade(targetGrade), 0);
+    }
+
+    /**
+     * Checks whether any task of a unit with a target grade matches a filter, testing tasks only until one does.
+     * The filter runs under the unit's read lock, so it must not call back into the service to change the unit.
+     *
+     * @param unitId      The ID of the unit.
+     * @param targetGrade The target grade to filter tasks by.
+     * @param filter      The condition to test.
+     * @return true if a matching task passes the filter. False if the unit doesn't exist.
+     * @throws IllegalArgumentException if unitId is null or empty, or targetGrade or filter is null.
+     */
+    public boolean existsTaskByUnitByGrade(String unitId, Grade targetGrade, Predicate<? super Task> filter) {
+        validateGradeQuery(unitId, targetGrade);
+        if (filter == null) {
+            throw new IllegalArgumentException("Filter cannot be null.");
+        }
+        return queryUnit(unitId, tasks -> tasks.anyTaskByGrade(targetGrade, filter), false);
+    }
+
+    /**
+     * Streams the tasks of a unit, in the order they were added.
+     * The stream runs over a snapshot of the unit that is shared by every caller until a task is added to it,
+     * so nothing is copied per call and no lock is held while the stream is consumed.
+     *
+     * @param unitId The ID of the unit.
+     * @return A stream of the unit's tasks as of the call. Empty if the unit doesn't exist or has no tasks.
+     * @throws IllegalArgumentException if unitId is null or empty.
+     */
+    public Stream<Task> streamTasksByUnit(String unitId) {
+        if (unitId == null || unitId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Unit ID cannot be null or empty.");
+        }
+        return queryUnit(unitId, UnitTaskIndex::getTasksSnapshot, Collections.<Task>emptyList()).stream();
+    }
+
+    /**
+     * Streams the tasks of a unit with a target grade, in the order {@link #getTasksByUnitByGrade(String, Grade)}
+     * returns them. The stream runs over a snapshot of the grade bucket that is shared by every caller until a
+     * task gains or loses the grade, so nothing is copied per call and no lock is held while the stream is consumed.
+     * Operations such as {@code limit}, {@code anyMatch} and {@code findFirst} stop as soon as they have their answer.
+     *
+     * @param unitId      The ID of the unit.
+     * @param targetGrade The target grade to filter tasks by.
+     * @return A stream of the matching tasks as of the call. Empty if the unit doesn't exist or no tasks match.
+     * @throws IllegalArgumentException if unitId is null or empty, or targetGrade is null.
+     */
+    public Stream<Task> streamTasksByUnitByGrade(String unitId, Grade targetGrade) {
+        validateGradeQuery(unitId, targetGrade);
+        return queryUnit(unitId, tasks -> tasks.getTasksByGradeSnapshot(targetGrade), Collections.<Task>emptyList()).stream();
+    }
+
+    /**
+     * Finds the tasks matching a query. The query reads its candidates from the smallest index that answers
+     * part of it (the unit's grade bucket or help queue, the sorted task IDs, the unit's tasks, or every unit's
+     * grade buckets) and tests only the conditions that index doesn't answer, as {@link #explainQuery(TaskQuery)}
+     * describes. Without an order, a limit stops the scan as soon as enough tasks are found.
+     *
+     * @param query The query.
+     * @return The matching tasks, in the query's order and up to its limit.
+     * @throws IllegalArgumentException if query is null.
+     */
+    public List<Task> queryTasks(TaskQuery query) {
+        return QueryPlanner.run(explainQuery(query), queryIndexes);
+    }
+
+    /**
+     * Plans a query without running it. Planning reads only index sizes, never tasks.
+     *
+     * @param query The query.
+     * @return The plan {@link #queryTasks(TaskQuery)} would follow now. Its {@code toString()} describes it on one line.
+     * @throws IllegalArgumentException if query is null.
+     */
+    public QueryPlan explainQuery(TaskQuery query) {
+        if (query == null) {
+            throw new IllegalArgumentException("Query cannot be null.");
+        }
+        return QueryPlanner.plan(query, queryIndexes);
+    }
+
+    /**
+     * Gets all chat messages for a specific task, ordered by timestamp.
+     *
+     * @param taskId The ID of the task.
+     * @return An unmodifiable list of chat messages for the task, shared by every caller until a message
+     *         is added to the task. Returns an empty list if the task doesn't exist or has no messages.
+     * @throws IllegalArgumentException if taskId is null or empty.
+     */
+    public List<ChatMessage> getChatMessagesByTask(String taskId) {
+        ChatHistory history = getChatHistory(taskId);
+        return history == null ? Collections.emptyList() : history.getAll();
+    }
+
+    /**
+     * Gets the newest chat messages for a task, without copying the rest of the history.
+     *
+     * @param taskId The ID of the task.
+     * @param limit  The maximum number of messages to return.
+     * @return Up to limit of the newest messages, oldest first. Returns an empty list if the task doesn't exist or has no messages.
+     * @throws IllegalArgumentException if taskId is null or empty, or limit is not positive.
+     */
+    public List<ChatMessage> getLatestChatMessages(String taskId, int limit) {
+        ChatHistory history = getChatHistory(taskId);
+        validateLimit(limit);
+        return history == null ? new ArrayList<>() : history.getLatest(limit);
+    }
+
+    /**
+     * Gets the page of chat messages that follows a cursor, e.g. the last message of the previous page.
+     *
+     * @param taskId The ID of the task.
+     * @param after  The position to start after.
+     * @param limit  The maximum number of messages to return.
+     * @return Up to limit messages after the cursor, oldest first. Returns an empty list if the task doesn't exist or has no more messages.
+     * @throws IllegalArgumentException if taskId is null or empty, after is null, or limit is not positive.
+     */
+    public List<ChatMessage> getChatMessagesAfter(String taskId, ChatCursor after, int limit) {
+        ChatHistory history = getChatHistory(taskId);
+        if (after == null) {
+            throw new IllegalArgumentException("Cursor cannot be null.");
+        }
+        validateLimit(limit);
+        return history == null ? new ArrayList<>() : history.getAfter(after, limit);
+    }
+
+    /**
+     * Gets the page of chat messages that precedes a cursor, e.g. the first message of the current page.
+     *
+     * @param taskId The ID of the task.
+     * @param before The position to end before.
+     * @param limit  The maximum number of messages to return.
+     * @return Up to limit messages immediately before the cursor, oldest first. Returns an empty list if the task doesn't exist or has no earlier messages.
+     * @throws IllegalArgumentException if taskId is null or empty, before is null, or limit is not positive.
+     */
+    public List<ChatMessage> getChatMessagesBefore(String taskId, ChatCursor before, int limit) {
+        ChatHistory history = getChatHistory(taskId);
+        if (before == null) {
+            throw new IllegalArgumentException("Cursor cannot be null.");
+        }
+        validateLimit(limit);
+        return history == null ? new ArrayList<>() : history.getBefore(before, limit);
+    }
+
+    /**
+     * Gets the chat messages for a task sent within a time range.
+     *
+     * @param taskId The ID of the task.
+     * @param from   The start of the range (inclusive).
+     * @param to     The end of the range (exclusive).
+     * @return The messages with from &lt;= timestamp &lt; to, oldest first. Returns an empty list if the task doesn't exist or no messages match.
+     * @throws IllegalArgumentException if taskId is null or empty, from or to is null, or from is after to.
+     */
+    public List<ChatMessage> getChatMessagesBetween(String taskId, LocalDateTime from, LocalDateTime to) {
+        ChatHistory history = getChatHistory(taskId);
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("Time range cannot be null.");
+        }
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException("Time range start cannot be after its end.");
+        }
+        return history == null ? new ArrayList<>() : history.getBetween(from, to);
+    }
+
+    /**
+     * Gets the chat messages a sender sent within a time range, across every task.
+     * Served from an index of each sender's messages, so no task's history is scanned.
+     *
+     * @param sender The sender, matched exactly.
+     * @param from   The start of the range (inclusive).
+     * @param to     The end of the range (exclusive).
+     * @param limit  The maximum number of messages to return.
+     * @return Up to limit of the messages with from &lt;= timestamp &lt; to, oldest first. Returns an empty list if the sender has sent none.
+     * @throws IllegalArgumentException if sender is null or empty, from or to is null, from is after to, or limit is not positive.
+     */
+    public List<ChatMessage> getChatMessagesBySender(String sender, LocalDateTime from, LocalDateTime to, int limit) {
+        if (sender == null || sender.trim().isEmpty()) {
+            throw new IllegalArgumentException("Sender cannot be null or empty.");
+        }
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("Time range cannot be null.");
+        }
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException("Time range start cannot be after its end.");
+        }
+        validateLimit(limit);
+        return messagesBySender.getBetween(sender, from, to, limit);
+    }
+
+    /**
+     * Gets the newest chat messages a sender sent, across every task.
+     *
+     * @param sender The sender, matched exactly.
+     * @param limit  The maximum number of messages to return.
+     * @return Up to limit of the sender's newest messages, oldest first. Returns an empty list if the sender has sent none.
+     * @throws IllegalArgumentException if sender is null or empty, or limit is not positive.
+     */
+    public List<ChatMessage> getLatestChatMessagesBySender(String sender, int limit) {
+        if (sender == null || sender.trim().isEmpty()) {
+            throw new IllegalArgumentException("Sender cannot be null or empty.");
+        }
+        validateLimit(limit);
+        return messagesBySender.getLatest(sender, limit);
+    }
+
+    /**
+     * Searches the chat messages of every task in a unit.
+     * A query is a list of keywords and "quoted phrases"; a message matches if it contains every keyword
+     * and every phrase, ignoring case and punctuation.
+     *
+     * @param unitId The ID of the unit.
+     * @param query  The query, e.g. {@code unit tests "null pointer"}.
+     * @param limit  The maximum number of messages to return.
+     * @return Up to limit of the newest matching messages, newest first. Returns an empty list if the unit
+     *         doesn't exist or no messages match.
+     * @throws IllegalArgumentException if unitId or query is null or empty, or limit is not positive.
+     */
+    public List<ChatMessage> searchUnitChatMessages(String unitId, String query, int limit) {
+        if (unitId == null || unitId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Unit ID cannot be null or empty.");
+        }
+        return searchChatMessages(findUnit(unitId), IdDictionary.NONE, query, limit);
+    }
+
+    /**
+     * Searches the chat messages of a task, as {@link #searchUnitChatMessages(String, String, int)}.
+     *
+     * @param taskId The ID of the task.
+     * @param query  The query.
+     * @param limit  The maximum number of messages to return.
+     * @return Up to limit of the newest matching messages, newest first. Returns an empty list if the task
+     *         doesn't exist or no messages match.
+     * @throws IllegalArgumentException if taskId or query is null or empty, or limit is not positive.
+     */
+    public List<ChatMessage> searchTaskChatMessages(String taskId, String query, int limit) {
+        if (taskId == null || taskId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Task ID cannot be null or empty.");
+        }
+        TaskEntry entry = findTask(taskId);
+        return searchChatMessages(entry == null ? null : findUnit(entry.task.getUnit().getId()),
+                entry == null ? IdDictionary.NONE : entry.handle, query, limit);
+    }
+
+    /**
+     * Sets the target grade for a specific unit.
+     *
+     * @param unitId      The ID of the unit.
+     * @param targetGrade The target grade to set (e.g., "P", "C", "D", "HD"). Case-insensitive.
+     * @return true if the target grade was set successfully, false if the unit doesn't exist.
+     * @throws IllegalArgumentException if unitId or targetGrade is null or empty, or targetGrade is unknown.
+     */
+    public boolean chooseUnitTargetGrade(String unitId, String targetGrade) {
+        if (unitId == null || unitId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Unit ID cannot be null or empty.");
+        }
+        if (targetGrade == null || targetGrade.trim().isEmpty()) {
+            throw new IllegalArgumentException("Target grade cannot be null or empty.");
+        }
+        return chooseUnitGrade(unitId, Grade.parse(targetGrade));
+    }
+
+    /**
+     * Sets the target grade for a specific unit.
+     *
+     * @param unitId      The ID of the unit.
+     * @param targetGrade The target grade to set.
+     * @return true if the target grade was set successfully, false if the unit doesn't exist.
+     * @throws IllegalArgumentException if unitId is null or empty, or targetGrade is null.
+     */
+    public boolean chooseUnitGrade(String unitId, Grade targetGrade) {
+        if (unitId == null || unitId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Unit ID cannot be null or empty.");
+        }
+        if (targetGrade == null) {
+            throw new IllegalArgumentException("Target grade cannot be null.");
+        }
+        
+        // Validate that the unit exists
+        UnitEntry entry = findUnit(unitId);
+        if (entry == null) {
+            return false;
+        }
+        
+        // Set the target grade for the unit
+        long sequence = 0;
+        beginMutation();
+        Lock lock = unitLocks.get(unitId).writeLock();
+        lock.lock();
+        try {
+            if (store != null) {
+                sequence = store.log(Mutation.unitTargetGrade(unitId, targetGrade));
+            }
+            entry.targetGrade = targetGrade;
+        } finally {
+            lock.unlock();
+            endMutation();
+        }
+        awaitDurable(sequence);
+        return true;
+    }
+    
+    /**
+     * Gets the target grade for a specific unit.
+     *
+     * @param unitId The ID of the unit.
+     * @return The code of the unit's target grade (e.g., "HD"), or null if not set or the unit doesn't exist.
+     */
+    public String getUnitTargetGrade(String unitId) {
+        Grade grade = getUnitGrade(unitId);
+        return grade == null ? null : grade.getCode();
+    }
+
+    /**
+     * Gets the target grade for a specific unit.
+     *
+     * @param unitId The ID of the unit.
+     * @return The target grade for the unit, or null if not set or the unit doesn't exist.
+     */
+    public Grade getUnitGrade(String unitId) {
+        if (unitId == null || unitId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Unit ID cannot be null or empty.");
+        }
+        UnitEntry entry = findUnit(unitId);
+        return entry == null ? null : entry.targetGrade;
+    }
+
+    /**
+     * Gets the tasks of a unit at the target grade chosen for the unit, replacing a call to
+     * {@link #getUnitGrade(String)} followed by {@link #getTasksByUnitByGrade(String, Grade)}.
+     * The grade and its tasks are read together under the unit's lock, so they always agree.
+     *
+     * The result is the unit's cached snapshot of its bucket for that grade, shared by every caller until a
+     * task gains or loses the grade (it is added, or its target grade is set). Each grade keeps its own
+     * snapshot, so choosing another grade switches snapshots without rebuilding either.
+     *
+     * @param unitId The ID of the unit.
+     * @return An unmodifiable list of the unit's tasks with its chosen target grade, in the order
+     *         {@link #getTasksByUnitByGrade(String, Grade)} returns them. Empty if the unit doesn't exist
+     *         or has no target grade chosen.
+     * @throws IllegalArgumentException if unitId is null or empty.
+     */
+    public List<Task> getTasksAtUnitTargetGrade(String unitId) {
+        if (unitId == null || unitId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Unit ID cannot be null or empty.");
+        }
+        UnitEntry entry = findUnit(unitId);
+        if (entry == null) {
+            return Collections.emptyList();
+        }
+        Lock lock = unitLocks.get(unitId).readLock();
+        lock.lock();
+        try {
+            Grade grade = entry.targetGrade;
+            return grade == null ? Collections.emptyList() : entry.tasks.getTasksByGradeSnapshot(grade);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Changes the status of a task.
+     *
+     * @param taskId The ID of the task.
+     * @param status The new status to set.
+     * @return true if the status was changed successfully, false if the task doesn't exist.
+     * @throws IllegalArgumentException if taskId is null or empty, or status is null.
+     */
+    public boolean changeTaskStatus(String taskId, Status status) {
+        if (taskId == null || taskId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Task ID cannot be null or empty.");
+        }
+        if (status == null) {
+            throw new IllegalArgumentException("Status cannot be null.");
+        }
+        
+        TaskEntry entry = findTask(taskId);
+        if (entry == null) {
+            return false;
+        }
+        
+        entry.task.setStatus(status);
+        return true;
+    }
+    
+    /**
+     * Changes the status of several tasks at once.
+     * Every affected unit is locked for the whole batch, so queries answered from the unit indexes
+     * (histograms, portfolio readiness, tasks by grade) see either none or all of the changes.
+     * A durable service logs the batch as one record and waits for it once.
+     * Changes to a single task don't take its unit's lock, so a task whose status is changed by another
+     * caller while the batch holds the locks is left with that status and reported as
+     * {@link StatusChangeOutcome#CONFLICT}.
+     *
+     * @param taskIds The IDs of the tasks to change. Duplicates are changed once.
+     * @param status  The new status to set.
+     * @return The outcome for each distinct task ID, in the order the IDs were given.
+     * @throws IllegalArgumentException if taskIds is null or holds a null or empty ID, or status is null.
+     */
+    public Map<String, StatusChangeOutcome> changeTaskStatuses(Collection<String> taskIds, Status status) {
+        if (taskIds == null) {
+            throw new IllegalArgumentException("Task IDs cannot be null.");
+        }
+        if (status == null) {
+            throw new IllegalArgumentException("Status cannot be null.");
+        }
+        Map<String, StatusChangeOutcome> outcomes = new LinkedHashMap<>(taskIds.size() * 2);
+        for (String taskId : taskIds) {
+            if (taskId == null || taskId.trim().isEmpty()) {
+                throw new IllegalArgumentException("Task ID cannot be null or empty.");
+            }
+            outcomes.put(taskId, StatusChangeOutcome.NOT_FOUND);
+        }
+
+        List<TaskEvent> changes = new ArrayList<>(outcomes.size());
+        long sequence;
+        while (true) {
+            List<TaskEntry> found = new ArrayList<>(outcomes.size());
+            Set<String> unitIds = new HashSet<>();
+            for (String taskId : outcomes.keySet()) {
+                TaskEntry entry = findTask(taskId);
+                if (entry != null) {
+                    found.add(entry);
+                    unitIds.add(entry.task.getUnit().getId());
+                }
+            }
+            beginMutation();
+            List<Lock> locks = lockUnits(unitIds);
+            try {
+                List<Task> tasks = new ArrayList<>(found.size());
+                int[] handles = new int[found.size()];
+                Status[] matched = new Status[found.size()];
+                for (TaskEntry entry : found) {
+                    Task task = entry.task;
+                    if (!unitIds.contains(task.getUnit().getId())) {
+                        break;
+                    }
+                    handles[tasks.size()] = entry.handle;
+                    matched[tasks.size()] = task.getStatus();
+                    tasks.add(task);
+                }
+                // A task was re-added to another unit before its unit was locked, so lock again
+                if (tasks.size() == found.size()) {
+                    sequence = setStatuses(tasks, handles, matched, status, changes, outcomes);
+                    break;
+                }
+            } finally {
+                unlockAll(locks);
+                endMutation();
+            }
+        }
+        awaitDurable(sequence);
+        return finishStatusBatch(changes, outcomes);
+    }
+
+    /**
+     * Changes the status of every task in a unit that matches a filter, as one batch.
+     * For example, after a help session:
+     * {@code changeUnitTaskStatuses(unitId, task -> task.getStatus() == Status.NEED_HELP, Status.WORKING_ON_IT)}.
+     * The filter is applied with the unit locked, so tasks added, removed or changed through the service
+     * are never half-matched. Changes to a single task don't take the unit's lock, though: a task whose status
+     * is changed by another caller after it is matched is left with that status and reported as
+     * {@link StatusChangeOutcome#CONFLICT}.
+     *
+     * @param unitId The ID of the unit.
+     * @param filter Selects the tasks to change. Must not modify tasks or the service.
+     * @param status The new status to set.
+     * @return The outcome for each matched task, keyed by task ID, in the order the tasks were added.
+     *         Empty if the unit doesn't exist.
+     * @throws IllegalArgumentException if unitId is null or empty, or filter or status is null.
+     */
+    public Map<String, StatusChangeOutcome> changeUnitTaskStatuses(String unitId, Predicate<Task> filter, Status status) {
+        if (unitId == null || unitId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Unit ID cannot be null or empty.");
+        }
+        if (filter == null) {
+            throw new IllegalArgumentException("Filter cannot be null.");
+        }
+        if (status == null) {
+            throw new IllegalArgumentException("Status cannot be null.");
+        }
+        Map<String, StatusChangeOutcome> outcomes = new LinkedHashMap<>();
+        UnitEntry entry = findUnit(unitId);
+        if (entry == null) {
+            return outcomes;
+        }
+
+        List<TaskEvent> changes = new ArrayList<>();
+        long sequence;
+        beginMutation();
+        Lock lock = unitLocks.get(unitId).writeLock();
+        lock.lock();
+        try {
+            List<Task> tasks = new ArrayList<>();
+            int[] handles = new int[entry.tasks.getTaskCount()];
+            Status[] matched = new Status[handles.length];
+            entry.tasks.forEach((task, handle) -> {
+                // Read before the filter, so a change the filter saw but this missed fails the update
+                Status current = task.getStatus();
+                if (filter.test(task)) {
+                    handles[tasks.size()] = handle;
+                    matched[tasks.size()] = current;
+                    tasks.add(task);
+                }
+            });
+            sequence = setStatuses(tasks, handles, matched, status, changes, outcomes);
+        } finally {
+            lock.unlock();
+            endMutation();
+        }
+        awaitDurable(sequence);
+        return finishStatusBatch(changes, outcomes);
+    }
+
+    /**
+     * Gets the latest status transitions of a task. Every status change is recorded, however it is made,
+     * in a ring that keeps the task's last 16 entries; a durable service also appends
+     * every entry to a file in its directory (see {@link #getSpilledStatusHistory(String)}).
+     * The first entry of a history is the status the task was added with, or, for a recovered service,
+     * the status it was recovered with.
+     *
+     * @param taskId The ID of the task.
+     * @param limit  The maximum number of transitions to return.
+     * @return Up to limit of the newest transitions, oldest first. Returns an empty list if the task doesn't exist.
+     * @throws IllegalArgumentException if taskId is null or empty, or limit is not positive.
+     */
+    public List<StatusTransition> getStatusHistory(String taskId, int limit) {
+        if (taskId == null || taskId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Task ID cannot be null or empty.");
+        }
+        validateLimit(limit);
+        TaskEntry entry = findTask(taskId);
+        StatusHistory history = entry == null ? null : entry.readStatusHistory();
+        if (history == null) {
+            return new ArrayList<>();
+        }
+        synchronized (entry) {
+            return history.getLatest(limit);
+        }
+    }
+
+    /**
+     * Gets how long a task has spent in each status, from the start of its status history until now.
+     * Includes the time of transitions evicted from the history's ring.
+     *
+     * @param taskId The ID of the task.
+     * @return The time in each status, zero for statuses the task never held. Returns an empty map if the task doesn't exist.
+     * @throws IllegalArgumentException if taskId is null or empty.
+     */
+    public Map<Status, Duration> getTimeInStatus(String taskId) {
+        if (taskId == null || taskId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Task ID cannot be null or empty.");
+        }
+        TaskEntry entry = findTask(taskId);
+        StatusHistory history = entry == null ? null : entry.readStatusHistory();
+        if (history == null) {
+            return new EnumMap<>(Status.class);
+        }
+        synchronized (entry) {
+            return history.getTimeInStatus(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Gets every status transition of a task written to the durable service's status history file,
+     * across restarts: the status the task was added with, then each change. Scans the whole file,
+     * so it is meant for audits. The file is written out at each checkpoint and on close, so a crash
+     * loses the transitions since the last one.
+     *
+     * @param taskId The ID of the task.
+     * @return The task's transitions, oldest first. Empty for an in-memory service.
+     * @throws IllegalArgumentException if taskId is null or empty.
+     * @throws java.io.UncheckedIOException if the file cannot be read.
+     */
+    public List<StatusTransition> getSpilledStatusHistory(String taskId) {
+        if (taskId == null || taskId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Task ID cannot be null or empty.");
+        }
+        StatusHistorySpill spill = statusHistorySpill;
+        return spill == null ? new ArrayList<>() : spill.read(taskId);
+    }
+
+    /**
+     * Gets the tasks of a unit that need help, longest waiting first.
+     * Served from a queue the unit index keeps as tasks enter and leave NEED_HELP, so no tasks are scanned.
+     *
+     * @param unitId The ID of the unit.
+     * @return The unit's help requests. Empty if the unit doesn't exist.
+     * @throws IllegalArgumentException if unitId is null or empty.
+     */
+    public List<HelpRequest> getTasksNeedingHelp(String unitId) {
+        if (unitId == null || unitId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Unit ID cannot be null or empty.");
+        }
+        UnitEntry entry = findUnit(unitId);
+        if (entry == null) {
+            return new ArrayList<>();
+        }
+        Lock lock = unitLocks.get(unitId).readLock();
+        lock.lock();
+        try {
+            return entry.tasks.getHelpRequests();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Claims the task of a unit that has needed help longest, moving it from NEED_HELP to WORKING_ON_IT.
+     * Claims on a unit are made under its lock, so concurrent tutors never claim the same task.
+     *
+     * @param unitId The ID of the unit.
+     * @return The claimed help request, or null if the unit doesn't exist or no task needs help.
+     * @throws IllegalArgumentException if unitId is null or empty.
+     */
+    public HelpRequest claimTaskNeedingHelp(String unitId) {
+        if (unitId == null || unitId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Unit ID cannot be null or empty.");
+        }
+        UnitEntry entry = findUnit(unitId);
+        if (entry == null) {
+            return null;
+        }
+        HelpRequest claimed = null;
+        List<TaskEvent> changes = events.isActive() ? new ArrayList<>(1) : null;
+        long sequence = 0;
+        beginMutation();
+        Lock lock = unitLocks.get(unitId).writeLock();
+        lock.lock();
+        try {
+            HelpRequest request;
+            while (claimed == null && (request = entry.tasks.peekHelpRequest()) != null) {
+                Task task = request.getTask();
+                statusBatch.set(Boolean.TRUE);
+                try {
+                    if (task.compareAndSetStatus(Status.NEED_HELP, Status.WORKING_ON_IT)) {
+                        claimed = request;
+                    }
+                } finally {
+                    statusBatch.remove();
+                }
+                // Dequeues the task either way: if it wasn't claimed, it was changed directly on the model
+                // and its change is still waiting for this lock
+                if (syncIndexed(entry.tasks, taskHandles.get(task.getId()), task, changes) && store != null) {
+                    sequence = store.log(Mutation.taskState(task));
+                }
+            }
+        } finally {
+            lock.unlock();
+            endMutation();
+        }
+        awaitDurable(sequence);
+        publishAll(changes);
+        return claimed;
+    }
+
+    /**
+     * Submits a portfolio for a unit. A portfolio can only be submitted if all tasks for the unit
+     * have a status of READY_FOR_FEEDBACK.
+     *
+     * @param unitId The ID of the unit.
+     * @return true if the portfolio was submitted successfully, false if the unit doesn't exist
+     *         or not all tasks are ready for feedback.
+     * @throws IllegalArgumentException if unitId is null or empty.
+     */
+    public boolean submitUnitPortfolio(String unitId) {
+        if (unitId == null || unitId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Unit ID cannot be null or empty.");
+        }
+        
+        // Check if the unit exists
+        UnitEntry entry = findUnit(unitId);
+        if (entry == null) {
+            return false;
+        }
+        
+        // Readiness is counted incrementally by the unit index as statuses change.
+        // A unit with no tasks can't submit an empty portfolio.
+        Lock lock = unitLocks.get(unitId).readLock();
+        lock.lock();
+        try {
+            return entry.tasks.isReadyForFeedback();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of tasks in each status for a unit, broken down by target grade.
+     * Served from counters the unit index keeps as tasks are added and change, so no tasks are scanned.
+     *
+     * @param unitId The ID of the unit.
+     * @return The unit's histogram. Every count is zero if the unit doesn't exist or has no tasks.
+     * @throws IllegalArgumentException if unitId is null or empty.
+     */
+    public StatusHistogram getStatusHistogram(String unitId) {
+        if (unitId == null || unitId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Unit ID cannot be null or empty.");
+        }
+        UnitEntry entry = findUnit(unitId);
+        if (entry == null) {
+            return StatusHistogram.EMPTY;
+        }
+        Lock lock = unitLocks.get(unitId).readLock();
+        lock.lock();
+        try {
+            return entry.tasks.getStatusHistogram();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of tasks in each status for a unit with a given target grade.
+     *
+     * @param unitId      The ID of the unit.
+     * @param targetGrade The target grade, or null for tasks without a target grade.
+     * @return The number of matching tasks in each status. Every count is zero if the unit doesn't exist or has no tasks.
+     * @throws IllegalArgumentException if unitId is null or empty.
+     */
+    public Map<Status, Integer> getStatusHistogram(String unitId, Grade targetGrade) {
+        return getStatusHistogram(unitId).toMap(targetGrade);
+    }
+
+    /**
+     * Gets the status histogram of every unit, as {@link #getStatusHistogram(String)}.
+     *
+     * @return The histogram of each unit, keyed by unit ID.
+     */
+    public Map<String, StatusHistogram> getStatusHistograms() {
+        Map<String, StatusHistogram> result = new HashMap<>();
+        for (Unit unit : listUnits()) {
+            result.put(unit.getId(), getStatusHistogram(unit.getId()));
+        }
+        return result;
+    }
+
+    /**
+     * Gets the chat history of a task.
+     *
+     * @param taskId The ID of the task.
+     * @return The task's chat history, or null if the task doesn't exist or has no messages.
+     * @throws IllegalArgumentException if taskId is null or empty.
+     */
+    private ChatHistory getChatHistory(String taskId) {
+        if (taskId == null || taskId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Task ID cannot be null or empty.");
+        }
+        TaskEntry entry = findTask(taskId);
+        return entry == null ? null : entry.chatHistory;
+    }
+
+    private List<ChatMessage> searchChatMessages(UnitEntry unitEntry, int taskHandle, String query, int limit) {
+        if (query == null || query.trim().isEmpty()) {
+            throw new IllegalArgumentException("Query cannot be null or empty.");
+        }
+        validateLimit(limit);
+        ChatSearchIndex.Query parsed = ChatSearchIndex.Query.parse(query);
+        if (unitEntry == null || parsed.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return unitEntry.chatSearch.search(parsed, taskHandle, limit);
+    }
+
+    /**
+     * Gets the search index of the unit a task belongs to.
+     */
+    private ChatSearchIndex getChatSearchIndex(TaskEntry entry) {
+        return findUnit(entry.task.getUnit().getId()).chatSearch;
+    }
+
+    private ChatMessage findChatMessage(int taskHandle, ChatCursor cursor) {
+        TaskEntry entry = taskEntries.get(taskHandle);
+        ChatHistory history = entry == null ? null : entry.chatHistory;
+        if (history == null) {
+            return null;
+        }
+        LocalDateTime timestamp = cursor.getTimestamp();
+        for (ChatMessage message : history.getBetween(timestamp, timestamp.plusNanos(1))) {
+            if (message.getId().equals(cursor.getMessageId())) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Attaches the messages a task had in the chat log when it was opened, once the task is indexed.
+     * They are already stored, so they are neither logged nor published.
+     */
+    private void attachLoggedMessages(TaskEntry entry) {
+        long[] offsets = chatLog == null ? null : chatLog.takeRecovered(entry.task.getId());
+        if (offsets == null) {
+            return;
+        }
+        List<ChatMessage> messages = new ArrayList<>(offsets.length);
+        for (long offset : offsets) {
+            messages.add(chatLog.read(offset));
+        }
+        ((MappedChatHistory) entry.getOrCreateChatHistory()).addLogged(messages, offsets);
+        getChatSearchIndex(entry).addAll(entry.handle, messages);
+        messagesBySender.addAll(entry.handle, messages);
+        for (ChatMessage message : messages) {
+            messageIds.add(message.getId());
+        }
+    }
+
+    private ChatHistory newChatHistory() {
+        return chatLog == null ? new HeapChatHistory() : new MappedChatHistory(chatLog);
+    }
+
+    private static void validateGradeQuery(String unitId, Grade targetGrade) {
+        if (unitId == null || unitId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Unit ID cannot be null or empty.");
+        }
+        if (targetGrade == null) {
+            throw new IllegalArgumentException("Target grade cannot be null.");
+        }
+    }
+
+    /**
+     * Runs a query against a unit's task index under the unit's read lock.
+     *
+     * @return The query's result, or absent if the unit doesn't exist.
+     */
+    private <R> R queryUnit(String unitId, Function<UnitTaskIndex, R> query, R absent) {
+        UnitEntry entry = findUnit(unitId);
+        if (entry == null) {
+            return absent;
+        }
+        Lock lock = unitLocks.get(unitId).readLock();
+        lock.lock();
+        try {
+            return query.apply(entry.tasks);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void validateLimit(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive.");
+        }
+    }
+
+    /**
+     * Re-indexes a task in its unit after its status or target grade has changed.
+     * For a durable service, the task's new state is logged under the unit lock, so the last record
+     * for a task always holds its final state even when changes race. The status change published is
+     * the one indexed, so when changes race, one event may cover several of them.
+     *
+     * @param task The task that changed.
+     */
+    private void syncTask(Task task) {
+        String unitId = task.getUnit().getId();
+        UnitEntry unitEntry = findUnit(unitId);
+        int handle = taskHandles.get(task.getId());
+        if (unitEntry == null || handle == IdDictionary.NONE) {
+            return;
+        }
+        List<TaskEvent> changes = events.isActive() ? new ArrayList<>(1) : null;
+        long sequence = 0;
+        beginMutation();
+        Lock lock = unitLocks.get(unitId).writeLock();
+        lock.lock();
+        try {
+            if (syncIndexed(unitEntry.tasks, handle, task, changes) && store != null) {
+                sequence = store.log(Mutation.taskState(task));
+            }
+        } finally {
+            lock.unlock();
+            endMutation();
+        }
+        awaitDurable(sequence);
+        publishAll(changes);
+    }
+
+    /**
+     * Re-indexes a task whose unit the caller has write-locked. If its indexed status changes, a status
+     * change event numbered under the lock is added to changes, so a task's events are numbered in the
+     * order its unit index applied them.
+     *
+     * @param changes Receives the status change event, or null if no one is subscribed.
+     * @return true if the task's indexed grade or status changed.
+     */
+    private boolean syncIndexed(UnitTaskIndex index, int handle, Task task, List<TaskEvent> changes) {
+        Status oldStatus = index.getStatus(handle);
+        if (!index.sync(handle, task)) {
+            return false;
+        }
+        Status newStatus = index.getStatus(handle);
+        if (changes != null && oldStatus != newStatus) {
+            changes.add(TaskEvent.statusChanged(task, oldStatus, newStatus, eventSequence.incrementAndGet()));
+        }
+        return true;
+    }
+
+    /**
+     * Sets the status of tasks whose units the caller has write-locked. The task listener leaves
+     * the changes alone, and they are then indexed and logged here as one record.
+     * Each task is only changed if it still has the status it was matched with, as a direct change
+     * on the model doesn't wait for the unit lock.
+     *
+     * @param handles  The handle of each task.
+     * @param matched  The status each task had when it was matched.
+     * @param changes  Receives a status change event for each task whose indexed status changed.
+     * @param outcomes Receives the outcome for each task.
+     * @return The sequence number of the log record, or 0 if nothing was logged.
+     */
+    private long setStatuses(List<Task> tasks, int[] handles, Status[] matched, Status status,
+                             List<TaskEvent> changes, Map<String, StatusChangeOutcome> outcomes) {
+        statusBatch.set(Boolean.TRUE);
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                Task task = tasks.get(i);
+                StatusChangeOutcome outcome = StatusChangeOutcome.CONFLICT;
+                if (task.compareAndSetStatus(matched[i], status)) {
+                    outcome = matched[i] == status ? StatusChangeOutcome.UNCHANGED : StatusChangeOutcome.CHANGED;
+                }
+                outcomes.put(task.getId(), outcome);
+            }
+        } finally {
+            statusBatch.remove();
+        }
+        List<byte[]> mutations = store == null ? null : new ArrayList<>(tasks.size());
+        UnitEntry unitEntry = null;
+        for (int i = 0; i < tasks.size(); i++) {
+            Task task = tasks.get(i);
+            // Batches usually hold runs of tasks from the same unit
+            String unitId = task.getUnit().getId();
+            if (unitEntry == null || !unitEntry.unit.getId().equals(unitId)) {
+                unitEntry = findUnit(unitId);
+            }
+            if (syncIndexed(unitEntry.tasks, handles[i], task, changes) && mutations != null) {
+                mutations.add(Mutation.taskState(task));
+            }
+        }
+        return mutations == null || mutations.isEmpty() ? 0 : store.log(Mutation.batch(mutations));
+    }
+
+    /**
+     * Publishes the changes of a status batch that took effect.
+     */
+    private Map<String, StatusChangeOutcome> finishStatusBatch(List<TaskEvent> changes, Map<String, StatusChangeOutcome> outcomes) {
+        publishAll(changes);
+        return outcomes;
+    }
+
+    /**
+     * Publishes events in the order they were numbered.
+     *
+     * @param changes The events, or null if no one was subscribed when they were made.
+     */
+    private void publishAll(List<TaskEvent> changes) {
+        if (changes != null) {
+            for (TaskEvent change : changes) {
+                events.publish(change);
+            }
+        }
+    }
+
+    private void removeFromUnitIndex(Task task) {
+        String unitId = task.getUnit().getId();
+        UnitEntry unitEntry = findUnit(unitId);
+        if (unitEntry == null) {
+            return;
+        }
+        Lock lock = unitLocks.get(unitId).writeLock();
+        lock.lock();
+        try {
+            unitEntry.tasks.remove(taskHandles.get(task.getId()), task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The entry of the unit, or null if the unit doesn't exist.
+     */
+    private UnitEntry findUnit(String unitId) {
+        int handle = unitHandles.get(unitId);
+        UnitEntry entry = handle == IdDictionary.NONE ? null : unitEntries.get(handle);
+        // An entry is visible just before its first unit is set
+        return entry == null || entry.unit == null ? null : entry;
+    }
+
+    /**
+     * @return The entry of the task, or null if the task doesn't exist.
+     */
+    private TaskEntry findTask(String taskId) {
+        int handle = taskHandles.get(taskId);
+        TaskEntry entry = handle == IdDictionary.NONE ? null : taskEntries.get(handle);
+        return entry == null || entry.task == null ? null : entry;
+    }
+
+    private UnitEntry addUnitEntry(String unitId) {
+        return unitEntries.computeIfAbsent(unitHandles.add(unitId), UnitEntry::new);
+    }
+
+    private TaskEntry addTaskEntry(String taskId) {
+        int handle = taskHandles.add(taskId);
+        return taskEntries.computeIfAbsent(handle, () -> {
+            sortedTaskIds.add(taskId, handle);
+            return new TaskEntry(handle);
+        });
+    }
+
+    /**
+     * @return The units in the order their IDs were first added.
+     */
+    private List<Unit> listUnits() {
+        int count = unitHandles.size();
+        List<Unit> result = new ArrayList<>(count);
+        for (int handle = 0; handle < count; handle++) {
+            UnitEntry entry = unitEntries.get(handle);
+            Unit unit = entry == null ? null : entry.unit;
+            if (unit != null) {
+                result.add(unit);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks every row of a batch and rejects the batch if any row is bad.
+     *
+     * @param rowCount The number of rows.
+     * @param check    Returns the error for a row, or null if the row is good. Must be safe to call in parallel.
+     * @param parallel true to check the rows in parallel.
+     * @throws BatchValidationException listing every bad row.
+     */
+    private static void checkRows(int rowCount, IntFunction<String> check, boolean parallel) {
+        String[] errors = new String[rowCount];
+        IntStream rows = IntStream.range(0, rowCount);
+        if (parallel) {
+            rows = rows.parallel();
+        }
+        // Each row writes only its own slot, and the stream completes before the slots are read
+        rows.forEach(row -> errors[row] = check.apply(row));
+        Map<Integer, String> rowErrors = new TreeMap<>();
+        for (int row = 0; row < rowCount; row++) {
+            if (errors[row] != null) {
+                rowErrors.put(row, errors[row]);
+            }
+        }
+        if (!rowErrors.isEmpty()) {
+            throw new BatchValidationException(rowErrors);
+        }
+    }
+
+    /**
+     * Write-locks the units, taking the locks in stripe order.
+     */
+    private List<Lock> lockUnits(Collection<String> unitIds) {
+        List<Lock> locks = new ArrayList<>();
+        for (ReadWriteLock stripe : unitLocks.getAll(unitIds)) {
+            Lock lock = stripe.writeLock();
+            lock.lock();
+            locks.add(lock);
+        }
+        return locks;
+    }
+
+    /**
+     * Write-locks the ingest stripes of tasks, in stripe order.
+     */
+    private List<Lock> lockIngest(Collection<String> taskIds) {
+        List<Lock> locks = new ArrayList<>();
+        for (ReadWriteLock stripe : ingestLocks.getAll(taskIds)) {
+            Lock lock = stripe.writeLock();
+            lock.lock();
+            locks.add(lock);
+        }
+        return locks;
+    }
+
+    /**
+     * Checks whether a task already has a message with the same ID. The caller holds the task's ingest lock.
+     * The Bloom filter rules out almost every new message; only a possible duplicate looks in the history.
+     *
+     * @param pendingIds IDs being added to the task alongside the message, or null.
+     */
+    private boolean isDuplicate(TaskEntry entry, ChatMessage message, Set<String> pendingIds) {
+        messagesChecked.increment();
+        String messageId = message.getId();
+        if (!messageIds.mightContain(messageId)) {
+            return false;
+        }
+        possibleDuplicates.increment();
+        boolean duplicate = pendingIds != null && pendingIds.contains(messageId);
+        ChatHistory history = entry.chatHistory;
+        if (!duplicate && history != null) {
+            // A retry normally carries the original timestamp, so look there before scanning the history
+            duplicate = findChatMessage(entry.handle, ChatCursor.at(message)) != null || history.containsId(messageId);
+        }
+        if (duplicate) {
+            duplicatesRejected.increment();
+        }
+        return duplicate;
+    }
+
+    private static void unlockAll(List<Lock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+    }
+
+    // --- Durable Storage Support ---
+
+    /**
+     * Starts the status history of every recovered task from its current status, then records new transitions,
+     * appending each to the spill file.
+     */
+    private void startStatusHistories(StatusHistorySpill spill) {
+        statusHistorySpill = spill;
+        long now = System.currentTimeMillis();
+        int count = taskHandles.size();
+        for (int handle = 0; handle < count; handle++) {
+            TaskEntry entry = taskEntries.get(handle);
+            Task task = entry == null ? null : entry.task;
+            if (task != null) {
+                entry.startStatusHistory(now, task.getStatus(), null);
+            }
+        }
+        recordingStatusHistory = true;
+    }
+
+    private void recordStatusChange(Task task) {
+        TaskEntry entry = findTask(task.getId());
+        if (entry != null) {
+            entry.recordStatusOf(task, statusHistorySpill);
+        }
+    }
+
+    /**
+     * Writes out the status history file of a durable service; called at each checkpoint.
+     */
+    void flushStatusHistory() {
+        StatusHistorySpill spill = statusHistorySpill;
+        if (spill != null) {
+            spill.flush();
+        }
+    }
+
+    void attachStore(DurableStore store) {
+        this.store = store;
+    }
+
+    /**
+     * @return The store of a durable service, or null for an in-memory one.
+     */
+    DurableStore getStore() {
+        return store;
+    }
+
+    /**
+     * Discards chat log records a recovering service will replay, see {@link MappedChatLog#truncate(long)}.
+     */
+    void truncateChatLog(long position) {
+        if (chatLog != null) {
+            chatLog.truncate(position);
+        }
+    }
+
+    /**
+     * Writes the chat log to disk up to a position taken by {@link #captureState(boolean)}.
+     */
+    void forceChatLog(long position) {
+        if (chatLog != null) {
+            chatLog.force(position);
+        }
+    }
+
+    /**
+     * Captures the service state. The caller prevents concurrent mutations.
+     *
+     * @param withMessages true to capture every chat message, false to capture only the chat log's
+     *                     position if messages are kept in one.
+     */
+    StateCapture captureState(boolean withMessages) {
+        StateCapture state = new StateCapture();
+        List<Unit> units = listUnits();
+        for (Unit unit : units) {
+            state.addEntity(Mutation.addUnit(unit));
+        }
+        for (Unit unit : units) {
+            Grade grade = findUnit(unit.getId()).targetGrade;
+            if (grade != null) {
+                state.addEntity(Mutation.unitTargetGrade(unit.getId(), grade));
+            }
+        }
+        int taskCount = taskHandles.size();
+        for (int handle = 0; handle < taskCount; handle++) {
+            TaskEntry entry = taskEntries.get(handle);
+            if (entry != null && entry.task != null) {
+                state.addEntity(Mutation.addTask(entry.task));
+            }
+        }
+        if (chatLog != null && !withMessages) {
+            state.setChatLogPosition(chatLog.position());
+            return state;
+        }
+        for (int handle = 0; handle < taskCount; handle++) {
+            TaskEntry entry = taskEntries.get(handle);
+            if (entry != null && entry.chatHistory != null) {
+                state.addMessages(entry.chatHistory.getAll());
+            }
+        }
+        return state;
+    }
+
+    private void beginMutation() {
+        if (store != null) {
+            store.beginMutation();
+        }
+    }
+
+    private void endMutation() {
+        if (store != null) {
+            store.endMutation();
+        }
+    }
+
+    private void awaitDurable(long sequence) {
+        if (store != null) {
+            store.awaitDurable(sequence);
+        }
+    }
 }
@@ -0,0 +1,148 @@
+package ontrack.service;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Index of String IDs in sorted order with their handles, so the IDs starting with a prefix are found
+ * by binary search and counted without visiting them.
+ *
+ * Adds only append to a pending buffer. The first lookup after adds sorts the pending IDs and merges
+ * them into the sorted arrays, so a run of adds costs one sort rather than a shift per ID.
+ * Thread-safe: adds and merges are synchronized, and a merged snapshot is published whole.
+ */
+final class PrefixIndex {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private volatile Sorted sorted = new Sorted(new String[0], new int[0]);
+    private String[] pendingIds = new String[INITIAL_CAPACITY]; // Guarded by this
+    private int[] pendingHandles = new int[INITIAL_CAPACITY];
+    private int pendingSize;
+    private volatile boolean pending;
+
+    /**
+     * IDs in sorted order, with the handle of each.
+     */
+    private static final class Sorted {
+        private final String[] ids;
+        private final int[] handles;
+
+        private Sorted(String[] ids, int[] handles) {
+            this.ids = ids;
+            this.handles = handles;
+        }
+
+        /**
+         * @return The first position whose ID is not below the prefix.
+         */
+        private int start(String prefix) {
+            int low = 0;
+            int high = ids.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (ids[middle].compareTo(prefix) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return The first position after start whose ID doesn't start with the prefix.
+         *         IDs with the prefix sort together, right after the prefix itself.
+         */
+        private int end(String prefix, int start) {
+            int low = start;
+            int high = ids.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (ids[middle].startsWith(prefix)) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Adds an ID. Each ID must be added once.
+     */
+    synchronized void add(String id, int handle) {
+        if (pendingSize == pendingIds.length) {
+            pendingIds = Arrays.copyOf(pendingIds, pendingSize * 2);
+            pendingHandles = Arrays.copyOf(pendingHandles, pendingSize * 2);
+        }
+        pendingIds[pendingSize] = id;
+        pendingHandles[pendingSize] = handle;
+        pendingSize++;
+        pending = true;
+    }
+
+    /**
+     * @return The number of IDs starting with the prefix.
+     */
+    int count(String prefix) {
+        Sorted current = current();
+        int start = current.start(prefix);
+        return current.end(prefix, start) - start;
+    }
+
+    /**
+     * Passes the handle of each ID starting with the prefix to an action, in ID order, until the action returns false.
+     */
+    void forEachWhile(String prefix, IntPredicate action) {
+        Sorted current = current();
+        int start = current.start(prefix);
+        int end = current.end(prefix, start);
+        for (int position = start; position < end; position++) {
+            if (!action.test(current.handles[position])) {
+                return;
+            }
+        }
+    }
+
+    private Sorted current() {
+        return pending ? merge() : sorted;
+    }
+
+    private synchronized Sorted merge() {
+        Sorted current = sorted;
+        if (pendingSize == 0) {
+            return current;
+        }
+        Integer[] order = new Integer[pendingSize];
+        for (int i = 0; i < pendingSize; i++) {
+            order[i] = i;
+        }
+        String[] added = pendingIds;
+        Arrays.sort(order, (a, b) -> added[a].compareTo(added[b]));
+
+        int size = current.ids.length + pendingSize;
+        String[] ids = new String[size];
+        int[] handles = new int[size];
+        int from = 0;
+        int next = 0;
+        for (int position = 0; position < size; position++) {
+            if (next == pendingSize || (from < current.ids.length && current.ids[from].compareTo(added[order[next]]) <= 0)) {
+                ids[position] = current.ids[from];
+                handles[position] = current.handles[from];
+                from++;
+            } else {
+                ids[position] = added[order[next]];
+                handles[position] = pendingHandles[order[next]];
+                next++;
+            }
+        }
+        current = new Sorted(ids, handles);
+        sorted = current;
+        Arrays.fill(pendingIds, 0, pendingSize, null);
+        pendingSize = 0;
+        pending = false;
+        return current;
+    }
+}
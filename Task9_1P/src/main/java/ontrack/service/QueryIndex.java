@@ -0,0 +1,14 @@
+package ontrack.service;
+
+/**
+ * The index a {@link TaskQuery} reads its candidate tasks from, see {@link OnTrackService#explainQuery(TaskQuery)}.
+ * Listed in the order the planner prefers them when their estimates tie.
+ */
+public enum QueryIndex {
+    UNIT_GRADE, // The unit's bucket of tasks with the grade
+    UNIT_HELP_QUEUE, // The unit's queue of tasks in NEED_HELP
+    ID_PREFIX, // Task IDs in sorted order
+    UNIT, // The unit's tasks
+    GRADE, // Every unit's bucket of tasks with the grade
+    FULL_SCAN // Every task
+}
@@ -0,0 +1,105 @@
+package ontrack.service;
+
+import ontrack.model.Task;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * How a {@link TaskQuery} is answered: the index its candidates are read from, the conditions left to
+ * test on each candidate, and whether the results need a sort. An immutable snapshot, see
+ * {@link OnTrackService#explainQuery(TaskQuery)}.
+ */
+public final class QueryPlan {
+
+    private final TaskQuery query;
+    private final QueryIndex index;
+    private final int estimatedCandidates;
+    private final List<String> filters;
+    private final Predicate<Task> filter;
+    private final boolean sortNeeded;
+
+    QueryPlan(TaskQuery query, QueryIndex index, int estimatedCandidates, List<String> filters,
+              Predicate<Task> filter, boolean sortNeeded) {
+        this.query = query;
+        this.index = index;
+        this.estimatedCandidates = estimatedCandidates;
+        this.filters = Collections.unmodifiableList(filters);
+        this.filter = filter;
+        this.sortNeeded = sortNeeded;
+    }
+
+    TaskQuery getQuery() {
+        return query;
+    }
+
+    /**
+     * @return The conditions left to test, combined.
+     */
+    Predicate<Task> getFilter() {
+        return filter;
+    }
+
+    public QueryIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return The number of tasks in the chosen index for the query, when the plan was made.
+     */
+    public int getEstimatedCandidates() {
+        return estimatedCandidates;
+    }
+
+    /**
+     * @return A description of each condition the index doesn't answer, tested on every candidate.
+     */
+    public List<String> getFilters() {
+        return filters;
+    }
+
+    /**
+     * @return true if the results are sorted after they are found, false if the index already gives their order.
+     */
+    public boolean isSortNeeded() {
+        return sortNeeded;
+    }
+
+    /**
+     * @return The plan on one line, e.g.
+     *         {@code UNIT_GRADE(unit=SIT707, grade=HD) ~12 candidates -> filter [status = NEED_HELP] -> limit 5}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(index.name()).append('(');
+        switch (index) {
+            case UNIT_GRADE:
+                text.append("unit=").append(query.getUnitId()).append(", grade=").append(query.getGrade().getCode());
+                break;
+            case UNIT_HELP_QUEUE:
+            case UNIT:
+                text.append("unit=").append(query.getUnitId());
+                break;
+            case ID_PREFIX:
+                text.append("prefix=\"").append(query.getIdPrefix()).append('"');
+                break;
+            case GRADE:
+                text.append("grade=").append(query.getGrade().getCode());
+                break;
+            default:
+                break;
+        }
+        text.append(") ~").append(estimatedCandidates).append(" candidates");
+        if (!filters.isEmpty()) {
+            text.append(" -> filter ").append(filters);
+        }
+        if (sortNeeded) {
+            text.append(" -> sort");
+        }
+        if (query.getLimit() > 0) {
+            text.append(" -> limit ").append(query.getLimit());
+        }
+        return text.toString();
+    }
+}
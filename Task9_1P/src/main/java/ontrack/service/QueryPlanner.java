@@ -0,0 +1,164 @@
+package ontrack.service;
+
+import ontrack.model.Grade;
+import ontrack.model.Status;
+import ontrack.model.Task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Plans and runs {@link TaskQuery}s.
+ *
+ * The planner lists the indexes that can answer part of a query, asks for the number of tasks each would
+ * yield, and reads the smallest. Every condition the chosen index doesn't answer becomes a filter on its
+ * candidates. Estimates are exact counts taken from the indexes, so no tasks are visited while planning.
+ */
+final class QueryPlanner {
+
+    /**
+     * The number of tasks in each index. A count for an unknown unit is 0.
+     */
+    interface Statistics {
+        int countByUnitAndGrade(String unitId, Grade grade);
+
+        int countNeedingHelp(String unitId);
+
+        int countByIdPrefix(String prefix);
+
+        int countByUnit(String unitId);
+
+        int countByGrade(Grade grade);
+
+        int countAll();
+    }
+
+    /**
+     * Reads the candidates of a plan from its index.
+     */
+    interface Scanner {
+        /**
+         * Passes each candidate to a visitor, in index order, until the visitor returns false.
+         */
+        void scan(QueryPlan plan, Predicate<Task> visitor);
+    }
+
+    private QueryPlanner() {
+    }
+
+    static QueryPlan plan(TaskQuery query, Statistics statistics) {
+        String unitId = query.getUnitId();
+        Grade grade = query.getGrade();
+        boolean byId = query.getOrder() == TaskQuery.BY_ID;
+
+        QueryIndex best = null;
+        int bestCount = Integer.MAX_VALUE;
+        for (QueryIndex index : QueryIndex.values()) {
+            int count;
+            switch (index) {
+                case UNIT_GRADE:
+                    count = unitId != null && grade != null ? statistics.countByUnitAndGrade(unitId, grade) : -1;
+                    break;
+                case UNIT_HELP_QUEUE:
+                    count = unitId != null && query.getStatus() == Status.NEED_HELP ? statistics.countNeedingHelp(unitId) : -1;
+                    break;
+                case ID_PREFIX:
+                    count = query.getIdPrefix() != null ? statistics.countByIdPrefix(query.getIdPrefix()) : -1;
+                    break;
+                case UNIT:
+                    count = unitId != null ? statistics.countByUnit(unitId) : -1;
+                    break;
+                case GRADE:
+                    // A unit index is never larger, so the cross-unit indexes are only counted without one
+                    count = unitId == null && grade != null ? statistics.countByGrade(grade) : -1;
+                    break;
+                default:
+                    count = unitId == null ? statistics.countAll() : -1;
+                    break;
+            }
+            // Ties go to the earlier index, except that the ID index wins one when it saves a sort
+            if (count >= 0 && (count < bestCount || (count == bestCount && byId && index == QueryIndex.ID_PREFIX))) {
+                best = index;
+                bestCount = count;
+            }
+        }
+
+        List<String> filters = new ArrayList<>();
+        List<Predicate<Task>> conditions = new ArrayList<>();
+        if (unitId != null && best != QueryIndex.UNIT_GRADE && best != QueryIndex.UNIT_HELP_QUEUE && best != QueryIndex.UNIT) {
+            filters.add("unit = " + unitId);
+            conditions.add(task -> task.getUnit().getId().equals(unitId));
+        }
+        if (grade != null && best != QueryIndex.UNIT_GRADE && best != QueryIndex.GRADE) {
+            filters.add("grade = " + grade.getCode());
+            conditions.add(task -> task.getGrade() == grade);
+        }
+        Status status = query.getStatus();
+        if (status != null && best != QueryIndex.UNIT_HELP_QUEUE) {
+            filters.add("status = " + status);
+            conditions.add(task -> task.getStatus() == status);
+        }
+        String idPrefix = query.getIdPrefix();
+        if (idPrefix != null && best != QueryIndex.ID_PREFIX) {
+            filters.add("ID starts with \"" + idPrefix + '"');
+            conditions.add(task -> task.getId().startsWith(idPrefix));
+        }
+        String namePrefix = query.getNamePrefix();
+        if (namePrefix != null) {
+            filters.add("name starts with \"" + namePrefix + '"');
+            conditions.add(task -> task.getName().startsWith(namePrefix));
+        }
+        Predicate<Task> filter = task -> {
+            for (Predicate<Task> condition : conditions) {
+                if (!condition.test(task)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+        boolean sortNeeded = query.getOrder() != null && !(byId && best == QueryIndex.ID_PREFIX);
+        return new QueryPlan(query, best, bestCount, filters, filter, sortNeeded);
+    }
+
+    /**
+     * @return The tasks matching the plan's query, in its order and up to its limit.
+     */
+    static List<Task> run(QueryPlan plan, Scanner scanner) {
+        Predicate<Task> filter = plan.getFilter();
+        int limit = plan.getQuery().getLimit();
+        List<Task> result = new ArrayList<>();
+        if (!plan.isSortNeeded()) {
+            // Candidates already come in the requested order, so the scan stops at the limit
+            scanner.scan(plan, task -> {
+                if (filter.test(task)) {
+                    result.add(task);
+                }
+                return limit == 0 || result.size() < limit;
+            });
+            return result;
+        }
+        // Keeps at most twice the limit, cutting back to the best limit tasks whenever that fills up.
+        // List.sort is stable, so tasks kept from earlier cuts stay ahead of equal tasks found later.
+        int bound = limit == 0 || limit > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : limit * 2;
+        scanner.scan(plan, task -> {
+            if (filter.test(task)) {
+                result.add(task);
+                if (result.size() >= bound) {
+                    sortAndCut(result, plan.getQuery());
+                }
+            }
+            return true;
+        });
+        sortAndCut(result, plan.getQuery());
+        return result;
+    }
+
+    private static void sortAndCut(List<Task> tasks, TaskQuery query) {
+        tasks.sort(query.getOrder());
+        int limit = query.getLimit();
+        if (limit > 0 && tasks.size() > limit) {
+            tasks.subList(limit, tasks.size()).clear();
+        }
+    }
+}
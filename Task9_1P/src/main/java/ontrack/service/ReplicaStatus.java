@@ -0,0 +1,50 @@
+package ontrack.service;
+
+import java.net.SocketAddress;
+
+/**
+ * How far a connected replica has caught up with its primary, when the status was taken.
+ * See {@link ReplicationPrimary#getReplicas()}.
+ */
+public final class ReplicaStatus {
+
+    private final SocketAddress address;
+    private final long acknowledgedSequence;
+    private final long primarySequence;
+
+    ReplicaStatus(SocketAddress address, long acknowledgedSequence, long primarySequence) {
+        this.address = address;
+        this.acknowledgedSequence = acknowledgedSequence;
+        this.primarySequence = primarySequence;
+    }
+
+    /**
+     * @return The replica's end of its connection.
+     */
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @return The sequence number of the latest mutation the replica reports applied, 0 before its snapshot is.
+     */
+    public long getAcknowledgedSequence() {
+        return acknowledgedSequence;
+    }
+
+    /**
+     * @return The number of logged mutations the replica has not yet reported applied.
+     */
+    public long getLagSequences() {
+        return Math.max(0, primarySequence - acknowledgedSequence);
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicaStatus{" +
+                "address=" + address +
+                ", acknowledgedSequence=" + acknowledgedSequence +
+                ", lagSequences=" + getLagSequences() +
+                '}';
+    }
+}
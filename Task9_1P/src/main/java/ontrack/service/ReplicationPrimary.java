@@ -0,0 +1,257 @@
+package ontrack.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Serves the write-ahead log of a durable OnTrackService to read replicas over loopback TCP.
+ *
+ * A connecting replica first receives the state of the service as a snapshot of mutations, then every
+ * mutation logged after it, in sequence order, as it is logged. Replicas apply them to their own service
+ * (see {@link OnTrackReplica}) and acknowledge the last sequence number applied, so the primary can report
+ * how far behind each one is.
+ *
+ * The stream is: magic, version, snapshot sequence, snapshot mutation count, then each snapshot mutation as
+ * length and bytes. After that each frame is: sequence, the primary's last sequence, the epoch millisecond
+ * the mutation was logged, length and bytes. A frame of length {@link #HEARTBEAT} carries no mutation and
+ * is sent when the log is idle. Replicas send back each acknowledged sequence as a long.
+ *
+ * Mutations are shipped as they are logged, before the primary forces its log to disk, so a replica can
+ * briefly hold a change a crashed primary does not recover. A replica more than
+ * {@value #MAX_QUEUED_MUTATIONS} mutations behind is disconnected rather than buffered without bound.
+ * Thread-safe. Closing the primary disconnects every replica but leaves the service open.
+ */
+public final class ReplicationPrimary implements AutoCloseable {
+
+    static final int MAGIC = 0x4F54524C; // "OTRL"
+    static final int VERSION = 1;
+    static final int HEARTBEAT = -1;
+    static final long HEARTBEAT_MILLIS = 100;
+
+    private static final int MAX_QUEUED_MUTATIONS = 1 << 16;
+
+    private final DurableStore store;
+    private final ServerSocket server;
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    private ReplicationPrimary(DurableStore store, ServerSocket server) {
+        this.store = store;
+        this.server = server;
+    }
+
+    /**
+     * Starts serving replicas of a durable service on the loopback address.
+     *
+     * @param service The service to replicate, opened with {@link OnTrackService#open(java.nio.file.Path)}.
+     * @param port    The port to listen on, or 0 for any free port (see {@link #getAddress()}).
+     * @return The running primary.
+     * @throws IllegalArgumentException if service is null or not durable, or port is out of range.
+     * @throws UncheckedIOException if the port cannot be bound.
+     */
+    public static ReplicationPrimary start(OnTrackService service, int port) {
+        if (service == null) {
+            throw new IllegalArgumentException("Service cannot be null.");
+        }
+        DurableStore store = service.getStore();
+        if (store == null) {
+            throw new IllegalArgumentException("Service is not durable.");
+        }
+        if (port < 0 || port > 0xFFFF) {
+            throw new IllegalArgumentException("Port must be between 0 and 65535.");
+        }
+        ServerSocket server;
+        try {
+            server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot listen for replicas on port " + port, e);
+        }
+        ReplicationPrimary primary = new ReplicationPrimary(store, server);
+        startThread("ontrack-replication-accept", primary::acceptReplicas);
+        return primary;
+    }
+
+    /**
+     * @return The address replicas connect to.
+     */
+    public InetSocketAddress getAddress() {
+        return new InetSocketAddress(server.getInetAddress(), server.getLocalPort());
+    }
+
+    /**
+     * @return The sequence number of the latest mutation logged by the service.
+     */
+    public long getLastSequence() {
+        return store.getLastSequence();
+    }
+
+    /**
+     * @return The status of each connected replica, in the order they connected.
+     */
+    public List<ReplicaStatus> getReplicas() {
+        long last = store.getLastSequence();
+        List<ReplicaStatus> result = new ArrayList<>(connections.size());
+        for (Connection connection : connections) {
+            result.add(new ReplicaStatus(connection.socket.getRemoteSocketAddress(), connection.acknowledged, last));
+        }
+        return result;
+    }
+
+    /**
+     * Stops accepting replicas and disconnects the connected ones.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            server.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+        for (Connection connection : connections) {
+            connection.disconnect();
+        }
+    }
+
+    private void acceptReplicas() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                return; // Closed
+            }
+            Connection connection = new Connection(socket);
+            connections.add(connection);
+            if (closed) {
+                connection.disconnect();
+            }
+            startThread("ontrack-replication-send", connection::send);
+            startThread("ontrack-replication-ack", connection::readAcks);
+        }
+    }
+
+    private static void startThread(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * A mutation waiting to be shipped.
+     */
+    private static final class Frame {
+        final long sequence;
+        final long loggedAt;
+        final byte[] mutation;
+
+        Frame(long sequence, long loggedAt, byte[] mutation) {
+            this.sequence = sequence;
+            this.loggedAt = loggedAt;
+            this.mutation = mutation;
+        }
+    }
+
+    /**
+     * One replica: a queue filled by the log under its append lock, drained to the socket by a sender thread.
+     */
+    private final class Connection implements BiConsumer<Long, byte[]> {
+        final Socket socket;
+        final BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(MAX_QUEUED_MUTATIONS);
+        volatile long acknowledged;
+        private volatile boolean disconnected;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        /**
+         * Queues a logged mutation. Never blocks: a full queue disconnects the replica.
+         */
+        @Override
+        public void accept(Long sequence, byte[] mutation) {
+            if (!disconnected && !queue.offer(new Frame(sequence, System.currentTimeMillis(), mutation))) {
+                disconnect();
+            }
+        }
+
+        void send() {
+            try {
+                socket.setTcpNoDelay(true);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                DurableStore.Capture capture = store.follow(this);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(capture.sequence);
+                out.writeLong(capture.state.size());
+                for (byte[] mutation : capture.state) {
+                    out.writeInt(mutation.length);
+                    out.write(mutation);
+                }
+                out.flush();
+                while (!disconnected) {
+                    Frame frame = queue.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                    long last = store.getLastSequence();
+                    if (frame == null) {
+                        out.writeLong(0);
+                        out.writeLong(last);
+                        out.writeLong(System.currentTimeMillis());
+                        out.writeInt(HEARTBEAT);
+                    }
+                    // Writes everything queued before flushing, so a busy log is shipped in few packets
+                    for (; frame != null; frame = queue.poll()) {
+                        out.writeLong(frame.sequence);
+                        out.writeLong(Math.max(last, frame.sequence));
+                        out.writeLong(frame.loggedAt);
+                        out.writeInt(frame.mutation.length);
+                        out.write(frame.mutation);
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // The replica went away, or was disconnected
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                store.unfollow(this);
+                disconnect();
+            }
+        }
+
+        void readAcks() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                while (true) {
+                    acknowledged = in.readLong();
+                }
+            } catch (IOException e) {
+                disconnect();
+            }
+        }
+
+        void disconnect() {
+            disconnected = true;
+            connections.remove(this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing left to release
+            }
+        }
+    }
+}
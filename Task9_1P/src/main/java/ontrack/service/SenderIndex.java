@@ -0,0 +1,177 @@
+package ontrack.service;
+
+import ontrack.model.ChatMessage;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index of chat messages by sender, across every task and unit.
+ *
+ * Each sender's entries are kept sorted by timestamp, then message ID, in parallel arrays, so a time range
+ * is found by binary search and only the requested entries are read. Messages added in time order are
+ * appended; a late message is inserted in place.
+ *
+ * Like {@link ChatSearchIndex}, an entry holds only the message's task handle and position, not the message,
+ * and results are looked up in the task's chat history.
+ * Thread-safe: guarded by its own read/write lock.
+ */
+class SenderIndex {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ChatSearchIndex.MessageLookup lookup;
+    private final Map<String, Entries> entriesBySender = new HashMap<>();
+
+    SenderIndex(ChatSearchIndex.MessageLookup lookup) {
+        this.lookup = lookup;
+    }
+
+    /**
+     * The messages of one sender, in timestamp order.
+     */
+    private static final class Entries {
+        private long[] timestamps = new long[INITIAL_CAPACITY]; // Encoded timestamp of each entry
+        private int[] taskHandles = new int[INITIAL_CAPACITY];
+        private ChatCursor[] cursors = new ChatCursor[INITIAL_CAPACITY]; // Position of each entry in its task's history
+        private int size;
+
+        private void add(int taskHandle, ChatMessage message) {
+            if (size == timestamps.length) {
+                int capacity = size * 2;
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                taskHandles = Arrays.copyOf(taskHandles, capacity);
+                cursors = Arrays.copyOf(cursors, capacity);
+            }
+            long timestamp = MappedChatLog.encodeTimestamp(message.getTimestamp());
+            int position = size;
+            // A message in time order is appended; a late one shifts up the entries that sort after it
+            if (size > 0 && sortsAfter(size - 1, timestamp, message.getId())) {
+                position = upperBound(timestamp, message.getId());
+                System.arraycopy(timestamps, position, timestamps, position + 1, size - position);
+                System.arraycopy(taskHandles, position, taskHandles, position + 1, size - position);
+                System.arraycopy(cursors, position, cursors, position + 1, size - position);
+            }
+            timestamps[position] = timestamp;
+            taskHandles[position] = taskHandle;
+            cursors[position] = ChatCursor.at(message);
+            size++;
+        }
+
+        private boolean sortsAfter(int position, long timestamp, String messageId) {
+            return timestamps[position] > timestamp
+                    || (timestamps[position] == timestamp && cursors[position].getMessageId().compareTo(messageId) > 0);
+        }
+
+        /**
+         * @return The first position that sorts after the timestamp and message ID.
+         */
+        private int upperBound(long timestamp, String messageId) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (sortsAfter(middle, timestamp, messageId)) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return The first position with a timestamp at or after the given one.
+         */
+        private int lowerBound(long timestamp) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (timestamps[middle] < timestamp) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    void add(int taskHandle, ChatMessage message) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            entriesBySender.computeIfAbsent(message.getSender(), k -> new Entries()).add(taskHandle, message);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    void addAll(int taskHandle, List<ChatMessage> batch) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            for (ChatMessage message : batch) {
+                entriesBySender.computeIfAbsent(message.getSender(), k -> new Entries()).add(taskHandle, message);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return Up to limit of the sender's messages with {@code from <= timestamp < to}, oldest first.
+     */
+    List<ChatMessage> getBetween(String sender, LocalDateTime from, LocalDateTime to, int limit) {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            Entries entries = entriesBySender.get(sender);
+            if (entries == null) {
+                return new ArrayList<>();
+            }
+            int start = entries.lowerBound(MappedChatLog.encodeTimestamp(from));
+            int end = entries.lowerBound(MappedChatLog.encodeTimestamp(to));
+            return resolve(entries, start, start + Math.min(limit, end - start));
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * @return Up to limit of the sender's newest messages, oldest first.
+     */
+    List<ChatMessage> getLatest(String sender, int limit) {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            Entries entries = entriesBySender.get(sender);
+            if (entries == null) {
+                return new ArrayList<>();
+            }
+            return resolve(entries, Math.max(0, entries.size - limit), entries.size);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private List<ChatMessage> resolve(Entries entries, int start, int end) {
+        List<ChatMessage> result = new ArrayList<>(Math.max(0, end - start));
+        for (int position = start; position < end; position++) {
+            ChatMessage message = lookup.find(entries.taskHandles[position], entries.cursors[position]);
+            if (message != null) {
+                result.add(message);
+            }
+        }
+        return result;
+    }
+}
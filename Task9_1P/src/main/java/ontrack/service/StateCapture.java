@@ -0,0 +1,77 @@
+package ontrack.service;
+
+import ontrack.model.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The state of an OnTrackService captured for a snapshot, as a sequence of encoded mutations.
+ * Units, target grades and tasks are encoded while the state is frozen. Chat messages are immutable,
+ * so only their lists are captured then, and they are encoded while the snapshot is written.
+ * A service that keeps its messages in a chat log can instead capture the log's position, in which case
+ * the messages before it stay in the log.
+ */
+class StateCapture implements Iterable<byte[]> {
+
+    static final long NO_CHAT_LOG_POSITION = -1;
+
+    private final List<byte[]> entities = new ArrayList<>();
+    private final List<List<ChatMessage>> messageLists = new ArrayList<>();
+    private long messageCount;
+    private long chatLogPosition = NO_CHAT_LOG_POSITION;
+
+    void addEntity(byte[] mutation) {
+        entities.add(mutation);
+    }
+
+    void addMessages(List<ChatMessage> messages) {
+        messageLists.add(messages);
+        messageCount += messages.size();
+    }
+
+    void setChatLogPosition(long chatLogPosition) {
+        this.chatLogPosition = chatLogPosition;
+    }
+
+    /**
+     * @return The chat log position captured instead of the messages, or {@link #NO_CHAT_LOG_POSITION}.
+     */
+    long getChatLogPosition() {
+        return chatLogPosition;
+    }
+
+    long size() {
+        return entities.size() + messageCount;
+    }
+
+    @Override
+    public Iterator<byte[]> iterator() {
+        return new Iterator<byte[]>() {
+            private final Iterator<byte[]> entityIterator = entities.iterator();
+            private final Iterator<List<ChatMessage>> listIterator = messageLists.iterator();
+            private Iterator<ChatMessage> messageIterator = new ArrayList<ChatMessage>().iterator();
+
+            @Override
+            public boolean hasNext() {
+                if (entityIterator.hasNext()) {
+                    return true;
+                }
+                while (!messageIterator.hasNext() && listIterator.hasNext()) {
+                    messageIterator = listIterator.next().iterator();
+                }
+                return messageIterator.hasNext();
+            }
+
+            @Override
+            public byte[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return entityIterator.hasNext() ? entityIterator.next() : Mutation.addChatMessage(messageIterator.next());
+            }
+        };
+    }
+}
@@ -0,0 +1,11 @@
+package ontrack.service;
+
+/**
+ * The outcome for one task of a batch status change, see {@link OnTrackService#changeTaskStatuses}.
+ */
+public enum StatusChangeOutcome {
+    CHANGED, // The task moved to the new status
+    UNCHANGED, // The task already had the new status
+    NOT_FOUND, // No task has the ID
+    CONFLICT // Another caller changed the task's status after it was matched; left as they set it
+}
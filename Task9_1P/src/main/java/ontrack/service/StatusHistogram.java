@@ -0,0 +1,101 @@
+package ontrack.service;
+
+import ontrack.model.Grade;
+import ontrack.model.Status;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The number of tasks in each status, broken down by target grade. An immutable snapshot.
+ */
+public final class StatusHistogram {
+
+    private static final Status[] STATUSES = Status.values();
+    private static final int GRADE_SLOTS = Grade.values().length + 1; // Slot 0 holds tasks without a target grade
+
+    static final StatusHistogram EMPTY = new StatusHistogram(new int[size()]);
+
+    private final int[] counts; // Indexed by slot(grade, status)
+
+    StatusHistogram(int[] counts) {
+        this.counts = counts;
+    }
+
+    static int size() {
+        return GRADE_SLOTS * STATUSES.length;
+    }
+
+    static int slot(Grade grade, Status status) {
+        int gradeSlot = grade == null ? 0 : grade.ordinal() + 1;
+        return gradeSlot * STATUSES.length + status.ordinal();
+    }
+
+    /**
+     * @param status The status to count.
+     * @return The number of tasks in the status, whatever their target grade.
+     * @throws IllegalArgumentException if status is null.
+     */
+    public int getCount(Status status) {
+        if (status == null) {
+            throw new IllegalArgumentException("Status cannot be null.");
+        }
+        int total = 0;
+        for (int gradeSlot = 0; gradeSlot < GRADE_SLOTS; gradeSlot++) {
+            total += counts[gradeSlot * STATUSES.length + status.ordinal()];
+        }
+        return total;
+    }
+
+    /**
+     * @param grade  The target grade to count, or null for tasks without a target grade.
+     * @param status The status to count.
+     * @return The number of tasks with the target grade in the status.
+     * @throws IllegalArgumentException if status is null.
+     */
+    public int getCount(Grade grade, Status status) {
+        if (status == null) {
+            throw new IllegalArgumentException("Status cannot be null.");
+        }
+        return counts[slot(grade, status)];
+    }
+
+    /**
+     * @return The total number of tasks.
+     */
+    public int getTotal() {
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @return The number of tasks in each status, whatever their target grade.
+     */
+    public Map<Status, Integer> toMap() {
+        Map<Status, Integer> result = new EnumMap<>(Status.class);
+        for (Status status : STATUSES) {
+            result.put(status, getCount(status));
+        }
+        return result;
+    }
+
+    /**
+     * @param grade The target grade to count, or null for tasks without a target grade.
+     * @return The number of tasks with the target grade in each status.
+     */
+    public Map<Status, Integer> toMap(Grade grade) {
+        Map<Status, Integer> result = new EnumMap<>(Status.class);
+        for (Status status : STATUSES) {
+            result.put(status, counts[slot(grade, status)]);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "StatusHistogram" + toMap();
+    }
+}
@@ -0,0 +1,117 @@
+package ontrack.service;
+
+import ontrack.model.Status;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The latest status transitions of one task, in a ring of at most {@link #CAPACITY} entries.
+ *
+ * Each entry is one long packing the epoch millisecond of the transition with the ordinal of the new status,
+ * so a full history is a single array. The ring starts small and grows to its capacity; after that each new
+ * entry evicts the oldest, whose time in its status is added to a running total first, so
+ * {@link #getTimeInStatus(long)} still covers the task's whole history.
+ * Not thread-safe: callers hold the task's lock.
+ */
+final class StatusHistory {
+
+    static final int CAPACITY = 16;
+    static final long NONE = -1; // Returned by record when nothing was evicted
+
+    private static final int INITIAL_CAPACITY = 2;
+    private static final int STATUS_BITS = 8;
+    private static final Status[] STATUSES = Status.values();
+
+    private long[] entries = new long[INITIAL_CAPACITY]; // Packed transitions, oldest at start
+    private int start;
+    private int size;
+    private long[] evictedMillis; // Time in each status of evicted entries, by ordinal; null until the first eviction
+
+    /**
+     * @param first The packed transition the task was added with.
+     */
+    StatusHistory(long first) {
+        entries[0] = first;
+        size = 1;
+    }
+
+    static long pack(long epochMilli, Status status) {
+        return epochMilli << STATUS_BITS | status.ordinal();
+    }
+
+    static long epochMilliOf(long entry) {
+        return entry >>> STATUS_BITS;
+    }
+
+    static Status statusOf(long entry) {
+        return STATUSES[(int) (entry & ((1 << STATUS_BITS) - 1))];
+    }
+
+    /**
+     * @return The evicted oldest entry, or {@link #NONE} if the ring had room.
+     */
+    long record(long epochMilli, Status status) {
+        long entry = pack(epochMilli, status);
+        if (size < entries.length) {
+            entries[size++] = entry; // The ring only wraps once full, so start is still 0
+            return NONE;
+        }
+        if (entries.length < CAPACITY) {
+            entries = Arrays.copyOf(entries, Math.min(entries.length * 2, CAPACITY));
+            entries[size++] = entry;
+            return NONE;
+        }
+        long evicted = entries[start];
+        long next = entries[(start + 1) % CAPACITY];
+        if (evictedMillis == null) {
+            evictedMillis = new long[STATUSES.length];
+        }
+        evictedMillis[(int) (evicted & ((1 << STATUS_BITS) - 1))] += epochMilliOf(next) - epochMilliOf(evicted);
+        entries[start] = entry;
+        start = (start + 1) % CAPACITY;
+        return evicted;
+    }
+
+    /**
+     * @return The packed entry of the latest transition.
+     */
+    long last() {
+        return entries[(start + size - 1) % entries.length];
+    }
+
+    /**
+     * @return Up to limit of the latest transitions, oldest first.
+     */
+    List<StatusTransition> getLatest(int limit) {
+        int count = Math.min(limit, size);
+        List<StatusTransition> result = new ArrayList<>(count);
+        for (int i = size - count; i < size; i++) {
+            long entry = entries[(start + i) % entries.length];
+            result.add(new StatusTransition(epochMilliOf(entry), statusOf(entry)));
+        }
+        return result;
+    }
+
+    /**
+     * @param now The epoch millisecond the current status is counted up to.
+     * @return The time spent in each status, zero for statuses never held.
+     */
+    Map<Status, Duration> getTimeInStatus(long now) {
+        long[] millis = evictedMillis == null ? new long[STATUSES.length] : evictedMillis.clone();
+        for (int i = 0; i < size; i++) {
+            long entry = entries[(start + i) % entries.length];
+            long until = i + 1 < size ? epochMilliOf(entries[(start + i + 1) % entries.length]) : now;
+            millis[statusOf(entry).ordinal()] += Math.max(0, until - epochMilliOf(entry));
+        }
+        Map<Status, Duration> result = new EnumMap<>(Status.class);
+        for (Status status : STATUSES) {
+            result.put(status, Duration.ofMillis(millis[status.ordinal()]));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,139 @@
+package ontrack.service;
+
+import ontrack.model.Status;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only file of every status transition a durable service records, so a task's history outlives
+ * both the bounded in-memory ring (see {@link StatusHistory}) and restarts.
+ *
+ * Each record is: task ID (modified UTF-8), epoch millisecond, status ordinal. Appends are buffered and
+ * written out by {@link #flush()}, which the store calls at each checkpoint, background snapshots included,
+ * and the service calls on close. A crash loses the records appended since the last flush; a record cut
+ * short by it is truncated away when the file is next opened, so later records stay aligned.
+ * Thread-safe: appends and flushes are synchronized.
+ */
+final class StatusHistorySpill implements Closeable {
+
+    static final String FILE_NAME = "status-history.log";
+
+    private static final Status[] STATUSES = Status.values();
+    private static final int RECORD_TAIL = Long.BYTES + Byte.BYTES; // Epoch millisecond and status after the task ID
+
+    private final Path file;
+    private final DataOutputStream out;
+
+    /**
+     * @throws UncheckedIOException if the file cannot be opened.
+     */
+    StatusHistorySpill(Path file) {
+        this.file = file;
+        try {
+            truncateTornTail(file);
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open status history file " + file, e);
+        }
+    }
+
+    /**
+     * Cuts the file back to the end of its last complete record, as {@link WriteAheadLog} does with a
+     * torn log segment.
+     */
+    private static void truncateTornTail(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        long fileSize = Files.size(file);
+        long validLength = 0;
+        byte[] record = new byte[0xFFFF + RECORD_TAIL];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                int idLength = in.readUnsignedShort();
+                in.readFully(record, 0, idLength + RECORD_TAIL);
+                validLength += Short.BYTES + idLength + RECORD_TAIL;
+            }
+        } catch (EOFException e) {
+            // End of the file, or of the last complete record
+        }
+        if (validLength < fileSize) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+    }
+
+    /**
+     * @throws UncheckedIOException if the record cannot be written.
+     */
+    synchronized void append(String taskId, long entry) {
+        try {
+            out.writeUTF(taskId);
+            out.writeLong(StatusHistory.epochMilliOf(entry));
+            out.writeByte(StatusHistory.statusOf(entry).ordinal());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write status history file " + file, e);
+        }
+    }
+
+    /**
+     * @throws UncheckedIOException if the buffered records cannot be written.
+     */
+    synchronized void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write status history file " + file, e);
+        }
+    }
+
+    /**
+     * Flushes and reads back the transitions spilled for one task.
+     *
+     * @return The task's spilled transitions, oldest first.
+     * @throws UncheckedIOException if the file cannot be read.
+     */
+    List<StatusTransition> read(String taskId) {
+        flush();
+        List<StatusTransition> result = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                String id = in.readUTF();
+                long epochMilli = in.readLong();
+                int ordinal = in.readUnsignedByte();
+                if (id.equals(taskId) && ordinal < STATUSES.length) {
+                    result.add(new StatusTransition(epochMilli, STATUSES[ordinal]));
+                }
+            }
+        } catch (EOFException e) {
+            // End of the file, or of the last complete record
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read status history file " + file, e);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot close status history file " + file, e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package ontrack.service;
+
+import ontrack.model.Status;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * One entry of a task's status history: the status the task moved to, and when.
+ * See {@link OnTrackService#getStatusHistory(String, int)}.
+ */
+public final class StatusTransition {
+
+    private final long epochMilli;
+    private final Status status;
+
+    StatusTransition(long epochMilli, Status status) {
+        this.epochMilli = epochMilli;
+        this.status = status;
+    }
+
+    /**
+     * @return The new status. For the first entry of a history, the status the task had when added.
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    public long getEpochMilli() {
+        return epochMilli;
+    }
+
+    /**
+     * @return When the transition happened, in the system time zone.
+     */
+    public LocalDateTime getTimestamp() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMilli), ZoneId.systemDefault());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        StatusTransition that = (StatusTransition) o;
+        return epochMilli == that.epochMilli && status == that.status;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(epochMilli) + status.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "StatusTransition{" +
+                "status=" + status +
+                ", timestamp=" + getTimestamp() +
+                '}';
+    }
+}
@@ -0,0 +1,61 @@
+package ontrack.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A fixed set of read/write locks shared by keys through hashing.
+ * Keys that hash to the same stripe share a lock; unrelated keys rarely contend.
+ */
+class StripedLocks {
+
+    private final ReadWriteLock[] stripes;
+
+    /**
+     * @param stripeCount The number of locks, rounded up to a power of two.
+     */
+    StripedLocks(int stripeCount) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("Stripe count must be positive.");
+        }
+        int size = 1;
+        while (size < stripeCount) {
+            size <<= 1;
+        }
+        stripes = new ReadWriteLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    ReadWriteLock get(String key) {
+        return stripes[indexOf(key)];
+    }
+
+    /**
+     * Gets the distinct locks for a set of keys, in stripe order.
+     * Threads that take several locks must take them in this order, so they cannot deadlock.
+     */
+    List<ReadWriteLock> getAll(Collection<String> keys) {
+        boolean[] used = new boolean[stripes.length];
+        for (String key : keys) {
+            used[indexOf(key)] = true;
+        }
+        List<ReadWriteLock> result = new ArrayList<>();
+        for (int i = 0; i < stripes.length; i++) {
+            if (used[i]) {
+                result.add(stripes[i]);
+            }
+        }
+        return result;
+    }
+
+    private int indexOf(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16); // Spread high bits, as HashMap does
+        return h & (stripes.length - 1);
+    }
+}
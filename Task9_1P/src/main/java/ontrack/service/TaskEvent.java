@@ -0,0 +1,107 @@
+package ontrack.service;
+
+import ontrack.model.ChatMessage;
+import ontrack.model.Status;
+import ontrack.model.Task;
+
+/**
+ * A change to a task, published to subscribers of {@link OnTrackService#getEvents()} and its filtered variants.
+ * Events made concurrently may be delivered out of order; {@link #getSequence()} gives the order they were applied in.
+ */
+public final class TaskEvent {
+
+    public enum Type {
+        TASK_ADDED,
+        STATUS_CHANGED,
+        MESSAGE_ADDED
+    }
+
+    private final Type type;
+    private final Task task;
+    private final Status oldStatus;
+    private final Status newStatus;
+    private final ChatMessage message;
+    private final long sequence;
+
+    private TaskEvent(Type type, Task task, Status oldStatus, Status newStatus, ChatMessage message, long sequence) {
+        this.type = type;
+        this.task = task;
+        this.oldStatus = oldStatus;
+        this.newStatus = newStatus;
+        this.message = message;
+        this.sequence = sequence;
+    }
+
+    static TaskEvent taskAdded(Task task, Status status, long sequence) {
+        return new TaskEvent(Type.TASK_ADDED, task, null, status, null, sequence);
+    }
+
+    static TaskEvent statusChanged(Task task, Status oldStatus, Status newStatus, long sequence) {
+        return new TaskEvent(Type.STATUS_CHANGED, task, oldStatus, newStatus, null, sequence);
+    }
+
+    static TaskEvent messageAdded(Task task, ChatMessage message, long sequence) {
+        return new TaskEvent(Type.MESSAGE_ADDED, task, null, null, message, sequence);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Task getTask() {
+        return task;
+    }
+
+    public String getTaskId() {
+        return task.getId();
+    }
+
+    public String getUnitId() {
+        return task.getUnit().getId();
+    }
+
+    /**
+     * @return The status before the change, or null unless this is a STATUS_CHANGED event.
+     */
+    public Status getOldStatus() {
+        return oldStatus;
+    }
+
+    /**
+     * @return The status after the change, or the new task's status for TASK_ADDED; null for MESSAGE_ADDED.
+     */
+    public Status getNewStatus() {
+        return newStatus;
+    }
+
+    /**
+     * @return The added message, or null unless this is a MESSAGE_ADDED event.
+     */
+    public ChatMessage getMessage() {
+        return message;
+    }
+
+    /**
+     * A task's TASK_ADDED and STATUS_CHANGED events are numbered while its unit is locked, in the order the
+     * service applied them, so each STATUS_CHANGED event's old status is the new status of the one before.
+     * MESSAGE_ADDED events are numbered once the message is stored; a task's history still orders its
+     * messages by timestamp.
+     *
+     * @return The event's position among every event of the service, counting from 1.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public String toString() {
+        return "TaskEvent{" +
+               "sequence=" + sequence +
+               ", type=" + type +
+               ", taskId='" + getTaskId() + '\'' +
+               ", oldStatus=" + oldStatus +
+               ", newStatus=" + newStatus +
+               ", messageId=" + (message == null ? null : "'" + message.getId() + "'") +
+               '}';
+    }
+}
@@ -0,0 +1,173 @@
+package ontrack.service;
+
+import ontrack.model.Grade;
+import ontrack.model.Status;
+import ontrack.model.Task;
+
+import java.util.Comparator;
+
+/**
+ * A query over tasks, run by {@link OnTrackService#queryTasks(TaskQuery)}. An immutable value: each
+ * {@code with...} method returns a copy with one more condition, so queries can be shared and extended.
+ *
+ * <pre>{@code
+ * TaskQuery query = TaskQuery.all().inUnit("SIT707").withStatus(Status.WORKING_ON_IT)
+ *         .orderBy(TaskQuery.BY_ID).limit(20);
+ * }</pre>
+ *
+ * Without {@link #orderBy(Comparator)}, tasks come in the order of the index the service picks for the
+ * query (see {@link OnTrackService#explainQuery(TaskQuery)}), which may change as the data does.
+ */
+public final class TaskQuery {
+
+    /**
+     * Orders tasks by ID. A query with an ID prefix in this order is answered in index order, without a sort.
+     */
+    public static final Comparator<Task> BY_ID = Comparator.comparing(Task::getId);
+
+    private static final TaskQuery ALL = new TaskQuery(null, null, null, null, null, null, 0);
+
+    private final String unitId;
+    private final Grade grade;
+    private final Status status;
+    private final String idPrefix;
+    private final String namePrefix;
+    private final Comparator<? super Task> order;
+    private final int limit; // 0 for no limit
+
+    private TaskQuery(String unitId, Grade grade, Status status, String idPrefix, String namePrefix,
+                      Comparator<? super Task> order, int limit) {
+        this.unitId = unitId;
+        this.grade = grade;
+        this.status = status;
+        this.idPrefix = idPrefix;
+        this.namePrefix = namePrefix;
+        this.order = order;
+        this.limit = limit;
+    }
+
+    /**
+     * @return A query matching every task.
+     */
+    public static TaskQuery all() {
+        return ALL;
+    }
+
+    /**
+     * @throws IllegalArgumentException if unitId is null or empty.
+     */
+    public TaskQuery inUnit(String unitId) {
+        if (unitId == null || unitId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Unit ID cannot be null or empty.");
+        }
+        return new TaskQuery(unitId, grade, status, idPrefix, namePrefix, order, limit);
+    }
+
+    /**
+     * @throws IllegalArgumentException if grade is null.
+     */
+    public TaskQuery withGrade(Grade grade) {
+        if (grade == null) {
+            throw new IllegalArgumentException("Target grade cannot be null.");
+        }
+        return new TaskQuery(unitId, grade, status, idPrefix, namePrefix, order, limit);
+    }
+
+    /**
+     * @throws IllegalArgumentException if status is null.
+     */
+    public TaskQuery withStatus(Status status) {
+        if (status == null) {
+            throw new IllegalArgumentException("Status cannot be null.");
+        }
+        return new TaskQuery(unitId, grade, status, idPrefix, namePrefix, order, limit);
+    }
+
+    /**
+     * @param idPrefix The start of the task ID, case-sensitive.
+     * @throws IllegalArgumentException if idPrefix is null.
+     */
+    public TaskQuery withIdPrefix(String idPrefix) {
+        if (idPrefix == null) {
+            throw new IllegalArgumentException("ID prefix cannot be null.");
+        }
+        return new TaskQuery(unitId, grade, status, idPrefix, namePrefix, order, limit);
+    }
+
+    /**
+     * @param namePrefix The start of the task name, case-sensitive.
+     * @throws IllegalArgumentException if namePrefix is null.
+     */
+    public TaskQuery withNamePrefix(String namePrefix) {
+        if (namePrefix == null) {
+            throw new IllegalArgumentException("Name prefix cannot be null.");
+        }
+        return new TaskQuery(unitId, grade, status, idPrefix, namePrefix, order, limit);
+    }
+
+    /**
+     * @param order The order of the results. Tasks that compare equal keep the order they were found in.
+     * @throws IllegalArgumentException if order is null.
+     */
+    public TaskQuery orderBy(Comparator<? super Task> order) {
+        if (order == null) {
+            throw new IllegalArgumentException("Order cannot be null.");
+        }
+        return new TaskQuery(unitId, grade, status, idPrefix, namePrefix, order, limit);
+    }
+
+    /**
+     * @param limit The maximum number of tasks to return. With an order, the first tasks in that order.
+     * @throws IllegalArgumentException if limit is not positive.
+     */
+    public TaskQuery limit(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive.");
+        }
+        return new TaskQuery(unitId, grade, status, idPrefix, namePrefix, order, limit);
+    }
+
+    public String getUnitId() {
+        return unitId;
+    }
+
+    public Grade getGrade() {
+        return grade;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getIdPrefix() {
+        return idPrefix;
+    }
+
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+
+    public Comparator<? super Task> getOrder() {
+        return order;
+    }
+
+    /**
+     * @return The maximum number of tasks to return, or 0 for no limit.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public String toString() {
+        return "TaskQuery{" +
+                "unitId='" + unitId + '\'' +
+                ", grade=" + grade +
+                ", status=" + status +
+                ", idPrefix='" + idPrefix + '\'' +
+                ", namePrefix='" + namePrefix + '\'' +
+                ", ordered=" + (order != null) +
+                ", limit=" + limit +
+                '}';
+    }
+}
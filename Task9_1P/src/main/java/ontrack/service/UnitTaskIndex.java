@@ -0,0 +1,294 @@
+package ontrack.service;
+
+import ontrack.model.Grade;
+import ontrack.model.Status;
+import ontrack.model.Task;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Index of the tasks belonging to a single unit, keyed by task handle (see {@link IdDictionary}).
+ * Keeps the unit's tasks in insertion order and pre-buckets them by target grade,
+ * so per-unit queries never look at tasks of other units.
+ * Also counts the unit's tasks by status and target grade, so portfolio readiness is a single comparison
+ * and status histograms need no scan, and queues the tasks that need help in the order they asked.
+ * Snapshots of the task list and of each grade bucket are kept for lazy queries, rebuilt only after the
+ * list or bucket changes (see {@link VersionedView}).
+ *
+ * The index records the grade and status it last saw for each task and reconciles them in
+ * {@link #sync(int, Task)}, so change notifications may arrive in any order.
+ * Not thread-safe: callers hold the unit's lock.
+ */
+class UnitTaskIndex {
+
+    private final IntObjectMap<Entry> entries = new IntObjectMap<>(); // Map Task handle to indexed Task
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final IntObjectMap<Task>[] tasksByGrade = new IntObjectMap[Grade.values().length]; // Indexed by Grade ordinal
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final VersionedView<Task>[] gradeViews = new VersionedView[Grade.values().length]; // Created with each bucket
+    private final VersionedView<Task> tasksView = new VersionedView<>(this::getTasks);
+    private final int[] statusCounts = new int[StatusHistogram.size()]; // Indexed by StatusHistogram.slot
+    private int readyForFeedbackCount;
+    private final HelpQueue helpQueue = new HelpQueue();
+
+    /**
+     * A task together with the grade and status it is currently indexed under.
+     */
+    private static final class Entry {
+        private final int handle;
+        private final Task task;
+        private Grade grade;
+        private Status status;
+        private HelpQueue.Node help; // Non-null while the task is queued for help
+
+        private Entry(int handle, Task task) {
+            this.handle = handle;
+            this.task = task;
+        }
+    }
+
+    void add(int handle, Task task) {
+        Entry entry = new Entry(handle, task);
+        entry.grade = task.getGrade();
+        entry.status = task.getStatus();
+        Entry previous = entries.remove(handle);
+        if (previous != null) {
+            removeFromBucket(previous);
+            count(previous, -1);
+            if (previous.help != null && entry.status == Status.NEED_HELP) {
+                // Still needing help, so the new task keeps the old one's place and waiting time
+                entry.help = helpQueue.replace(previous.help,
+                        new HelpRequest(task, previous.help.getRequest().getSince()));
+            } else {
+                leaveHelpQueue(previous);
+            }
+        }
+        entries.put(handle, entry);
+        tasksView.changed();
+        addToBucket(entry);
+        count(entry, 1);
+        queueForHelp(entry);
+    }
+
+    void remove(int handle, Task task) {
+        Entry entry = entries.get(handle);
+        if (entry != null && entry.task == task) {
+            entries.remove(handle);
+            tasksView.changed();
+            removeFromBucket(entry);
+            count(entry, -1);
+            leaveHelpQueue(entry);
+        }
+    }
+
+    /**
+     * Re-indexes a task under its current target grade and status.
+     * Does nothing if the task is not (or no longer) part of this index.
+     *
+     * @return true if the task's indexed grade or status changed.
+     */
+    boolean sync(int handle, Task task) {
+        Entry entry = entries.get(handle);
+        if (entry == null || entry.task != task) {
+            return false;
+        }
+        Grade grade = task.getGrade();
+        Status status = task.getStatus();
+        if (grade != entry.grade || status != entry.status) {
+            count(entry, -1);
+            // Only a change of grade moves the task between buckets, so a bucket keeps its order across status changes
+            if (grade != entry.grade) {
+                removeFromBucket(entry);
+                entry.grade = grade;
+                addToBucket(entry);
+            }
+            entry.status = status;
+            count(entry, 1);
+            // Only a change of status moves the task in the help queue; a new grade keeps its place
+            queueForHelp(entry);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The status the task is indexed under, or null if the task is not part of this index.
+     */
+    Status getStatus(int handle) {
+        Entry entry = entries.get(handle);
+        return entry == null ? null : entry.status;
+    }
+
+    int getTaskCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return true if the unit has at least one task and every task is READY_FOR_FEEDBACK.
+     */
+    boolean isReadyForFeedback() {
+        return !entries.isEmpty() && readyForFeedbackCount == entries.size();
+    }
+
+    StatusHistogram getStatusHistogram() {
+        return new StatusHistogram(statusCounts.clone());
+    }
+
+    List<Task> getTasks() {
+        List<Task> result = new ArrayList<>(entries.size());
+        entries.forEach(entry -> result.add(entry.task));
+        return result;
+    }
+
+    /**
+     * @return The task that has needed help longest, or null if none needs help.
+     */
+    HelpRequest peekHelpRequest() {
+        return helpQueue.peek();
+    }
+
+    int getHelpRequestCount() {
+        return helpQueue.size();
+    }
+
+    /**
+     * @return The tasks that need help, longest waiting first.
+     */
+    List<HelpRequest> getHelpRequests() {
+        return helpQueue.toList();
+    }
+
+    /**
+     * Passes each task and its handle to an action, in insertion order.
+     */
+    void forEach(ObjIntConsumer<Task> action) {
+        entries.forEach(entry -> action.accept(entry.task, entry.handle));
+    }
+
+    List<Task> getTasksByGrade(Grade grade) {
+        IntObjectMap<Task> bucket = tasksByGrade[grade.ordinal()];
+        List<Task> result = new ArrayList<>(bucket == null ? 0 : bucket.size());
+        if (bucket != null) {
+            bucket.forEach(result::add);
+        }
+        return result;
+    }
+
+    /**
+     * @return Up to limit of the tasks with a target grade, in bucket order, visiting no others.
+     */
+    List<Task> getTasksByGrade(Grade grade, int limit) {
+        IntObjectMap<Task> bucket = tasksByGrade[grade.ordinal()];
+        if (bucket == null) {
+            return new ArrayList<>();
+        }
+        List<Task> result = new ArrayList<>(Math.min(bucket.size(), limit));
+        bucket.forEachWhile(task -> {
+            result.add(task);
+            return result.size() < limit;
+        });
+        return result;
+    }
+
+    int getTaskCountByGrade(Grade grade) {
+        IntObjectMap<Task> bucket = tasksByGrade[grade.ordinal()];
+        return bucket == null ? 0 : bucket.size();
+    }
+
+    /**
+     * @return true if a task with the target grade matches the filter, testing tasks only until one does.
+     */
+    boolean anyTaskByGrade(Grade grade, Predicate<? super Task> filter) {
+        return !forEachByGradeWhile(grade, task -> !filter.test(task));
+    }
+
+    /**
+     * Passes each task with the target grade to an action, in bucket order, until the action returns false.
+     *
+     * @return false if the action stopped the iteration.
+     */
+    boolean forEachByGradeWhile(Grade grade, Predicate<? super Task> action) {
+        IntObjectMap<Task> bucket = tasksByGrade[grade.ordinal()];
+        return bucket == null || bucket.forEachWhile(action);
+    }
+
+    /**
+     * Passes each task to an action, in insertion order, until the action returns false.
+     *
+     * @return false if the action stopped the iteration.
+     */
+    boolean forEachWhile(Predicate<? super Task> action) {
+        return entries.forEachWhile(entry -> action.test(entry.task));
+    }
+
+    /**
+     * @return An unmodifiable snapshot of the unit's tasks, in insertion order, shared until a task is added or removed.
+     */
+    List<Task> getTasksSnapshot() {
+        return tasksView.get();
+    }
+
+    /**
+     * @return An unmodifiable snapshot of the tasks with a target grade, shared until one gains or loses that grade.
+     */
+    List<Task> getTasksByGradeSnapshot(Grade grade) {
+        VersionedView<Task> view = gradeViews[grade.ordinal()];
+        return view == null ? Collections.emptyList() : view.get();
+    }
+
+    private void addToBucket(Entry entry) {
+        Grade grade = entry.grade;
+        if (grade == null) {
+            return;
+        }
+        IntObjectMap<Task> bucket = tasksByGrade[grade.ordinal()];
+        if (bucket == null) {
+            bucket = new IntObjectMap<>();
+            tasksByGrade[grade.ordinal()] = bucket;
+            gradeViews[grade.ordinal()] = new VersionedView<>(() -> getTasksByGrade(grade));
+        }
+        bucket.put(entry.handle, entry.task);
+        gradeViews[grade.ordinal()].changed();
+    }
+
+    private void removeFromBucket(Entry entry) {
+        if (entry.grade != null) {
+            tasksByGrade[entry.grade.ordinal()].remove(entry.handle);
+            gradeViews[entry.grade.ordinal()].changed();
+        }
+    }
+
+    /**
+     * Adds delta to the counters of the grade and status the entry is indexed under.
+     */
+    private void count(Entry entry, int delta) {
+        statusCounts[StatusHistogram.slot(entry.grade, entry.status)] += delta;
+        if (entry.status == Status.READY_FOR_FEEDBACK) {
+            readyForFeedbackCount += delta;
+        }
+    }
+
+    /**
+     * Queues a task that has entered NEED_HELP, or dequeues one that has left it.
+     */
+    private void queueForHelp(Entry entry) {
+        boolean needsHelp = entry.status == Status.NEED_HELP;
+        if (needsHelp && entry.help == null) {
+            entry.help = helpQueue.add(new HelpRequest(entry.task, LocalDateTime.now()));
+        } else if (!needsHelp) {
+            leaveHelpQueue(entry);
+        }
+    }
+
+    private void leaveHelpQueue(Entry entry) {
+        if (entry.help != null) {
+            helpQueue.remove(entry.help);
+            entry.help = null;
+        }
+    }
+}
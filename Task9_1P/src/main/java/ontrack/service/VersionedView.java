@@ -0,0 +1,61 @@
+package ontrack.service;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * An immutable list snapshot of a changing collection, shared by all readers and rebuilt only after the
+ * collection has changed. Writers call {@link #changed()} after each change to the source collection.
+ *
+ * A snapshot is tagged with the version read before it was built, so it holds at least every change made
+ * before that version. A reader that sees a newer version rebuilds; it never gets a snapshot missing a
+ * change that completed before its call.
+ */
+final class VersionedView<E> {
+
+    private final Supplier<? extends Collection<E>> source;
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicReference<Snapshot<E>> snapshot = new AtomicReference<>();
+
+    private static final class Snapshot<E> {
+        private final long version;
+        private final List<E> elements;
+
+        private Snapshot(long version, List<E> elements) {
+            this.version = version;
+            this.elements = elements;
+        }
+    }
+
+    /**
+     * @param source Supplies the live collection to snapshot. Must be safe to iterate while it changes.
+     */
+    VersionedView(Supplier<? extends Collection<E>> source) {
+        this.source = source;
+    }
+
+    void changed() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * @return An unmodifiable snapshot of the source, reused until the next change.
+     */
+    @SuppressWarnings("unchecked")
+    List<E> get() {
+        long current = version.get();
+        Snapshot<E> cached = snapshot.get();
+        if (cached != null && cached.version == current) {
+            return cached.elements;
+        }
+        List<E> elements = Collections.unmodifiableList(Arrays.asList((E[]) source.get().toArray()));
+        // Only publish over the snapshot this reader saw, so a newer one is never replaced by an older one
+        snapshot.compareAndSet(cached, new Snapshot<>(current, elements));
+        return elements;
+    }
+}
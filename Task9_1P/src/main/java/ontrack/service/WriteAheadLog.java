@@ -0,0 +1,353 @@
+package ontrack.service;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of mutations, split into segment files named after their first sequence number.
+ *
+ * Each record is framed as: length of the mutation, sequence number, mutation bytes, CRC32 of the
+ * sequence number and mutation. Sequence numbers run without gaps. A record that is cut short or fails
+ * its checksum marks the end of the log if it is in the last segment; anywhere else it is corruption.
+ *
+ * Appends are buffered in memory. {@link #awaitDurable(long)} uses group commit: one waiting thread
+ * writes and forces everything appended so far, and every other waiter covered by that flush returns with it.
+ */
+class WriteAheadLog implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int FRAME_OVERHEAD = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    private final Path directory;
+    private final long segmentSize;
+
+    // Guarded by appendLock
+    private final Object appendLock = new Object();
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private long lastSequence;
+    private FileChannel channel;
+    private long channelSize;
+    private volatile BiConsumer<Long, byte[]> appendListener; // Null when nothing follows the log
+
+    // Guarded by commitLock
+    private final Object commitLock = new Object();
+    private boolean committing;
+    private long durableSequence;
+    private IOException commitFailure;
+
+    private WriteAheadLog(Path directory, long segmentSize, long lastSequence) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.lastSequence = lastSequence;
+        this.durableSequence = lastSequence;
+    }
+
+    /**
+     * Replays the records in a log directory and opens the log for appending after them.
+     * Records at or below {@code afterSequence} are skipped. A torn record at the end of the last
+     * segment is truncated away.
+     *
+     * @param directory     The directory holding the segment files.
+     * @param segmentSize   The size after which a new segment is started.
+     * @param afterSequence The sequence number already covered by a snapshot.
+     * @param consumer      Receives the sequence number and mutation of each replayed record, in order.
+     * @return The opened log.
+     * @throws IOException if the directory cannot be read or written, a segment other than the last holds
+     *                     a bad record, or the sequence numbers after {@code afterSequence} have a gap.
+     */
+    static WriteAheadLog open(Path directory, long segmentSize, long afterSequence,
+                              BiConsumer<Long, byte[]> consumer) throws IOException {
+        Files.createDirectories(directory);
+        List<Path> segments = listSegments(directory);
+        // The first record may be covered by the snapshot, but must not leave a gap after it
+        long lastSequence = -1;
+        for (int i = 0; i < segments.size(); i++) {
+            lastSequence = replaySegment(segments.get(i), afterSequence, lastSequence, i == segments.size() - 1, consumer);
+        }
+        if (lastSequence < afterSequence) {
+            lastSequence = afterSequence;
+        }
+        WriteAheadLog log = new WriteAheadLog(directory, segmentSize, lastSequence);
+        synchronized (log.appendLock) {
+            log.startSegment();
+        }
+        return log;
+    }
+
+    /**
+     * Buffers a mutation for writing.
+     *
+     * @param mutation The encoded mutation.
+     * @return The sequence number assigned to the mutation.
+     */
+    long append(byte[] mutation) {
+        synchronized (appendLock) {
+            if (channel == null) {
+                throw new IllegalStateException("Write-ahead log is closed.");
+            }
+            long sequence = ++lastSequence;
+            int frameLength = FRAME_OVERHEAD + mutation.length;
+            if (pending.remaining() < frameLength) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + frameLength));
+                pending.flip();
+                larger.put(pending);
+                pending = larger;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(ByteBuffer.allocate(Long.BYTES).putLong(0, sequence).array());
+            crc.update(mutation);
+            pending.putInt(mutation.length).putLong(sequence).put(mutation).putInt((int) crc.getValue());
+            BiConsumer<Long, byte[]> listener = appendListener;
+            if (listener != null) {
+                listener.accept(sequence, mutation);
+            }
+            return sequence;
+        }
+    }
+
+    /**
+     * Blocks until the mutation with the given sequence number, and every one before it, is on disk.
+     *
+     * @param sequence The sequence number returned by {@link #append(byte[])}.
+     * @throws UncheckedIOException if the log cannot be written.
+     */
+    void awaitDurable(long sequence) {
+        synchronized (commitLock) {
+            while (durableSequence < sequence) {
+                if (commitFailure != null) {
+                    throw new UncheckedIOException("Write-ahead log commit failed.", commitFailure);
+                }
+                if (!committing) {
+                    committing = true;
+                    break;
+                }
+                try {
+                    commitLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the write-ahead log.", e);
+                }
+            }
+            if (durableSequence >= sequence) {
+                return;
+            }
+        }
+
+        // This thread leads the commit; the flush covers everything appended until now
+        long flushed = 0;
+        IOException failure = null;
+        try {
+            flushed = flush();
+        } catch (IOException e) {
+            failure = e;
+        }
+        synchronized (commitLock) {
+            committing = false;
+            if (failure != null) {
+                commitFailure = failure;
+            } else {
+                durableSequence = Math.max(durableSequence, flushed);
+            }
+            commitLock.notifyAll();
+            if (failure != null) {
+                throw new UncheckedIOException("Write-ahead log commit failed.", failure);
+            }
+        }
+    }
+
+    /**
+     * Sets the listener told of each appended mutation. It is called under the append lock, so mutations
+     * arrive in sequence order, and it must not block.
+     *
+     * @param listener The listener, or null for none.
+     */
+    void setAppendListener(BiConsumer<Long, byte[]> listener) {
+        appendListener = listener;
+    }
+
+    long getLastSequence() {
+        synchronized (appendLock) {
+            return lastSequence;
+        }
+    }
+
+    /**
+     * Starts a new segment and deletes the segments whose records are all covered by a snapshot.
+     *
+     * @param snapshotSequence The last sequence number included in the snapshot.
+     * @throws IOException if the log cannot be written or old segments cannot be deleted.
+     */
+    void truncateBefore(long snapshotSequence) throws IOException {
+        List<Path> obsolete = new ArrayList<>();
+        synchronized (appendLock) {
+            writePending();
+            channel.force(false);
+            channel.close();
+            startSegment();
+            List<Path> segments = listSegments(directory);
+            // A segment is obsolete when the one after it starts at or below the snapshot
+            for (int i = 0; i + 1 < segments.size(); i++) {
+                if (firstSequence(segments.get(i + 1)) <= snapshotSequence + 1) {
+                    obsolete.add(segments.get(i));
+                }
+            }
+        }
+        for (Path segment : obsolete) {
+            Files.deleteIfExists(segment);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (appendLock) {
+            if (channel == null) {
+                return;
+            }
+            writePending();
+            channel.force(false);
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Writes and forces the buffered records.
+     *
+     * @return The last sequence number now on disk.
+     */
+    private long flush() throws IOException {
+        FileChannel toForce;
+        long flushed;
+        synchronized (appendLock) {
+            if (channel == null) {
+                throw new IOException("Write-ahead log is closed.");
+            }
+            writePending();
+            toForce = channel;
+            flushed = lastSequence;
+        }
+        // Force outside the append lock so new records can be buffered meanwhile
+        try {
+            toForce.force(false);
+        } catch (ClosedChannelException e) {
+            // The segment was rolled, and every segment is forced before it is closed
+        }
+        return flushed;
+    }
+
+    private void writePending() throws IOException {
+        pending.flip();
+        while (pending.hasRemaining()) {
+            channelSize += channel.write(pending);
+        }
+        pending.clear();
+        if (channelSize >= segmentSize) {
+            channel.force(false);
+            channel.close();
+            startSegment();
+        }
+    }
+
+    private void startSegment() throws IOException {
+        Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, lastSequence + 1, SEGMENT_SUFFIX));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        channelSize = channel.size();
+    }
+
+    /**
+     * Replays one segment.
+     *
+     * @param previous The sequence number of the record before the segment, or -1 if there is none.
+     * @param last     true for the newest segment, which may end in a torn record.
+     * @return The sequence number of the segment's last record, or previous if it holds none.
+     * @throws IOException if the segment cannot be read, holds a bad record and is not the last,
+     *                     or its sequence numbers don't follow on from previous.
+     */
+    private static long replaySegment(Path segment, long afterSequence, long previous, boolean last,
+                                      BiConsumer<Long, byte[]> consumer) throws IOException {
+        long lastSequence = previous;
+        long validLength = 0;
+        long fileSize = Files.size(segment);
+        try (InputStream file = Files.newInputStream(segment);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file, 64 * 1024))) {
+            while (true) {
+                int length;
+                long sequence;
+                byte[] mutation;
+                int checksum;
+                try {
+                    length = in.readInt();
+                    if (length < 0 || length > fileSize - validLength - FRAME_OVERHEAD) {
+                        break;
+                    }
+                    sequence = in.readLong();
+                    mutation = new byte[length];
+                    in.readFully(mutation);
+                    checksum = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(ByteBuffer.allocate(Long.BYTES).putLong(0, sequence).array());
+                crc.update(mutation);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                long expected = lastSequence < 0 ? Math.min(sequence, afterSequence + 1) : lastSequence + 1;
+                if (sequence != expected) {
+                    throw new IOException("Write-ahead log segment " + segment + " has sequence number " + sequence
+                            + " where " + expected + " was expected");
+                }
+                if (sequence > afterSequence) {
+                    consumer.accept(sequence, mutation);
+                }
+                lastSequence = sequence;
+                validLength += FRAME_OVERHEAD + length;
+            }
+        }
+        if (validLength < fileSize) {
+            if (!last) {
+                throw new IOException("Corrupt write-ahead log segment " + segment + " at byte " + validLength);
+            }
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+        return lastSequence;
+    }
+
+    private static List<Path> listSegments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        }
+        // Zero-padded names sort in sequence order
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static long firstSequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
@@ -0,0 +1,194 @@
+package ontrack.service;
+
+import ontrack.model.ChatMessage;
+import ontrack.model.Grade;
+import ontrack.model.Status;
+import ontrack.model.Task;
+import ontrack.model.Unit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for AsyncOnTrackService.
+ * Right-BICEP: R - Right results, E - Error conditions
+ */
+public class AsyncOnTrackServiceTest {
+
+    private OnTrackService service;
+    private AsyncOnTrackService async;
+    private Unit unit1;
+    private Unit unit2;
+
+    @BeforeEach
+    public void setUp() {
+        service = new OnTrackService();
+        async = new AsyncOnTrackService(service);
+        unit1 = new Unit("SIT707", "Software Quality and Testing");
+        unit2 = new Unit("SIT708", "Mobile Systems Development");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        async.close();
+    }
+
+    private void populate() {
+        async.addUnits(Arrays.asList(unit1, unit2)).join();
+        async.addTasks(Arrays.asList(
+                new Task("T1", "Task 1", null, unit1, "Pass"),
+                new Task("T2", "Task 2", null, unit1, (Grade) null),
+                new Task("T3", "Task 3", null, unit2, "HD"))).join();
+        async.addChatMessage(new ChatMessage("M1", "T1", "Student", "Hello", LocalDateTime.of(2024, 3, 1, 9, 0))).join();
+        async.addChatMessage(new ChatMessage("M2", "T3", "Tutor", "Hi", LocalDateTime.of(2024, 3, 1, 9, 5))).join();
+    }
+
+    /**
+     * Test that operations run through the facade reach the service.
+     * Right-BICEP: R - Right results
+     */
+    @Test
+    public void testOperationsReachService() {
+        populate();
+
+        assertTrue(async.changeTaskStatus("T1", Status.READY_FOR_FEEDBACK).join(), "Status change should succeed");
+        assertEquals(Status.READY_FOR_FEEDBACK, service.getTaskById("T1").getStatus(), "Status should be changed on the service");
+        assertTrue(async.chooseUnitGrade("SIT708", Grade.HIGH_DISTINCTION).join(), "Grade choice should succeed");
+        assertEquals(Grade.HIGH_DISTINCTION, async.getUnitGrade("SIT708").join(), "Grade should be read back");
+        assertEquals(1, async.getTasksByUnitByTargetGrade("SIT708", "HD").join().size(), "Grade query should run");
+        assertEquals(2, async.getTasksByUnit("SIT707").join().size(), "Unit query should include tasks without a grade");
+        assertFalse(async.submitUnitPortfolio("SIT707").join(), "T2 is not ready, so the portfolio cannot be submitted");
+        assertEquals(1, async.getStatusHistogram("SIT707").join().getCount(Status.READY_FOR_FEEDBACK), "Histogram should be read");
+        assertEquals(1, async.getStatusHistogram("SIT707", Grade.PASS).join().get(Status.READY_FOR_FEEDBACK), "Grade histogram should be read");
+        assertEquals(2, async.getStatusHistograms().join().size(), "Every unit's histogram should be read");
+    }
+
+    /**
+     * Test that the batch overloads, query plans, deduplication counters and spilled history
+     * are reachable through the facade too.
+     * Right-BICEP: R - Right results
+     */
+    @Test
+    public void testBatchAndDiagnosticOperationsReachService() {
+        async.addUnits(Arrays.asList(unit1, unit2)).join();
+        async.addTasks(Arrays.asList(
+                new Task("T1", "Task 1", null, unit1, "Pass"),
+                new Task("T2", "Task 2", null, unit1, "HD")), true).join();
+        async.addChatMessages(Arrays.asList(
+                new ChatMessage("M1", "T1", "Student", "Hello", LocalDateTime.of(2024, 3, 1, 9, 0)),
+                new ChatMessage("M2", "T2", "Tutor", "Hi", LocalDateTime.of(2024, 3, 1, 9, 5))), true).join();
+        assertEquals(2, service.getTasksByUnit("SIT707").size(), "Tasks should be added with parallel validation");
+        assertEquals("M2", service.getChatMessagesByTask("T2").get(0).getId(), "Messages should be added with parallel validation");
+
+        assertTrue(async.addChatMessagesIfAbsent(Arrays.asList(
+                new ChatMessage("M1", "T1", "Student", "Hello", LocalDateTime.of(2024, 3, 1, 9, 0)))).join().isEmpty(),
+                "A retried message should be rejected");
+        assertEquals(1, async.getDeduplicationStats().join().getDuplicates(), "The duplicate should be counted");
+
+        TaskQuery query = TaskQuery.all().inUnit(unit1.getId()).withGrade(Grade.HIGH_DISTINCTION);
+        assertEquals(service.explainQuery(query).toString(), async.explainQuery(query).join().toString(),
+                "The plan should match the service's");
+        assertTrue(async.getSpilledStatusHistory("T1").join().isEmpty(), "An in-memory service spills nothing");
+        assertThrows(CompletionException.class, () -> async.addTasks(null, true).join(), "A null batch should fail the future");
+    }
+
+    /**
+     * Test that independent reads can be combined.
+     * Right-BICEP: R - Right results
+     */
+    @Test
+    public void testIndependentReadsCombine() {
+        populate();
+
+        CompletableFuture<List<Unit>> units = async.getAllUnits();
+        CompletableFuture<List<ChatMessage>> messages = async.getChatMessagesByTask("T1");
+        CompletableFuture<Task> task = async.getTaskById("T3");
+        CompletableFuture.allOf(units, messages, task).join();
+
+        assertEquals(2, units.join().size(), "Units should be loaded");
+        assertEquals("M1", messages.join().get(0).getId(), "Messages should be loaded");
+        assertEquals("Task 3", task.join().getName(), "Task should be loaded");
+
+        CompletableFuture<List<ChatMessage>> unitSearch = async.searchUnitChatMessages("SIT707", "hello", 10);
+        CompletableFuture<List<ChatMessage>> taskSearch = async.searchTaskChatMessages("T3", "hi", 10);
+        assertEquals("M1", unitSearch.join().get(0).getId(), "Unit search should find the message");
+        assertEquals("M2", taskSearch.join().get(0).getId(), "Task search should find the message");
+    }
+
+    /**
+     * Test that a dashboard holds every unit, its tasks and their messages.
+     * Right-BICEP: R - Right results
+     */
+    @Test
+    public void testLoadDashboard() {
+        populate();
+
+        Dashboard dashboard = async.loadDashboard().join();
+
+        assertEquals(2, dashboard.getUnits().size(), "Dashboard should hold every unit");
+        assertEquals(2, dashboard.getTasks("SIT707").size(), "Dashboard should hold each unit's tasks");
+        assertEquals("T3", dashboard.getTasks("SIT708").get(0).getId(), "Dashboard should hold each unit's tasks");
+        assertEquals("M2", dashboard.getChatMessages("T3").get(0).getId(), "Dashboard should hold each task's messages");
+        assertTrue(dashboard.getChatMessages("T2").isEmpty(), "A task without messages should have an empty list");
+    }
+
+    /**
+     * Test that a dashboard of chosen units keeps their order and skips unknown IDs.
+     * Right-BICEP: R - Right results, B - Boundary
+     */
+    @Test
+    public void testLoadDashboardForUnits() {
+        populate();
+
+        Dashboard dashboard = async.loadDashboard(Arrays.asList("SIT708", "NOPE", "SIT707")).join();
+
+        assertEquals(Arrays.asList(unit2, unit1), dashboard.getUnits(), "Units should keep the requested order");
+        assertTrue(dashboard.getTasks("NOPE").isEmpty(), "Unknown units should be skipped");
+    }
+
+    /**
+     * Test that the errors the service would throw complete the future exceptionally.
+     * Right-BICEP: E - Error conditions
+     */
+    @Test
+    public void testErrorsCompleteExceptionally() {
+        CompletionException e = assertThrows(CompletionException.class, () -> async.getChatMessagesByTask(null).join(),
+                "An invalid argument should fail the future");
+        assertTrue(e.getCause() instanceof IllegalArgumentException, "The cause should be the service's exception");
+        assertThrows(CompletionException.class, () -> async.addTask(new Task("T1", "Task 1", null, unit1, "Pass")).join(),
+                "A task of a non-existent unit should fail the future");
+        assertThrows(CompletionException.class, () -> async.loadDashboard(null).join(), "Null unit IDs should fail the future");
+        assertThrows(IllegalArgumentException.class, () -> new AsyncOnTrackService(null), "A null service should be rejected");
+    }
+
+    /**
+     * Test that operations run on a caller-supplied executor, which close leaves running.
+     * Right-BICEP: R - Right results
+     */
+    @Test
+    public void testCallerExecutor() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        AtomicInteger submitted = new AtomicInteger();
+        try (AsyncOnTrackService custom = new AsyncOnTrackService(service, command -> {
+            submitted.incrementAndGet();
+            executor.execute(command);
+        })) {
+            custom.addUnit(unit1).join();
+            assertNotNull(custom.getUnitById("SIT707").join(), "Unit should be added");
+        }
+        assertEquals(2, submitted.get(), "Each operation should run on the supplied executor");
+        assertFalse(executor.isShutdown(), "A supplied executor should not be shut down");
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,65 @@
+package ontrack.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for IntObjectMap and IdDictionary, the handle-keyed tables behind OnTrackService.
+ * Right-BICEP: C - Cross-check results
+ */
+public class IntObjectMapTest {
+
+    /**
+     * Test for IntObjectMap against a LinkedHashMap over a random mix of puts and removes.
+     * Keys are drawn from a small range, so removals leave gaps in long probe runs.
+     * Right-BICEP: C - Cross-check results
+     */
+    @Test
+    public void testMatchesLinkedHashMap() {
+        Random random = new Random(42);
+        IntObjectMap<String> map = new IntObjectMap<>();
+        Map<Integer, String> expected = new LinkedHashMap<>();
+        for (int i = 0; i < 100_000; i++) {
+            int key = random.nextInt(300);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                String value = "V" + i;
+                assertEquals(expected.put(key, value), map.put(key, value));
+            }
+            assertEquals(expected.size(), map.size());
+            int probe = random.nextInt(300);
+            assertEquals(expected.get(probe), map.get(probe));
+        }
+        List<String> values = new ArrayList<>();
+        map.forEach(values::add);
+        assertEquals(new ArrayList<>(expected.values()), values);
+    }
+
+    /**
+     * Test for IdDictionary handing out dense handles in the order IDs are first added.
+     * Right-BICEP: B - Boundary conditions
+     */
+    @Test
+    public void testIdDictionaryHandlesAreDense() {
+        IdDictionary dictionary = new IdDictionary();
+        assertEquals(IdDictionary.NONE, dictionary.get("T0"));
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, dictionary.add("T" + i));
+        }
+        // Re-adding returns the existing handle and doesn't grow the dictionary
+        assertEquals(42, dictionary.add("T42"));
+        assertEquals(10_000, dictionary.size());
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, dictionary.get("T" + i));
+        }
+        assertEquals(IdDictionary.NONE, dictionary.get("T10000"));
+    }
+}
@@ -0,0 +1,276 @@
+package ontrack.service;
+
+import ontrack.model.ChatMessage;
+import ontrack.model.Task;
+import ontrack.model.Unit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for OnTrackService with chat messages stored in a MappedChatLog.
+ * Results are cross-checked against a service that keeps messages on the heap.
+ * Right-BICEP: C - Cross-check results
+ */
+public class MappedChatLogTest {
+
+    // Small segments so the tests cover rolling over to new segment files
+    private static final int SEGMENT_SIZE = 4096;
+
+    @TempDir
+    Path directory;
+
+    private MappedChatLog chatLog;
+    private OnTrackService mappedService;
+    private OnTrackService heapService;
+
+    @BeforeEach
+    public void setUp() {
+        chatLog = MappedChatLog.open(directory, SEGMENT_SIZE);
+        mappedService = createService(new OnTrackService(chatLog));
+        heapService = createService(new OnTrackService());
+
+        // Add messages out of timestamp order, including ties on timestamp
+        LocalDateTime base = LocalDateTime.of(2024, 3, 1, 9, 0);
+        for (int i = 0; i < 500; i++) {
+            LocalDateTime timestamp = base.plusSeconds((i * 37) % 200);
+            ChatMessage message = new ChatMessage("M" + i, "T1", i % 2 == 0 ? "Student" : "Tutor", "Message number " + i, timestamp);
+            mappedService.addChatMessage(message);
+            heapService.addChatMessage(message);
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        chatLog.close();
+    }
+
+    /**
+     * Test for getChatMessagesByTask with a mapped chat log.
+     * Right-BICEP: C - Cross-check results
+     */
+    @Test
+    public void testGetChatMessagesByTaskMatchesHeapStorage() throws Exception {
+        List<ChatMessage> expected = heapService.getChatMessagesByTask("T1");
+        List<ChatMessage> actual = mappedService.getChatMessagesByTask("T1");
+
+        assertEquals(expected.size(), actual.size(), "Both lists should have the same size");
+        for (int i = 0; i < expected.size(); i++) {
+            ChatMessage message = actual.get(i);
+            assertEquals(expected.get(i).getId(), message.getId(), "Messages should be in the same order");
+            assertEquals(expected.get(i).getContent(), message.getContent(), "Content should be decoded from the log");
+            assertEquals(expected.get(i).getTimestamp(), message.getTimestamp(), "Timestamp should be decoded from the log");
+        }
+
+        // The messages did not fit in one segment
+        try (Stream<Path> files = Files.list(directory)) {
+            assertTrue(files.count() > 1, "Should have rolled over to more than one segment");
+        }
+    }
+
+    /**
+     * Test that a mapped history shares one list until a message is added.
+     * Right-BICEP: I - Inverse relationships
+     */
+    @Test
+    public void testGetChatMessagesByTaskIsSharedUntilChanged() {
+        List<ChatMessage> first = mappedService.getChatMessagesByTask("T1");
+        assertSame(first, mappedService.getChatMessagesByTask("T1"), "Unchanged messages should return the same list");
+
+        mappedService.addChatMessage(new ChatMessage("NEW", "T1", "Student", "Another message", LocalDateTime.of(2024, 3, 1, 8, 0)));
+        assertEquals(500, first.size(), "An earlier list should not change");
+        assertEquals("NEW", mappedService.getChatMessagesByTask("T1").get(0).getId(), "The new list should include the message");
+    }
+
+    /**
+     * Test for paging and range queries with a mapped chat log.
+     * Right-BICEP: C - Cross-check results
+     */
+    @Test
+    public void testPagingMatchesHeapStorage() {
+        assertEquals(heapService.getLatestChatMessages("T1", 25), mappedService.getLatestChatMessages("T1", 25),
+                "Latest pages should match");
+
+        ChatCursor cursor = ChatCursor.at(heapService.getChatMessagesByTask("T1").get(100));
+        assertEquals(heapService.getChatMessagesAfter("T1", cursor, 30), mappedService.getChatMessagesAfter("T1", cursor, 30),
+                "Pages after a cursor should match");
+        assertEquals(heapService.getChatMessagesBefore("T1", cursor, 30), mappedService.getChatMessagesBefore("T1", cursor, 30),
+                "Pages before a cursor should match");
+        assertEquals(399, mappedService.getChatMessagesAfter("T1", cursor, Integer.MAX_VALUE).size(),
+                "The largest valid limit should return every later message");
+
+        LocalDateTime from = LocalDateTime.of(2024, 3, 1, 9, 1);
+        LocalDateTime to = LocalDateTime.of(2024, 3, 1, 9, 2);
+        assertEquals(heapService.getChatMessagesBetween("T1", from, to), mappedService.getChatMessagesBetween("T1", from, to),
+                "Time ranges should match");
+    }
+
+    /**
+     * Test for batches added to a mapped chat log, both after and among the existing messages.
+     * Right-BICEP: C - Cross-check results
+     */
+    @Test
+    public void testBatchesMatchHeapStorage() {
+        LocalDateTime base = LocalDateTime.of(2024, 3, 1, 9, 0);
+        List<ChatMessage> laterBatch = new ArrayList<>();
+        List<ChatMessage> mixedBatch = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            laterBatch.add(new ChatMessage("L" + i, "T1", "Student", "Later " + i, base.plusMinutes(10).plusSeconds((i * 7) % 30)));
+            // Reuses IDs and timestamps of existing messages, so ties are merged by ID then arrival
+            mixedBatch.add(new ChatMessage("M" + (i * 3 % 500), "T1", "Tutor", "Mixed " + i, base.plusSeconds((i * 13) % 220)));
+        }
+        for (List<ChatMessage> batch : Arrays.asList(laterBatch, mixedBatch)) {
+            mappedService.addChatMessages(batch);
+            heapService.addChatMessages(batch);
+        }
+
+        assertEquals(heapService.getChatMessagesByTask("T1"), mappedService.getChatMessagesByTask("T1"),
+                "Batches should be merged in the same order");
+        ChatCursor cursor = ChatCursor.at(heapService.getChatMessagesByTask("T1").get(400));
+        assertEquals(heapService.getChatMessagesAfter("T1", cursor, 50), mappedService.getChatMessagesAfter("T1", cursor, 50),
+                "Pages after a cursor should match after batches");
+    }
+
+    /**
+     * Test for a batch holding a message that is larger than a segment.
+     * Right-BICEP: E - Error conditions
+     */
+    @Test
+    public void testBatchWithMessageLargerThanSegment() {
+        StringBuilder content = new StringBuilder();
+        while (content.length() < SEGMENT_SIZE) {
+            content.append("too long ");
+        }
+        List<ChatMessage> batch = Arrays.asList(new ChatMessage("OK", "T1", "Student", "Fine"),
+                new ChatMessage("BIG", "T1", "Student", content.toString()));
+
+        BatchValidationException exception = assertThrows(BatchValidationException.class, () -> {
+            mappedService.addChatMessages(batch);
+        });
+        assertEquals("ChatMessage is too large for the chat log: BIG", exception.getRowErrors().get(1));
+        assertEquals(500, mappedService.getChatMessagesByTask("T1").size(), "Nothing from a rejected batch should be added");
+    }
+
+    /**
+     * Test for a message that is larger than a segment.
+     * Right-BICEP: E - Error conditions
+     */
+    @Test
+    public void testMessageLargerThanSegment() {
+        StringBuilder content = new StringBuilder();
+        while (content.length() < SEGMENT_SIZE) {
+            content.append("too long ");
+        }
+        ChatMessage message = new ChatMessage("BIG", "T1", "Student", content.toString());
+
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> {
+            mappedService.addChatMessage(message);
+        });
+        assertEquals("ChatMessage is too large for the chat log: BIG", exception.getMessage());
+    }
+
+    /**
+     * Test that reopening a log directory keeps its messages: each task gets its earlier messages back
+     * when it is added, and new messages are appended after them.
+     * Right-BICEP: R - Right results
+     */
+    @Test
+    public void testReopenRecoversMessages() throws Exception {
+        chatLog.close();
+        Path stray = Files.createFile(directory.resolve("chat-x.log"));
+        long segments;
+        try (Stream<Path> files = Files.list(directory)) {
+            segments = files.filter(file -> !file.equals(stray)).count();
+        }
+        assertTrue(segments > 1, "The earlier log should have rolled over to several segments");
+
+        chatLog = MappedChatLog.open(directory, SEGMENT_SIZE);
+        OnTrackService reopened = createService(new OnTrackService(chatLog));
+        assertEquals(heapService.getChatMessagesByTask("T1"), reopened.getChatMessagesByTask("T1"),
+                "The reopened log should hold every earlier message, in order");
+        assertEquals(heapService.getChatMessagesBySender("Tutor", LocalDateTime.of(2024, 1, 1, 0, 0), LocalDateTime.of(2025, 1, 1, 0, 0), 1000),
+                reopened.getChatMessagesBySender("Tutor", LocalDateTime.of(2024, 1, 1, 0, 0), LocalDateTime.of(2025, 1, 1, 0, 0), 1000),
+                "Recovered messages should be indexed by sender");
+        assertEquals(1, reopened.searchTaskChatMessages("T1", "number 7", 10).stream()
+                .filter(message -> message.getId().equals("M7")).count(), "Recovered messages should be searchable");
+        assertFalse(reopened.addChatMessageIfAbsent(new ChatMessage("M3", "T1", "Student", "Again", LocalDateTime.of(2024, 3, 2, 9, 0))),
+                "A recovered message should count as a duplicate");
+
+        ChatMessage later = new ChatMessage("N0", "T1", "Student", "Hello again", LocalDateTime.of(2024, 3, 2, 9, 0));
+        reopened.addChatMessage(later);
+        chatLog.close();
+        chatLog = MappedChatLog.open(directory, SEGMENT_SIZE);
+        List<ChatMessage> messages = createService(new OnTrackService(chatLog)).getChatMessagesByTask("T1");
+        assertEquals(501, messages.size(), "A message added after reopening should be kept too");
+        assertEquals(later, messages.get(500), "The newest message should sort last");
+        assertTrue(Files.exists(stray), "Unrelated files should be left alone");
+    }
+
+    /**
+     * Test that a record cut short at the end of the last segment is discarded on reopen,
+     * and that a corrupt record in an earlier segment fails the open.
+     * Right-BICEP: E - Error conditions
+     */
+    @Test
+    public void testReopenWithDamagedSegments() throws Exception {
+        chatLog.close();
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(directory)) {
+            segments = files.sorted().collect(Collectors.toList());
+        }
+        Path last = segments.get(segments.size() - 1);
+        // A length with no record behind it, as a machine crash can leave
+        int end = lastRecordEnd(last);
+        try (FileChannel channel = FileChannel.open(last, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, 100), end);
+        }
+        chatLog = MappedChatLog.open(directory, SEGMENT_SIZE);
+        OnTrackService reopened = createService(new OnTrackService(chatLog));
+        assertEquals(500, reopened.getChatMessagesByTask("T1").size(), "Only the torn record should be dropped");
+        reopened.addChatMessage(new ChatMessage("N0", "T1", "Student", "After the tear", LocalDateTime.of(2024, 3, 2, 9, 0)));
+        chatLog.close();
+
+        try (FileChannel channel = FileChannel.open(segments.get(0), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, -7), 0);
+        }
+        assertThrows(UncheckedIOException.class, () -> MappedChatLog.open(directory, SEGMENT_SIZE),
+                "A corrupt earlier segment should fail the open");
+        chatLog = MappedChatLog.open(directory.resolve("empty"), SEGMENT_SIZE);
+    }
+
+    /**
+     * @return The position of the end marker in a segment.
+     */
+    private static int lastRecordEnd(Path segment) throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+        int position = 0;
+        int length;
+        while ((length = buffer.getInt(position)) != 0) {
+            position += Integer.BYTES + length;
+        }
+        return position;
+    }
+
+    private static OnTrackService createService(OnTrackService service) {
+        Unit unit = new Unit("SIT707", "Software Quality and Testing");
+        service.addUnit(unit);
+        service.addTask(new Task("T1", "Task 1", "Description for Task 1", unit, "HD"));
+        return service;
+    }
+}
@@ -0,0 +1,295 @@
+package ontrack.service;
+
+import ontrack.model.ChatMessage;
+import ontrack.model.Status;
+import ontrack.model.Task;
+import ontrack.model.Unit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the task event subscriptions of OnTrackService.
+ * Right-BICEP: R - Right results, E - Error conditions, P - Performance
+ */
+public class OnTrackEventsTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private OnTrackService service;
+    private Unit unit1;
+    private Unit unit2;
+
+    /**
+     * Records the events it receives, requesting a fixed number up front.
+     */
+    private static final class Recorder implements Flow.Subscriber<TaskEvent> {
+        private final long initialRequest;
+        private final BlockingQueue<TaskEvent> events = new LinkedBlockingQueue<>();
+        private final CountDownLatch subscribed = new CountDownLatch(1);
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private volatile Flow.Subscription subscription;
+
+        private Recorder(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+            subscribed.countDown();
+        }
+
+        @Override
+        public void onNext(TaskEvent item) {
+            events.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            completed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+
+        TaskEvent next() throws InterruptedException {
+            TaskEvent event = events.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull(event, "An event should be delivered");
+            return event;
+        }
+
+        void awaitSubscribed() throws InterruptedException {
+            assertTrue(subscribed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS), "Subscriber should be subscribed");
+        }
+    }
+
+    private Recorder subscribe(Flow.Publisher<TaskEvent> publisher, long initialRequest) throws InterruptedException {
+        Recorder recorder = new Recorder(initialRequest);
+        publisher.subscribe(recorder);
+        recorder.awaitSubscribed();
+        return recorder;
+    }
+
+    @BeforeEach
+    public void setUp() {
+        service = new OnTrackService();
+        unit1 = new Unit("SIT707", "Software Quality and Testing");
+        unit2 = new Unit("SIT708", "Mobile Systems Development");
+        service.addUnits(Arrays.asList(unit1, unit2));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        service.close();
+    }
+
+    /**
+     * Test that every kind of event is delivered, in order, to an unfiltered subscriber.
+     * Right-BICEP: R - Right results
+     */
+    @Test
+    public void testEventsDeliveredInOrder() throws InterruptedException {
+        Recorder recorder = subscribe(service.getEvents(), Long.MAX_VALUE);
+
+        Task task = new Task("T1", "Task 1", "First task", unit1, "Pass");
+        service.addTask(task);
+        service.changeTaskStatus("T1", Status.WORKING_ON_IT);
+        ChatMessage message = new ChatMessage("M1", "T1", "Student", "Hello", LocalDateTime.of(2024, 3, 1, 9, 0));
+        service.addChatMessage(message);
+
+        TaskEvent added = recorder.next();
+        assertEquals(TaskEvent.Type.TASK_ADDED, added.getType(), "First event should be the new task");
+        assertSame(task, added.getTask(), "Event should carry the task");
+        assertEquals("SIT707", added.getUnitId(), "Event should carry the task's unit");
+
+        TaskEvent changed = recorder.next();
+        assertEquals(TaskEvent.Type.STATUS_CHANGED, changed.getType(), "Second event should be the status change");
+        assertEquals(Status.NOT_STARTED, changed.getOldStatus(), "Event should carry the old status");
+        assertEquals(Status.WORKING_ON_IT, changed.getNewStatus(), "Event should carry the new status");
+
+        TaskEvent messaged = recorder.next();
+        assertEquals(TaskEvent.Type.MESSAGE_ADDED, messaged.getType(), "Third event should be the new message");
+        assertSame(message, messaged.getMessage(), "Event should carry the message");
+    }
+
+    /**
+     * Test that unit and task subscribers only receive the events they asked for.
+     * Right-BICEP: R - Right results
+     */
+    @Test
+    public void testFilteredSubscriptions() throws InterruptedException {
+        Recorder unitRecorder = subscribe(service.getUnitEvents("SIT708"), Long.MAX_VALUE);
+        Recorder taskRecorder = subscribe(service.getTaskEvents("T2"), Long.MAX_VALUE);
+
+        service.addTasks(Arrays.asList(
+                new Task("T1", "Task 1", null, unit1, "Pass"),
+                new Task("T2", "Task 2", null, unit2, "Pass"),
+                new Task("T3", "Task 3", null, unit2, "Pass")));
+        service.changeTaskStatus("T1", Status.WORKING_ON_IT);
+        service.changeTaskStatus("T2", Status.WORKING_ON_IT);
+
+        assertEquals("T2", unitRecorder.next().getTaskId(), "Unit subscriber should see tasks of its unit");
+        assertEquals("T3", unitRecorder.next().getTaskId(), "Unit subscriber should see tasks of its unit");
+        assertEquals(TaskEvent.Type.STATUS_CHANGED, unitRecorder.next().getType(), "Unit subscriber should see status changes in its unit");
+
+        assertEquals(TaskEvent.Type.TASK_ADDED, taskRecorder.next().getType(), "Task subscriber should see its task added");
+        TaskEvent changed = taskRecorder.next();
+        assertEquals("T2", changed.getTaskId(), "Task subscriber should only see its task");
+
+        service.close();
+        assertTrue(unitRecorder.completed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS), "Closing should complete subscriptions");
+        assertTrue(unitRecorder.events.isEmpty(), "Unit subscriber should not see other units");
+        assertTrue(taskRecorder.events.isEmpty(), "Task subscriber should not see other tasks");
+    }
+
+    /**
+     * Test that setting a task's status to its current status publishes nothing.
+     * Right-BICEP: R - Right results
+     */
+    @Test
+    public void testUnchangedStatusNotPublished() throws InterruptedException {
+        service.addTask(new Task("T1", "Task 1", null, unit1, "Pass"));
+        Recorder recorder = subscribe(service.getTaskEvents("T1"), Long.MAX_VALUE);
+
+        service.changeTaskStatus("T1", Status.NOT_STARTED);
+        service.changeTaskStatus("T1", Status.WORKING_ON_IT);
+
+        assertEquals(Status.WORKING_ON_IT, recorder.next().getNewStatus(), "Only the real change should be published");
+    }
+
+    /**
+     * Test that racing status changes of one task, though delivered in any order, form an unbroken chain
+     * of statuses when sorted by sequence number.
+     * Right-BICEP: C - Cross-check results
+     */
+    @Test
+    public void testConcurrentChangesOrderedBySequence() throws InterruptedException {
+        Recorder recorder = subscribe(service.getTaskEvents("T1"), Long.MAX_VALUE);
+        service.addTask(new Task("T1", "Task 1", null, unit1, "Pass"));
+
+        // Few enough changes to fit a subscriber's buffer, so none are dropped
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 50; i++) {
+                    service.changeTaskStatus("T1", i % 2 == 0 ? Status.WORKING_ON_IT : Status.NEED_HELP);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        service.changeTaskStatus("T1", Status.READY_FOR_FEEDBACK);
+
+        List<TaskEvent> received = new ArrayList<>();
+        TaskEvent event;
+        do {
+            event = recorder.next();
+            received.add(event);
+        } while (event.getNewStatus() != Status.READY_FOR_FEEDBACK);
+        received.sort(Comparator.comparingLong(TaskEvent::getSequence));
+
+        assertEquals(TaskEvent.Type.TASK_ADDED, received.get(0).getType(), "The task should be added first");
+        for (int i = 1; i < received.size(); i++) {
+            assertTrue(received.get(i).getSequence() > received.get(i - 1).getSequence(), "Sequence numbers should be distinct");
+            assertEquals(received.get(i - 1).getNewStatus(), received.get(i).getOldStatus(),
+                    "Each change should start from the status the previous one left");
+        }
+        assertEquals(0, service.getDroppedEventCount(), "No event should be dropped");
+    }
+
+    /**
+     * Test that adding the same task twice does not publish its later changes twice.
+     * Right-BICEP: B - Boundary conditions
+     */
+    @Test
+    public void testReAddedTaskPublishesOnce() throws InterruptedException {
+        Task task = new Task("T1", "Task 1", null, unit1, "Pass");
+        service.addTask(task);
+        service.addTask(task);
+        Recorder recorder = subscribe(service.getTaskEvents("T1"), Long.MAX_VALUE);
+
+        service.changeTaskStatus("T1", Status.WORKING_ON_IT);
+        service.changeTaskStatus("T1", Status.NEED_HELP);
+
+        assertEquals(Status.WORKING_ON_IT, recorder.next().getNewStatus(), "The first change should be published once");
+        assertEquals(Status.NEED_HELP, recorder.next().getNewStatus(), "The second change should follow directly");
+    }
+
+    /**
+     * Test that a subscriber that never requests events does not stall writers, and that the overflow is counted.
+     * Right-BICEP: P - Performance
+     */
+    @Test
+    public void testSlowSubscriberDoesNotBlockWriters() throws InterruptedException {
+        subscribe(service.getEvents(), 0);
+        service.addTask(new Task("T1", "Task 1", null, unit1, "Pass"));
+
+        int changes = Flow.defaultBufferSize() * 4;
+        Status[] statuses = {Status.WORKING_ON_IT, Status.NEED_HELP};
+        for (int i = 0; i < changes; i++) {
+            assertTrue(service.changeTaskStatus("T1", statuses[i % 2]), "Status change should succeed");
+        }
+
+        assertTrue(service.getDroppedEventCount() > 0, "Events beyond the buffer should be dropped and counted");
+        assertTrue(service.getDroppedEventCount() < changes, "Events that fit the buffer should not be dropped");
+    }
+
+    /**
+     * Test that a cancelled subscriber stops receiving events.
+     * Right-BICEP: R - Right results
+     */
+    @Test
+    public void testCancelStopsDelivery() throws InterruptedException {
+        service.addTask(new Task("T1", "Task 1", null, unit1, "Pass"));
+        Recorder recorder = subscribe(service.getTaskEvents("T1"), Long.MAX_VALUE);
+        service.changeTaskStatus("T1", Status.WORKING_ON_IT);
+        recorder.next();
+
+        recorder.subscription.cancel();
+        service.changeTaskStatus("T1", Status.NEED_HELP);
+        service.changeTaskStatus("T1", Status.WORKING_ON_IT);
+
+        assertNull(recorder.events.poll(100, TimeUnit.MILLISECONDS), "A cancelled subscriber should receive nothing");
+        assertEquals(0, service.getDroppedEventCount(), "Events for a cancelled subscriber are not drops");
+    }
+
+    /**
+     * Test that subscribing with an invalid filter is rejected.
+     * Right-BICEP: E - Error conditions
+     */
+    @Test
+    public void testInvalidFilters() {
+        assertThrows(IllegalArgumentException.class, () -> service.getUnitEvents(null), "A null unit ID should be rejected");
+        assertThrows(IllegalArgumentException.class, () -> service.getUnitEvents(" "), "An empty unit ID should be rejected");
+        assertThrows(IllegalArgumentException.class, () -> service.getTaskEvents(""), "An empty task ID should be rejected");
+    }
+}
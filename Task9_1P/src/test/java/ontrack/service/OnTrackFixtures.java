@@ -0,0 +1,32 @@
+package ontrack.service;
+
+import ontrack.model.ChatMessage;
+import ontrack.model.Status;
+import ontrack.model.Task;
+import ontrack.model.Unit;
+
+import java.time.LocalDateTime;
+
+/**
+ * Shared test data for the tests of durable and replicated services.
+ */
+final class OnTrackFixtures {
+
+    private OnTrackFixtures() {
+    }
+
+    /**
+     * Adds unit SIT707 with a target grade of Credit, tasks T1 (READY_FOR_FEEDBACK, with a description)
+     * and T2 (no description), and chat messages M1 and M2 on T1.
+     */
+    static void populate(OnTrackService service) {
+        Unit unit = new Unit("SIT707", "Software Quality and Testing");
+        service.addUnit(unit);
+        service.addTask(new Task("T1", "Task 1", "First task", unit, "Pass"));
+        service.addTask(new Task("T2", "Task 2", null, unit, "Credit"));
+        service.addChatMessage(new ChatMessage("M1", "T1", "Student", "Hello", LocalDateTime.of(2024, 3, 1, 9, 0)));
+        service.addChatMessage(new ChatMessage("M2", "T1", "Tutor", "Hi", LocalDateTime.of(2024, 3, 1, 9, 5)));
+        service.chooseUnitTargetGrade("SIT707", "Credit");
+        service.changeTaskStatus("T1", Status.READY_FOR_FEEDBACK);
+    }
+}
@@ -0,0 +1,388 @@
+package ontrack.service;
+
+import ontrack.model.ChatMessage;
+import ontrack.model.Grade;
+import ontrack.model.Status;
+import ontrack.model.Task;
+import ontrack.model.Unit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for OnTrackService opened from a data directory.
+ * Each test makes changes, closes the service, and checks that a reopened service recovers them.
+ * Right-BICEP: R - Right results, E - Error conditions
+ */
+public class OnTrackPersistenceTest {
+
+    @TempDir
+    Path directory;
+
+    private static void assertPopulated(OnTrackService service) {
+        assertNotNull(service.getUnitById("SIT707"), "Unit should be recovered");
+        assertEquals(Grade.CREDIT, service.getUnitGrade("SIT707"), "Unit target grade should be recovered");
+        Task task = service.getTaskById("T1");
+        assertNotNull(task, "Task should be recovered");
+        assertEquals("First task", task.getDescription(), "Task description should be recovered");
+        assertEquals(Status.READY_FOR_FEEDBACK, task.getStatus(), "Task status should be recovered");
+        assertNull(service.getTaskById("T2").getDescription(), "A null description should stay null");
+
+        List<ChatMessage> messages = service.getChatMessagesByTask("T1");
+        assertEquals(2, messages.size(), "Chat messages should be recovered once each");
+        assertEquals("M1", messages.get(0).getId(), "Chat messages should keep their order");
+        assertEquals(LocalDateTime.of(2024, 3, 1, 9, 5), messages.get(1).getTimestamp(), "Timestamps should be recovered");
+    }
+
+    /**
+     * Test that a reopened service replays the write-ahead log.
+     * Right-BICEP: R - Right results
+     */
+    @Test
+    public void testReopenReplaysWriteAheadLog() {
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            OnTrackFixtures.populate(service);
+        }
+
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            assertPopulated(service);
+            assertEquals(1, service.getTasksByUnitByTargetGrade("SIT707", "Pass").size(), "Recovered tasks should be indexed by grade");
+            assertFalse(service.submitUnitPortfolio("SIT707"), "Recovered statuses should drive readiness");
+        }
+    }
+
+    /**
+     * Test that changes made directly on a Task are persisted.
+     * Right-BICEP: R - Right results
+     */
+    @Test
+    public void testDirectTaskChangesArePersisted() {
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            OnTrackFixtures.populate(service);
+            Task task = service.getTaskById("T2");
+            task.setTargetGrade("High Distinction");
+            task.setStatus(Status.NEED_HELP);
+        }
+
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            Task task = service.getTaskById("T2");
+            assertEquals(Grade.HIGH_DISTINCTION, task.getGrade(), "Target grade change should be recovered");
+            assertEquals(Status.NEED_HELP, task.getStatus(), "Status change should be recovered");
+        }
+    }
+
+    /**
+     * Test that batches are logged and recovered.
+     * Right-BICEP: R - Right results
+     */
+    @Test
+    public void testBatchesAreReplayed() {
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            Unit unit = new Unit("SIT707", "Software Quality and Testing");
+            service.addUnits(Arrays.asList(unit, new Unit("SIT737", "Cloud Computing")));
+            service.addTasks(Arrays.asList(new Task("T1", "Task 1", null, unit, "P"), new Task("T2", "Task 2", null, unit, "HD")));
+            service.addChatMessages(Arrays.asList(
+                    new ChatMessage("M1", "T1", "Student", "Hello", LocalDateTime.of(2024, 3, 1, 9, 0)),
+                    new ChatMessage("M2", "T2", "Student", "Hi", LocalDateTime.of(2024, 3, 1, 9, 5))));
+        }
+
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            assertEquals(2, service.getAllUnits().size(), "Unit batch should be recovered");
+            assertEquals(1, service.getTasksByUnitByGrade("SIT707", Grade.HIGH_DISTINCTION).size(), "Task batch should be recovered");
+            assertEquals(1, service.getChatMessagesByTask("T2").size(), "Message batch should be recovered");
+        }
+    }
+
+    /**
+     * Test that a batch status change is logged and recovered.
+     * Right-BICEP: R - Right results
+     */
+    @Test
+    public void testStatusBatchesAreReplayed() {
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            OnTrackFixtures.populate(service);
+            service.changeUnitTaskStatuses("SIT707", task -> true, Status.NEED_HELP);
+        }
+
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            assertEquals(Status.NEED_HELP, service.getTaskById("T1").getStatus(), "T1 status should be recovered");
+            assertEquals(Status.NEED_HELP, service.getTaskById("T2").getStatus(), "T2 status should be recovered");
+            assertEquals(2, service.getStatusHistogram("SIT707").getCount(Status.NEED_HELP), "Counters should be rebuilt");
+        }
+    }
+
+    /**
+     * Test that every status transition is written to the data directory and kept across restarts,
+     * including those evicted from the in-memory history, and that a reopened service starts
+     * the history from the recovered status.
+     * Right-BICEP: R - Right results
+     */
+    @Test
+    public void testStatusHistorySpillsToFile() {
+        List<StatusTransition> spilled;
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            OnTrackFixtures.populate(service);
+            for (int i = 0; i < 20; i++) {
+                service.changeTaskStatus("T2", i % 2 == 0 ? Status.WORKING_ON_IT : Status.NEED_HELP);
+            }
+            // T2 was added and changed 20 times: 21 entries, 16 kept in memory
+            spilled = service.getSpilledStatusHistory("T2");
+            assertEquals(21, spilled.size(), "Every transition should be written");
+            assertEquals(Status.NOT_STARTED, spilled.get(0).getStatus(), "The status the task was added with comes first");
+            List<StatusTransition> history = service.getStatusHistory("T2", 100);
+            assertEquals(16, history.size(), "The ring should be full");
+            assertEquals(history, spilled.subList(5, 21), "The file should end with the in-memory history");
+        }
+
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            assertEquals(spilled, service.getSpilledStatusHistory("T2"), "Every transition should survive a restart");
+            List<StatusTransition> history = service.getStatusHistory("T2", 100);
+            assertEquals(1, history.size(), "Replayed changes should not be recorded again");
+            assertEquals(Status.NEED_HELP, history.get(0).getStatus(), "The history should start from the recovered status");
+            assertPopulated(service);
+
+            service.changeTaskStatus("T2", Status.READY_FOR_FEEDBACK);
+            List<StatusTransition> after = service.getSpilledStatusHistory("T2");
+            assertEquals(22, after.size(), "The recovered status is not written again, but later changes are");
+            assertEquals(Status.READY_FOR_FEEDBACK, after.get(21).getStatus(), "The newest transition should be written last");
+        }
+    }
+
+    /**
+     * Test that a status history record cut short by a crash is dropped on reopen, so the
+     * records written after it are read back intact.
+     * Right-BICEP: E - Error conditions
+     */
+    @Test
+    public void testTornStatusHistoryRecordIsDiscarded() throws IOException {
+        List<StatusTransition> spilled;
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            OnTrackFixtures.populate(service);
+            service.changeTaskStatus("T2", Status.WORKING_ON_IT);
+            spilled = service.getSpilledStatusHistory("T2");
+        }
+        Path statusHistory = directory.resolve(StatusHistorySpill.FILE_NAME);
+        long completeSize = Files.size(statusHistory);
+        // The task ID and half the timestamp of a record
+        Files.write(statusHistory, new byte[] {0, 2, 'T', '2', 0, 0, 1}, StandardOpenOption.APPEND);
+
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            assertEquals(completeSize, Files.size(statusHistory), "The torn record should be truncated away");
+            assertEquals(spilled, service.getSpilledStatusHistory("T2"), "The complete records should be kept");
+            service.changeTaskStatus("T2", Status.NEED_HELP);
+        }
+
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            List<StatusTransition> after = service.getSpilledStatusHistory("T2");
+            assertEquals(spilled.size() + 1, after.size(), "The record written after the torn one should be read back");
+            assertEquals(spilled, after.subList(0, spilled.size()), "The earlier records should be unchanged");
+            assertEquals(Status.NEED_HELP, after.get(spilled.size()).getStatus(), "The newest transition should be read intact");
+        }
+    }
+
+    /**
+     * Test that a retried message is still rejected after a restart, and that rejected duplicates aren't logged.
+     * Right-BICEP: R - Right results
+     */
+    @Test
+    public void testDuplicatesAreRejectedAfterReopen() {
+        ChatMessage retried = new ChatMessage("M1", "T1", "Student", "Hello", LocalDateTime.of(2024, 3, 1, 9, 0));
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            OnTrackFixtures.populate(service);
+            assertFalse(service.addChatMessageIfAbsent(retried), "The retry should be rejected");
+        }
+
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            assertFalse(service.addChatMessageIfAbsent(retried), "The retry should be rejected after reopening");
+            assertPopulated(service);
+        }
+    }
+
+    /**
+     * Test recovery from a snapshot plus the log written after it.
+     * Right-BICEP: R - Right results
+     */
+    @Test
+    public void testReopenFromSnapshotAndLogTail() throws IOException {
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            OnTrackFixtures.populate(service);
+            service.checkpoint();
+            service.changeTaskStatus("T2", Status.WORKING_ON_IT);
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            List<String> names = files.map(file -> file.getFileName().toString()).collect(Collectors.toList());
+            assertEquals(1, names.stream().filter(name -> name.startsWith("snapshot-")).count(), "Should have one snapshot");
+            assertEquals(1, names.stream().filter(name -> name.startsWith("wal-")).count(),
+                    "Log segments covered by the snapshot should be deleted");
+        }
+
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            assertPopulated(service);
+            assertEquals(Status.WORKING_ON_IT, service.getTaskById("T2").getStatus(), "Change after the snapshot should be replayed");
+        }
+    }
+
+    /**
+     * Test that chat messages are kept in the chat log rather than copied into snapshots, and that messages
+     * written to the log after the snapshot are replayed from the write-ahead log exactly once.
+     * Right-BICEP: R - Right results
+     */
+    @Test
+    public void testChatMessagesLiveInChatLog() throws IOException {
+        LocalDateTime base = LocalDateTime.of(2024, 3, 2, 9, 0);
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            OnTrackFixtures.populate(service);
+            for (int i = 0; i < 200; i++) {
+                service.addChatMessage(new ChatMessage("S" + i, "T2", "Student", "Before the snapshot " + i, base.plusSeconds(i)));
+            }
+            service.checkpoint();
+            for (int i = 0; i < 50; i++) {
+                service.addChatMessage(new ChatMessage("L" + i, "T2", "Tutor", "After the snapshot " + i, base.plusSeconds(200 + i)));
+            }
+        }
+
+        Path snapshot;
+        try (Stream<Path> files = Files.list(directory)) {
+            snapshot = files.filter(file -> file.getFileName().toString().startsWith("snapshot-")).findFirst().orElseThrow();
+        }
+        assertFalse(new String(Files.readAllBytes(snapshot), StandardCharsets.UTF_8).contains("Before the snapshot"),
+                "The snapshot should not copy chat messages");
+        assertTrue(Files.isDirectory(directory.resolve(OnTrackService.CHAT_DIRECTORY)), "Messages should be in the chat log");
+
+        for (int reopen = 0; reopen < 2; reopen++) {
+            try (OnTrackService service = OnTrackService.open(directory)) {
+                assertPopulated(service);
+                List<ChatMessage> messages = service.getChatMessagesByTask("T2");
+                assertEquals(250, messages.size(), "Every message should be recovered once");
+                assertEquals("S0", messages.get(0).getId(), "Messages before the snapshot come from the chat log");
+                assertEquals("L49", messages.get(249).getId(), "Messages after it are replayed");
+                assertEquals(50, service.searchTaskChatMessages("T2", "after", 100).size(), "Recovered messages should be searchable");
+            }
+        }
+    }
+
+    /**
+     * Test that background snapshots are taken once the interval is reached.
+     * Right-BICEP: R - Right results
+     */
+    @Test
+    public void testBackgroundSnapshots() throws IOException, InterruptedException {
+        try (OnTrackService service = OnTrackService.open(directory, 3)) {
+            OnTrackFixtures.populate(service);
+            for (int i = 0; i < 3; i++) {
+                service.changeTaskStatus("T2", i % 2 == 0 ? Status.WORKING_ON_IT : Status.NEED_HELP);
+            }
+            Path statusHistory = directory.resolve(StatusHistorySpill.FILE_NAME);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (Files.size(statusHistory) == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(Files.size(statusHistory) > 0, "Background snapshots should write out the status history");
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            assertTrue(files.anyMatch(file -> file.getFileName().toString().startsWith("snapshot-")),
+                    "A snapshot should have been written in the background");
+        }
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            assertPopulated(service);
+        }
+    }
+
+    /**
+     * Test that a record torn by a crash is discarded, keeping every record before it.
+     * Right-BICEP: E - Error conditions
+     */
+    @Test
+    public void testTornLogRecordIsDiscarded() throws IOException {
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            OnTrackFixtures.populate(service);
+            service.addChatMessage(new ChatMessage("M3", "T2", "Student", "Lost in the crash", LocalDateTime.of(2024, 3, 2, 9, 0)));
+        }
+
+        // Cut the last record in half
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(file -> file.getFileName().toString().startsWith("wal-")).findFirst().get();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 10);
+        }
+
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            assertPopulated(service);
+            assertTrue(service.getChatMessagesByTask("T2").isEmpty(), "The torn record should be discarded");
+            // The log is writable again after the torn record
+            service.addChatMessage(new ChatMessage("M4", "T2", "Student", "After recovery", LocalDateTime.of(2024, 3, 3, 9, 0)));
+        }
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            assertEquals(1, service.getChatMessagesByTask("T2").size(), "Records after recovery should be replayed");
+        }
+    }
+
+    /**
+     * Test that damage anywhere but the end of the last log segment fails recovery rather than
+     * skipping records: a bad record in an earlier segment, or a missing segment.
+     * Right-BICEP: E - Error conditions
+     */
+    @Test
+    public void testDamagedEarlierLogSegmentFailsRecovery() throws IOException {
+        Path logDirectory = directory.resolve("wal");
+        // Tiny segments, so each record starts a new one
+        try (WriteAheadLog log = WriteAheadLog.open(logDirectory, 1, 0, (sequence, mutation) -> { })) {
+            for (int i = 0; i < 4; i++) {
+                log.awaitDurable(log.append(new byte[] {(byte) i}));
+            }
+        }
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(logDirectory)) {
+            segments = files.sorted().collect(Collectors.toList());
+        }
+        assertTrue(segments.size() >= 4, "Each record should be in its own segment");
+
+        List<Long> replayed = new ArrayList<>();
+        WriteAheadLog.open(logDirectory, 1, 0, (sequence, mutation) -> replayed.add(sequence)).close();
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L), replayed, "An undamaged log should replay every record");
+
+        byte[] bytes = Files.readAllBytes(segments.get(1));
+        bytes[bytes.length - 1] ^= 1; // Breaks the checksum
+        Files.write(segments.get(1), bytes);
+        assertThrows(IOException.class, () -> WriteAheadLog.open(logDirectory, 1, 0, (sequence, mutation) -> { }),
+                "A bad record in an earlier segment should fail recovery");
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(segments.get(1), bytes);
+
+        Files.delete(segments.get(2));
+        assertThrows(IOException.class, () -> WriteAheadLog.open(logDirectory, 1, 0, (sequence, mutation) -> { }),
+                "A gap in the sequence numbers should fail recovery");
+        assertThrows(IOException.class, () -> WriteAheadLog.open(logDirectory, 1, 3, (sequence, mutation) -> { }),
+                "A gap after the snapshot should fail recovery");
+    }
+
+    /**
+     * Test checkpoint on a service that is not durable.
+     * Right-BICEP: E - Error conditions
+     */
+    @Test
+    public void testCheckpointWithoutDirectory() {
+        OnTrackService service = new OnTrackService();
+        assertThrows(IllegalStateException.class, service::checkpoint, "Only a durable service can checkpoint");
+        assertThrows(IllegalArgumentException.class, () -> OnTrackService.open(null), "Directory cannot be null");
+    }
+}
@@ -0,0 +1,165 @@
+package ontrack.service;
+
+import ontrack.model.ChatMessage;
+import ontrack.model.Status;
+import ontrack.model.Task;
+import ontrack.model.Unit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Integration tests for log-shipping replication. A durable primary and its replicas run in this process,
+ * each replica on its own thread, connected over loopback sockets.
+ * Right-BICEP: R - Right results, E - Error conditions, P - Performance characteristics
+ */
+public class OnTrackReplicationTest {
+
+    @TempDir
+    Path directory;
+
+    private static List<String> idsOf(List<Task> tasks) {
+        return tasks.stream().map(Task::getId).collect(Collectors.toList());
+    }
+
+    private static void assertSameState(OnTrackService primary, OnTrackService replica) {
+        for (String grade : Arrays.asList("Pass", "Credit", "Distinction", "High Distinction")) {
+            assertEquals(idsOf(primary.getTasksByUnitByTargetGrade("SIT707", grade)),
+                    idsOf(replica.getTasksByUnitByTargetGrade("SIT707", grade)), "Tasks at " + grade + " should match");
+        }
+        for (Task task : primary.getTasksByUnit("SIT707")) {
+            assertEquals(task.getStatus(), replica.getTaskById(task.getId()).getStatus(), "Status of " + task.getId() + " should match");
+            assertEquals(primary.getChatMessagesByTask(task.getId()).stream().map(ChatMessage::getId).collect(Collectors.toList()),
+                    replica.getChatMessagesByTask(task.getId()).stream().map(ChatMessage::getId).collect(Collectors.toList()),
+                    "Chat of " + task.getId() + " should match");
+        }
+        assertEquals(primary.getUnitGrade("SIT707"), replica.getUnitGrade("SIT707"), "Target grade should match");
+    }
+
+    /**
+     * Test that replicas load the primary's state when they connect, then apply every later change in order.
+     * Right-BICEP: R - Right results
+     */
+    @Test
+    public void testReplicasFollowPrimary() throws InterruptedException {
+        try (OnTrackService service = OnTrackService.open(directory);
+             ReplicationPrimary primary = ReplicationPrimary.start(service, 0)) {
+            OnTrackFixtures.populate(service);
+
+            try (OnTrackReplica first = OnTrackReplica.connect(primary.getAddress());
+                 OnTrackReplica second = OnTrackReplica.connect(primary.getAddress())) {
+                assertEquals(primary.getLastSequence(), first.getAppliedSequence(), "The snapshot should cover every logged change");
+                assertSameState(service, first.getService());
+
+                Unit unit = service.getUnitById("SIT707");
+                service.addTasks(Arrays.asList(new Task("T3", "Task 3", null, unit, "Credit"),
+                        new Task("T4", "Task 4", null, unit, "HD")));
+                service.addChatMessage(new ChatMessage("M3", "T3", "Tutor", "Hi", LocalDateTime.of(2024, 3, 1, 9, 5)));
+                service.changeUnitTaskStatuses("SIT707", task -> task.getGrade() != null, Status.NEED_HELP);
+                Task direct = service.getTaskById("T2");
+                direct.setTargetGrade("High Distinction");
+                direct.setStatus(Status.WORKING_ON_IT);
+
+                long last = primary.getLastSequence();
+                for (OnTrackReplica replica : Arrays.asList(first, second)) {
+                    assertTrue(replica.awaitSequence(last, 10, TimeUnit.SECONDS), "Replica should catch up");
+                    assertSameState(service, replica.getService());
+                    assertEquals(0, replica.getLagSequences(), "A caught-up replica has no lag");
+                    assertEquals(0, replica.getLagMillis(), "A caught-up replica has no lag");
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that the primary learns how far each replica has applied, and that replicas notice the primary going away.
+     * Right-BICEP: R - Right results
+     */
+    @Test
+    public void testReplicationLagIsReported() throws InterruptedException {
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            OnTrackFixtures.populate(service);
+            ReplicationPrimary primary = ReplicationPrimary.start(service, 0);
+            try (OnTrackReplica replica = OnTrackReplica.connect(primary.getAddress())) {
+                service.changeTaskStatus("T2", Status.WORKING_ON_IT);
+                long last = primary.getLastSequence();
+                assertTrue(replica.awaitSequence(last, 10, TimeUnit.SECONDS), "Replica should catch up");
+                assertEquals(last, replica.getPrimarySequence(), "Replica should know the primary's position");
+
+                List<ReplicaStatus> replicas = new ArrayList<>();
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (System.nanoTime() < deadline) {
+                    replicas = primary.getReplicas();
+                    if (replicas.size() == 1 && replicas.get(0).getLagSequences() == 0) {
+                        break;
+                    }
+                    Thread.sleep(10);
+                }
+                assertEquals(1, replicas.size(), "Primary should list the connected replica");
+                assertEquals(last, replicas.get(0).getAcknowledgedSequence(), "Primary should receive the replica's acknowledgement");
+
+                primary.close();
+                assertFalse(replica.awaitSequence(last + 1, 10, TimeUnit.SECONDS), "No changes arrive once the primary closes");
+                assertFalse(replica.isConnected(), "Replica should notice the primary closing");
+                assertEquals(Status.WORKING_ON_IT, replica.getService().getTaskById("T2").getStatus(), "Replica should keep its state");
+
+                service.changeTaskStatus("T2", Status.NEED_HELP);
+                assertEquals(Status.WORKING_ON_IT, replica.getService().getTaskById("T2").getStatus(), "A disconnected replica stops following");
+            }
+        }
+    }
+
+    /**
+     * Test that replicas keep up with a burst of writes made while they are connected.
+     * Right-BICEP: P - Performance characteristics
+     */
+    @Test
+    public void testReplicasKeepUpWithBurst() throws InterruptedException {
+        try (OnTrackService service = OnTrackService.open(directory);
+             ReplicationPrimary primary = ReplicationPrimary.start(service, 0)) {
+            OnTrackFixtures.populate(service);
+            try (OnTrackReplica replica = OnTrackReplica.connect(primary.getAddress())) {
+                for (int i = 0; i < 5000; i++) {
+                    service.addChatMessage(new ChatMessage("B" + i, i % 2 == 0 ? "T1" : "T2", "Student", "Message " + i,
+                            LocalDateTime.of(2024, 3, 2, 9, 0).plusSeconds(i)));
+                }
+                assertTrue(replica.awaitSequence(primary.getLastSequence(), 30, TimeUnit.SECONDS), "Replica should catch up");
+                assertSameState(service, replica.getService());
+            }
+        }
+    }
+
+    /**
+     * Test replication with invalid arguments.
+     * Right-BICEP: E - Error conditions
+     */
+    @Test
+    public void testReplicationErrorConditions() throws InterruptedException {
+        assertThrows(IllegalArgumentException.class, () -> ReplicationPrimary.start(null, 0), "Service cannot be null");
+        assertThrows(IllegalArgumentException.class, () -> ReplicationPrimary.start(new OnTrackService(), 0), "Only a durable service can be replicated");
+        assertThrows(IllegalArgumentException.class, () -> OnTrackReplica.connect(null), "Primary address cannot be null");
+
+        try (OnTrackService service = OnTrackService.open(directory)) {
+            assertThrows(IllegalArgumentException.class, () -> ReplicationPrimary.start(service, -1), "Port must be in range");
+            InetSocketAddress address;
+            try (ReplicationPrimary primary = ReplicationPrimary.start(service, 0)) {
+                address = primary.getAddress();
+                try (OnTrackReplica replica = OnTrackReplica.connect(address)) {
+                    assertThrows(IllegalArgumentException.class, () -> replica.awaitSequence(1, 1, null), "Time unit cannot be null");
+                    assertTrue(replica.awaitSequence(0, 1, TimeUnit.SECONDS), "An empty primary is caught up at once");
+                }
+            }
+            assertThrows(java.io.UncheckedIOException.class, () -> OnTrackReplica.connect(address), "A closed primary cannot be reached");
+        }
+    }
+}
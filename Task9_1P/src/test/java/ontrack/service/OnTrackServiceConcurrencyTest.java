@@ -0,0 +1,404 @@
+package ontrack.service;
+
+import ontrack.model.ChatMessage;
+import ontrack.model.Status;
+import ontrack.model.Task;
+import ontrack.model.Unit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Multi-threaded stress tests for OnTrackService.
+ * Runs the same generated operations concurrently on one service and one after another on a
+ * second service, then checks that both end in the same state.
+ * Right-BICEP: C - Cross-check results
+ */
+public class OnTrackServiceConcurrencyTest {
+
+    private static final int UNIT_COUNT = 8;
+    private static final int TASKS_PER_UNIT = 24;
+    private static final int THREAD_COUNT = 8;
+    private static final int OPERATIONS_PER_THREAD = 3000;
+    private static final String[] GRADES = {"P", "C", "D", "HD"};
+
+    private OnTrackService concurrentService;
+    private OnTrackService sequentialService;
+    private List<List<Operation>> operationsByThread;
+
+    /**
+     * A single generated operation, replayable against any service.
+     * Status and grade changes only touch tasks owned by the generating thread,
+     * so the final state does not depend on how threads interleave.
+     */
+    private static final class Operation {
+        private final int kind;
+        private final String taskId;
+        private final Status status;
+        private final String value;
+
+        private Operation(int kind, String taskId, Status status, String value) {
+            this.kind = kind;
+            this.taskId = taskId;
+            this.status = status;
+            this.value = value;
+        }
+
+        private void apply(OnTrackService service) {
+            switch (kind) {
+                case 0:
+                    service.changeTaskStatus(taskId, status);
+                    break;
+                case 1:
+                    service.getTaskById(taskId).setStatus(status);
+                    break;
+                case 2:
+                    service.getTaskById(taskId).setTargetGrade(value);
+                    break;
+                default:
+                    service.addChatMessage(new ChatMessage(value, taskId, "Student", "Message " + value));
+            }
+        }
+    }
+
+    @BeforeEach
+    public void setUp() {
+        concurrentService = createService();
+        sequentialService = createService();
+
+        operationsByThread = new ArrayList<>();
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            operationsByThread.add(generateOperations(t));
+        }
+    }
+
+    /**
+     * Stress test for addChatMessage, changeTaskStatus and direct model changes from many threads.
+     * Compares every task, grade bucket, portfolio check and message list with a sequential replay.
+     * Right-BICEP: C - Cross-check results
+     */
+    @Test
+    public void testConcurrentOperationsMatchSequentialReplay() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (List<Operation> operations : operationsByThread) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (Operation operation : operations) {
+                        operation.apply(concurrentService);
+                    }
+                    return null;
+                }));
+            }
+            // A reader running alongside the writers must never fail
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    String unitId = "U" + (i % UNIT_COUNT);
+                    concurrentService.submitUnitPortfolio(unitId);
+                    concurrentService.getTasksByUnitByTargetGrade(unitId, GRADES[i % GRADES.length]);
+                }
+                return null;
+            }));
+
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (List<Operation> operations : operationsByThread) {
+            for (Operation operation : operations) {
+                operation.apply(sequentialService);
+            }
+        }
+
+        for (int u = 0; u < UNIT_COUNT; u++) {
+            String unitId = "U" + u;
+            assertEquals(sequentialService.submitUnitPortfolio(unitId), concurrentService.submitUnitPortfolio(unitId),
+                    "Portfolio readiness should match for " + unitId);
+            for (String grade : GRADES) {
+                assertEquals(taskIds(sequentialService.getTasksByUnitByTargetGrade(unitId, grade)),
+                        taskIds(concurrentService.getTasksByUnitByTargetGrade(unitId, grade)),
+                        "Tasks should match for " + unitId + " grade " + grade);
+            }
+            for (int t = 0; t < TASKS_PER_UNIT; t++) {
+                String taskId = taskId(u, t);
+                Task expected = sequentialService.getTaskById(taskId);
+                Task actual = concurrentService.getTaskById(taskId);
+                assertEquals(expected.getStatus(), actual.getStatus(), "Status should match for " + taskId);
+                assertEquals(expected.getTargetGrade(), actual.getTargetGrade(), "Target grade should match for " + taskId);
+                assertEquals(new HashSet<>(sequentialService.getChatMessagesByTask(taskId)),
+                        new HashSet<>(concurrentService.getChatMessagesByTask(taskId)),
+                        "Messages should match for " + taskId);
+            }
+        }
+    }
+
+    /**
+     * Stress test for changeUnitTaskStatuses while other threads read the unit's histogram.
+     * Every batch moves all of a unit's tasks, so a reader must never see some moved and some not.
+     * Right-BICEP: C - Cross-check results
+     */
+    @Test
+    public void testStatusBatchesAreAtomicForReaders() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            CountDownLatch done = new CountDownLatch(1);
+            List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < THREAD_COUNT - 1; r++) {
+                readers.add(executor.submit(() -> {
+                    while (done.getCount() > 0) {
+                        StatusHistogram histogram = concurrentService.getStatusHistogram("U0");
+                        int needHelp = histogram.getCount(Status.NEED_HELP);
+                        assertTrue(needHelp == 0 || needHelp == TASKS_PER_UNIT, "Saw a half-applied batch: " + needHelp);
+                    }
+                    return null;
+                }));
+            }
+            Future<?> writer = executor.submit(() -> {
+                try {
+                    for (int i = 0; i < 2000; i++) {
+                        Status status = i % 2 == 0 ? Status.NEED_HELP : Status.WORKING_ON_IT;
+                        concurrentService.changeUnitTaskStatuses("U0", task -> true, status);
+                    }
+                } finally {
+                    done.countDown();
+                }
+                return null;
+            });
+            writer.get(60, TimeUnit.SECONDS);
+            for (Future<?> reader : readers) {
+                reader.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(0, concurrentService.getStatusHistogram("U0").getCount(Status.NEED_HELP), "The last batch should win");
+    }
+
+    /**
+     * Stress test for a single status change racing changeUnitTaskStatuses on the same task.
+     * The filter holds on to its match until the single change lands, so the batch must not overwrite it.
+     * Right-BICEP: C - Cross-check results
+     */
+    @Test
+    public void testSingleChangeRacingBatchIsKept() throws Exception {
+        String taskId = taskId(0, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            int conflicts = 0;
+            for (int i = 0; i < 200; i++) {
+                concurrentService.changeTaskStatus(taskId, Status.NEED_HELP);
+                CountDownLatch start = new CountDownLatch(1);
+                Future<Map<String, StatusChangeOutcome>> batch = executor.submit(() -> {
+                    start.await();
+                    return concurrentService.changeUnitTaskStatuses("U0", task -> {
+                        if (!task.getId().equals(taskId) || task.getStatus() != Status.NEED_HELP) {
+                            return false;
+                        }
+                        // Gives the single change time to land between the match and the update
+                        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1);
+                        while (task.getStatus() == Status.NEED_HELP && System.nanoTime() < deadline) {
+                            Thread.onSpinWait();
+                        }
+                        return true;
+                    }, Status.WORKING_ON_IT);
+                });
+                Future<Boolean> single = executor.submit(() -> {
+                    start.await();
+                    return concurrentService.changeTaskStatus(taskId, Status.READY_FOR_FEEDBACK);
+                });
+                start.countDown();
+                assertTrue(single.get(60, TimeUnit.SECONDS), "The single change should find the task");
+                StatusChangeOutcome outcome = batch.get(60, TimeUnit.SECONDS).get(taskId);
+                if (outcome == StatusChangeOutcome.CONFLICT) {
+                    conflicts++;
+                }
+                assertEquals(Status.READY_FOR_FEEDBACK, concurrentService.getTaskById(taskId).getStatus(),
+                        "The batch overwrote a change made after its match (outcome " + outcome + ")");
+                assertEquals(1, concurrentService.getStatusHistogram("U0").getCount(Status.READY_FOR_FEEDBACK),
+                        "The unit index should match the task");
+            }
+            assertTrue(conflicts > 0, "The race should have been hit at least once");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Stress test for status changes racing on one task directly on the model.
+     * However the changes interleave, the status history must end with the task's status
+     * and never record the same status twice in a row.
+     * Right-BICEP: C - Cross-check results
+     */
+    @Test
+    public void testRacingChangesAreRecordedInOrder() throws Exception {
+        Task task = concurrentService.getTaskById(taskId(0, 0));
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < THREAD_COUNT; t++) {
+                Status status = Status.values()[t % Status.values().length];
+                writers.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 2000; i++) {
+                        task.setStatus(status);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> writer : writers) {
+                writer.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        List<StatusTransition> history = concurrentService.getStatusHistory(task.getId(), 100);
+        assertEquals(task.getStatus(), history.get(history.size() - 1).getStatus(), "The history should end with the task's status");
+        for (int i = 1; i < history.size(); i++) {
+            assertNotEquals(history.get(i - 1).getStatus(), history.get(i).getStatus(), "A transition should change the status");
+        }
+    }
+
+    /**
+     * Stress test for claimTaskNeedingHelp from many tutors at once.
+     * Every task that needs help must be claimed by exactly one tutor.
+     * Right-BICEP: C - Cross-check results
+     */
+    @Test
+    public void testConcurrentClaimsAreDistinct() throws Exception {
+        for (int u = 0; u < UNIT_COUNT; u++) {
+            concurrentService.changeUnitTaskStatuses("U" + u, task -> true, Status.NEED_HELP);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            List<Future<List<String>>> tutors = new ArrayList<>();
+            for (int t = 0; t < THREAD_COUNT; t++) {
+                tutors.add(executor.submit(() -> {
+                    List<String> claimed = new ArrayList<>();
+                    for (int u = 0; u < UNIT_COUNT; u++) {
+                        HelpRequest request;
+                        while ((request = concurrentService.claimTaskNeedingHelp("U" + u)) != null) {
+                            claimed.add(request.getTaskId());
+                        }
+                    }
+                    return claimed;
+                }));
+            }
+            HashSet<String> allClaimed = new HashSet<>();
+            int claimCount = 0;
+            for (Future<List<String>> tutor : tutors) {
+                List<String> claimed = tutor.get(60, TimeUnit.SECONDS);
+                allClaimed.addAll(claimed);
+                claimCount += claimed.size();
+            }
+            assertEquals(UNIT_COUNT * TASKS_PER_UNIT, claimCount, "Every task should be claimed once");
+            assertEquals(claimCount, allClaimed.size(), "No task should be claimed twice");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Stress test for addChatMessageIfAbsent with every thread retrying the same messages.
+     * Each message must be added exactly once.
+     * Right-BICEP: C - Cross-check results
+     */
+    @Test
+    public void testConcurrentRetriesAddOnce() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            List<Future<Integer>> clients = new ArrayList<>();
+            for (int t = 0; t < THREAD_COUNT; t++) {
+                clients.add(executor.submit(() -> {
+                    int added = 0;
+                    for (int m = 0; m < 500; m++) {
+                        String taskId = taskId(m % UNIT_COUNT, m % TASKS_PER_UNIT);
+                        if (concurrentService.addChatMessageIfAbsent(new ChatMessage("R" + m, taskId, "Student", "Retry " + m))) {
+                            added++;
+                        }
+                    }
+                    return added;
+                }));
+            }
+            int added = 0;
+            for (Future<Integer> client : clients) {
+                added += client.get(60, TimeUnit.SECONDS);
+            }
+            assertEquals(500, added, "Each message should be added by exactly one client");
+            assertEquals(500L * (THREAD_COUNT - 1), concurrentService.getDeduplicationStats().getDuplicates(),
+                    "Every other attempt should be rejected");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static OnTrackService createService() {
+        OnTrackService service = new OnTrackService();
+        for (int u = 0; u < UNIT_COUNT; u++) {
+            Unit unit = new Unit("U" + u, "Unit " + u);
+            service.addUnit(unit);
+            for (int t = 0; t < TASKS_PER_UNIT; t++) {
+                service.addTask(new Task(taskId(u, t), "Task " + t, "", unit, GRADES[t % GRADES.length]));
+            }
+        }
+        return service;
+    }
+
+    private static List<Operation> generateOperations(int thread) {
+        Random random = new Random(thread);
+        Status[] statuses = Status.values();
+        List<Operation> operations = new ArrayList<>();
+        for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+            int unit = random.nextInt(UNIT_COUNT);
+            // Owned tasks are those whose index maps to this thread
+            int ownedTask = thread + THREAD_COUNT * random.nextInt(TASKS_PER_UNIT / THREAD_COUNT);
+            int kind = random.nextInt(4);
+            if (kind == 3) {
+                int anyTask = random.nextInt(TASKS_PER_UNIT);
+                operations.add(new Operation(kind, taskId(unit, anyTask), null, "M" + thread + "_" + i));
+            } else {
+                operations.add(new Operation(kind, taskId(unit, ownedTask),
+                        statuses[random.nextInt(statuses.length)], GRADES[random.nextInt(GRADES.length)]));
+            }
+        }
+        // Finish with the first half of the units fully ready, so some portfolios can be submitted
+        for (int u = 0; u < UNIT_COUNT / 2; u++) {
+            for (int t = thread; t < TASKS_PER_UNIT; t += THREAD_COUNT) {
+                operations.add(new Operation(0, taskId(u, t), Status.READY_FOR_FEEDBACK, null));
+            }
+        }
+        return operations;
+    }
+
+    private static String taskId(int unit, int task) {
+        return "U" + unit + "_T" + task;
+    }
+
+    private static HashSet<String> taskIds(List<Task> tasks) {
+        HashSet<String> ids = new HashSet<>();
+        for (Task task : tasks) {
+            ids.add(task.getId());
+        }
+        return ids;
+    }
+}
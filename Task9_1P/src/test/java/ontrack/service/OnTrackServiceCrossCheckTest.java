@@ -1,16 +1,21 @@
 package ontrack.service;
 
 import ontrack.model.ChatMessage;
+import ontrack.model.Grade;
 import ontrack.model.Status;
 import ontrack.model.Task;
 import ontrack.model.Unit;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -191,4 +196,246 @@ public class OnTrackServiceCrossCheckTest {
         // Compare the results
         assertEquals(task1.getStatus(), serviceTask.getStatus(), "Both tasks should have the same status");
     }
+
+    /**
+     * Cross-check test for getStatusHistogram function.
+     * Compares the counters with a count over the unit's tasks.
+     * Right-BICEP: C - Cross-check results
+     */
+    @Test
+    public void testGetStatusHistogramCrossCheck() {
+        service.changeTaskStatus(task1.getId(), Status.WORKING_ON_IT);
+        service.changeTaskStatus(task2.getId(), Status.READY_FOR_FEEDBACK);
+        task2.setTargetGrade("HD");
+
+        StatusHistogram histogram = service.getStatusHistogram(unit1.getId());
+        for (Status status : Status.values()) {
+            long manualCount = tasks.stream()
+                    .filter(task -> task.getUnit().getId().equals(unit1.getId()))
+                    .filter(task -> task.getStatus() == status)
+                    .count();
+            assertEquals(manualCount, histogram.getCount(status), "Counts should match for " + status);
+        }
+        assertEquals(2, histogram.getCount(Grade.HIGH_DISTINCTION, Status.WORKING_ON_IT)
+                + histogram.getCount(Grade.HIGH_DISTINCTION, Status.READY_FOR_FEEDBACK),
+                "Both tasks should now count under HD");
+    }
+
+    /**
+     * Cross-check test for getTasksNeedingHelp and claimTaskNeedingHelp functions.
+     * Applies random status changes and claims, and compares the help queue with a list kept in the order
+     * tasks entered NEED_HELP.
+     * Right-BICEP: C - Cross-check results
+     */
+    @Test
+    public void testHelpQueueCrossCheck() {
+        OnTrackService helpService = new OnTrackService();
+        Unit unit = new Unit("SIT707", "Software Quality and Testing");
+        helpService.addUnit(unit);
+        for (int t = 0; t < 50; t++) {
+            helpService.addTask(new Task("T" + t, "Task " + t, "", unit, "P"));
+        }
+        LinkedHashSet<String> waiting = new LinkedHashSet<>();
+        Random random = new Random(7);
+        Status[] statuses = Status.values();
+        for (int i = 0; i < 5000; i++) {
+            if (random.nextInt(10) == 0) {
+                HelpRequest claimed = helpService.claimTaskNeedingHelp(unit.getId());
+                String expected = waiting.isEmpty() ? null : waiting.iterator().next();
+                assertEquals(expected, claimed == null ? null : claimed.getTaskId(), "The longest waiting task should be claimed");
+                waiting.remove(expected);
+                continue;
+            }
+            String taskId = "T" + random.nextInt(50);
+            Status status = statuses[random.nextInt(statuses.length)];
+            if (random.nextBoolean()) {
+                helpService.changeTaskStatus(taskId, status);
+            } else {
+                // A grade change must not move the task in the queue
+                helpService.getTaskById(taskId).setTargetGrade(random.nextBoolean() ? "P" : "HD");
+                status = helpService.getTaskById(taskId).getStatus();
+            }
+            if (status != Status.NEED_HELP) {
+                waiting.remove(taskId);
+            } else {
+                waiting.add(taskId);
+            }
+            List<String> queued = helpService.getTasksNeedingHelp(unit.getId()).stream()
+                    .map(HelpRequest::getTaskId)
+                    .collect(Collectors.toList());
+            assertEquals(new ArrayList<>(waiting), queued, "Queue should match after operation " + i);
+        }
+    }
+
+    /**
+     * Cross-check test for getChatMessagesBySender and getLatestChatMessagesBySender functions.
+     * Adds messages from several senders out of time order, one at a time and in batches, and compares
+     * the index with a scan of every task's messages.
+     * Right-BICEP: C - Cross-check results
+     */
+    @Test
+    public void testMessagesBySenderCrossCheck() {
+        OnTrackService senderService = new OnTrackService();
+        Unit unit = new Unit("SIT707", "Software Quality and Testing");
+        senderService.addUnit(unit);
+        for (int t = 0; t < 10; t++) {
+            senderService.addTask(new Task("T" + t, "Task " + t, "", unit, "P"));
+        }
+        String[] senders = {"Tutor A", "Tutor B", "Student 1", "Student 2"};
+        LocalDateTime base = LocalDateTime.of(2024, 3, 1, 9, 0);
+        Random random = new Random(3);
+        List<ChatMessage> all = new ArrayList<>();
+        List<ChatMessage> batch = new ArrayList<>();
+        for (int m = 0; m < 2000; m++) {
+            // Timestamps jump around, with many ties
+            ChatMessage message = new ChatMessage("M" + m, "T" + random.nextInt(10), senders[random.nextInt(senders.length)],
+                    "Message " + m, base.plusMinutes(random.nextInt(500)));
+            all.add(message);
+            if (m % 3 == 0) {
+                senderService.addChatMessage(message);
+            } else {
+                batch.add(message);
+                if (batch.size() == 50) {
+                    senderService.addChatMessages(batch);
+                    batch.clear();
+                }
+            }
+        }
+        senderService.addChatMessages(batch);
+
+        for (String sender : senders) {
+            List<ChatMessage> expected = all.stream()
+                    .filter(message -> message.getSender().equals(sender))
+                    .sorted(Comparator.comparing(ChatMessage::getTimestamp).thenComparing(ChatMessage::getId))
+                    .collect(Collectors.toList());
+            LocalDateTime from = base.plusMinutes(100);
+            LocalDateTime to = base.plusMinutes(200);
+            List<ChatMessage> inRange = expected.stream()
+                    .filter(message -> !message.getTimestamp().isBefore(from) && message.getTimestamp().isBefore(to))
+                    .collect(Collectors.toList());
+
+            assertEquals(expected, senderService.getChatMessagesBySender(sender, base, base.plusDays(1), 10_000),
+                    "Every message should be found for " + sender);
+            assertEquals(inRange, senderService.getChatMessagesBySender(sender, from, to, 10_000), "Range should match for " + sender);
+            assertEquals(inRange.subList(0, 5), senderService.getChatMessagesBySender(sender, from, to, 5),
+                    "A limited range should keep the oldest for " + sender);
+            assertEquals(expected.subList(expected.size() - 7, expected.size()), senderService.getLatestChatMessagesBySender(sender, 7),
+                    "Latest should match for " + sender);
+        }
+    }
+
+    /**
+     * Cross-check test for streamTasksByUnitByGrade, countTasksByUnitByGrade, existsTaskByUnitByGrade,
+     * getTasksAtUnitTargetGrade and the limited getTasksByUnitByGrade functions.
+     * Applies random grade and status changes, grade choices and task additions, and compares each lazy
+     * or cached query with getTasksByUnitByGrade.
+     * Right-BICEP: C - Cross-check results
+     */
+    @Test
+    public void testLazyTaskQueriesCrossCheck() {
+        Random random = new Random(21);
+        Grade[] grades = Grade.values();
+        Status[] statuses = Status.values();
+        int added = 0;
+        for (int i = 0; i < 2000; i++) {
+            int operation = random.nextInt(10);
+            if (operation == 0 || tasks.size() < 5) {
+                Task task = new Task("N" + added++, "New task", "", unit1, grades[random.nextInt(grades.length)].getCode());
+                service.addTask(task);
+                tasks.add(task);
+            } else {
+                Task task = tasks.get(random.nextInt(tasks.size()));
+                if (operation < 5) {
+                    task.setTargetGrade(grades[random.nextInt(grades.length)].getCode());
+                } else {
+                    service.changeTaskStatus(task.getId(), statuses[random.nextInt(statuses.length)]);
+                }
+            }
+            Grade grade = grades[random.nextInt(grades.length)];
+            List<Task> expected = service.getTasksByUnitByGrade(unit1.getId(), grade);
+            assertEquals(expected, service.streamTasksByUnitByGrade(unit1.getId(), grade).collect(Collectors.toList()),
+                    "Stream should match after operation " + i);
+            assertEquals(expected.size(), service.countTasksByUnitByGrade(unit1.getId(), grade), "Count should match after operation " + i);
+            int limit = 1 + random.nextInt(5);
+            assertEquals(expected.subList(0, Math.min(limit, expected.size())), service.getTasksByUnitByGrade(unit1.getId(), grade, limit),
+                    "Limited list should be a prefix after operation " + i);
+            Status status = statuses[random.nextInt(statuses.length)];
+            assertEquals(expected.stream().anyMatch(task -> task.getStatus() == status),
+                    service.existsTaskByUnitByGrade(unit1.getId(), grade, task -> task.getStatus() == status),
+                    "Exists should match after operation " + i);
+            assertEquals(service.getTasksByUnit(unit1.getId()), service.streamTasksByUnit(unit1.getId()).collect(Collectors.toList()),
+                    "Unit stream should match after operation " + i);
+            if (random.nextInt(20) == 0) {
+                service.chooseUnitGrade(unit1.getId(), grades[random.nextInt(grades.length)]);
+            }
+            Grade chosen = service.getUnitGrade(unit1.getId());
+            assertEquals(chosen == null ? new ArrayList<>() : service.getTasksByUnitByGrade(unit1.getId(), chosen),
+                    service.getTasksAtUnitTargetGrade(unit1.getId()), "Target grade view should match after operation " + i);
+        }
+    }
+
+    /**
+     * Cross-check test for queryTasks function.
+     * Runs random queries over random tasks and compares each result with a filter over every task,
+     * whichever index the planner picks.
+     * Right-BICEP: C - Cross-check results
+     */
+    @Test
+    public void testQueryTasksCrossCheck() {
+        OnTrackService queryService = new OnTrackService();
+        Random random = new Random(22);
+        Grade[] grades = Grade.values();
+        Status[] statuses = Status.values();
+        List<Unit> queryUnits = new ArrayList<>();
+        for (int u = 0; u < 4; u++) {
+            Unit unit = new Unit("U" + u, "Unit " + u);
+            queryService.addUnit(unit);
+            queryUnits.add(unit);
+        }
+        List<Task> allTasks = new ArrayList<>();
+        for (int t = 0; t < 400; t++) {
+            Task task = new Task("U" + random.nextInt(4) + "-" + random.nextInt(1000), "Task " + (char) ('A' + random.nextInt(5)) + t,
+                    "", queryUnits.get(random.nextInt(4)), grades[random.nextInt(grades.length)].getCode());
+            if (queryService.getTaskById(task.getId()) == null) {
+                queryService.addTask(task);
+                allTasks.add(task);
+                queryService.changeTaskStatus(task.getId(), statuses[random.nextInt(statuses.length)]);
+            }
+        }
+        Comparator<Task> byName = Comparator.comparing(Task::getName);
+        for (int i = 0; i < 500; i++) {
+            TaskQuery query = TaskQuery.all();
+            if (random.nextBoolean()) {
+                query = query.inUnit("U" + random.nextInt(5));
+            }
+            if (random.nextBoolean()) {
+                query = query.withGrade(grades[random.nextInt(grades.length)]);
+            }
+            if (random.nextBoolean()) {
+                query = query.withStatus(statuses[random.nextInt(statuses.length)]);
+            }
+            if (random.nextInt(3) == 0) {
+                query = query.withIdPrefix("U" + random.nextInt(4) + "-" + random.nextInt(10));
+            }
+            if (random.nextInt(3) == 0) {
+                query = query.withNamePrefix("Task " + (char) ('A' + random.nextInt(5)));
+            }
+            Comparator<Task> order = random.nextBoolean() ? TaskQuery.BY_ID : byName.thenComparing(Task::getId);
+            query = query.orderBy(order);
+            if (random.nextBoolean()) {
+                query = query.limit(1 + random.nextInt(20));
+            }
+            TaskQuery expectedQuery = query;
+            List<Task> expected = allTasks.stream()
+                    .filter(task -> expectedQuery.getUnitId() == null || task.getUnit().getId().equals(expectedQuery.getUnitId()))
+                    .filter(task -> expectedQuery.getGrade() == null || task.getGrade() == expectedQuery.getGrade())
+                    .filter(task -> expectedQuery.getStatus() == null || task.getStatus() == expectedQuery.getStatus())
+                    .filter(task -> expectedQuery.getIdPrefix() == null || task.getId().startsWith(expectedQuery.getIdPrefix()))
+                    .filter(task -> expectedQuery.getNamePrefix() == null || task.getName().startsWith(expectedQuery.getNamePrefix()))
+                    .sorted(order)
+                    .limit(query.getLimit() == 0 ? Long.MAX_VALUE : query.getLimit())
+                    .collect(Collectors.toList());
+            assertEquals(expected, queryService.queryTasks(query), "Query " + i + " should match, planned as " + queryService.explainQuery(query));
+        }
+    }
 }
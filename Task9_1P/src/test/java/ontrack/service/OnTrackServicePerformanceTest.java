@@ -130,6 +130,27 @@ public class OnTrackServicePerformanceTest {
         assertEquals(LARGE_MESSAGE_COUNT + 5, messages.size(), "Should retrieve all messages for the task");
     }
 
+    /**
+     * Test the performance of getLatestChatMessages function.
+     * Right-BICEP: P - Performance characteristics
+     */
+    @Test
+    public void testGetLatestChatMessagesPerformance() {
+        // Measure the time it takes to get the latest page of a task with a large number of messages
+        Instant start = Instant.now();
+        List<ChatMessage> messages = service.getLatestChatMessages("T0", 20);
+        Instant end = Instant.now();
+        
+        // Calculate the duration
+        Duration duration = Duration.between(start, end);
+        
+        // Check if the operation completed within a reasonable time (e.g., 100 milliseconds)
+        assertTrue(duration.toMillis() < 100, "Getting the latest chat messages for a task should complete within 100 milliseconds, took: " + duration.toMillis() + "ms");
+        
+        // Check if only the requested page was retrieved
+        assertEquals(20, messages.size(), "Should retrieve one page of messages");
+    }
+
     /**
      * Test the performance of submitUnitPortfolio function.
      * Right-BICEP: P - Performance characteristics
@@ -155,4 +176,45 @@ public class OnTrackServicePerformanceTest {
         // Check if the operation was successful
         assertTrue(result, "Should successfully submit the portfolio");
     }
+
+    /**
+     * Test the performance of searchUnitChatMessages function.
+     * Right-BICEP: P - Performance characteristics
+     */
+    @Test
+    public void testSearchUnitChatMessagesPerformance() {
+        // Measure the time it takes to find the newest messages mentioning a word used by every message
+        Instant start = Instant.now();
+        List<ChatMessage> messages = service.searchUnitChatMessages(unit.getId(), "message", 20);
+        Instant end = Instant.now();
+        Duration duration = Duration.between(start, end);
+
+        assertTrue(duration.toMillis() < 100, "Searching chat messages should complete within 100 milliseconds, took: " + duration.toMillis() + "ms");
+        assertEquals(20, messages.size(), "Should retrieve one page of matches");
+    }
+
+    /**
+     * Performance test for addChatMessagesIfAbsent.
+     * Checks that the Bloom filter rules out nearly every new message, so few need an exact check.
+     * Right-BICEP: P - Performance characteristics
+     */
+    @Test
+    public void testDeduplicationFalsePositiveRate() {
+        OnTrackService ingestService = new OnTrackService();
+        Unit unit = new Unit("SIT707", "Software Quality and Testing");
+        ingestService.addUnit(unit);
+        ingestService.addTask(new Task("T1", "Task 1", "", unit, "P"));
+        List<ChatMessage> batch = new ArrayList<>();
+        for (int m = 0; m < 200_000; m++) {
+            batch.add(new ChatMessage("MSG-" + m, "T1", "Student", "Message " + m));
+            if (batch.size() == 10_000) {
+                ingestService.addChatMessagesIfAbsent(batch);
+                batch.clear();
+            }
+        }
+
+        DeduplicationStats stats = ingestService.getDeduplicationStats();
+        assertEquals(0, stats.getDuplicates(), "No message should be taken for a duplicate");
+        assertTrue(stats.getFalsePositiveRate() < 0.03, "The false-positive rate should stay near 1%, was: " + stats.getFalsePositiveRate());
+    }
 }
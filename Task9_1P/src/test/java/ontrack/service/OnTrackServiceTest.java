@@ -1,14 +1,22 @@
 package ontrack.service;
 
 import ontrack.model.ChatMessage;
+import ontrack.model.Grade;
 import ontrack.model.Status;
 import ontrack.model.Task;
 import ontrack.model.Unit;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -140,6 +148,75 @@ public class OnTrackServiceTest {
         assertTrue(hdTasks.contains(task1), "Should contain task1");
     }
     
+    /**
+     * Test for getTasksByUnitByTargetGrade function after a task is re-added under another unit.
+     * Tests that the unit index drops the task from its previous unit.
+     * Right-BICEP: I - Inverse relationships
+     */
+    @Test
+    public void testGetTasksByUnitByTargetGradeTaskMovedToAnotherUnit() {
+        // Re-add task1's ID under unit2
+        Task movedTask = new Task("T1", "Task 1", "Description for Task 1", unit2, "HD");
+        service.addTask(movedTask);
+        
+        // Check that the task is no longer listed under unit1
+        assertTrue(service.getTasksByUnitByTargetGrade(unit1.getId(), "HD").isEmpty(), "unit1 should no longer have an HD task");
+        
+        // Check that the task is now listed under unit2
+        List<Task> unit2Tasks = service.getTasksByUnitByTargetGrade(unit2.getId(), "HD");
+        assertEquals(2, unit2Tasks.size(), "unit2 should have 2 HD tasks");
+        assertTrue(unit2Tasks.contains(movedTask), "Should contain the moved task");
+    }
+    
+    /**
+     * Test for getTasksByUnitByTargetGrade function after a task's target grade is changed on the model.
+     * Tests that the grade index follows Task.setTargetGrade.
+     * Right-BICEP: I - Inverse relationships
+     */
+    @Test
+    public void testGetTasksByUnitByTargetGradeAfterSetTargetGrade() {
+        // Change task2's target grade from "D" to "hd" directly on the task
+        task2.setTargetGrade("hd");
+        
+        // Check that the task moved out of the "D" bucket
+        assertTrue(service.getTasksByUnitByTargetGrade(unit1.getId(), "D").isEmpty(), "Should return no D tasks");
+        
+        // Check that the task is now returned for "HD"
+        List<Task> hdTasks = service.getTasksByUnitByTargetGrade(unit1.getId(), "HD");
+        assertEquals(2, hdTasks.size(), "Should return 2 HD tasks");
+        assertTrue(hdTasks.contains(task2), "Should contain task2");
+    }
+    
+    /**
+     * Test for getTasksByUnitByGrade function.
+     * Cross-checks the Grade query against the String adapter, which accepts codes and names.
+     * Right-BICEP: C - Cross-check results
+     */
+    @Test
+    public void testGetTasksByUnitByGradeMatchesStringQuery() {
+        List<Task> hdTasks = service.getTasksByUnitByGrade(unit1.getId(), Grade.HIGH_DISTINCTION);
+        assertEquals(service.getTasksByUnitByTargetGrade(unit1.getId(), "HD"), hdTasks, "Grade and code queries should match");
+        assertEquals(service.getTasksByUnitByTargetGrade(unit1.getId(), "High Distinction"), hdTasks, "Grade and name queries should match");
+        assertEquals(Grade.HIGH_DISTINCTION, task1.getGrade(), "Task grade should be parsed from its code");
+        assertEquals("HD", task1.getTargetGrade(), "Task target grade should be reported as its code");
+    }
+    
+    /**
+     * Test for Task target grades that are not a known grade.
+     * Right-BICEP: E - Error conditions
+     */
+    @Test
+    public void testUnknownTaskTargetGrade() {
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> {
+            new Task("T9", "Task 9", "Description for Task 9", unit1, "A+");
+        });
+        assertEquals("Unknown target grade: A+", exception.getMessage());
+        
+        exception = assertThrows(IllegalArgumentException.class, () -> task2.setTargetGrade("A+"));
+        assertEquals("Unknown target grade: A+", exception.getMessage());
+        assertEquals(Grade.DISTINCTION, task2.getGrade(), "A rejected grade should leave the task unchanged");
+    }
+    
     /**
      * Test for getTasksByUnitByTargetGrade function with non-existent unit.
      * Tests the boundary condition of a non-existent unit.
@@ -227,6 +304,46 @@ public class OnTrackServiceTest {
         }
     }
     
+    /**
+     * Test for getAllUnits function across changes.
+     * Tests that callers share one snapshot until a unit is added, and that snapshots never change.
+     * Right-BICEP: I - Inverse relationships
+     */
+    @Test
+    public void testGetAllUnitsSnapshotIsSharedUntilChanged() {
+        List<Unit> first = service.getAllUnits();
+        assertSame(first, service.getAllUnits(), "Unchanged units should return the same snapshot");
+        assertThrows(UnsupportedOperationException.class, () -> first.add(unit1), "Snapshot should be unmodifiable");
+        
+        Unit unit3 = new Unit("SIT753", "Professional Practice in IT");
+        service.addUnit(unit3);
+        List<Unit> second = service.getAllUnits();
+        
+        assertNotSame(first, second, "Adding a unit should build a new snapshot");
+        assertEquals(2, first.size(), "An earlier snapshot should not change");
+        assertTrue(second.contains(unit3), "The new snapshot should contain the added unit");
+    }
+    
+    /**
+     * Test for getChatMessagesByTask function across changes.
+     * Tests that callers share one list until a message is added to the task.
+     * Right-BICEP: I - Inverse relationships
+     */
+    @Test
+    public void testGetChatMessagesByTaskSnapshotIsSharedUntilChanged() {
+        List<ChatMessage> first = service.getChatMessagesByTask("T1");
+        assertSame(first, service.getChatMessagesByTask("T1"), "Unchanged messages should return the same list");
+        assertThrows(UnsupportedOperationException.class, () -> first.remove(0), "List should be unmodifiable");
+        
+        service.addChatMessage(new ChatMessage("M3", "T1", "Student", "Thanks!"));
+        List<ChatMessage> second = service.getChatMessagesByTask("T1");
+        
+        assertEquals(2, first.size(), "An earlier list should not change");
+        assertEquals(3, second.size(), "The new list should contain the added message");
+        assertSame(service.getChatMessagesByTask("T2"), service.getChatMessagesByTask("NON_EXISTENT"),
+                "Empty results should share one list");
+    }
+    
     /**
      * Test for getChatMessagesByTask function with a task that has no messages.
      * Tests the boundary condition of a task with no messages.
@@ -283,6 +400,214 @@ public class OnTrackServiceTest {
         assertEquals("Task ID cannot be null or empty.", exception.getMessage());
     }
     
+    /**
+     * Test for paging through chat messages with a cursor.
+     * Tests that consecutive pages cover the history in timestamp order without gaps or repeats.
+     * Right-BICEP: Right - Are the results right?
+     */
+    @Test
+    public void testChatMessagePaging() {
+        // Add messages for task2 out of timestamp order
+        LocalDateTime base = LocalDateTime.of(2024, 3, 1, 9, 0);
+        for (int i = 4; i >= 0; i--) {
+            service.addChatMessage(new ChatMessage("P" + i, "T2", "Student", "Message " + i, base.plusMinutes(i)));
+        }
+        
+        // The latest page holds the newest messages, oldest first
+        List<ChatMessage> latest = service.getLatestChatMessages("T2", 2);
+        assertEquals("P3", latest.get(0).getId(), "Latest page should start with P3");
+        assertEquals("P4", latest.get(1).getId(), "Latest page should end with P4");
+        
+        // Paging backwards from the latest page returns the earlier messages
+        List<ChatMessage> earlier = service.getChatMessagesBefore("T2", ChatCursor.at(latest.get(0)), 2);
+        assertEquals("P1", earlier.get(0).getId(), "Earlier page should start with P1");
+        assertEquals("P2", earlier.get(1).getId(), "Earlier page should end with P2");
+        
+        // Paging forwards from the first message returns the rest in order
+        List<ChatMessage> first = service.getChatMessagesAfter("T2", new ChatCursor(base.minusMinutes(1), "P0"), 1);
+        assertEquals("P0", first.get(0).getId(), "First page should hold P0");
+        List<ChatMessage> rest = service.getChatMessagesAfter("T2", ChatCursor.at(first.get(0)), 10);
+        assertEquals(4, rest.size(), "Should return the 4 remaining messages");
+        assertEquals("P1", rest.get(0).getId(), "Next page should start with P1");
+        assertEquals("P4", rest.get(3).getId(), "Next page should end with P4");
+    }
+
+    /**
+     * Test for paging with the largest valid limit.
+     * A page that starts past the first message must not overflow its end index.
+     * Right-BICEP: B - Boundary conditions
+     */
+    @Test
+    public void testChatMessagePagingWithMaximumLimit() {
+        LocalDateTime base = LocalDateTime.of(2024, 3, 1, 9, 0);
+        for (int i = 0; i < 5; i++) {
+            service.addChatMessage(new ChatMessage("P" + i, "T2", "Student", "Message " + i, base.plusMinutes(i)));
+        }
+        ChatCursor cursor = new ChatCursor(base.plusMinutes(1), "P1");
+        assertEquals(3, service.getChatMessagesAfter("T2", cursor, Integer.MAX_VALUE).size(), "Should return every later message");
+        assertEquals(1, service.getChatMessagesBefore("T2", cursor, Integer.MAX_VALUE).size(), "Should return every earlier message");
+        assertEquals(5, service.getLatestChatMessages("T2", Integer.MAX_VALUE).size(), "Should return every message");
+    }
+    
+    /**
+     * Test for retrieving chat messages within a time range.
+     * Tests that the range includes its start and excludes its end.
+     * Right-BICEP: B - Boundary conditions
+     */
+    @Test
+    public void testGetChatMessagesBetween() {
+        LocalDateTime base = LocalDateTime.of(2024, 3, 1, 9, 0);
+        for (int i = 0; i < 5; i++) {
+            service.addChatMessage(new ChatMessage("R" + i, "T2", "Tutor", "Message " + i, base.plusMinutes(i)));
+        }
+        
+        // [09:01, 09:03) holds R1 and R2 only
+        List<ChatMessage> messages = service.getChatMessagesBetween("T2", base.plusMinutes(1), base.plusMinutes(3));
+        assertEquals(2, messages.size(), "Should return 2 messages");
+        assertEquals("R1", messages.get(0).getId(), "Range should start with R1");
+        assertEquals("R2", messages.get(1).getId(), "Range should end with R2");
+        
+        // An empty range returns no messages
+        assertTrue(service.getChatMessagesBetween("T2", base, base).isEmpty(), "Should return an empty list for an empty range");
+    }
+    
+    /**
+     * Test for chat message paging with invalid arguments.
+     * Tests error conditions.
+     * Right-BICEP: E - Error conditions
+     */
+    @Test
+    public void testChatMessagePagingInvalidArguments() {
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> {
+            service.getLatestChatMessages("T1", 0);
+        });
+        assertEquals("Limit must be positive.", exception.getMessage());
+        
+        exception = assertThrows(IllegalArgumentException.class, () -> {
+            service.getChatMessagesAfter("T1", null, 10);
+        });
+        assertEquals("Cursor cannot be null.", exception.getMessage());
+        
+        LocalDateTime now = LocalDateTime.now();
+        exception = assertThrows(IllegalArgumentException.class, () -> {
+            service.getChatMessagesBetween("T1", now, now.minusMinutes(1));
+        });
+        assertEquals("Time range start cannot be after its end.", exception.getMessage());
+    }
+    
+    /**
+     * Test for addTasks function.
+     * Tests that a batch of tasks is added and indexed like single adds.
+     * Right-BICEP: Right - Are the results right?
+     */
+    @Test
+    public void testAddTasksBatch() {
+        Unit unit3 = new Unit("SIT753", "Professional Practice in IT");
+        service.addUnits(Arrays.asList(unit3));
+        Task task4 = new Task("T4", "Task 4", "Description for Task 4", unit3, "P");
+        Task task5 = new Task("T5", "Task 5", "Description for Task 5", unit1, "HD");
+        // T3 moves from unit2 to unit3
+        Task movedTask3 = new Task("T3", "Task 3", "Description for Task 3", unit3, "P");
+        
+        service.addTasks(Arrays.asList(task4, task5, movedTask3));
+        
+        assertSame(task4, service.getTaskById("T4"), "Batch task should be added");
+        assertEquals(Arrays.asList(task1, task5), service.getTasksByUnitByTargetGrade(unit1.getId(), "HD"),
+                "Batch task should be indexed after existing tasks");
+        assertEquals(Arrays.asList(task4, movedTask3), service.getTasksByUnitByTargetGrade(unit3.getId(), "P"),
+                "Batch tasks should keep their order");
+        assertTrue(service.getTasksByUnitByTargetGrade(unit2.getId(), "HD").isEmpty(), "Moved task should leave its old unit");
+        
+        // Changes on the model are still tracked
+        task5.setTargetGrade("D");
+        assertEquals(Arrays.asList(task2, task5), service.getTasksByUnitByTargetGrade(unit1.getId(), "D"),
+                "Batch task should follow its grade changes");
+    }
+    
+    /**
+     * Test for addTasks function with bad rows.
+     * Tests that every bad row is reported and nothing is added.
+     * Right-BICEP: E - Error conditions
+     */
+    @Test
+    public void testAddTasksBatchRejectsBadRows() {
+        Unit missingUnit = new Unit("NON_EXISTENT", "Missing Unit");
+        List<Task> batch = Arrays.asList(
+                new Task("T4", "Task 4", "Description for Task 4", unit1, "P"),
+                null,
+                new Task("T5", "Task 5", "Description for Task 5", missingUnit, "P"),
+                new Task("T4", "Task 4", "Description for Task 4", unit2, "C"));
+        
+        BatchValidationException exception = assertThrows(BatchValidationException.class, () -> {
+            service.addTasks(batch, true);
+        });
+        
+        assertEquals(3, exception.getRowErrors().size(), "Every bad row should be reported");
+        assertEquals("Task cannot be null.", exception.getRowErrors().get(1));
+        assertEquals("Task belongs to a non-existent unit: NON_EXISTENT", exception.getRowErrors().get(2));
+        assertEquals("Duplicate task ID in batch: T4", exception.getRowErrors().get(3));
+        assertNull(service.getTaskById("T4"), "Nothing from a rejected batch should be added");
+        assertEquals(1, service.getTasksByUnitByTargetGrade(unit1.getId(), "HD").size(), "Index should be unchanged");
+        
+        exception = assertThrows(BatchValidationException.class, () -> service.addUnits(Arrays.asList(missingUnit, null)));
+        assertEquals("Batch rejected: 1 bad row. Row 1: Unit cannot be null.", exception.getMessage());
+        assertNull(service.getUnitById("NON_EXISTENT"), "Nothing from a rejected batch should be added");
+    }
+    
+    /**
+     * Test for addChatMessages function.
+     * Cross-checks a batch, including out-of-order timestamps, against single adds.
+     * Right-BICEP: C - Cross-check results
+     */
+    @Test
+    public void testAddChatMessagesBatchMatchesSingleAdds() {
+        OnTrackService singleService = new OnTrackService();
+        singleService.addUnit(unit1);
+        singleService.addTask(task1);
+        singleService.addTask(task2);
+        
+        LocalDateTime base = LocalDateTime.of(2024, 3, 1, 9, 0);
+        List<ChatMessage> batch = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            batch.add(new ChatMessage("B" + i, i % 3 == 0 ? "T2" : "T1", "Student", "Message " + i, base.plusSeconds((i * 37) % 50)));
+        }
+        OnTrackService batchService = new OnTrackService();
+        batchService.addUnit(unit1);
+        batchService.addTask(task1);
+        batchService.addTask(task2);
+        batchService.addChatMessages(batch, true);
+        for (ChatMessage message : batch) {
+            singleService.addChatMessage(message);
+        }
+        
+        assertEquals(singleService.getChatMessagesByTask("T1"), batchService.getChatMessagesByTask("T1"),
+                "Batch messages should be ordered like single adds");
+        assertEquals(singleService.getChatMessagesByTask("T2"), batchService.getChatMessagesByTask("T2"),
+                "Batch messages should be grouped by task");
+    }
+    
+    /**
+     * Test for addChatMessages function with bad rows.
+     * Right-BICEP: E - Error conditions
+     */
+    @Test
+    public void testAddChatMessagesBatchRejectsBadRows() {
+        List<ChatMessage> batch = Arrays.asList(
+                new ChatMessage("M3", "NON_EXISTENT", "Student", "Lost"),
+                new ChatMessage("M4", "T1", "Student", "Fine"),
+                null);
+        
+        BatchValidationException exception = assertThrows(BatchValidationException.class, () -> {
+            service.addChatMessages(batch);
+        });
+        
+        assertEquals("ChatMessage refers to a non-existent task: NON_EXISTENT", exception.getRowErrors().get(0));
+        assertEquals("ChatMessage cannot be null.", exception.getRowErrors().get(2));
+        assertEquals(2, service.getChatMessagesByTask("T1").size(), "Nothing from a rejected batch should be added");
+        
+        assertThrows(IllegalArgumentException.class, () -> service.addChatMessages(null), "Batch cannot be null");
+    }
+    
     /**
      * Test for chooseUnitTargetGrade function.
      * Tests if the function correctly sets the target grade for a unit.
@@ -366,6 +691,24 @@ public class OnTrackServiceTest {
         assertEquals("Target grade cannot be null or empty.", exception.getMessage());
     }
     
+    /**
+     * Test for chooseUnitTargetGrade function with a grade that is not a known grade.
+     * Right-BICEP: E - Error conditions
+     */
+    @Test
+    public void testChooseUnitTargetGradeUnknownGrade() {
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> {
+            service.chooseUnitTargetGrade(unit1.getId(), "A+");
+        });
+        assertEquals("Unknown target grade: A+", exception.getMessage());
+        assertNull(service.getUnitGrade(unit1.getId()), "Target grade should not be set");
+        
+        // Grades are parsed case-insensitively
+        assertTrue(service.chooseUnitTargetGrade(unit1.getId(), "credit"), "Should accept a grade name");
+        assertEquals(Grade.CREDIT, service.getUnitGrade(unit1.getId()), "Target grade should be CREDIT");
+        assertEquals("C", service.getUnitTargetGrade(unit1.getId()), "Target grade should be reported as its code");
+    }
+    
     /**
      * Test for getUnitTargetGrade function.
      * Tests if the function correctly returns the target grade for a unit.
@@ -535,6 +878,23 @@ public class OnTrackServiceTest {
         assertTrue(result, "Should return true when all tasks are ready for feedback");
     }
     
+    /**
+     * Test for submitUnitPortfolio function when statuses are changed directly on the tasks.
+     * Tests that the readiness counters follow Task.setStatus as well as changeTaskStatus.
+     * Right-BICEP: C - Cross-check results
+     */
+    @Test
+    public void testSubmitUnitPortfolioAfterDirectStatusChange() {
+        // Set all tasks for unit1 to READY_FOR_FEEDBACK on the model objects
+        task1.setStatus(Status.READY_FOR_FEEDBACK);
+        task2.setStatus(Status.READY_FOR_FEEDBACK);
+        assertTrue(service.submitUnitPortfolio(unit1.getId()), "Should return true when all tasks are ready for feedback");
+        
+        // Adding a new task that is not ready should block submission again
+        service.addTask(new Task("T4", "Task 4", "Description for Task 4", unit1, "P"));
+        assertFalse(service.submitUnitPortfolio(unit1.getId()), "Should return false after adding a task that is not ready");
+    }
+    
     /**
      * Test for submitUnitPortfolio function with a non-existent unit.
      * Tests the boundary condition of a non-existent unit.
@@ -634,4 +994,494 @@ public class OnTrackServiceTest {
         result = service.submitUnitPortfolio(unit1.getId());
         assertFalse(result, "Should return false after changing a task status from READY_FOR_FEEDBACK");
     }
+
+    /**
+     * Test for getStatusHistogram function.
+     * Tests if the counts follow tasks as they are added and change status and grade.
+     * Right-BICEP: Right - Are the results right?
+     */
+    @Test
+    public void testGetStatusHistogram() {
+        service.changeTaskStatus(task1.getId(), Status.NEED_HELP);
+        service.addTask(new Task("T4", "Task 4", null, unit1, (Grade) null));
+
+        StatusHistogram histogram = service.getStatusHistogram(unit1.getId());
+        assertEquals(3, histogram.getTotal(), "Histogram should count every task of the unit");
+        assertEquals(2, histogram.getCount(Status.NOT_STARTED), "Histogram should count tasks by status");
+        assertEquals(1, histogram.getCount(Grade.HIGH_DISTINCTION, Status.NEED_HELP), "Histogram should count tasks by grade and status");
+        assertEquals(1, histogram.getCount(null, Status.NOT_STARTED), "Histogram should count tasks without a grade");
+
+        task1.setTargetGrade("P");
+        service.changeTaskStatus(task1.getId(), Status.READY_FOR_FEEDBACK);
+        histogram = service.getStatusHistogram(unit1.getId());
+        assertEquals(0, histogram.getCount(Grade.HIGH_DISTINCTION, Status.NEED_HELP), "A task should leave its old slot");
+        assertEquals(1, histogram.getCount(Grade.PASS, Status.READY_FOR_FEEDBACK), "A task should move to its new slot");
+        assertEquals(3, histogram.getTotal(), "Changes should not alter the total");
+    }
+
+    /**
+     * Test for the grade-filtered getStatusHistogram function and getStatusHistograms.
+     * Right-BICEP: Right - Are the results right?
+     */
+    @Test
+    public void testGetStatusHistogramByGradeAndAllUnits() {
+        service.changeTaskStatus(task3.getId(), Status.WORKING_ON_IT);
+
+        assertEquals(Integer.valueOf(1), service.getStatusHistogram(unit2.getId(), Grade.HIGH_DISTINCTION).get(Status.WORKING_ON_IT),
+                "Grade histogram should count matching tasks");
+        assertEquals(Integer.valueOf(0), service.getStatusHistogram(unit2.getId(), Grade.PASS).get(Status.WORKING_ON_IT),
+                "Grade histogram should hold zero for other grades");
+        assertEquals(2, service.getStatusHistograms().size(), "There should be a histogram for every unit");
+        assertEquals(1, service.getStatusHistograms().get(unit2.getId()).getCount(Status.WORKING_ON_IT),
+                "Each unit's histogram should match its own query");
+    }
+
+    /**
+     * Test for getStatusHistogram function with a unit that has no tasks and an invalid unit ID.
+     * Right-BICEP: B - Boundary conditions, E - Error conditions
+     */
+    @Test
+    public void testGetStatusHistogramBoundaries() {
+        assertEquals(0, service.getStatusHistogram("NON_EXISTENT").getTotal(), "A non-existent unit should have an empty histogram");
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> service.getStatusHistogram(""));
+        assertEquals("Unit ID cannot be null or empty.", exception.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> service.getStatusHistogram(unit1.getId()).getCount(null),
+                "A null status should be rejected");
+    }
+
+    /**
+     * Test for searchUnitChatMessages function.
+     * Tests keyword, phrase and unit-scoped matching, newest first.
+     * Right-BICEP: Right - Are the results right?
+     */
+    @Test
+    public void testSearchUnitChatMessages() {
+        LocalDateTime time = LocalDateTime.of(2024, 3, 1, 9, 0);
+        service.addChatMessage(new ChatMessage("S1", "T2", "Student", "My JUnit test is flaky.", time));
+        service.addChatMessage(new ChatMessage("S2", "T1", "Tutor", "Flaky tests often share state; is your test flaky?", time.plusMinutes(5)));
+        service.addChatMessage(new ChatMessage("S3", "T3", "Student", "This unit test is flaky too", time.plusMinutes(10)));
+
+        List<ChatMessage> results = service.searchUnitChatMessages(unit1.getId(), "FLAKY", 10);
+        assertEquals(2, results.size(), "Search should only match messages in the unit, ignoring case");
+        assertEquals("S2", results.get(0).getId(), "Results should be newest first");
+
+        assertEquals("S1", service.searchUnitChatMessages(unit1.getId(), "junit flaky", 10).get(0).getId(),
+                "Every keyword should have to match");
+        assertEquals(1, service.searchUnitChatMessages(unit1.getId(), "\"test is flaky\"", 10).size(),
+                "A phrase should match its words in order");
+        assertEquals(1, service.searchUnitChatMessages(unit1.getId(), "flaky", 1).size(), "Results should respect the limit");
+        assertTrue(service.searchUnitChatMessages(unit1.getId(), "mockito", 10).isEmpty(), "Unknown words should match nothing");
+    }
+
+    /**
+     * Test for searchTaskChatMessages function.
+     * Right-BICEP: Right - Are the results right?
+     */
+    @Test
+    public void testSearchTaskChatMessages() {
+        List<ChatMessage> results = service.searchTaskChatMessages(task1.getId(), "help", 10);
+        assertEquals(2, results.size(), "Search should match both messages of the task");
+        assertEquals("M1", service.searchTaskChatMessages(task1.getId(), "\"help with task\"", 10).get(0).getId(),
+                "A phrase should be matched within the task");
+        assertTrue(service.searchTaskChatMessages(task2.getId(), "help", 10).isEmpty(), "Other tasks' messages should not match");
+        assertTrue(service.searchTaskChatMessages("NON_EXISTENT", "help", 10).isEmpty(), "A non-existent task should match nothing");
+    }
+
+    /**
+     * Test for chat message search with invalid arguments.
+     * Right-BICEP: E - Error conditions, B - Boundary conditions
+     */
+    @Test
+    public void testSearchChatMessagesInvalidArguments() {
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> service.searchUnitChatMessages(unit1.getId(), " ", 10));
+        assertEquals("Query cannot be null or empty.", exception.getMessage());
+        exception = assertThrows(IllegalArgumentException.class, () -> service.searchUnitChatMessages(null, "help", 10));
+        assertEquals("Unit ID cannot be null or empty.", exception.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> service.searchTaskChatMessages(task1.getId(), "help", 0),
+                "A non-positive limit should be rejected");
+        assertTrue(service.searchUnitChatMessages(unit1.getId(), "?!", 10).isEmpty(), "A query without words should match nothing");
+    }
+
+    /**
+     * Test for changeTaskStatuses function.
+     * Tests that each task ID gets its own outcome and the unit counters reflect the whole batch.
+     * Right-BICEP: Right - Are the results right?
+     */
+    @Test
+    public void testChangeTaskStatuses() {
+        task2.setStatus(Status.NEED_HELP);
+
+        Map<String, StatusChangeOutcome> outcomes = service.changeTaskStatuses(
+                Arrays.asList("T1", "T2", "T3", "T99", "T1"), Status.NEED_HELP);
+
+        assertEquals(Arrays.asList("T1", "T2", "T3", "T99"), new ArrayList<>(outcomes.keySet()),
+                "Outcomes should follow the order of the distinct IDs");
+        assertEquals(StatusChangeOutcome.CHANGED, outcomes.get("T1"), "T1 should be changed");
+        assertEquals(StatusChangeOutcome.UNCHANGED, outcomes.get("T2"), "T2 already needed help");
+        assertEquals(StatusChangeOutcome.CHANGED, outcomes.get("T3"), "Tasks of several units can change in one batch");
+        assertEquals(StatusChangeOutcome.NOT_FOUND, outcomes.get("T99"), "An unknown task should be reported");
+        assertEquals(Status.NEED_HELP, task1.getStatus(), "T1 status should be updated");
+        assertEquals(2, service.getStatusHistogram(unit1.getId()).getCount(Status.NEED_HELP), "Unit 1 counters should reflect the batch");
+        assertEquals(1, service.getStatusHistogram(unit2.getId()).getCount(Status.NEED_HELP), "Unit 2 counters should reflect the batch");
+        assertTrue(service.changeTaskStatuses(Collections.emptyList(), Status.NEED_HELP).isEmpty(), "An empty batch should change nothing");
+    }
+
+    /**
+     * Test for changeUnitTaskStatuses function.
+     * Tests moving every task that needs help in a unit back to working on it.
+     * Right-BICEP: Right - Are the results right?
+     */
+    @Test
+    public void testChangeUnitTaskStatuses() {
+        task1.setStatus(Status.NEED_HELP);
+        task3.setStatus(Status.NEED_HELP);
+
+        Map<String, StatusChangeOutcome> outcomes = service.changeUnitTaskStatuses(unit1.getId(),
+                task -> task.getStatus() == Status.NEED_HELP, Status.WORKING_ON_IT);
+
+        assertEquals(1, outcomes.size(), "Only the matching task of the unit should be changed");
+        assertEquals(StatusChangeOutcome.CHANGED, outcomes.get("T1"), "T1 should be changed");
+        assertEquals(Status.WORKING_ON_IT, task1.getStatus(), "T1 status should be updated");
+        assertEquals(Status.NOT_STARTED, task2.getStatus(), "T2 didn't match the filter");
+        assertEquals(Status.NEED_HELP, task3.getStatus(), "Tasks of other units should be untouched");
+
+        // Inverse: moving everything to READY_FOR_FEEDBACK makes the portfolio submittable
+        service.changeUnitTaskStatuses(unit1.getId(), task -> true, Status.READY_FOR_FEEDBACK);
+        assertTrue(service.submitUnitPortfolio(unit1.getId()), "All tasks should be ready after the batch");
+        assertTrue(service.changeUnitTaskStatuses("UNKNOWN", task -> true, Status.NEED_HELP).isEmpty(),
+                "An unknown unit should have no outcomes");
+    }
+
+    /**
+     * Test for batch status change error conditions.
+     * Right-BICEP: E - Error conditions
+     */
+    @Test
+    public void testChangeTaskStatusesErrors() {
+        assertThrows(IllegalArgumentException.class, () -> service.changeTaskStatuses(null, Status.NEED_HELP),
+                "Null task IDs should be rejected");
+        assertThrows(IllegalArgumentException.class, () -> service.changeTaskStatuses(Arrays.asList("T1", " "), Status.NEED_HELP),
+                "An empty task ID should be rejected");
+        assertThrows(IllegalArgumentException.class, () -> service.changeTaskStatuses(Arrays.asList("T1"), null),
+                "A null status should be rejected");
+        assertThrows(IllegalArgumentException.class, () -> service.changeUnitTaskStatuses(unit1.getId(), null, Status.NEED_HELP),
+                "A null filter should be rejected");
+        assertEquals(Status.NOT_STARTED, task1.getStatus(), "A rejected batch should change nothing");
+    }
+
+    /**
+     * Test for getTasksNeedingHelp and claimTaskNeedingHelp functions.
+     * Tests that tasks are queued in the order they asked for help and claimed oldest first.
+     * Right-BICEP: Right - Are the results right?
+     */
+    @Test
+    public void testHelpQueue() {
+        service.changeTaskStatus(task2.getId(), Status.NEED_HELP);
+        service.changeTaskStatus(task1.getId(), Status.NEED_HELP);
+        service.changeTaskStatus(task3.getId(), Status.NEED_HELP);
+
+        List<HelpRequest> waiting = service.getTasksNeedingHelp(unit1.getId());
+        assertEquals(2, waiting.size(), "Only tasks of the unit should be queued");
+        assertEquals(task2, waiting.get(0).getTask(), "T2 asked first");
+        assertFalse(waiting.get(0).getSince().isAfter(waiting.get(1).getSince()), "Waiting times should be in order");
+
+        HelpRequest claimed = service.claimTaskNeedingHelp(unit1.getId());
+        assertEquals(task2, claimed.getTask(), "The longest waiting task should be claimed");
+        assertEquals(Status.WORKING_ON_IT, task2.getStatus(), "A claimed task should move to WORKING_ON_IT");
+
+        // Inverse: a task that stops needing help leaves the queue
+        task1.setStatus(Status.READY_FOR_FEEDBACK);
+        assertTrue(service.getTasksNeedingHelp(unit1.getId()).isEmpty(), "No task of the unit should need help");
+        assertNull(service.claimTaskNeedingHelp(unit1.getId()), "Nothing should be left to claim");
+        assertNull(service.claimTaskNeedingHelp("UNKNOWN"), "An unknown unit has nothing to claim");
+        assertThrows(IllegalArgumentException.class, () -> service.claimTaskNeedingHelp(""), "An empty unit ID should be rejected");
+    }
+
+    /**
+     * Test for getTasksNeedingHelp function.
+     * Tests that re-adding a task that still needs help keeps its place and waiting time in the queue.
+     * Right-BICEP: Right - Are the results right?
+     */
+    @Test
+    public void testHelpQueueKeepsPlaceOnReAdd() {
+        service.changeTaskStatus(task2.getId(), Status.NEED_HELP);
+        service.changeTaskStatus(task1.getId(), Status.NEED_HELP);
+        HelpRequest first = service.getTasksNeedingHelp(unit1.getId()).get(0);
+
+        service.addTask(task2);
+        Task replacement = new Task("T2", "Task 2 renamed", "Description for Task 2", unit1, "D");
+        replacement.setStatus(Status.NEED_HELP);
+        service.addTask(replacement);
+
+        List<HelpRequest> waiting = service.getTasksNeedingHelp(unit1.getId());
+        assertEquals(2, waiting.size(), "Each task should be queued once");
+        assertSame(replacement, waiting.get(0).getTask(), "The queue should hold the new task, still first");
+        assertEquals(first.getSince(), waiting.get(0).getSince(), "The waiting time should be kept");
+        assertEquals(task1, waiting.get(1).getTask(), "T1 should still be behind T2");
+
+        Task working = new Task("T2", "Task 2", "Description for Task 2", unit1, "D");
+        working.setStatus(Status.WORKING_ON_IT);
+        service.addTask(working);
+        assertEquals(Collections.singletonList(task1), service.getTasksNeedingHelp(unit1.getId()).stream()
+                .map(HelpRequest::getTask).collect(Collectors.toList()), "A task re-added with another status should leave the queue");
+    }
+
+    /**
+     * Test for getChatMessagesBySender and getLatestChatMessagesBySender functions.
+     * Tests that a sender's messages are found across tasks and units.
+     * Right-BICEP: Right - Are the results right?
+     */
+    @Test
+    public void testChatMessagesBySender() {
+        LocalDateTime monday = LocalDateTime.of(2024, 3, 4, 9, 0);
+        service.addChatMessage(new ChatMessage("M3", "T3", "Tutor Kim", "Cloud question answered", monday.plusDays(1)));
+        service.addChatMessage(new ChatMessage("M4", "T2", "Tutor Kim", "Please resubmit", monday));
+        service.addChatMessage(new ChatMessage("M5", "T2", "Tutor Kim", "Last week", monday.minusDays(3)));
+
+        List<ChatMessage> thisWeek = service.getChatMessagesBySender("Tutor Kim", monday, monday.plusWeeks(1), 10);
+        assertEquals(2, thisWeek.size(), "Only this week's messages should be returned");
+        assertEquals("M4", thisWeek.get(0).getId(), "Messages should be oldest first, across tasks");
+        assertEquals("M3", thisWeek.get(1).getId(), "Messages of other units should be included");
+        // The first match is not the sender's oldest message, so start + limit would overflow
+        assertEquals(thisWeek, service.getChatMessagesBySender("Tutor Kim", monday, monday.plusWeeks(1), Integer.MAX_VALUE),
+                "The largest limit should return the whole range");
+
+        List<ChatMessage> latest = service.getLatestChatMessagesBySender("Tutor Kim", 2);
+        assertEquals(2, latest.size(), "Latest should be limited");
+        assertEquals("M3", latest.get(1).getId(), "The newest message should be last");
+        assertTrue(service.getLatestChatMessagesBySender("Nobody", 5).isEmpty(), "An unknown sender has no messages");
+        assertThrows(IllegalArgumentException.class, () -> service.getLatestChatMessagesBySender(" ", 5),
+                "An empty sender should be rejected");
+        assertThrows(IllegalArgumentException.class,
+                () -> service.getChatMessagesBySender("Tutor Kim", monday.plusDays(1), monday, 5), "A reversed range should be rejected");
+    }
+
+    /**
+     * Test for addChatMessageIfAbsent and addChatMessagesIfAbsent functions.
+     * Tests that a retried message is rejected once and every other message is added.
+     * Right-BICEP: Right - Are the results right?
+     */
+    @Test
+    public void testAddChatMessageIfAbsent() {
+        ChatMessage message = new ChatMessage("M3", "T2", "Student", "Is this submitted?", LocalDateTime.of(2024, 3, 1, 9, 0));
+        assertTrue(service.addChatMessageIfAbsent(message), "A new message should be added");
+        assertFalse(service.addChatMessageIfAbsent(message), "A retried message should be rejected");
+        // A retry built again by the client may carry a new timestamp
+        assertFalse(service.addChatMessageIfAbsent(new ChatMessage("M1", "T1", "Student", "Hello, I need help with Task 1")),
+                "A message added by addChatMessage should be found too");
+        assertEquals(1, service.getChatMessagesByTask("T2").size(), "T2 should hold the message once");
+
+        ChatMessage message4 = new ChatMessage("M4", "T2", "Tutor", "Yes", LocalDateTime.of(2024, 3, 1, 9, 5));
+        List<ChatMessage> added = service.addChatMessagesIfAbsent(Arrays.asList(message, message4, message4));
+        assertEquals(Collections.singletonList(message4), added, "Only the new message should be added, once");
+        assertEquals(2, service.getChatMessagesByTask("T2").size(), "T2 should hold both messages once");
+
+        DeduplicationStats stats = service.getDeduplicationStats();
+        assertEquals(6, stats.getChecked(), "Every message offered should be checked");
+        assertEquals(4, stats.getDuplicates(), "Every duplicate should be counted");
+        assertEquals(stats.getPossibleDuplicates() - 4, stats.getFalsePositives(), "False positives are the hits that weren't duplicates");
+        assertThrows(IllegalArgumentException.class,
+                () -> service.addChatMessageIfAbsent(new ChatMessage("M9", "T99", "Student", "Hi")), "An unknown task should be rejected");
+    }
+
+    /**
+     * Test for addChatMessageIfAbsent function.
+     * Tests that message IDs with the same String hash code are told apart by the duplicate check.
+     * Right-BICEP: B - Boundary conditions
+     */
+    @Test
+    public void testDeduplicationOfCollidingHashCodes() {
+        // "Aa" and "BB" share a hash code, so every ID built from them has the same one
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            StringBuilder id = new StringBuilder();
+            for (int bit = 0; bit < 4; bit++) {
+                id.append((i >> bit & 1) == 0 ? "Aa" : "BB");
+            }
+            ids.add(id.toString());
+        }
+        for (String id : ids.subList(0, 8)) {
+            service.addChatMessage(new ChatMessage(id, "T2", "Student", "Hi"));
+        }
+        long before = service.getDeduplicationStats().getPossibleDuplicates();
+        for (String id : ids.subList(8, 16)) {
+            assertTrue(service.addChatMessageIfAbsent(new ChatMessage(id, "T2", "Student", "Hi")), "A new ID should be added");
+        }
+        assertEquals(before, service.getDeduplicationStats().getPossibleDuplicates(),
+                "IDs with a shared hash code should not be taken for each other");
+    }
+
+    /**
+     * Test for streamTasksByUnitByGrade, countTasksByUnitByGrade, existsTaskByUnitByGrade and the limited
+     * getTasksByUnitByGrade.
+     * Tests that lazy queries match the list query and that a stream keeps the tasks it was taken over.
+     * Right-BICEP: Right - Are the results right?
+     */
+    @Test
+    public void testLazyTaskQueries() {
+        Task task4 = new Task("T4", "Task 4", "Description for Task 4", unit1, "HD");
+        service.addTask(task4);
+
+        assertEquals(Arrays.asList(task1, task4),
+                service.streamTasksByUnitByGrade(unit1.getId(), Grade.HIGH_DISTINCTION).collect(Collectors.toList()),
+                "The stream should hold the HD tasks in order");
+        assertEquals(2, service.countTasksByUnitByGrade(unit1.getId(), Grade.HIGH_DISTINCTION), "Two HD tasks should be counted");
+        assertEquals(Collections.singletonList(task1), service.getTasksByUnitByGrade(unit1.getId(), Grade.HIGH_DISTINCTION, 1),
+                "Only the first task should be returned");
+        assertEquals(Arrays.asList(task1, task2, task4), service.streamTasksByUnit(unit1.getId()).collect(Collectors.toList()),
+                "Every task of the unit should be streamed");
+
+        task1.setStatus(Status.WORKING_ON_IT);
+        assertTrue(service.existsTaskByUnitByGrade(unit1.getId(), Grade.HIGH_DISTINCTION, task -> task.getStatus() == Status.WORKING_ON_IT),
+                "T1 is an HD task in progress");
+        assertFalse(service.existsTaskByUnitByGrade(unit1.getId(), Grade.DISTINCTION, task -> task.getStatus() == Status.WORKING_ON_IT),
+                "No D task is in progress");
+
+        // A stream runs over the tasks as of the call
+        Stream<Task> before = service.streamTasksByUnitByGrade(unit1.getId(), Grade.HIGH_DISTINCTION);
+        task4.setTargetGrade("P");
+        assertEquals(2, before.count(), "A stream taken earlier should not see the change");
+        assertEquals(Collections.singletonList(task1),
+                service.streamTasksByUnitByGrade(unit1.getId(), Grade.HIGH_DISTINCTION).collect(Collectors.toList()),
+                "A new stream should see the change");
+
+        assertEquals(0, service.streamTasksByUnitByGrade("UNKNOWN", Grade.PASS).count(), "An unknown unit has no tasks");
+        assertEquals(0, service.countTasksByUnitByGrade(unit2.getId(), Grade.CREDIT), "No task has grade C");
+        assertThrows(IllegalArgumentException.class, () -> service.getTasksByUnitByGrade(unit1.getId(), Grade.PASS, 0),
+                "A limit of zero should be rejected");
+        assertThrows(IllegalArgumentException.class, () -> service.existsTaskByUnitByGrade(unit1.getId(), Grade.PASS, null),
+                "A null filter should be rejected");
+        assertThrows(IllegalArgumentException.class, () -> service.streamTasksByUnitByGrade(unit1.getId(), null),
+                "A null grade should be rejected");
+    }
+
+    /**
+     * Test for queryTasks and explainQuery functions.
+     * Tests that a query is answered from the most selective index and filtered by the rest of its conditions.
+     * Right-BICEP: Right - Are the results right?
+     */
+    @Test
+    public void testQueryTasks() {
+        Task lab1 = new Task("SIT707-L1", "Lab 1", "", unit1, "HD");
+        Task lab2 = new Task("SIT707-L2", "Lab 2", "", unit1, "P");
+        service.addTask(lab2);
+        service.addTask(lab1);
+        service.changeTaskStatus(lab1.getId(), Status.NEED_HELP);
+        service.changeTaskStatus(task1.getId(), Status.NEED_HELP);
+
+        TaskQuery hdInUnit = TaskQuery.all().inUnit(unit1.getId()).withGrade(Grade.HIGH_DISTINCTION);
+        assertEquals(Arrays.asList(task1, lab1), service.queryTasks(hdInUnit), "HD tasks of the unit should be found in bucket order");
+        QueryPlan plan = service.explainQuery(hdInUnit.withNamePrefix("Lab"));
+        assertEquals(QueryIndex.UNIT_GRADE, plan.getIndex(), "The grade bucket is the smallest index");
+        assertEquals(2, plan.getEstimatedCandidates(), "The bucket holds two tasks");
+        assertEquals(Collections.singletonList("name starts with \"Lab\""), plan.getFilters(), "Only the name should be filtered");
+        assertEquals(Collections.singletonList(lab1), service.queryTasks(hdInUnit.withNamePrefix("Lab")), "Only Lab 1 is an HD lab");
+
+        TaskQuery labs = TaskQuery.all().withIdPrefix("SIT707-").orderBy(TaskQuery.BY_ID);
+        assertEquals(Arrays.asList(lab1, lab2), service.queryTasks(labs), "Labs should be found by ID prefix, in ID order");
+        assertEquals(QueryIndex.ID_PREFIX, service.explainQuery(labs).getIndex(), "The ID index holds only the labs");
+        assertFalse(service.explainQuery(labs).isSortNeeded(), "The ID index gives ID order without a sort");
+
+        TaskQuery needHelp = TaskQuery.all().inUnit(unit1.getId()).withStatus(Status.NEED_HELP);
+        assertEquals(QueryIndex.UNIT_HELP_QUEUE, service.explainQuery(needHelp).getIndex(), "The help queue answers NEED_HELP");
+        assertEquals(Arrays.asList(lab1, task1), service.queryTasks(needHelp), "Tasks should come longest waiting first");
+        assertEquals(Collections.singletonList(lab1), service.queryTasks(needHelp.orderBy(TaskQuery.BY_ID).limit(1)),
+                "The first task by ID should be returned");
+
+        assertEquals(Arrays.asList(task1, lab1, task3), service.queryTasks(TaskQuery.all().withGrade(Grade.HIGH_DISTINCTION)),
+                "HD tasks of every unit should be found, unit by unit");
+        assertTrue(service.explainQuery(TaskQuery.all().limit(3)).toString().startsWith("FULL_SCAN() ~5 candidates"),
+                "A query without conditions reads every task");
+        assertTrue(service.queryTasks(TaskQuery.all().inUnit("UNKNOWN")).isEmpty(), "An unknown unit has no tasks");
+        assertThrows(IllegalArgumentException.class, () -> service.queryTasks(null), "A null query should be rejected");
+        assertThrows(IllegalArgumentException.class, () -> TaskQuery.all().limit(0), "A limit of zero should be rejected");
+    }
+
+    /**
+     * Test for getTasksAtUnitTargetGrade function.
+     * Tests that the cached view follows the unit's grade choice, new tasks and target grade changes.
+     * Right-BICEP: Right - Are the results right?
+     */
+    @Test
+    public void testGetTasksAtUnitTargetGrade() {
+        assertTrue(service.getTasksAtUnitTargetGrade(unit1.getId()).isEmpty(), "No grade has been chosen yet");
+        service.chooseUnitGrade(unit1.getId(), Grade.HIGH_DISTINCTION);
+
+        List<Task> view = service.getTasksAtUnitTargetGrade(unit1.getId());
+        assertEquals(Collections.singletonList(task1), view, "Only T1 targets HD");
+        assertSame(view, service.getTasksAtUnitTargetGrade(unit1.getId()), "An unchanged view should be shared");
+        assertThrows(UnsupportedOperationException.class, () -> view.add(task2), "The view should be unmodifiable");
+
+        Task task4 = new Task("T4", "Task 4", "Description for Task 4", unit1, "HD");
+        service.addTask(task4);
+        assertEquals(Arrays.asList(task1, task4), service.getTasksAtUnitTargetGrade(unit1.getId()), "A new HD task should be included");
+        task2.setTargetGrade("HD");
+        assertEquals(Arrays.asList(task1, task4, task2), service.getTasksAtUnitTargetGrade(unit1.getId()),
+                "A task moved to HD should be included");
+        service.changeTaskStatus(task1.getId(), Status.WORKING_ON_IT);
+        assertEquals(Arrays.asList(task1, task4, task2), service.getTasksAtUnitTargetGrade(unit1.getId()),
+                "A status change should keep the order");
+
+        // Inverse: choosing another grade switches the view
+        service.chooseUnitGrade(unit1.getId(), Grade.DISTINCTION);
+        assertTrue(service.getTasksAtUnitTargetGrade(unit1.getId()).isEmpty(), "No task targets D any more");
+        assertTrue(service.getTasksAtUnitTargetGrade("UNKNOWN").isEmpty(), "An unknown unit has no tasks");
+        assertThrows(IllegalArgumentException.class, () -> service.getTasksAtUnitTargetGrade(" "), "An empty unit ID should be rejected");
+    }
+
+    /**
+     * Test for getStatusHistory and getTimeInStatus functions.
+     * Tests that every status change is recorded, however it is made, and that the history keeps only the latest entries.
+     * Right-BICEP: Right - Are the results right?
+     */
+    @Test
+    public void testStatusHistory() throws InterruptedException {
+        assertEquals(Collections.singletonList(Status.NOT_STARTED), statusesOf(service.getStatusHistory(task1.getId(), 10)),
+                "A new task's history should hold the status it was added with");
+
+        service.changeTaskStatus(task1.getId(), Status.WORKING_ON_IT);
+        Thread.sleep(20);
+        task1.setStatus(Status.NEED_HELP);
+        task1.setStatus(Status.NEED_HELP); // Not a transition
+        service.claimTaskNeedingHelp(unit1.getId());
+        assertEquals(Arrays.asList(Status.NOT_STARTED, Status.WORKING_ON_IT, Status.NEED_HELP, Status.WORKING_ON_IT),
+                statusesOf(service.getStatusHistory(task1.getId(), 10)), "Every transition should be recorded once");
+        assertEquals(Arrays.asList(Status.NEED_HELP, Status.WORKING_ON_IT), statusesOf(service.getStatusHistory(task1.getId(), 2)),
+                "Only the latest transitions should be returned");
+
+        Map<Status, Duration> timeInStatus = service.getTimeInStatus(task1.getId());
+        assertTrue(timeInStatus.get(Status.WORKING_ON_IT).toMillis() >= 20, "The first spell of work lasted at least 20 ms");
+        assertEquals(Duration.ZERO, timeInStatus.get(Status.READY_FOR_FEEDBACK), "T1 was never ready for feedback");
+
+        // Boundary: the history keeps a fixed number of entries
+        for (int i = 0; i < 40; i++) {
+            service.changeTaskStatuses(Collections.singletonList(task2.getId()), i % 2 == 0 ? Status.WORKING_ON_IT : Status.NEED_HELP);
+        }
+        List<StatusTransition> history = service.getStatusHistory(task2.getId(), 100);
+        assertEquals(16, history.size(), "Only the latest 16 transitions should be kept");
+        assertEquals(Status.NEED_HELP, history.get(history.size() - 1).getStatus(), "The last transition should be the current status");
+        assertTrue(service.getSpilledStatusHistory(task2.getId()).isEmpty(), "An in-memory service spills nothing");
+        assertTrue(service.getStatusHistory("UNKNOWN", 5).isEmpty(), "An unknown task has no history");
+        assertThrows(IllegalArgumentException.class, () -> service.getStatusHistory(task1.getId(), 0), "A limit of zero should be rejected");
+    }
+
+    /**
+     * Test that adding the same task object again, alone or in a batch, leaves it registered once.
+     * Right-BICEP: Boundary - Are boundary conditions handled correctly?
+     */
+    @Test
+    public void testReAddSameTask() {
+        service.addTask(task1);
+        service.addTasks(Collections.singletonList(task1));
+        service.changeTaskStatus(task1.getId(), Status.WORKING_ON_IT);
+
+        assertEquals(Arrays.asList(Status.NOT_STARTED, Status.WORKING_ON_IT), statusesOf(service.getStatusHistory(task1.getId(), 10)),
+                "The change should be recorded once");
+        assertEquals(1, service.getStatusHistogram(unit1.getId()).getCount(Status.WORKING_ON_IT), "The task should be counted once");
+        assertEquals(1, service.getTasksByUnitByTargetGrade(unit1.getId(), "HD").size(), "The task should be indexed once");
+    }
+
+    private static List<Status> statusesOf(List<StatusTransition> transitions) {
+        return transitions.stream().map(StatusTransition::getStatus).collect(Collectors.toList());
+    }
 }
@@ -0,0 +1,104 @@
+package ontrack.service;
+
+import ontrack.model.Status;
+import ontrack.model.Task;
+import ontrack.model.Unit;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark for recovering a durable OnTrackService.
+ * Writes 1M tasks from several threads (so group commit shares each fsync), then times a restart
+ * that replays the whole write-ahead log and a restart that loads a snapshot instead.
+ *
+ * Not part of the unit test run. Run with:
+ * mvn test-compile && java -cp target/classes:target/test-classes ontrack.service.RecoveryBenchmark
+ */
+public class RecoveryBenchmark {
+
+    private static final int TASKS = 1_000_000;
+    private static final int TASKS_PER_UNIT = 100;
+    private static final int WRITER_THREADS = 64;
+    private static final String[] GRADES = {"P", "C", "D", "HD"};
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("ontrack-recovery");
+        try {
+            long start = System.nanoTime();
+            try (OnTrackService service = OnTrackService.open(directory, Integer.MAX_VALUE)) {
+                populate(service);
+            }
+            report("write " + TASKS + " tasks", start);
+
+            start = System.nanoTime();
+            try (OnTrackService service = OnTrackService.open(directory, Integer.MAX_VALUE)) {
+                report("recover from log", start);
+                check(service);
+                start = System.nanoTime();
+                service.checkpoint();
+                report("write snapshot", start);
+            }
+
+            start = System.nanoTime();
+            try (OnTrackService service = OnTrackService.open(directory, Integer.MAX_VALUE)) {
+                report("recover from snapshot", start);
+                check(service);
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(RecoveryBenchmark::delete);
+            }
+        }
+    }
+
+    private static void populate(OnTrackService service) throws InterruptedException {
+        int unitCount = TASKS / TASKS_PER_UNIT;
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < WRITER_THREADS; w++) {
+            int writer = w;
+            Thread thread = new Thread(() -> {
+                for (int u = writer; u < unitCount; u += WRITER_THREADS) {
+                    Unit unit = new Unit("U" + u, "Unit " + u);
+                    service.addUnit(unit);
+                    for (int t = 0; t < TASKS_PER_UNIT; t++) {
+                        Task task = new Task("U" + u + "-T" + t, "Task " + t, "Description " + t, unit, GRADES[t % GRADES.length]);
+                        service.addTask(task);
+                        if (t % 2 == 0) {
+                            task.setStatus(Status.WORKING_ON_IT);
+                        }
+                    }
+                }
+            });
+            thread.start();
+            writers.add(thread);
+        }
+        for (Thread thread : writers) {
+            thread.join();
+        }
+    }
+
+    private static void check(OnTrackService service) {
+        Task task = service.getTaskById("U0-T0");
+        if (task == null || task.getStatus() != Status.WORKING_ON_IT) {
+            throw new IllegalStateException("Recovered state is wrong");
+        }
+    }
+
+    private static void report(String step, long start) {
+        System.out.printf("%-24s %8d ms%n", step, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.delete(file);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package ontrack.service;
+
+import ontrack.model.Status;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for StatusHistory, the bounded ring of status transitions kept for each task.
+ * Right-BICEP: C - Cross-check results
+ */
+public class StatusHistoryTest {
+
+    /**
+     * Test for StatusHistory against an unbounded list of every transition.
+     * The latest entries must match the list's tail, every evicted entry must be returned once in order,
+     * and the time in each status must cover evicted entries too.
+     * Right-BICEP: C - Cross-check results
+     */
+    @Test
+    public void testMatchesUnboundedList() {
+        Random random = new Random(24);
+        Status[] statuses = Status.values();
+        long time = 1_700_000_000_000L;
+        List<StatusTransition> all = new ArrayList<>();
+        all.add(new StatusTransition(time, Status.NOT_STARTED));
+        StatusHistory history = new StatusHistory(StatusHistory.pack(time, Status.NOT_STARTED));
+        List<StatusTransition> evicted = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            time += random.nextInt(60_000);
+            Status status = statuses[random.nextInt(statuses.length)];
+            all.add(new StatusTransition(time, status));
+            long entry = history.record(time, status);
+            if (entry != StatusHistory.NONE) {
+                evicted.add(new StatusTransition(StatusHistory.epochMilliOf(entry), StatusHistory.statusOf(entry)));
+            }
+            int limit = 1 + random.nextInt(StatusHistory.CAPACITY + 4);
+            int retained = Math.min(all.size(), StatusHistory.CAPACITY);
+            assertEquals(all.subList(all.size() - Math.min(limit, retained), all.size()), history.getLatest(limit),
+                    "Latest transitions should match after transition " + i);
+        }
+        assertEquals(all.subList(0, all.size() - StatusHistory.CAPACITY), evicted, "Every evicted transition should be returned in order");
+
+        long now = time + 5_000;
+        long[] expected = new long[statuses.length];
+        for (int i = 0; i < all.size(); i++) {
+            long until = i + 1 < all.size() ? all.get(i + 1).getEpochMilli() : now;
+            expected[all.get(i).getStatus().ordinal()] += until - all.get(i).getEpochMilli();
+        }
+        Map<Status, Duration> timeInStatus = history.getTimeInStatus(now);
+        for (Status status : statuses) {
+            assertEquals(Duration.ofMillis(expected[status.ordinal()]), timeInStatus.get(status), "Time should match for " + status);
+        }
+    }
+}
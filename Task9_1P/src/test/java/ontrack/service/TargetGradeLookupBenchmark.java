@@ -0,0 +1,72 @@
+package ontrack.service;
+
+import ontrack.model.Task;
+import ontrack.model.Unit;
+
+import java.util.List;
+
+/**
+ * Benchmark for getTasksByUnitByTargetGrade.
+ * Shows that a lookup for one unit and grade costs the same whether the service
+ * holds 1k or 1M tasks in total, because it is served from the (unit, grade) index.
+ * Lookups cycle over a fixed set of units so only the total task count varies between rows.
+ *
+ * Not part of the unit test run. Run with:
+ * mvn test-compile && java -cp target/classes:target/test-classes ontrack.service.TargetGradeLookupBenchmark
+ */
+public class TargetGradeLookupBenchmark {
+
+    private static final int TASKS_PER_UNIT = 100;
+    private static final int QUERIED_UNITS = 10;
+    private static final String[] GRADES = {"P", "C", "D", "HD"};
+    private static final int WARMUP_LOOKUPS = 200_000;
+    private static final int MEASURED_LOOKUPS = 1_000_000;
+
+    public static void main(String[] args) {
+        String[] queriedUnitIds = new String[QUERIED_UNITS];
+        for (int u = 0; u < QUERIED_UNITS; u++) {
+            queriedUnitIds[u] = "U" + u;
+        }
+
+        System.out.printf("%12s %12s %16s%n", "total tasks", "units", "ns per lookup");
+        for (int totalTasks = 1_000; totalTasks <= 1_000_000; totalTasks *= 10) {
+            OnTrackService service = createService(totalTasks);
+            int unitCount = totalTasks / TASKS_PER_UNIT;
+            long sink = 0;
+
+            // Warm up so the JIT has compiled the lookup path before measuring
+            for (int i = 0; i < WARMUP_LOOKUPS; i++) {
+                sink += lookup(service, queriedUnitIds, i).size();
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < MEASURED_LOOKUPS; i++) {
+                sink += lookup(service, queriedUnitIds, i).size();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf("%12d %12d %16.1f%n", totalTasks, unitCount, (double) elapsed / MEASURED_LOOKUPS);
+            if (sink == 0) {
+                throw new IllegalStateException("Lookups returned no tasks");
+            }
+        }
+    }
+
+    private static OnTrackService createService(int totalTasks) {
+        OnTrackService service = new OnTrackService();
+        int unitCount = totalTasks / TASKS_PER_UNIT;
+        for (int u = 0; u < unitCount; u++) {
+            Unit unit = new Unit("U" + u, "Unit " + u);
+            service.addUnit(unit);
+            for (int t = 0; t < TASKS_PER_UNIT; t++) {
+                String taskId = "U" + u + "_T" + t;
+                service.addTask(new Task(taskId, "Task " + t, "", unit, GRADES[t % GRADES.length]));
+            }
+        }
+        return service;
+    }
+
+    private static List<Task> lookup(OnTrackService service, String[] unitIds, int i) {
+        return service.getTasksByUnitByTargetGrade(unitIds[i % unitIds.length], GRADES[i % GRADES.length]);
+    }
+}